@@ -0,0 +1,155 @@
+package stankin.backend.catalog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import stankin.backend.model.App;
+import stankin.backend.repository.AppRowMapper;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Держит актуальный снапшот каталога приложений в памяти.
+ * <p>
+ * Полная загрузка выполняется при старте и периодически (чтобы увидеть удалённые строки
+ * и мутации без updated_at), между ними изменения подтягиваются опросом по updated_at.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AppCatalog {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final AtomicLong versions = new AtomicLong();
+    private final Object loadLock = new Object();
+
+    private volatile CatalogSnapshot snapshot;
+    private volatile LocalDateTime highWaterMark;
+
+    /**
+     * Текущий снапшот. Если каталог ещё не загружен, загружает его синхронно.
+     */
+    public CatalogSnapshot snapshot() {
+        CatalogSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            if (snapshot == null) {
+                reload();
+            }
+            return snapshot;
+        }
+    }
+
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        try {
+            synchronized (loadLock) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.warn("Catalog snapshot was not loaded on startup, will retry on demand: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.full-reload-interval-ms:3600000}",
+            initialDelayString = "${catalog.full-reload-interval-ms:3600000}")
+    public void scheduledReload() {
+        try {
+            synchronized (loadLock) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.warn("Catalog full reload failed: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.refresh-interval-ms:5000}")
+    public void refreshChanged() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            synchronized (loadLock) {
+                applyChanges();
+            }
+        } catch (Exception e) {
+            log.warn("Catalog incremental refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private void reload() {
+        long started = System.nanoTime();
+        List<App> apps = jdbcTemplate.query("SELECT * FROM rustore.apps", AppRowMapper.INSTANCE);
+        publish(CatalogSnapshot.of(versions.incrementAndGet(), latestPerId(apps)), null);
+        log.info("Catalog snapshot v{} loaded: {} apps in {} ms",
+                snapshot.version(), snapshot.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void applyChanges() {
+        LocalDateTime since = highWaterMark;
+        if (since == null) {
+            reload();
+            return;
+        }
+        // updated_at хранится с точностью до секунды, поэтому берём >= и отбрасываем неизменившиеся строки
+        List<App> rows = jdbcTemplate.query(
+                "SELECT * FROM rustore.apps WHERE updated_at >= ?",
+                AppRowMapper.INSTANCE, Timestamp.valueOf(since));
+
+        CatalogSnapshot current = snapshot;
+        List<App> changed = latestPerId(rows).stream()
+                .filter(app -> {
+                    int row = current.rowOf(app.getId());
+                    return row < 0 || !Objects.equals(current.toApp(row), app);
+                })
+                .toList();
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        Set<Integer> changedIds = changed.stream().map(App::getId).collect(Collectors.toUnmodifiableSet());
+        publish(current.withChanges(versions.incrementAndGet(), changed), changedIds);
+        log.debug("Catalog snapshot v{}: {} apps changed", snapshot.version(), changed.size());
+    }
+
+    private void publish(CatalogSnapshot next, Set<Integer> changedIds) {
+        snapshot = next;
+        highWaterMark = next.maxUpdatedAt();
+        eventPublisher.publishEvent(new CatalogChangedEvent(next, changedIds));
+    }
+
+    // В MergeTree одна и та же строка может оказаться в нескольких кусках до слияния
+    /**
+     * По одной, самой свежей по updated_at, строке на id (до слияния ReplacingMergeTree дубли возможны).
+     */
+    public static List<App> latestPerId(List<App> apps) {
+        Map<Integer, App> latest = new HashMap<>(apps.size());
+        for (App app : apps) {
+            latest.merge(app.getId(), app, (a, b) ->
+                    b.getUpdatedAt() != null && a.getUpdatedAt() != null
+                            && b.getUpdatedAt().isAfter(a.getUpdatedAt()) ? b : a);
+        }
+        return List.copyOf(latest.values());
+    }
+}
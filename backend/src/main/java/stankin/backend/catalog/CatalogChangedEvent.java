@@ -0,0 +1,15 @@
+package stankin.backend.catalog;
+
+import java.util.Set;
+
+/**
+ * Публикуется AppCatalog после того, как новый снапшот стал текущим.
+ *
+ * @param changedIds id изменившихся приложений или null, если снапшот перезагружен целиком
+ */
+public record CatalogChangedEvent(CatalogSnapshot snapshot, Set<Integer> changedIds) {
+
+    public boolean isFullReload() {
+        return changedIds == null;
+    }
+}
@@ -0,0 +1,374 @@
+package stankin.backend.catalog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Инвертированный индекс по name, developer, short_description и description.
+ * <p>
+ * Ранжирование — BM25 Okapi с теми же параметрами, что и rank_bm25 в ml/app/utils/bm25.py
+ * (k1 = 1.5, b = 0.75, отрицательный idf заменяется на epsilon * средний idf).
+ * Словам запроса, которых нет в словаре, подбираются близкие термы по триграммам
+ * (опечатки) и по префиксу (недописанное слово).
+ * <p>
+ * Индекс неизменяемый и подменяется целиком; при изменении каталога переиндексируются
+ * только документы, у которых поменялся текст.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CatalogSearchIndex {
+
+    private static final double K1 = 1.5;
+    private static final double B = 0.75;
+    private static final double EPSILON = 0.25;
+
+    private static final int MAX_EXPANSIONS = 3;
+    private static final double MIN_TRIGRAM_SIMILARITY = 0.4;
+    private static final double PREFIX_WEIGHT = 0.9;
+    private static final int MIN_PREFIX_LENGTH = 3;
+
+    private final AppCatalog appCatalog;
+
+    private volatile Index index;
+
+    /**
+     * Найденное приложение и его BM25-оценка.
+     */
+    public record Hit(int appId, double score) {
+    }
+
+    /**
+     * Попадания, отсортированные по убыванию релевантности.
+     */
+    public List<Hit> search(String query, int limit) {
+        Index current = index();
+        List<String> queryTerms = SearchTokenizer.terms(query);
+        if (queryTerms.isEmpty() || current.docCount == 0) {
+            return List.of();
+        }
+
+        double[] scores = new double[current.appIds.length];
+        for (String queryTerm : queryTerms) {
+            for (Map.Entry<String, Double> match : current.match(queryTerm).entrySet()) {
+                current.accumulate(match.getKey(), match.getValue(), scores);
+            }
+        }
+
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        List<int[]> hits = new ArrayList<>();
+        for (int ord = 0; ord < scores.length; ord++) {
+            if (scores[ord] > 0) {
+                int row = snapshot.rowOf(current.appIds[ord]);
+                hits.add(new int[]{ord, row < 0 ? Integer.MAX_VALUE : row});
+            }
+        }
+        // При равной релевантности сохраняем порядок витрины
+        hits.sort((a, b) -> {
+            int byScore = Double.compare(scores[b[0]], scores[a[0]]);
+            return byScore != 0 ? byScore : Integer.compare(a[1], b[1]);
+        });
+
+        List<Hit> result = new ArrayList<>(Math.min(hits.size(), limit));
+        for (int i = 0; i < hits.size() && i < limit; i++) {
+            int ord = hits.get(i)[0];
+            result.add(new Hit(current.appIds[ord], scores[ord]));
+        }
+        return result;
+    }
+
+    @Async
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        update(event.snapshot(), event.changedIds());
+    }
+
+    private Index index() {
+        Index current = index;
+        if (current != null) {
+            return current;
+        }
+        update(appCatalog.snapshot(), null);
+        return index;
+    }
+
+    private synchronized void update(CatalogSnapshot snapshot, Set<Integer> changedIds) {
+        Index current = index;
+        if (current != null && current.catalogVersion >= snapshot.version()) {
+            return;
+        }
+        // Точечное обновление возможно только поверх непосредственно предыдущей версии
+        boolean incremental = current != null && changedIds != null
+                && current.catalogVersion + 1 == snapshot.version();
+        long started = System.nanoTime();
+        Index next = (current == null ? Index.EMPTY : current).apply(snapshot, incremental ? changedIds : null);
+        index = next;
+        log.debug("Search index for catalog v{}: {} docs, {} terms in {} ms", snapshot.version(),
+                next.docCount, next.postings.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private record Posting(int[] ords, int[] tfs) {
+    }
+
+    private record DocTerms(long fingerprint, int length, String[] terms, int[] tfs) {
+    }
+
+    private static final class Index {
+
+        static final Index EMPTY = new Index(0, new int[0], new DocTerms[0], Map.of(), Map.of(), Map.of());
+
+        final long catalogVersion;
+        final int[] appIds;
+        final DocTerms[] docs;
+        final Map<Integer, Integer> ordByAppId;
+        final Map<String, Posting> postings;
+        final Map<String, String[]> trigramTerms;
+        final int docCount;
+        final double avgDocLength;
+        final double averageIdf;
+
+        Index(long catalogVersion, int[] appIds, DocTerms[] docs, Map<Integer, Integer> ordByAppId,
+              Map<String, Posting> postings, Map<String, String[]> trigramTerms) {
+            this.catalogVersion = catalogVersion;
+            this.appIds = appIds;
+            this.docs = docs;
+            this.ordByAppId = ordByAppId;
+            this.postings = postings;
+            this.trigramTerms = trigramTerms;
+
+            int count = 0;
+            long totalLength = 0;
+            for (DocTerms doc : docs) {
+                if (doc != null) {
+                    count++;
+                    totalLength += doc.length();
+                }
+            }
+            this.docCount = count;
+            this.avgDocLength = count == 0 ? 0 : (double) totalLength / count;
+
+            double idfSum = 0;
+            for (Posting posting : postings.values()) {
+                idfSum += rawIdf(posting.ords().length);
+            }
+            this.averageIdf = postings.isEmpty() ? 0 : idfSum / postings.size();
+        }
+
+        Index apply(CatalogSnapshot snapshot, Set<Integer> changedIds) {
+            Map<Integer, Integer> ords = new HashMap<>(ordByAppId);
+            List<Integer> appIdList = new ArrayList<>(appIds.length);
+            for (int id : appIds) appIdList.add(id);
+            List<DocTerms> docList = new ArrayList<>(Arrays.asList(docs));
+
+            Set<Integer> candidates = new HashSet<>();
+            if (changedIds == null) {
+                for (int row = 0; row < snapshot.size(); row++) candidates.add(snapshot.id(row));
+                candidates.addAll(ordByAppId.keySet());
+            } else {
+                candidates.addAll(changedIds);
+            }
+
+            Map<Integer, DocTerms> removed = new HashMap<>();
+            Map<Integer, DocTerms> added = new HashMap<>();
+            for (Integer appId : candidates) {
+                int row = snapshot.rowOf(appId);
+                Integer ord = ords.get(appId);
+                DocTerms old = ord != null ? docList.get(ord) : null;
+                if (row < 0) {
+                    if (old != null) {
+                        removed.put(ord, old);
+                        docList.set(ord, null);
+                    }
+                    continue;
+                }
+                long fingerprint = fingerprint(snapshot, row);
+                if (old != null && old.fingerprint() == fingerprint) {
+                    continue;
+                }
+                if (ord == null) {
+                    ord = appIdList.size();
+                    ords.put(appId, ord);
+                    appIdList.add(appId);
+                    docList.add(null);
+                }
+                if (old != null) removed.put(ord, old);
+                DocTerms doc = tokenize(snapshot, row, fingerprint);
+                docList.set(ord, doc);
+                added.put(ord, doc);
+            }
+
+            if (removed.isEmpty() && added.isEmpty()) {
+                return new Index(snapshot.version(), appIds, docs, ordByAppId, postings, trigramTerms);
+            }
+
+            Set<String> affected = new HashSet<>();
+            removed.values().forEach(doc -> affected.addAll(Arrays.asList(doc.terms())));
+            added.values().forEach(doc -> affected.addAll(Arrays.asList(doc.terms())));
+
+            Map<String, List<int[]>> additions = new HashMap<>();
+            added.forEach((ord, doc) -> {
+                for (int i = 0; i < doc.terms().length; i++) {
+                    additions.computeIfAbsent(doc.terms()[i], t -> new ArrayList<>()).add(new int[]{ord, doc.tfs()[i]});
+                }
+            });
+
+            Map<String, Posting> nextPostings = new HashMap<>(postings);
+            Map<String, String[]> nextTrigrams = new HashMap<>(trigramTerms);
+            for (String term : affected) {
+                Posting old = postings.get(term);
+                List<int[]> entries = new ArrayList<>();
+                if (old != null) {
+                    for (int i = 0; i < old.ords().length; i++) {
+                        if (!removed.containsKey(old.ords()[i])) {
+                            entries.add(new int[]{old.ords()[i], old.tfs()[i]});
+                        }
+                    }
+                }
+                entries.addAll(additions.getOrDefault(term, List.of()));
+
+                if (entries.isEmpty()) {
+                    nextPostings.remove(term);
+                    if (old != null) updateTrigrams(nextTrigrams, term, false);
+                } else {
+                    int[] ordArray = new int[entries.size()];
+                    int[] tfArray = new int[entries.size()];
+                    for (int i = 0; i < entries.size(); i++) {
+                        ordArray[i] = entries.get(i)[0];
+                        tfArray[i] = entries.get(i)[1];
+                    }
+                    nextPostings.put(term, new Posting(ordArray, tfArray));
+                    if (old == null) updateTrigrams(nextTrigrams, term, true);
+                }
+            }
+
+            for (Integer ord : removed.keySet()) {
+                if (docList.get(ord) == null) {
+                    ords.remove(appIdList.get(ord));
+                }
+            }
+
+            return new Index(snapshot.version(),
+                    appIdList.stream().mapToInt(Integer::intValue).toArray(),
+                    docList.toArray(new DocTerms[0]), ords, nextPostings, nextTrigrams);
+        }
+
+        /**
+         * Термы словаря, соответствующие слову запроса, с весами.
+         */
+        Map<String, Double> match(String queryTerm) {
+            if (postings.containsKey(queryTerm)) {
+                return Map.of(queryTerm, 1.0);
+            }
+            String[] grams = trigrams(queryTerm);
+            Map<String, Integer> shared = new HashMap<>();
+            for (String gram : grams) {
+                for (String term : trigramTerms.getOrDefault(gram, new String[0])) {
+                    shared.merge(term, 1, Integer::sum);
+                }
+            }
+            List<Map.Entry<String, Double>> candidates = new ArrayList<>();
+            shared.forEach((term, common) -> {
+                double similarity = (double) common / (grams.length + term.length() - common);
+                double weight = similarity >= MIN_TRIGRAM_SIMILARITY ? similarity : 0;
+                if (queryTerm.length() >= MIN_PREFIX_LENGTH && term.startsWith(queryTerm)) {
+                    weight = Math.max(weight, PREFIX_WEIGHT);
+                }
+                if (weight > 0) candidates.add(Map.entry(term, weight));
+            });
+            candidates.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+
+            Map<String, Double> matches = new HashMap<>();
+            for (int i = 0; i < candidates.size() && i < MAX_EXPANSIONS; i++) {
+                matches.put(candidates.get(i).getKey(), candidates.get(i).getValue());
+            }
+            return matches;
+        }
+
+        void accumulate(String term, double weight, double[] scores) {
+            Posting posting = postings.get(term);
+            if (posting == null) {
+                return;
+            }
+            double idf = rawIdf(posting.ords().length);
+            if (idf < 0) {
+                idf = EPSILON * averageIdf;
+            }
+            for (int i = 0; i < posting.ords().length; i++) {
+                int ord = posting.ords()[i];
+                int tf = posting.tfs()[i];
+                double norm = K1 * (1 - B + B * docs[ord].length() / avgDocLength);
+                scores[ord] += weight * idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        private double rawIdf(int documentFrequency) {
+            return Math.log(docCount - documentFrequency + 0.5) - Math.log(documentFrequency + 0.5);
+        }
+
+        private static DocTerms tokenize(CatalogSnapshot snapshot, int row, long fingerprint) {
+            List<String> terms = new ArrayList<>();
+            terms.addAll(SearchTokenizer.terms(snapshot.name(row)));
+            terms.addAll(SearchTokenizer.terms(snapshot.developer(row)));
+            terms.addAll(SearchTokenizer.terms(snapshot.shortDescription(row)));
+            terms.addAll(SearchTokenizer.terms(snapshot.description(row)));
+
+            Map<String, Integer> tf = new HashMap<>();
+            for (String term : terms) {
+                tf.merge(term, 1, Integer::sum);
+            }
+            String[] distinct = tf.keySet().toArray(new String[0]);
+            int[] counts = new int[distinct.length];
+            for (int i = 0; i < distinct.length; i++) {
+                counts[i] = tf.get(distinct[i]);
+            }
+            return new DocTerms(fingerprint, terms.size(), distinct, counts);
+        }
+
+        private static long fingerprint(CatalogSnapshot snapshot, int row) {
+            long h = Objects.hashCode(snapshot.name(row));
+            h = 31 * h + Objects.hashCode(snapshot.developer(row));
+            h = 31 * h + Objects.hashCode(snapshot.shortDescription(row));
+            h = 31 * h + Objects.hashCode(snapshot.description(row));
+            return h;
+        }
+
+        private static void updateTrigrams(Map<String, String[]> trigramTerms, String term, boolean add) {
+            for (String gram : new HashSet<>(Arrays.asList(trigrams(term)))) {
+                String[] terms = trigramTerms.getOrDefault(gram, new String[0]);
+                String[] next;
+                if (add) {
+                    next = Arrays.copyOf(terms, terms.length + 1);
+                    next[terms.length] = term;
+                } else {
+                    next = Arrays.stream(terms).filter(t -> !t.equals(term)).toArray(String[]::new);
+                }
+                if (next.length == 0) {
+                    trigramTerms.remove(gram);
+                } else {
+                    trigramTerms.put(gram, next);
+                }
+            }
+        }
+
+        private static String[] trigrams(String term) {
+            String padded = "^" + term + "$";
+            String[] grams = new String[padded.length() - 2];
+            for (int i = 0; i < grams.length; i++) {
+                grams[i] = padded.substring(i, i + 3);
+            }
+            return grams;
+        }
+    }
+}
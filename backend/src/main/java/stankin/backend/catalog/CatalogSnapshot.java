@@ -0,0 +1,427 @@
+package stankin.backend.catalog;
+
+import stankin.backend.model.App;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Неизменяемый колоночный снапшот таблицы rustore.apps.
+ * <p>
+ * Строки хранятся в порядке витрины (rating DESC, downloads DESC, id),
+ * числовые колонки лежат в примитивных массивах, повторяющиеся строки
+ * (разработчик, версия, возрастной рейтинг) разделяют один экземпляр.
+ * Массивы строк, которые возвращают методы *Rows(), только для чтения.
+ */
+public final class CatalogSnapshot {
+
+    public static final Comparator<App> DISPLAY_ORDER = Comparator
+            .comparing((App app) -> nz(app.getRating())).reversed()
+            .thenComparing(Comparator.comparing((App app) -> nz(app.getDownloads())).reversed())
+            .thenComparing(App::getId);
+
+    private static final byte FLAG_FREE = 1;
+    private static final byte FLAG_EDITOR_CHOICE = 1 << 1;
+    private static final byte FLAG_NEW = 1 << 2;
+    private static final byte FLAG_POPULAR = 1 << 3;
+
+    private static final int[] NO_ROWS = new int[0];
+
+    /**
+     * Ключ сортировки витрины; страницы продолжаются строго после него.
+     */
+    public record SortKey(float rating, long downloads, int id) {
+    }
+
+    private final long version;
+    private final int size;
+
+    private final int[] ids;
+    private final int[] categoryIds;
+    private final float[] ratings;
+    private final long[] downloads;
+    private final float[] prices;
+    private final float[] sizesMb;
+    private final byte[] flags;
+    private final long[] createdAt;
+    private final long[] updatedAt;
+
+    private final String[] names;
+    private final String[] lowerNames;
+    private final String[] packageNames;
+    private final String[] developers;
+    private final String[] descriptions;
+    private final String[] shortDescriptions;
+    private final String[] versions;
+    private final String[] ageRatings;
+    private final String[] iconUrls;
+    private final String[] apkUrls;
+
+    // id -> строка: отсортированные id и соответствующие им номера строк
+    private final int[] sortedIds;
+    private final int[] sortedIdRows;
+
+    private final int[] allRows;
+    private final int[] freeRows;
+    private final int[] paidRows;
+    private final int[][] rowsByCategory;
+    private final int[] editorChoiceRows;
+    private final int[] newRows;
+    private final int[] popularRows;
+
+    private CatalogSnapshot(long version, List<App> apps) {
+        this.version = version;
+        this.size = apps.size();
+
+        ids = new int[size];
+        categoryIds = new int[size];
+        ratings = new float[size];
+        downloads = new long[size];
+        prices = new float[size];
+        sizesMb = new float[size];
+        flags = new byte[size];
+        createdAt = new long[size];
+        updatedAt = new long[size];
+        names = new String[size];
+        lowerNames = new String[size];
+        packageNames = new String[size];
+        developers = new String[size];
+        descriptions = new String[size];
+        shortDescriptions = new String[size];
+        versions = new String[size];
+        ageRatings = new String[size];
+        iconUrls = new String[size];
+        apkUrls = new String[size];
+
+        Map<String, String> pool = new HashMap<>();
+        int maxCategoryId = 0;
+        for (int row = 0; row < size; row++) {
+            App app = apps.get(row);
+            ids[row] = app.getId();
+            categoryIds[row] = app.getCategoryId() != null ? app.getCategoryId() : 0;
+            ratings[row] = nz(app.getRating());
+            downloads[row] = nz(app.getDownloads());
+            prices[row] = app.getPrice() != null ? app.getPrice() : 0f;
+            sizesMb[row] = app.getSizeMb() != null ? app.getSizeMb() : 0f;
+            flags[row] = (byte) ((Boolean.TRUE.equals(app.getIsFree()) ? FLAG_FREE : 0)
+                    | (Boolean.TRUE.equals(app.getIsEditorChoice()) ? FLAG_EDITOR_CHOICE : 0)
+                    | (Boolean.TRUE.equals(app.getIsNew()) ? FLAG_NEW : 0)
+                    | (Boolean.TRUE.equals(app.getIsPopular()) ? FLAG_POPULAR : 0));
+            createdAt[row] = toEpoch(app.getCreatedAt());
+            updatedAt[row] = toEpoch(app.getUpdatedAt());
+            names[row] = app.getName();
+            lowerNames[row] = app.getName() != null ? app.getName().toLowerCase(Locale.ROOT) : "";
+            packageNames[row] = app.getPackageName();
+            developers[row] = intern(pool, app.getDeveloper());
+            descriptions[row] = app.getDescription();
+            shortDescriptions[row] = app.getShortDescription();
+            versions[row] = intern(pool, app.getVersion());
+            ageRatings[row] = intern(pool, app.getAgeRating());
+            iconUrls[row] = app.getIconUrl();
+            apkUrls[row] = app.getApkUrl();
+            maxCategoryId = Math.max(maxCategoryId, categoryIds[row]);
+        }
+
+        Integer[] byId = boxedRows();
+        Arrays.sort(byId, Comparator.comparingInt(row -> ids[row]));
+        sortedIds = new int[size];
+        sortedIdRows = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIdRows[i] = byId[i];
+            sortedIds[i] = ids[byId[i]];
+        }
+
+        int[] categorySizes = new int[maxCategoryId + 1];
+        for (int row = 0; row < size; row++) {
+            categorySizes[categoryIds[row]]++;
+        }
+        rowsByCategory = new int[maxCategoryId + 1][];
+        for (int c = 0; c <= maxCategoryId; c++) {
+            rowsByCategory[c] = categorySizes[c] == 0 ? NO_ROWS : new int[categorySizes[c]];
+            categorySizes[c] = 0;
+        }
+        for (int row = 0; row < size; row++) {
+            int c = categoryIds[row];
+            rowsByCategory[c][categorySizes[c]++] = row;
+        }
+
+        allRows = new int[size];
+        for (int row = 0; row < size; row++) {
+            allRows[row] = row;
+        }
+        freeRows = rowsWithFlag(FLAG_FREE, null);
+        paidRows = Arrays.stream(allRows).filter(row -> !isFree(row)).toArray();
+        editorChoiceRows = rowsWithFlag(FLAG_EDITOR_CHOICE, null);
+        newRows = rowsWithFlag(FLAG_NEW, Comparator.<Integer>comparingLong(row -> createdAt[row]).reversed());
+        popularRows = rowsWithFlag(FLAG_POPULAR, Comparator.<Integer>comparingLong(row -> downloads[row]).reversed());
+    }
+
+    public static CatalogSnapshot empty() {
+        return new CatalogSnapshot(0, List.of());
+    }
+
+    /**
+     * Строит снапшот из произвольного набора приложений; порядок строк задаёт DISPLAY_ORDER.
+     */
+    public static CatalogSnapshot of(long version, List<App> apps) {
+        List<App> sorted = new ArrayList<>(apps);
+        sorted.sort(DISPLAY_ORDER);
+        return new CatalogSnapshot(version, sorted);
+    }
+
+    /**
+     * Новый снапшот, в котором строки с теми же id заменены на changed, а новые добавлены.
+     */
+    public CatalogSnapshot withChanges(long newVersion, List<App> changed) {
+        Map<Integer, App> merged = new HashMap<>(size + changed.size());
+        for (int row = 0; row < size; row++) {
+            merged.put(ids[row], toApp(row));
+        }
+        for (App app : changed) {
+            merged.put(app.getId(), app);
+        }
+        return of(newVersion, new ArrayList<>(merged.values()));
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Номер строки приложения или -1, если такого id нет.
+     */
+    public int rowOf(int id) {
+        int i = Arrays.binarySearch(sortedIds, id);
+        return i >= 0 ? sortedIdRows[i] : -1;
+    }
+
+    public int id(int row) {
+        return ids[row];
+    }
+
+    public int categoryId(int row) {
+        return categoryIds[row];
+    }
+
+    public float rating(int row) {
+        return ratings[row];
+    }
+
+    public long downloads(int row) {
+        return downloads[row];
+    }
+
+    public float price(int row) {
+        return prices[row];
+    }
+
+    public boolean isFree(int row) {
+        return (flags[row] & FLAG_FREE) != 0;
+    }
+
+    public boolean isEditorChoice(int row) {
+        return (flags[row] & FLAG_EDITOR_CHOICE) != 0;
+    }
+
+    public boolean isNew(int row) {
+        return (flags[row] & FLAG_NEW) != 0;
+    }
+
+    public boolean isPopular(int row) {
+        return (flags[row] & FLAG_POPULAR) != 0;
+    }
+
+    public long createdAtEpochSecond(int row) {
+        return createdAt[row];
+    }
+
+    public long updatedAtEpochSecond(int row) {
+        return updatedAt[row];
+    }
+
+    public String name(int row) {
+        return names[row];
+    }
+
+    public String lowerName(int row) {
+        return lowerNames[row];
+    }
+
+    public String packageName(int row) {
+        return packageNames[row];
+    }
+
+    public String developer(int row) {
+        return developers[row];
+    }
+
+    public String description(int row) {
+        return descriptions[row];
+    }
+
+    public String shortDescription(int row) {
+        return shortDescriptions[row];
+    }
+
+    public String ageRating(int row) {
+        return ageRatings[row];
+    }
+
+    public String iconUrl(int row) {
+        return iconUrls[row];
+    }
+
+    public SortKey sortKey(int row) {
+        return new SortKey(ratings[row], downloads[row], ids[row]);
+    }
+
+    /**
+     * Позиция в rows (упорядоченных как витрина) первой строки строго после after.
+     */
+    public int seek(int[] rows, SortKey after) {
+        if (after == null) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = rows.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareToKey(rows[mid], after) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public int[] allRows() {
+        return allRows;
+    }
+
+    public int[] freeRows() {
+        return freeRows;
+    }
+
+    public int[] paidRows() {
+        return paidRows;
+    }
+
+    public int[] rowsInCategory(int categoryId) {
+        return categoryId >= 0 && categoryId < rowsByCategory.length ? rowsByCategory[categoryId] : NO_ROWS;
+    }
+
+    public int[] editorChoiceRows() {
+        return editorChoiceRows;
+    }
+
+    public int[] newRows() {
+        return newRows;
+    }
+
+    public int[] popularRows() {
+        return popularRows;
+    }
+
+    public LocalDateTime maxUpdatedAt() {
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            max = Math.max(max, updatedAt[row]);
+        }
+        return size == 0 ? null : LocalDateTime.ofEpochSecond(max, 0, ZoneOffset.UTC);
+    }
+
+    public App toApp(int row) {
+        return App.builder()
+                .id(ids[row])
+                .name(names[row])
+                .packageName(packageNames[row])
+                .developer(developers[row])
+                .categoryId(categoryIds[row])
+                .description(descriptions[row])
+                .shortDescription(shortDescriptions[row])
+                .version(versions[row])
+                .sizeMb(sizesMb[row])
+                .rating(ratings[row])
+                .downloads(downloads[row])
+                .price(prices[row])
+                .isFree(isFree(row))
+                .ageRating(ageRatings[row])
+                .iconUrl(iconUrls[row])
+                .apkUrl(apkUrls[row])
+                .createdAt(LocalDateTime.ofEpochSecond(createdAt[row], 0, ZoneOffset.UTC))
+                .updatedAt(LocalDateTime.ofEpochSecond(updatedAt[row], 0, ZoneOffset.UTC))
+                .isEditorChoice(isEditorChoice(row))
+                .isNew(isNew(row))
+                .isPopular(isPopular(row))
+                .build();
+    }
+
+    /**
+     * Материализует не более limit строк из rows, начиная с from.
+     */
+    public List<App> toApps(int[] rows, int from, int limit) {
+        int to = (int) Math.min(rows.length, (long) from + Math.max(limit, 0));
+        List<App> apps = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            apps.add(toApp(rows[i]));
+        }
+        return apps;
+    }
+
+    private int compareToKey(int row, SortKey key) {
+        int c = Float.compare(key.rating(), ratings[row]);
+        if (c != 0) return c;
+        c = Long.compare(key.downloads(), downloads[row]);
+        if (c != 0) return c;
+        return Integer.compare(ids[row], key.id());
+    }
+
+    private int[] rowsWithFlag(byte flag, Comparator<Integer> order) {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if ((flags[row] & flag) != 0) count++;
+        }
+        Integer[] rows = new Integer[count];
+        for (int row = 0, i = 0; row < size; row++) {
+            if ((flags[row] & flag) != 0) rows[i++] = row;
+        }
+        if (order != null) {
+            // Сортировка устойчивая: при равенстве ключа сохраняется порядок витрины
+            Arrays.sort(rows, order);
+        }
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    private Integer[] boxedRows() {
+        Integer[] rows = new Integer[size];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+        }
+        return rows;
+    }
+
+    private static String intern(Map<String, String> pool, String value) {
+        return value == null ? null : pool.computeIfAbsent(value, v -> v);
+    }
+
+    private static long toEpoch(LocalDateTime time) {
+        return time != null ? time.toEpochSecond(ZoneOffset.UTC) : 0L;
+    }
+
+    private static float nz(Float value) {
+        return value != null ? value : 0f;
+    }
+
+    private static long nz(Long value) {
+        return value != null ? value : 0L;
+    }
+}
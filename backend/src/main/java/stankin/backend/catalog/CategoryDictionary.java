@@ -0,0 +1,111 @@
+package stankin.backend.catalog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import stankin.backend.model.Category;
+import stankin.backend.repository.CategoryRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Справочник категорий в памяти: id -> категория через плотный массив.
+ * <p>
+ * Обновляется целиком в фоне; версия растёт только если содержимое изменилось,
+ * по ней зависимые кэши понимают, что названия категорий пора пересобрать.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CategoryDictionary {
+
+    private final CategoryRepository categoryRepository;
+
+    private volatile Entries entries;
+
+    public long version() {
+        return entries().version;
+    }
+
+    public Optional<Category> find(Integer id) {
+        return Optional.ofNullable(id != null ? entries().get(id) : null);
+    }
+
+    public String name(Integer id, String fallback) {
+        Category category = id != null ? entries().get(id) : null;
+        return category != null ? category.getName() : fallback;
+    }
+
+    public List<Category> all() {
+        return entries().ordered;
+    }
+
+    public List<Category> findByType(String type) {
+        return entries().ordered.stream()
+                .filter(category -> type.equals(category.getType()))
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .toList();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        refresh();
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.categories-refresh-interval-ms:60000}",
+            initialDelayString = "${catalog.categories-refresh-interval-ms:60000}")
+    public void refresh() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("Category dictionary refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private Entries entries() {
+        Entries current = entries;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (entries == null) {
+                reload();
+            }
+            return entries;
+        }
+    }
+
+    private synchronized void reload() {
+        List<Category> categories = categoryRepository.findAll();
+        Entries current = entries;
+        if (current != null && current.ordered.equals(categories)) {
+            return;
+        }
+        entries = new Entries(current != null ? current.version + 1 : 1, categories);
+        log.info("Category dictionary v{} loaded: {} categories", entries.version, categories.size());
+    }
+
+    private static final class Entries {
+        private final long version;
+        private final List<Category> ordered;
+        private final Category[] byId;
+
+        private Entries(long version, List<Category> categories) {
+            this.version = version;
+            this.ordered = List.copyOf(categories);
+            int maxId = categories.stream().mapToInt(Category::getId).max().orElse(-1);
+            this.byId = new Category[maxId + 1];
+            for (Category category : categories) {
+                byId[category.getId()] = category;
+            }
+        }
+
+        private Category get(int id) {
+            return id >= 0 && id < byId.length ? byId[id] : null;
+        }
+    }
+}
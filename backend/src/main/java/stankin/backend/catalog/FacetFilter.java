@@ -0,0 +1,28 @@
+package stankin.backend.catalog;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Комбинация фасетов для /api/apps/filter. Внутри одного фасета значения объединяются (ИЛИ),
+ * разные фасеты пересекаются (И); null — фасет не ограничивает выдачу.
+ */
+public record FacetFilter(
+        Set<Integer> categoryIds,
+        Set<String> ageRatings,
+        Boolean free,
+        Boolean editorChoice,
+        Boolean isNew,
+        Boolean popular,
+        Float minRating) {
+
+    /**
+     * Каноническая запись фильтра, не зависящая от порядка параметров.
+     */
+    public String canonical() {
+        return "c=" + (categoryIds == null ? "" : new TreeSet<>(categoryIds))
+                + ";a=" + (ageRatings == null ? "" : new TreeSet<>(ageRatings))
+                + ";f=" + free + ";e=" + editorChoice + ";n=" + isNew + ";p=" + popular
+                + ";r=" + minRating;
+    }
+}
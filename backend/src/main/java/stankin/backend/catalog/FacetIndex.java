@@ -0,0 +1,390 @@
+package stankin.backend.catalog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Сжатые битовые индексы по строкам снапшота каталога для фасетного фильтра.
+ * <p>
+ * По битмапу на категорию, возрастной рейтинг, платность и флаги подборок. Строки снапшота
+ * отсортированы по рейтингу, поэтому «рейтинг не ниже X» — это префикс строк, и его битмап
+ * строится как один run-контейнер. Индекс подменяется целиком по CatalogChangedEvent.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FacetIndex {
+
+    /**
+     * Пороги рейтинга, для которых считаются счётчики фасета rating.
+     */
+    public static final float[] RATING_THRESHOLDS = {3.0f, 3.5f, 4.0f, 4.5f};
+
+    public enum Sort {
+        RATING, DOWNLOADS, NEWEST
+    }
+
+    /**
+     * Страница строк снапшота; nextKey — ключ последней строки, если выдача продолжается.
+     */
+    public record Result(CatalogSnapshot snapshot, int[] rows, long total, long[] nextKey,
+                         Map<String, Map<String, Long>> facets) {
+    }
+
+    private static final int CATEGORY = 0;
+    private static final int AGE_RATING = 1;
+    private static final int PRICE = 2;
+    private static final int EDITOR_CHOICE = 3;
+    private static final int NEW = 4;
+    private static final int POPULAR = 5;
+    private static final int RATING = 6;
+    private static final int FACETS = 7;
+
+    // До такого размера базы счётчики значений считаются проходом по строкам
+    private static final int SCAN_COUNT_LIMIT = 4096;
+
+    private final AppCatalog appCatalog;
+
+    private volatile Index index;
+
+    public Result filter(FacetFilter filter, Sort sort, long[] after, int limit) {
+        Index current = index();
+        RoaringBitmap[] constraints = current.constraints(filter);
+        RoaringBitmap matched = current.intersect(constraints, -1);
+
+        int[] order = current.order(sort);
+        int from = after == null ? 0 : current.seek(order, sort, after);
+        int[] page = current.page(matched, sort, order, from, limit + 1);
+
+        long[] nextKey = null;
+        if (page.length > limit) {
+            page = Arrays.copyOf(page, limit);
+            nextKey = current.key(sort, page[limit - 1]);
+        }
+        return new Result(current.snapshot, page, matched.getLongCardinality(), nextKey,
+                current.facets(constraints, matched));
+    }
+
+    @Async
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        rebuild(event.snapshot());
+    }
+
+    private Index index() {
+        Index current = index;
+        if (current != null) {
+            return current;
+        }
+        rebuild(appCatalog.snapshot());
+        return index;
+    }
+
+    private synchronized void rebuild(CatalogSnapshot snapshot) {
+        Index current = index;
+        if (current != null && current.snapshot.version() >= snapshot.version()) {
+            return;
+        }
+        long started = System.nanoTime();
+        index = new Index(snapshot);
+        log.debug("Facet index for catalog v{} built in {} ms", snapshot.version(),
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static final class Index {
+
+        private final CatalogSnapshot snapshot;
+        private final RoaringBitmap all;
+        private final Map<Integer, RoaringBitmap> byCategory = new TreeMap<>();
+        private final Map<String, RoaringBitmap> byAgeRating = new TreeMap<>();
+        private final RoaringBitmap free = new RoaringBitmap();
+        private final RoaringBitmap paid = new RoaringBitmap();
+        private final RoaringBitmap editorChoice = new RoaringBitmap();
+        private final RoaringBitmap isNew = new RoaringBitmap();
+        private final RoaringBitmap popular = new RoaringBitmap();
+        // Значения фасетов в порядке ключей и номер значения у каждой строки (-1 — нет значения)
+        private final String[] categoryLabels;
+        private final RoaringBitmap[] categoryBitmaps;
+        private final int[] rowCategory;
+        private final String[] ageRatingLabels;
+        private final RoaringBitmap[] ageRatingBitmaps;
+        private final int[] rowAgeRating;
+        // Порядок строк для сортировок, отличных от порядка витрины
+        private final int[] byDownloads;
+        private final int[] byNewest;
+        // Обратные перестановки: строка -> позиция в byDownloads / byNewest
+        private final int[] downloadsPositions;
+        private final int[] newestPositions;
+
+        private Index(CatalogSnapshot snapshot) {
+            this.snapshot = snapshot;
+            int size = snapshot.size();
+            all = RoaringBitmap.bitmapOfRange(0, size);
+            for (int row = 0; row < size; row++) {
+                byCategory.computeIfAbsent(snapshot.categoryId(row), c -> new RoaringBitmap()).add(row);
+                if (snapshot.ageRating(row) != null) {
+                    byAgeRating.computeIfAbsent(snapshot.ageRating(row), a -> new RoaringBitmap()).add(row);
+                }
+                (snapshot.isFree(row) ? free : paid).add(row);
+                if (snapshot.isEditorChoice(row)) editorChoice.add(row);
+                if (snapshot.isNew(row)) isNew.add(row);
+                if (snapshot.isPopular(row)) popular.add(row);
+            }
+            byCategory.values().forEach(RoaringBitmap::runOptimize);
+            byAgeRating.values().forEach(RoaringBitmap::runOptimize);
+            for (RoaringBitmap bitmap : new RoaringBitmap[]{free, paid, editorChoice, isNew, popular}) {
+                bitmap.runOptimize();
+            }
+            categoryLabels = byCategory.keySet().stream().map(String::valueOf).toArray(String[]::new);
+            categoryBitmaps = byCategory.values().toArray(RoaringBitmap[]::new);
+            rowCategory = ordinals(size, categoryBitmaps);
+            ageRatingLabels = byAgeRating.keySet().toArray(String[]::new);
+            ageRatingBitmaps = byAgeRating.values().toArray(RoaringBitmap[]::new);
+            rowAgeRating = ordinals(size, ageRatingBitmaps);
+            byDownloads = sortedRows(Sort.DOWNLOADS);
+            byNewest = sortedRows(Sort.NEWEST);
+            downloadsPositions = inverse(byDownloads);
+            newestPositions = inverse(byNewest);
+        }
+
+        /**
+         * Битмап каждого заданного фасета; null — фасет не задан.
+         */
+        RoaringBitmap[] constraints(FacetFilter filter) {
+            RoaringBitmap[] constraints = new RoaringBitmap[FACETS];
+            if (filter.categoryIds() != null && !filter.categoryIds().isEmpty()) {
+                constraints[CATEGORY] = union(filter.categoryIds().stream().map(byCategory::get).toArray(RoaringBitmap[]::new));
+            }
+            if (filter.ageRatings() != null && !filter.ageRatings().isEmpty()) {
+                constraints[AGE_RATING] = union(filter.ageRatings().stream().map(byAgeRating::get).toArray(RoaringBitmap[]::new));
+            }
+            if (filter.free() != null) {
+                constraints[PRICE] = filter.free() ? free : paid;
+            }
+            constraints[EDITOR_CHOICE] = flag(editorChoice, filter.editorChoice());
+            constraints[NEW] = flag(isNew, filter.isNew());
+            constraints[POPULAR] = flag(popular, filter.popular());
+            if (filter.minRating() != null) {
+                constraints[RATING] = ratingAtLeast(filter.minRating());
+            }
+            return constraints;
+        }
+
+        /**
+         * Пересечение всех заданных фасетов, кроме skip.
+         */
+        RoaringBitmap intersect(RoaringBitmap[] constraints, int skip) {
+            RoaringBitmap result = null;
+            for (int facet = 0; facet < FACETS; facet++) {
+                if (facet == skip || constraints[facet] == null) continue;
+                result = result == null ? constraints[facet] : RoaringBitmap.and(result, constraints[facet]);
+            }
+            return result == null ? all : result;
+        }
+
+        /**
+         * Счётчики значений каждого фасета при остальных фасетах фильтра (дизъюнктивный фасетный поиск).
+         */
+        Map<String, Map<String, Long>> facets(RoaringBitmap[] constraints, RoaringBitmap matched) {
+            Map<String, Map<String, Long>> facets = new LinkedHashMap<>();
+
+            RoaringBitmap base = excluding(constraints, CATEGORY, matched);
+            facets.put("category", counts(base, categoryLabels, categoryBitmaps, rowCategory));
+
+            RoaringBitmap byAgeBase = excluding(constraints, AGE_RATING, matched);
+            facets.put("ageRating", counts(byAgeBase, ageRatingLabels, ageRatingBitmaps, rowAgeRating));
+
+            RoaringBitmap priceBase = excluding(constraints, PRICE, matched);
+            Map<String, Long> price = new LinkedHashMap<>();
+            price.put("free", count(priceBase, free));
+            price.put("paid", count(priceBase, paid));
+            facets.put("price", price);
+
+            Map<String, Long> curated = new LinkedHashMap<>();
+            curated.put("editorChoice", count(excluding(constraints, EDITOR_CHOICE, matched), editorChoice));
+            curated.put("new", count(excluding(constraints, NEW, matched), isNew));
+            curated.put("popular", count(excluding(constraints, POPULAR, matched), popular));
+            facets.put("curated", curated);
+
+            RoaringBitmap ratingBase = excluding(constraints, RATING, matched);
+            Map<String, Long> rating = new LinkedHashMap<>();
+            for (float threshold : RATING_THRESHOLDS) {
+                rating.put(String.valueOf(threshold), ratingBase.rangeCardinality(0, ratingPrefix(threshold)));
+            }
+            facets.put("rating", rating);
+            return facets;
+        }
+
+        /**
+         * Счётчики по значениям фасета. Небольшую базу дешевле пройти по строкам,
+         * чем пересекать её с битмапом каждого значения.
+         */
+        private static Map<String, Long> counts(RoaringBitmap base, String[] labels, RoaringBitmap[] bitmaps,
+                                                int[] rowOrdinals) {
+            long[] counts = new long[labels.length];
+            if (base.getCardinality() <= SCAN_COUNT_LIMIT) {
+                base.forEach((int row) -> {
+                    if (rowOrdinals[row] >= 0) counts[rowOrdinals[row]]++;
+                });
+            } else {
+                for (int i = 0; i < bitmaps.length; i++) {
+                    counts[i] = count(base, bitmaps[i]);
+                }
+            }
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (int i = 0; i < labels.length; i++) {
+                result.put(labels[i], counts[i]);
+            }
+            return result;
+        }
+
+        // Если фасет не задан, пересечение остальных совпадает с уже посчитанным matched
+        private RoaringBitmap excluding(RoaringBitmap[] constraints, int facet, RoaringBitmap matched) {
+            return constraints[facet] == null ? matched : intersect(constraints, facet);
+        }
+
+        int[] order(Sort sort) {
+            return switch (sort) {
+                case RATING -> snapshot.allRows();
+                case DOWNLOADS -> byDownloads;
+                case NEWEST -> byNewest;
+            };
+        }
+
+        /**
+         * Ключ строки для сортировки: (k0 DESC, k1 DESC, id ASC).
+         */
+        long[] key(Sort sort, int row) {
+            return switch (sort) {
+                case RATING -> new long[]{Float.floatToIntBits(snapshot.rating(row)), snapshot.downloads(row), snapshot.id(row)};
+                case DOWNLOADS -> new long[]{snapshot.downloads(row), 0, snapshot.id(row)};
+                case NEWEST -> new long[]{snapshot.createdAtEpochSecond(row), 0, snapshot.id(row)};
+            };
+        }
+
+        /**
+         * Позиция в order первой строки строго после ключа after.
+         */
+        int seek(int[] order, Sort sort, long[] after) {
+            int lo = 0;
+            int hi = order.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(key(sort, order[mid]), after) <= 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        int[] page(RoaringBitmap matched, Sort sort, int[] order, int from, int limit) {
+            int[] page = new int[limit];
+            int count = 0;
+            if (sort == Sort.RATING) {
+                // Порядок витрины совпадает с номерами строк: идём по самому битмапу
+                PeekableIntIterator it = matched.getIntIterator();
+                it.advanceIfNeeded(from);
+                while (count < limit && it.hasNext()) {
+                    page[count++] = it.next();
+                }
+            } else if ((long) matched.getCardinality() * 8 < order.length - from) {
+                // Редкий фильтр: переводим совпадения в позиции нужного порядка вместо полного прохода
+                int[] positions = sort == Sort.DOWNLOADS ? downloadsPositions : newestPositions;
+                RoaringBitmap ranked = new RoaringBitmap();
+                matched.forEach((int row) -> ranked.add(positions[row]));
+                PeekableIntIterator it = ranked.getIntIterator();
+                it.advanceIfNeeded(from);
+                while (count < limit && it.hasNext()) {
+                    page[count++] = order[it.next()];
+                }
+            } else {
+                for (int i = from; i < order.length && count < limit; i++) {
+                    if (matched.contains(order[i])) {
+                        page[count++] = order[i];
+                    }
+                }
+            }
+            return Arrays.copyOf(page, count);
+        }
+
+        // Строки отсортированы по рейтингу, значит подходящие образуют префикс [0, end)
+        private RoaringBitmap ratingAtLeast(float minRating) {
+            return RoaringBitmap.bitmapOfRange(0, ratingPrefix(minRating));
+        }
+
+        private int ratingPrefix(float minRating) {
+            int lo = 0;
+            int hi = snapshot.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (snapshot.rating(mid) >= minRating) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private RoaringBitmap flag(RoaringBitmap bitmap, Boolean value) {
+            if (value == null) {
+                return null;
+            }
+            return value ? bitmap : RoaringBitmap.andNot(all, bitmap);
+        }
+
+        private int[] sortedRows(Sort sort) {
+            Integer[] rows = new Integer[snapshot.size()];
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = row;
+            }
+            Arrays.sort(rows, Comparator.comparing((Integer row) -> key(sort, row), Index::compare));
+            return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+        }
+
+        private static int[] ordinals(int size, RoaringBitmap[] bitmaps) {
+            int[] ordinals = new int[size];
+            Arrays.fill(ordinals, -1);
+            for (int i = 0; i < bitmaps.length; i++) {
+                int ordinal = i;
+                bitmaps[i].forEach((int row) -> ordinals[row] = ordinal);
+            }
+            return ordinals;
+        }
+
+        private static int[] inverse(int[] order) {
+            int[] positions = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                positions[order[i]] = i;
+            }
+            return positions;
+        }
+
+        private static RoaringBitmap union(RoaringBitmap[] bitmaps) {
+            RoaringBitmap result = new RoaringBitmap();
+            for (RoaringBitmap bitmap : bitmaps) {
+                if (bitmap != null) result.or(bitmap);
+            }
+            return result;
+        }
+
+        private static long count(RoaringBitmap base, RoaringBitmap values) {
+            return RoaringBitmap.andCardinality(base, values);
+        }
+
+        private static int compare(long[] a, long[] b) {
+            int c = Long.compare(b[0], a[0]);
+            if (c != 0) return c;
+            c = Long.compare(b[1], a[1]);
+            if (c != 0) return c;
+            return Long.compare(a[2], b[2]);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package stankin.backend.catalog;
+
+/**
+ * Стеммер Портера (Snowball) для русского языка.
+ * Ожидает слово в нижнем регистре с уже заменённой «ё» на «е»; латиницу и цифры не трогает.
+ */
+final class RussianStemmer {
+
+    private static final String VOWELS = "аеиоуыэюя";
+
+    private static final String[] PERFECTIVE_GERUND_1 = {"вшись", "вши", "в"};
+    private static final String[] PERFECTIVE_GERUND_2 = {"ывшись", "ившись", "ывши", "ивши", "ыв", "ив"};
+    private static final String[] ADJECTIVE = {
+            "ими", "ыми", "его", "ого", "ему", "ому",
+            "ее", "ие", "ые", "ое", "ей", "ий", "ый", "ой", "ем", "им", "ым", "ом",
+            "их", "ых", "ую", "юю", "ая", "яя", "ою", "ею"};
+    private static final String[] PARTICIPLE_1 = {"ем", "нн", "вш", "ющ", "щ"};
+    private static final String[] PARTICIPLE_2 = {"ивш", "ывш", "ующ"};
+    private static final String[] REFLEXIVE = {"ся", "сь"};
+    private static final String[] VERB_1 = {
+            "ете", "йте", "ешь", "нно", "ла", "на", "ли", "ем", "ло", "но", "ет", "ют", "ны", "ть", "й", "л", "н"};
+    private static final String[] VERB_2 = {
+            "ейте", "уйте", "ила", "ыла", "ена", "ите", "или", "ыли", "ило", "ыло", "ено", "ует", "уют", "ены",
+            "ить", "ыть", "ишь", "ей", "уй", "ил", "ыл", "им", "ым", "ен", "ят", "ит", "ыт", "ую", "ю"};
+    private static final String[] NOUN = {
+            "иями", "ями", "ами", "ией", "иям", "ием", "иях",
+            "ев", "ов", "ие", "ье", "еи", "ии", "ей", "ой", "ий", "ям", "ем", "ам", "ом", "ах", "ях", "ию", "ью",
+            "ия", "ья", "а", "е", "и", "й", "о", "у", "ы", "ь", "ю", "я"};
+    private static final String[] SUPERLATIVE = {"ейше", "ейш"};
+    private static final String[] DERIVATIONAL = {"ость", "ост"};
+
+    private RussianStemmer() {
+    }
+
+    static String stem(String word) {
+        int rv = rvStart(word);
+        if (rv < 0) {
+            return word;
+        }
+        StringBuilder sb = new StringBuilder(word);
+        int r2 = r2Start(word);
+
+        // Шаг 1
+        if (!removeGrouped(sb, rv, PERFECTIVE_GERUND_1, PERFECTIVE_GERUND_2)) {
+            removeLongest(sb, rv, REFLEXIVE);
+            if (removeLongest(sb, rv, ADJECTIVE)) {
+                removeGrouped(sb, rv, PARTICIPLE_1, PARTICIPLE_2);
+            } else if (!removeGrouped(sb, rv, VERB_1, VERB_2)) {
+                removeLongest(sb, rv, NOUN);
+            }
+        }
+
+        // Шаг 2
+        if (sb.length() > rv && sb.charAt(sb.length() - 1) == 'и') {
+            sb.setLength(sb.length() - 1);
+        }
+
+        // Шаг 3
+        if (r2 >= 0) {
+            removeLongest(sb, r2, DERIVATIONAL);
+        }
+
+        // Шаг 4
+        if (endsWith(sb, rv, "нн")) {
+            sb.setLength(sb.length() - 1);
+        } else if (removeLongest(sb, rv, SUPERLATIVE)) {
+            if (endsWith(sb, rv, "нн")) {
+                sb.setLength(sb.length() - 1);
+            }
+        } else if (sb.length() > rv && sb.charAt(sb.length() - 1) == 'ь') {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Группа 1 снимается, только если перед окончанием стоит «а» или «я», группа 2 — всегда.
+     */
+    private static boolean removeGrouped(StringBuilder sb, int from, String[] group1, String[] group2) {
+        String best1 = longestSuffix(sb, from, group1);
+        if (best1 != null) {
+            int at = sb.length() - best1.length();
+            if (at - 1 < from || (sb.charAt(at - 1) != 'а' && sb.charAt(at - 1) != 'я')) {
+                best1 = null;
+            }
+        }
+        String best2 = longestSuffix(sb, from, group2);
+        String best = best1 == null ? best2
+                : best2 == null ? best1
+                : best2.length() >= best1.length() ? best2 : best1;
+        if (best == null) {
+            return false;
+        }
+        sb.setLength(sb.length() - best.length());
+        return true;
+    }
+
+    private static boolean removeLongest(StringBuilder sb, int from, String[] suffixes) {
+        String best = longestSuffix(sb, from, suffixes);
+        if (best == null) {
+            return false;
+        }
+        sb.setLength(sb.length() - best.length());
+        return true;
+    }
+
+    private static String longestSuffix(StringBuilder sb, int from, String[] suffixes) {
+        String best = null;
+        for (String suffix : suffixes) {
+            if (endsWith(sb, from, suffix) && (best == null || suffix.length() > best.length())) {
+                best = suffix;
+            }
+        }
+        return best;
+    }
+
+    private static boolean endsWith(StringBuilder sb, int from, String suffix) {
+        int at = sb.length() - suffix.length();
+        if (at < from) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (sb.charAt(at + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // RV: часть слова после первой гласной
+    private static int rvStart(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (isVowel(word.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // R1: после первой согласной, следующей за гласной; R2 — то же внутри R1
+    private static int r2Start(String word) {
+        int r1 = regionAfter(word, 0);
+        return r1 < 0 ? -1 : regionAfter(word, r1);
+    }
+
+    private static int regionAfter(String word, int from) {
+        for (int i = from + 1; i < word.length(); i++) {
+            if (!isVowel(word.charAt(i)) && isVowel(word.charAt(i - 1))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isVowel(char c) {
+        return VOWELS.indexOf(c) >= 0;
+    }
+}
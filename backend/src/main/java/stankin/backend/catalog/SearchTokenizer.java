@@ -0,0 +1,76 @@
+package stankin.backend.catalog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Нормализация текста для поиска: нижний регистр, «ё» -> «е», разбиение по всему,
+ * что не буква и не цифра. Кириллические слова дополнительно приводятся к основе.
+ */
+final class SearchTokenizer {
+
+    static final int MIN_TOKEN_LENGTH = 2;
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * Нормализованные слова без стемминга (для префиксного поиска).
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return words;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                addWord(words, word);
+            }
+        }
+        addWord(words, word);
+        return words;
+    }
+
+    /**
+     * Термы для индекса: слова длиной от MIN_TOKEN_LENGTH, кириллица — после стемминга.
+     */
+    static List<String> terms(String text) {
+        List<String> words = words(text);
+        List<String> terms = new ArrayList<>(words.size());
+        for (String word : words) {
+            if (word.length() >= MIN_TOKEN_LENGTH) {
+                terms.add(stem(word));
+            }
+        }
+        return terms;
+    }
+
+    static String stem(String word) {
+        return isCyrillic(word) ? RussianStemmer.stem(word) : word;
+    }
+
+    static char normalize(char c) {
+        char lower = Character.toLowerCase(c);
+        return lower == 'ё' ? 'е' : lower;
+    }
+
+    private static void addWord(List<String> words, StringBuilder word) {
+        if (word.length() > 0) {
+            words.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isCyrillic(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.UnicodeBlock.of(word.charAt(i)) == Character.UnicodeBlock.CYRILLIC) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
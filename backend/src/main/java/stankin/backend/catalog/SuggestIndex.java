@@ -0,0 +1,100 @@
+package stankin.backend.catalog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Автодополнение по названиям, пакетам и разработчикам приложений.
+ * <p>
+ * Дерево строится из снапшота каталога целиком и подменяется атомарно;
+ * пересборка идёт в фоне по CatalogChangedEvent, запросы в это время обслуживает старое дерево.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SuggestIndex {
+
+    public static final int TOP_K = 8;
+
+    private static final String[] MATCHES = {"name", "developer", "package"};
+
+    private final AppCatalog appCatalog;
+
+    private volatile Built built;
+
+    /**
+     * Подсказка: строка снапшота, по которому построено дерево, и поле, по которому совпал префикс.
+     */
+    public record Suggestion(CatalogSnapshot snapshot, int row, String matchedBy) {
+    }
+
+    public List<Suggestion> suggest(String prefix, int limit) {
+        Built current = built();
+        SuggestTrie trie = current.trie;
+        int node = trie.find(prefix);
+        int count = Math.max(0, Math.min(trie.completions(node), limit));
+        List<Suggestion> result = new ArrayList<>(count);
+        for (int rank = 0; rank < count; rank++) {
+            int row = current.snapshot.rowOf(trie.appId(node, rank));
+            if (row >= 0) {
+                result.add(new Suggestion(current.snapshot, row, MATCHES[trie.match(node, rank)]));
+            }
+        }
+        return result;
+    }
+
+    @Async
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        rebuild(event.snapshot());
+    }
+
+    private Built built() {
+        Built current = built;
+        if (current != null) {
+            return current;
+        }
+        rebuild(appCatalog.snapshot());
+        return built;
+    }
+
+    private synchronized void rebuild(CatalogSnapshot snapshot) {
+        Built current = built;
+        if (current != null && current.snapshot.version() >= snapshot.version()) {
+            return;
+        }
+        long started = System.nanoTime();
+        SuggestTrie.Builder builder = new SuggestTrie.Builder(TOP_K);
+        for (int row = 0; row < snapshot.size(); row++) {
+            int appId = snapshot.id(row);
+            float weight = weight(snapshot.downloads(row), snapshot.rating(row));
+            String name = snapshot.name(row);
+            builder.add(name, appId, weight, SuggestTrie.MATCH_NAME);
+            // Каждое следующее слово названия тоже начало ключа: «музы» находит «Яндекс Музыка»
+            if (name != null) {
+                for (int i = name.indexOf(' '); i >= 0; i = name.indexOf(' ', i + 1)) {
+                    builder.add(name.substring(i + 1), appId, weight * 0.9f, SuggestTrie.MATCH_NAME);
+                }
+            }
+            builder.add(snapshot.developer(row), appId, weight * 0.8f, SuggestTrie.MATCH_DEVELOPER);
+            builder.add(snapshot.packageName(row), appId, weight * 0.7f, SuggestTrie.MATCH_PACKAGE);
+        }
+        built = new Built(snapshot, builder.build());
+        log.debug("Suggest trie for catalog v{} built in {} ms",
+                snapshot.version(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    // Популярность в логарифмической шкале, умноженная на рейтинг
+    private static float weight(long downloads, float rating) {
+        return (float) (Math.log1p(Math.max(downloads, 0)) * (1 + Math.max(rating, 0)));
+    }
+
+    private record Built(CatalogSnapshot snapshot, SuggestTrie trie) {
+    }
+}
@@ -0,0 +1,245 @@
+package stankin.backend.catalog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Сжатое префиксное дерево (radix tree) для автодополнения, разложенное по плоским массивам.
+ * <p>
+ * Каждый узел хранит заранее посчитанные top-K приложений своего поддерева по весу,
+ * поэтому поиск — это спуск по префиксу без выделения памяти и чтение среза topApps.
+ * Ключи нормализуются так же, как в поиске (нижний регистр, «ё» -> «е»).
+ */
+final class SuggestTrie {
+
+    static final byte MATCH_NAME = 0;
+    static final byte MATCH_DEVELOPER = 1;
+    static final byte MATCH_PACKAGE = 2;
+
+    private final int topK;
+
+    // Метки рёбер: label узла = labels[labelStart, labelStart + labelLength)
+    private final char[] labels;
+    private final int[] labelStart;
+    private final int[] labelLength;
+    // Дети узла лежат подряд: [firstChild, firstChild + childCount), упорядочены по первому символу
+    private final int[] firstChild;
+    private final int[] childCount;
+    // top-K узла: [node * topK, node * topK + topCount[node])
+    private final int[] topApps;
+    private final byte[] topMatch;
+    private final int[] topCount;
+
+    private SuggestTrie(int topK, char[] labels, int[] labelStart, int[] labelLength, int[] firstChild,
+                        int[] childCount, int[] topApps, byte[] topMatch, int[] topCount) {
+        this.topK = topK;
+        this.labels = labels;
+        this.labelStart = labelStart;
+        this.labelLength = labelLength;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.topApps = topApps;
+        this.topMatch = topMatch;
+        this.topCount = topCount;
+    }
+
+    /**
+     * Узел, поддерево которого содержит все ключи с данным префиксом, или -1.
+     */
+    int find(CharSequence prefix) {
+        int node = 0;
+        int i = skipSpaces(prefix, 0);
+        while (i < prefix.length()) {
+            int child = findChild(node, normalizedAt(prefix, i));
+            if (child < 0) {
+                return -1;
+            }
+            int start = labelStart[child];
+            int length = labelLength[child];
+            for (int j = 0; j < length && i < prefix.length(); j++, i++) {
+                if (labels[start + j] != normalizedAt(prefix, i)) {
+                    return -1;
+                }
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    int completions(int node) {
+        return node < 0 ? 0 : topCount[node];
+    }
+
+    int appId(int node, int rank) {
+        return topApps[node * topK + rank];
+    }
+
+    byte match(int node, int rank) {
+        return topMatch[node * topK + rank];
+    }
+
+    private int findChild(int node, char c) {
+        int lo = firstChild[node];
+        int hi = lo + childCount[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char first = labels[labelStart[mid]];
+            if (first < c) lo = mid + 1;
+            else if (first > c) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    // Любой пробельный символ сравнивается как обычный пробел, которым ключи разделены при нормализации
+    private static char normalizedAt(CharSequence s, int i) {
+        char c = SearchTokenizer.normalize(s.charAt(i));
+        return Character.isWhitespace(c) ? ' ' : c;
+    }
+
+    private static int skipSpaces(CharSequence s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    static String normalizeKey(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = SearchTokenizer.normalize(text.charAt(i));
+            if (Character.isWhitespace(c)) {
+                if (!space) sb.append(' ');
+                space = true;
+            } else {
+                sb.append(c);
+                space = false;
+            }
+        }
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') end--;
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * Накопитель ключей; build() сворачивает цепочки узлов с одним ребёнком и раскладывает дерево по массивам.
+     */
+    static final class Builder {
+
+        private final int topK;
+        private final Node root = new Node();
+
+        Builder(int topK) {
+            this.topK = topK;
+        }
+
+        void add(String text, int appId, float weight, byte match) {
+            if (text == null) {
+                return;
+            }
+            String key = normalizeKey(text);
+            if (key.isEmpty()) {
+                return;
+            }
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+            }
+            node.entries.add(new Entry(appId, weight, match));
+        }
+
+        SuggestTrie build() {
+            computeTop(root);
+
+            // Сжатие: узел с единственным ребёнком и без собственных ключей сливается с ребёнком
+            List<Packed> packed = new ArrayList<>();
+            packed.add(new Packed(root, ""));
+            StringBuilder allLabels = new StringBuilder();
+            List<int[]> childRanges = new ArrayList<>();
+            Deque<Integer> queue = new ArrayDeque<>();
+            queue.add(0);
+            while (!queue.isEmpty()) {
+                int index = queue.poll();
+                Packed current = packed.get(index);
+                int first = packed.size();
+                for (var child : current.node.children.entrySet()) {
+                    StringBuilder label = new StringBuilder().append(child.getKey());
+                    Node node = child.getValue();
+                    while (node.children.size() == 1 && node.entries.isEmpty()) {
+                        var only = node.children.firstEntry();
+                        label.append(only.getKey());
+                        node = only.getValue();
+                    }
+                    packed.add(new Packed(node, label.toString()));
+                    queue.add(packed.size() - 1);
+                }
+                childRanges.add(new int[]{index, first, packed.size() - first});
+            }
+
+            int n = packed.size();
+            int[] labelStart = new int[n];
+            int[] labelLength = new int[n];
+            int[] firstChild = new int[n];
+            int[] childCount = new int[n];
+            int[] topApps = new int[n * topK];
+            byte[] topMatch = new byte[n * topK];
+            int[] topCount = new int[n];
+            for (int i = 0; i < n; i++) {
+                Packed p = packed.get(i);
+                labelStart[i] = allLabels.length();
+                labelLength[i] = p.label.length();
+                allLabels.append(p.label);
+                List<Entry> top = p.node.top;
+                topCount[i] = top.size();
+                for (int r = 0; r < top.size(); r++) {
+                    topApps[i * topK + r] = top.get(r).appId;
+                    topMatch[i * topK + r] = top.get(r).match;
+                }
+            }
+            for (int[] range : childRanges) {
+                firstChild[range[0]] = range[1];
+                childCount[range[0]] = range[2];
+            }
+            char[] labels = new char[allLabels.length()];
+            allLabels.getChars(0, labels.length, labels, 0);
+            return new SuggestTrie(topK, labels, labelStart, labelLength, firstChild, childCount,
+                    topApps, topMatch, topCount);
+        }
+
+        // top-K поддерева: собственные ключи узла плюс top-K детей, одно приложение — один раз
+        private List<Entry> computeTop(Node node) {
+            List<Entry> candidates = new ArrayList<>(node.entries);
+            for (Node child : node.children.values()) {
+                candidates.addAll(computeTop(child));
+            }
+            candidates.sort((a, b) -> Float.compare(b.weight, a.weight));
+            List<Entry> top = new ArrayList<>(topK);
+            int[] seen = new int[topK];
+            for (Entry entry : candidates) {
+                if (top.size() == topK) break;
+                if (Arrays.stream(seen, 0, top.size()).noneMatch(id -> id == entry.appId)) {
+                    seen[top.size()] = entry.appId;
+                    top.add(entry);
+                }
+            }
+            node.top = top;
+            return top;
+        }
+
+        private record Entry(int appId, float weight, byte match) {
+        }
+
+        private record Packed(Node node, String label) {
+        }
+
+        private static final class Node {
+            private final TreeMap<Character, Node> children = new TreeMap<>();
+            private final List<Entry> entries = new ArrayList<>(1);
+            private List<Entry> top = List.of();
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 @Configuration
 public class ClickHouseConfig {
@@ -50,9 +52,22 @@ public class ClickHouseConfig {
         return new HikariDataSource(config);
     }
 
+    /**
+     * Если в потоке выставлен QueryDeadline (ветка FanOutExecutor), запрос получает query timeout по остатку срока
+     * (в JDBC — целые секунды, не меньше одной), чтобы ClickHouse прервал его после таймаута ветки.
+     */
     @Bean
     public JdbcTemplate jdbcTemplate(DataSource dataSource) {
-        return new JdbcTemplate(dataSource);
+        return new JdbcTemplate(dataSource) {
+            @Override
+            protected void applyStatementSettings(Statement stmt) throws SQLException {
+                super.applyStatementSettings(stmt);
+                long remainingMs = QueryDeadline.remainingMillis();
+                if (remainingMs >= 0) {
+                    stmt.setQueryTimeout((int) Math.max(1, (remainingMs + 999) / 1000));
+                }
+            }
+        };
     }
 }
 
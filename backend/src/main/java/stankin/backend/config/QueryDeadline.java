@@ -0,0 +1,36 @@
+package stankin.backend.config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Срок запросов к ClickHouse, выполняемых в текущем потоке (по System.nanoTime()).
+ * <p>
+ * Выставляется исполнителем веток (FanOutExecutor) на время ветки; JdbcTemplate из ClickHouseConfig
+ * переводит остаток срока в query timeout.
+ */
+public final class QueryDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private QueryDeadline() {
+    }
+
+    public static void set(long deadlineNanos) {
+        DEADLINE.set(deadlineNanos);
+    }
+
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Сколько миллисекунд осталось до срока: 0, если срок уже вышел, и -1, если срок не выставлен.
+     */
+    public static long remainingMillis() {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+}
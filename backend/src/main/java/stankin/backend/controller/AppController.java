@@ -1,26 +1,66 @@
 package stankin.backend.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import stankin.backend.catalog.FacetFilter;
+import stankin.backend.dto.AppBatchDTO;
 import stankin.backend.dto.AppDTO;
 import stankin.backend.dto.AppDetailDTO;
+import stankin.backend.dto.AppFilterResultDTO;
+import stankin.backend.dto.PageDTO;
+import stankin.backend.dto.SuggestionDTO;
 import stankin.backend.service.AppService;
+import stankin.backend.service.CatalogExporter;
+import stankin.backend.service.CuratedPayloadCache;
+import stankin.backend.service.CuratedPayloadCache.CuratedList;
 import stankin.backend.service.RecommendationService;
 
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/apps")
 @RequiredArgsConstructor
 public class AppController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
     private final AppService appService;
     private final RecommendationService recommendationService;
+    private final CuratedPayloadCache curatedPayloadCache;
+    private final CatalogExporter catalogExporter;
 
     @GetMapping
-    public ResponseEntity<List<AppDTO>> getAllApps() {
-        return ResponseEntity.ok(appService.getAllApps());
+    public ResponseEntity<List<AppDTO>> getAllApps(@RequestParam(required = false) String cursor,
+                                                   @RequestParam(required = false) Integer limit) {
+        return page(appService.getAllApps(cursor, limit));
+    }
+
+    /**
+     * Потоковая выгрузка всего каталога, выбирается заголовком Accept: application/x-ndjson.
+     */
+    @GetMapping(produces = NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> exportAllApps() {
+        MediaType ndjson = MediaType.parseMediaType(NDJSON_VALUE);
+        return ResponseEntity.ok()
+                .contentType(ndjson)
+                .body(catalogExporter.export(ndjson));
+    }
+
+    @GetMapping("/batch")
+    public ResponseEntity<AppBatchDTO> getAppsBatch(@RequestParam List<Integer> ids) {
+        return ResponseEntity.ok(appService.getAppsByIds(ids));
+    }
+
+    // Для длинных списков, не помещающихся в строку запроса
+    @PostMapping("/batch")
+    public ResponseEntity<AppBatchDTO> postAppsBatch(@RequestBody List<Integer> ids) {
+        return ResponseEntity.ok(appService.getAppsByIds(ids));
     }
 
     @GetMapping("/{id}")
@@ -32,39 +72,86 @@ public class AppController {
         return ResponseEntity.ok(appService.getAppById(id));
     }
 
+    @GetMapping("/{id}/similar")
+    public ResponseEntity<List<AppDTO>> getSimilarApps(@PathVariable Integer id,
+                                                       @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(appService.getSimilarApps(id, limit));
+    }
+
+    // Похожие сразу на несколько приложений, например на избранное пользователя
+    @GetMapping("/more-like-this")
+    public ResponseEntity<List<AppDTO>> getMoreLikeThis(@RequestParam List<Integer> ids,
+                                                        @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(appService.getMoreLikeThis(ids, limit));
+    }
+
     @GetMapping("/category/{categoryId}")
-    public ResponseEntity<List<AppDTO>> getAppsByCategory(@PathVariable Integer categoryId) {
-        return ResponseEntity.ok(appService.getAppsByCategory(categoryId));
+    public ResponseEntity<List<AppDTO>> getAppsByCategory(@PathVariable Integer categoryId,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(required = false) Integer limit) {
+        return page(appService.getAppsByCategory(categoryId, cursor, limit));
     }
 
     @GetMapping("/free")
-    public ResponseEntity<List<AppDTO>> getFreeApps() {
-        return ResponseEntity.ok(appService.getFreeApps());
+    public ResponseEntity<List<AppDTO>> getFreeApps(@RequestParam(required = false) String cursor,
+                                                    @RequestParam(required = false) Integer limit) {
+        return page(appService.getFreeApps(cursor, limit));
     }
 
     @GetMapping("/paid")
-    public ResponseEntity<List<AppDTO>> getPaidApps() {
-        return ResponseEntity.ok(appService.getPaidApps());
+    public ResponseEntity<List<AppDTO>> getPaidApps(@RequestParam(required = false) String cursor,
+                                                    @RequestParam(required = false) Integer limit) {
+        return page(appService.getPaidApps(cursor, limit));
     }
 
     @GetMapping("/editor-choice")
-    public ResponseEntity<List<AppDTO>> getEditorChoice() {
-        return ResponseEntity.ok(appService.getEditorChoice());
+    public ResponseEntity<byte[]> getEditorChoice(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return curated(CuratedList.EDITOR_CHOICE, acceptEncoding);
     }
 
     @GetMapping("/new")
-    public ResponseEntity<List<AppDTO>> getNewApps() {
-        return ResponseEntity.ok(appService.getNewApps());
+    public ResponseEntity<byte[]> getNewApps(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return curated(CuratedList.NEW, acceptEncoding);
     }
 
     @GetMapping("/popular")
-    public ResponseEntity<List<AppDTO>> getPopularApps() {
-        return ResponseEntity.ok(appService.getPopularApps());
+    public ResponseEntity<byte[]> getPopularApps(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return curated(CuratedList.POPULAR, acceptEncoding);
     }
 
     @GetMapping("/search")
-    public ResponseEntity<List<AppDTO>> searchApps(@RequestParam String q) {
-        return ResponseEntity.ok(appService.searchApps(q));
+    public ResponseEntity<List<AppDTO>> searchApps(@RequestParam String q,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(required = false) Integer limit) {
+        return page(appService.searchApps(q, cursor, limit));
+    }
+
+    /**
+     * Произвольная комбинация фасетов; значения одного фасета через запятую объединяются по ИЛИ.
+     */
+    @GetMapping("/filter")
+    public ResponseEntity<AppFilterResultDTO> filterApps(
+            @RequestParam(required = false) Set<Integer> categoryId,
+            @RequestParam(required = false) Set<String> ageRating,
+            @RequestParam(required = false) Boolean free,
+            @RequestParam(required = false) Boolean editorChoice,
+            @RequestParam(required = false) Boolean isNew,
+            @RequestParam(required = false) Boolean popular,
+            @RequestParam(required = false) Float minRating,
+            @RequestParam(defaultValue = "rating") String sort,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        FacetFilter filter = new FacetFilter(categoryId, ageRating, free, editorChoice, isNew, popular, minRating);
+        return ResponseEntity.ok(appService.filterApps(filter, sort, cursor, limit));
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<List<SuggestionDTO>> suggest(@RequestParam String prefix,
+                                                       @RequestParam(defaultValue = "8") int limit) {
+        return ResponseEntity.ok(appService.suggest(prefix, limit));
     }
 
     @GetMapping("/recommendations")
@@ -78,6 +165,51 @@ public class AppController {
     public ResponseEntity<Void> trackInstall(@PathVariable Integer id,
                                              @RequestParam Integer userId) {
         recommendationService.trackActivity(userId, id, "install");
+        appService.registerDownload(id);
         return ResponseEntity.ok().build();
     }
+
+    // Тело остаётся списком, курсор следующей страницы отдаём заголовком
+    private static ResponseEntity<List<AppDTO>> page(PageDTO<AppDTO> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+
+    // Отдаём заранее сериализованные байты; If-None-Match и ответ 304 обрабатывает Spring по ETag
+    private ResponseEntity<byte[]> curated(CuratedList list, String acceptEncoding) {
+        CuratedPayloadCache.Payload payload = curatedPayloadCache.get(list);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(acceptEncoding)) {
+            return response.eTag(payload.gzipEtag())
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(payload.gzip());
+        }
+        return response.eTag(payload.identityEtag()).body(payload.identity());
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
 }
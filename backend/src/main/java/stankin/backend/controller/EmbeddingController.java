@@ -0,0 +1,26 @@
+package stankin.backend.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import stankin.backend.dto.HnswReportDTO;
+import stankin.backend.embedding.EmbeddingStore;
+
+@RestController
+@RequestMapping("/api/admin/embeddings")
+@RequiredArgsConstructor
+public class EmbeddingController {
+
+    private final EmbeddingStore embeddingStore;
+
+    /**
+     * Полнота recall@k HNSW-индекса и задержки против точного перебора; ef не задан — embeddings.hnsw.ef-search.
+     * 503, пока индекс не построен, 429, если отчёт уже считается. Только для ADMIN (/api/admin/**).
+     */
+    @GetMapping("/hnsw/report")
+    public ResponseEntity<HnswReportDTO> hnswReport(@RequestParam(defaultValue = "200") int queries,
+                                                    @RequestParam(defaultValue = "10") int k,
+                                                    @RequestParam(defaultValue = "0") int ef) {
+        return ResponseEntity.ok(embeddingStore.hnswReport(queries, k, ef));
+    }
+}
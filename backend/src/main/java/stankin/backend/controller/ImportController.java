@@ -0,0 +1,49 @@
+package stankin.backend.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import stankin.backend.dto.ImportReportDTO;
+import stankin.backend.importer.BulkImporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+@RestController
+@RequestMapping("/api/admin/import")
+@RequiredArgsConstructor
+public class ImportController {
+
+    private final BulkImporter bulkImporter;
+
+    /**
+     * Тело запроса — CSV с заголовком или JSON Lines (format=csv|jsonl), можно с Content-Encoding: gzip.
+     * target: apps, screenshots, video_clips. Ответ — отчёт загрузки: 200, если загружено всё,
+     * 422 при остановке по отклонённым строкам, 502 при ошибке записи.
+     */
+    @PostMapping("/{target}")
+    public ResponseEntity<ImportReportDTO> importRows(@PathVariable String target,
+                                                      @RequestParam(defaultValue = "csv") String format,
+                                                      HttpServletRequest request) throws IOException {
+        InputStream input = request.getInputStream();
+        if ("gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+            input = new GZIPInputStream(input, 1 << 16);
+        }
+        ImportReportDTO report;
+        try {
+            report = bulkImporter.run(target, format, input);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        HttpStatus status = switch (report.outcome()) {
+            case "completed" -> HttpStatus.OK;
+            case "too-many-rejects" -> HttpStatus.UNPROCESSABLE_ENTITY;
+            default -> HttpStatus.BAD_GATEWAY;
+        };
+        return ResponseEntity.status(status).body(report);
+    }
+}
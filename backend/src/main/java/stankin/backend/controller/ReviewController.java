@@ -5,7 +5,9 @@ package stankin.backend.controller;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import stankin.backend.dto.PageDTO;
 import stankin.backend.dto.ReviewDTO;
+import stankin.backend.dto.ReviewSummaryDTO;
 import stankin.backend.service.ReviewService;
 
 import java.util.List;
@@ -17,11 +19,27 @@ public class ReviewController {
 
     private final ReviewService reviewService;
 
+    /**
+     * sort: newest, helpful, rating_desc, rating_asc. Тело — список, курсор следующей страницы
+     * приходит заголовком X-Next-Cursor, как в каталоге.
+     */
     @GetMapping("/app/{appId}")
     public ResponseEntity<List<ReviewDTO>> getReviewsByAppId(
             @PathVariable Integer appId,
+            @RequestParam(defaultValue = "newest") String sort,
+            @RequestParam(required = false) String cursor,
             @RequestParam(defaultValue = "10") int limit) {
-        return ResponseEntity.ok(reviewService.getReviewsByAppId(appId, limit));
+        PageDTO<ReviewDTO> page = reviewService.getReviews(appId, sort, cursor, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(AppController.NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+
+    @GetMapping("/app/{appId}/summary")
+    public ResponseEntity<ReviewSummaryDTO> getSummary(@PathVariable Integer appId) {
+        return ResponseEntity.ok(reviewService.getSummary(appId));
     }
 
     @PostMapping
@@ -6,6 +6,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import stankin.backend.dto.VideoClipDTO;
+import stankin.backend.dto.VideoEngagementDTO;
 import stankin.backend.service.VideoFeedService;
 
 
@@ -44,17 +45,23 @@ public class VideoFeedController {
     @PostMapping("/{videoId}/like")
     public ResponseEntity<Map<String, Object>> toggleLike(
             @PathVariable UUID videoId,
-            @RequestParam Integer userId) {
+            @RequestParam Integer userId,
+            @RequestParam(required = false) Boolean liked) {
 
-        boolean liked = videoFeedService.toggleLike(userId, videoId);
+        boolean nowLiked = videoFeedService.toggleLike(userId, videoId, liked);
         long newLikeCount = videoFeedService.getLikeCount(videoId);
 
         return ResponseEntity.ok(Map.of(
-                "liked", liked,
+                "liked", nowLiked,
                 "likeCount", newLikeCount
         ));
     }
 
+    @GetMapping("/{videoId}/engagement")
+    public ResponseEntity<VideoEngagementDTO> getEngagement(@PathVariable UUID videoId) {
+        return ResponseEntity.ok(videoFeedService.getEngagement(videoId));
+    }
+
     @PostMapping("/{videoId}/not-interested")
     public ResponseEntity<Void> markNotInterested(
             @PathVariable UUID videoId,
@@ -68,9 +75,10 @@ public class VideoFeedController {
     @PostMapping("/{videoId}/wishlist")
     public ResponseEntity<Map<String, Boolean>> toggleWishlist(
             @PathVariable UUID videoId,
-            @RequestParam Integer userId) {
+            @RequestParam Integer userId,
+            @RequestParam(required = false) Boolean inWishlist) {
 
-        boolean added = videoFeedService.toggleWishlist(userId, videoId);
+        boolean added = videoFeedService.toggleWishlist(userId, videoId, inWishlist);
         return ResponseEntity.ok(Map.of("inWishlist", added));
     }
 
@@ -0,0 +1,378 @@
+package stankin.backend.counter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики-приращения вместо ALTER TABLE ... UPDATE на каждый клик.
+ * <p>
+ * Приращения копятся в LongAdder (полосатые счётчики без общей блокировки) и раз в
+ * counters.flush-interval-ms пишутся строками в rustore.counter_deltas (SummingMergeTree).
+ * Значение счётчика = базовое значение из основной таблицы + уже записанные дельты + ещё не записанные.
+ * <p>
+ * Разделение на записанное, отправленное текущим сбросом (inFlight) и ждущее сброса делает только
+ * flush(): снятые суммы публикуются как inFlight и вычитаются из LongAdder, а после INSERT переходят
+ * в записанное. Оба перехода короткие и обрамлены счётчиком эпохи, как seqlock: delta() перечитывает
+ * сумму, если переход шёл во время чтения, поэтому во время сброса она не проседает и не двоится.
+ * Инкремент блокировок не берёт. Записанное держится
+ * в ограниченном кэше counters.max-keys ключей и периодически перечитывается, чтобы учесть другие
+ * инстансы. Если в таблице ключей больше лимита, промах на пути запроса не ходит в ClickHouse:
+ * ключ встаёт в очередь, которую loadMisses() дочитывает пачками, а до того считается нулём.
+ */
+@Slf4j
+@Component
+public class DeltaCounters {
+
+    public enum Counter {
+        APP_DOWNLOADS("app_downloads"),
+        REVIEW_HELPFUL("review_helpful");
+
+        private final String column;
+
+        Counter(String column) {
+            this.column = column;
+        }
+
+        public String column() {
+            return column;
+        }
+    }
+
+    /**
+     * Незаписанные приращения ключа. Сброс убирает из карты ячейку, не получившую приращений за интервал;
+     * писатель, попавший в убранную ячейку, забирает своё приращение обратно и повторяет в новой.
+     * Приращение, сделанное до пометки retired, сброс увидит при дочитывании убранной ячейки.
+     */
+    private static final class Pending {
+        final LongAdder adder = new LongAdder();
+        volatile boolean retired;
+    }
+
+    /**
+     * Убранная ячейка: её ещё может держать писатель, поэтому сброс дочитывает её, пока она не
+     * простоит пустой RETIRED_QUIET_FLUSHES сбросов подряд. Сбиться счёт может, только если писатель
+     * застрянет между своим приращением и его отменой дольше этих сбросов.
+     */
+    private record Retired(Counter counter, long key, Pending pending, int quietFlushes) {
+    }
+
+    private record Drained(Counter counter, long key, LongAdder adder, long delta) {
+    }
+
+    private static final int RETIRED_QUIET_FLUSHES = 2;
+    private static final int MISS_BATCH = 1000;
+    private static final int MAX_QUEUED_MISSES = 100_000;
+    private static final String STORED_SQL = """
+            SELECT key, sum(delta) AS delta
+            FROM rustore.counter_deltas
+            WHERE counter = ? AND key IN (%s)
+            GROUP BY key
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long maxKeys;
+
+    private final Map<Counter, ConcurrentHashMap<Long, Pending>> pending = new EnumMap<>(Counter.class);
+    // Суммы, отправленные текущим сбросом; вне сброса пусто
+    private volatile Map<Counter, Map<Long, Long>> inFlight = emptyInFlight();
+    // Нечётная, пока flush() переносит суммы между частями; пишет только flush()
+    private volatile long moveEpoch;
+    private final Map<Counter, Cache<Long, Long>> flushed = new EnumMap<>(Counter.class);
+    // Только под монитором flush()
+    private List<Retired> retired = new ArrayList<>();
+    // Счётчики, все ключи которых поместились в кэш при последнем перечитывании: промах означает ноль
+    private volatile Set<Counter> complete = EnumSet.noneOf(Counter.class);
+    private final Map<Counter, Set<Long>> misses = new EnumMap<>(Counter.class);
+    private final Map<Counter, AtomicLong> versions = new EnumMap<>(Counter.class);
+
+    public DeltaCounters(JdbcTemplate jdbcTemplate, @Value("${counters.max-keys:1000000}") long maxKeys) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxKeys = maxKeys;
+        for (Counter counter : Counter.values()) {
+            pending.put(counter, new ConcurrentHashMap<>());
+            flushed.put(counter, Caffeine.newBuilder().maximumSize(maxKeys).build());
+            misses.put(counter, ConcurrentHashMap.newKeySet());
+            versions.put(counter, new AtomicLong());
+        }
+    }
+
+    public void increment(Counter counter, long key) {
+        add(counter, key, 1);
+    }
+
+    public void add(Counter counter, long key, long delta) {
+        ConcurrentHashMap<Long, Pending> counterPending = pending.get(counter);
+        while (true) {
+            Pending cell = counterPending.get(key);
+            if (cell == null) {
+                cell = counterPending.computeIfAbsent(key, k -> new Pending());
+            }
+            cell.adder.add(delta);
+            if (!cell.retired) {
+                return;
+            }
+            cell.adder.add(-delta);
+        }
+    }
+
+    /**
+     * Сумма всех приращений счётчика, которую нужно прибавить к базовому значению.
+     */
+    public long delta(Counter counter, long key) {
+        while (true) {
+            long epoch = moveEpoch;
+            if ((epoch & 1) == 0) {
+                Pending cell = pending.get(counter).get(key);
+                long local = cell != null ? cell.adder.sum() : 0L;
+                Long moving = inFlight.get(counter).get(key);
+                long total = local + (moving != null ? moving : 0L) + stored(counter, key);
+                if (epoch == moveEpoch) {
+                    return total;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Часть delta(), уже записанная в counter_deltas, насколько её знает этот инстанс, — то, по чему
+     * сортирует ClickHouse. Приращения текущего сброса сюда не входят, пока INSERT не завершился.
+     */
+    public long flushedDelta(Counter counter, long key) {
+        return stored(counter, key);
+    }
+
+    /**
+     * Растёт, когда меняется записанная часть счётчика: после сброса, перечитывания и дочитывания
+     * промахов. Незаписанные приращения её не меняют, поэтому снимки по ней отстают не больше чем
+     * на counters.flush-interval-ms.
+     */
+    public long version(Counter counter) {
+        return versions.get(counter).get();
+    }
+
+    @Scheduled(fixedDelayString = "${counters.flush-interval-ms:2000}")
+    public synchronized void flush() {
+        List<Drained> drained = new ArrayList<>();
+        List<Retired> stillRetired = new ArrayList<>();
+        pending.forEach((counter, counterPending) -> counterPending.forEach((key, cell) -> {
+            long delta = cell.adder.sum();
+            if (delta != 0) {
+                drained.add(new Drained(counter, key, cell.adder, delta));
+            } else {
+                cell.retired = true;
+                counterPending.remove(key, cell);
+                stillRetired.add(new Retired(counter, key, cell, 0));
+            }
+        }));
+        for (Retired old : retired) {
+            long delta = old.pending().adder.sum();
+            if (delta != 0) {
+                drained.add(new Drained(old.counter(), old.key(), old.pending().adder, delta));
+                stillRetired.add(new Retired(old.counter(), old.key(), old.pending(), 0));
+            } else if (old.quietFlushes() + 1 < RETIRED_QUIET_FLUSHES) {
+                stillRetired.add(new Retired(old.counter(), old.key(), old.pending(), old.quietFlushes() + 1));
+            }
+        }
+        retired = stillRetired;
+        if (drained.isEmpty()) {
+            return;
+        }
+
+        Map<Counter, Map<Long, Long>> moving = emptyInFlight();
+        for (Drained row : drained) {
+            moving.get(row.counter()).merge(row.key(), row.delta(), Long::sum);
+        }
+        moveEpoch++;
+        inFlight = moving;
+        for (Drained row : drained) {
+            row.adder().add(-row.delta());
+        }
+        moveEpoch++;
+        int rows = moving.values().stream().mapToInt(Map::size).sum();
+        try {
+            jdbcTemplate.batchUpdate("INSERT INTO rustore.counter_deltas (counter, key, delta) VALUES (?, ?, ?)",
+                    moving.entrySet().stream()
+                            .flatMap(byCounter -> byCounter.getValue().entrySet().stream()
+                                    .map(entry -> new Object[]{byCounter.getKey().column, entry.getKey(), entry.getValue()}))
+                            .toList());
+        } catch (RuntimeException e) {
+            // Возвращаем приращения в ожидание, они уйдут следующим сбросом
+            moveEpoch++;
+            moving.forEach((counter, deltas) -> deltas.forEach((key, delta) -> add(counter, key, delta)));
+            inFlight = emptyInFlight();
+            moveEpoch++;
+            log.warn("Failed to flush {} counter deltas: {}", rows, e.toString());
+            return;
+        }
+        Map<Counter, Map<Long, Long>> totals = emptyInFlight();
+        moving.forEach((counter, deltas) -> {
+            Cache<Long, Long> cache = flushed.get(counter);
+            List<Long> unknown = new ArrayList<>();
+            deltas.forEach((key, delta) -> {
+                Long stored = cache.getIfPresent(key);
+                if (stored != null) {
+                    totals.get(counter).put(key, stored + delta);
+                } else if (knownEmpty(counter)) {
+                    totals.get(counter).put(key, delta);
+                } else {
+                    unknown.add(key);
+                }
+            });
+            // Записанное неизвестно: дочитываем уже вместе с только что вставленными строками
+            for (int from = 0; from < unknown.size(); from += MISS_BATCH) {
+                List<Long> batch = unknown.subList(from, Math.min(unknown.size(), from + MISS_BATCH));
+                try {
+                    totals.get(counter).putAll(loadStored(counter, batch));
+                } catch (RuntimeException e) {
+                    log.debug("Failed to read {} flushed {} counters: {}", batch.size(), counter.column, e.toString());
+                }
+            }
+        });
+        moveEpoch++;
+        totals.forEach((counter, values) -> flushed.get(counter).putAll(values));
+        inFlight = emptyInFlight();
+        moveEpoch++;
+        moving.forEach((counter, deltas) -> {
+            if (!deltas.isEmpty()) {
+                versions.get(counter).incrementAndGet();
+            }
+        });
+        log.debug("Flushed {} counter deltas", rows);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${counters.reload-interval-ms:60000}", initialDelayString = "${counters.reload-interval-ms:60000}")
+    public synchronized void reload() {
+        Map<String, Counter> byColumn = new HashMap<>();
+        for (Counter counter : Counter.values()) {
+            byColumn.put(counter.column, counter);
+        }
+        Map<Counter, long[]> loaded = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            loaded.put(counter, new long[1]);
+        }
+        try {
+            jdbcTemplate.query("SELECT counter, key, sum(delta) AS delta FROM rustore.counter_deltas GROUP BY counter, key",
+                    rs -> {
+                        Counter counter = byColumn.get(rs.getString("counter"));
+                        if (counter != null) {
+                            long key = rs.getLong("key");
+                            long stored = rs.getLong("delta");
+                            // Вне сброса inFlight пуст, и в таблице уже есть всё записанное этим инстансом
+                            flushed.get(counter).put(key, stored);
+                            loaded.get(counter)[0]++;
+                        }
+                    });
+        } catch (RuntimeException e) {
+            log.warn("Failed to reload counter deltas, keeping previous values: {}", e.toString());
+            return;
+        }
+        Set<Counter> fits = EnumSet.noneOf(Counter.class);
+        loaded.forEach((counter, keys) -> {
+            if (keys[0] <= maxKeys) {
+                fits.add(counter);
+            } else {
+                log.info("Counter {} has {} keys, more than counters.max-keys {}; misses will be read from ClickHouse in batches",
+                        counter.column, keys[0], maxKeys);
+            }
+        });
+        complete = fits;
+        versions.values().forEach(AtomicLong::incrementAndGet);
+    }
+
+    /**
+     * Дочитывает записанные суммы ключей, на которые промахнулся delta(), по MISS_BATCH за запрос.
+     * Ключи, которые не удалось прочитать, отбрасываются: следующий промах поставит их снова.
+     */
+    @Scheduled(fixedDelayString = "${counters.miss-load-interval-ms:200}")
+    public synchronized void loadMisses() {
+        misses.forEach((counter, queued) -> {
+            while (!queued.isEmpty()) {
+                List<Long> batch = new ArrayList<>(Math.min(queued.size(), MISS_BATCH));
+                Iterator<Long> iterator = queued.iterator();
+                while (iterator.hasNext() && batch.size() < MISS_BATCH) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+                try {
+                    // Вне сброса inFlight пуст, и в таблице уже есть всё записанное этим инстансом
+                    flushed.get(counter).putAll(loadStored(counter, batch));
+                    versions.get(counter).incrementAndGet();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to read {} {} counters: {}", batch.size(), counter.column, e.toString());
+                    return;
+                }
+            }
+        });
+    }
+
+    private long stored(Counter counter, long key) {
+        Long stored = flushed.get(counter).getIfPresent(key);
+        if (stored != null) {
+            return stored;
+        }
+        if (!knownEmpty(counter)) {
+            Set<Long> queued = misses.get(counter);
+            if (queued.size() < MAX_QUEUED_MISSES) {
+                queued.add(key);
+            }
+        }
+        return 0L;
+    }
+
+    // Пока кэш не упёрся в лимит, из него ничего не вытеснено, и промах означает ноль
+    private boolean knownEmpty(Counter counter) {
+        return complete.contains(counter) && flushed.get(counter).estimatedSize() < maxKeys;
+    }
+
+    /**
+     * Записанные суммы ключей одним запросом; ключи без строк получают ноль.
+     */
+    private Map<Long, Long> loadStored(Counter counter, List<Long> keys) {
+        Map<Long, Long> loaded = new HashMap<>();
+        for (Long key : keys) {
+            loaded.put(key, 0L);
+        }
+        List<Object> args = new ArrayList<>(keys.size() + 1);
+        args.add(counter.column);
+        args.addAll(keys);
+        jdbcTemplate.query(STORED_SQL.formatted(String.join(",", Collections.nCopies(keys.size(), "?"))),
+                rs -> {
+                    loaded.put(rs.getLong("key"), rs.getLong("delta"));
+                }, args.toArray());
+        return loaded;
+    }
+
+    private static Map<Counter, Map<Long, Long>> emptyInFlight() {
+        Map<Counter, Map<Long, Long>> map = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            map.put(counter, new HashMap<>());
+        }
+        return map;
+    }
+}
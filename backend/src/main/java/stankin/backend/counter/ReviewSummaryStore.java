@@ -0,0 +1,322 @@
+package stankin.backend.counter;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import stankin.backend.dto.ReviewSummaryDTO;
+import stankin.backend.ingest.SpoolJournal;
+import stankin.backend.ingest.SpoolRecords;
+import stankin.backend.model.Review;
+import stankin.backend.repository.ReviewRowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Сводки отзывов по приложениям: число, сумма оценок, гистограмма по звёздам и самые полезные отзывы.
+ * <p>
+ * Как и VideoEngagementCounters, сводка = сохранённая часть из rustore.review_summary_mv
+ * (SummingMergeTree над reviews) + отзывы этого процесса, ещё лежащие в SpoolJournal.
+ * createReview учитывает отзыв сразу, вставка пачки в ClickHouse переносит его в сохранённую
+ * часть под блокировкой перечитывания.
+ * <p>
+ * Для «самых полезных» держится ограниченный набор кандидатов (CANDIDATES отзывов с наибольшим
+ * числом «полезно»). В сводке он ранжируется по живым значениям DeltaCounters, так что голоса сразу
+ * меняют порядок. Голос за отзыв вне набора сравнивается с самым слабым кандидатом и при перевесе
+ * заменяет его. Первая страница сортировки HELPFUL тоже берётся из набора, но упорядочивается по уже
+ * записанным приращениям — как продолжение страницы в ClickHouse, иначе курсор разошёлся бы с порядком.
+ */
+@Slf4j
+@Component
+public class ReviewSummaryStore {
+
+    public static final int MOST_HELPFUL = 5;
+    public static final int CANDIDATES = 20;
+    private static final int RELOAD_CHUNK = 1000;
+
+    // Ячейки сводки: число отзывов, сумма оценок, затем число оценок 1..5
+    private static final int COUNT = 0;
+    private static final int RATING_SUM = 1;
+    private static final int STARS = 2;
+    private static final int SLOTS = STARS + 5;
+
+    private static final String SUMMARY_SQL = """
+            SELECT app_id,
+                   sum(reviews) AS reviews, sum(rating_sum) AS rating_sum,
+                   sum(stars_1) AS stars_1, sum(stars_2) AS stars_2, sum(stars_3) AS stars_3,
+                   sum(stars_4) AS stars_4, sum(stars_5) AS stars_5
+            FROM rustore.review_summary_mv
+            """;
+
+    private static final String HELPFUL_SQL = """
+            SELECT r.*
+            FROM rustore.reviews r
+            LEFT JOIN (
+                SELECT key, sum(delta) AS delta
+                FROM rustore.counter_deltas
+                WHERE counter = ? AND key IN (SELECT id FROM rustore.reviews WHERE app_id IN (%1$s))
+                GROUP BY key
+            ) d ON d.key = r.id
+            WHERE r.app_id IN (%1$s)
+            ORDER BY toInt64(r.helpful_count) + d.delta DESC, r.id DESC
+            LIMIT %2$d BY r.app_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SpoolJournal spoolJournal;
+    private final DeltaCounters deltaCounters;
+
+    private final ConcurrentHashMap<Integer, Summary> summaries = new ConcurrentHashMap<>();
+
+    public ReviewSummaryStore(JdbcTemplate jdbcTemplate, SpoolJournal spoolJournal, DeltaCounters deltaCounters) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.spoolJournal = spoolJournal;
+        this.deltaCounters = deltaCounters;
+    }
+
+    /**
+     * Отзывы, оставшиеся в журнале с прошлого запуска. Бин создаётся раньше SpoolReplayer
+     * (через ReviewRepository), поэтому повтор журнала начнётся после подсчёта.
+     */
+    @PostConstruct
+    public void countSpooled() {
+        int counted = spoolJournal.forEachPending(SpoolRecords.REVIEW,
+                payload -> record(SpoolRecords.decodeReview(payload)));
+        if (counted > 0) {
+            log.info("Counted {} spooled reviews as pending summary", counted);
+        }
+    }
+
+    public void record(Review review) {
+        Summary summary = summaries.computeIfAbsent(review.getAppId(), id -> new Summary());
+        summary.pending[COUNT].increment();
+        summary.pending[RATING_SUM].add(review.getRating());
+        int star = starSlot(review.getRating());
+        if (star >= 0) {
+            summary.pending[star].increment();
+        }
+        Map<Long, Review> candidates = summary.candidates;
+        if (candidates != null) {
+            candidates.put(review.getId(), review);
+            if (candidates.size() > 2 * CANDIDATES) {
+                Map<Long, Review> trimmed = new ConcurrentHashMap<>();
+                topCandidates(candidates, CANDIDATES, this::helpful).forEach(top -> trimmed.put(top.getId(), top));
+                summary.candidates = trimmed;
+            }
+        }
+    }
+
+    public ReviewSummaryDTO summary(Integer appId) {
+        Summary summary = summaries.computeIfAbsent(appId, id -> new Summary());
+        if (!summary.loaded || summary.candidates == null) {
+            load(appId, summary);
+        }
+        long count = summary.value(COUNT);
+        Map<Integer, Long> histogram = new LinkedHashMap<>();
+        for (int star = 1; star <= 5; star++) {
+            histogram.put(star, summary.value(STARS + star - 1));
+        }
+        double average = count > 0 ? Math.round(100.0 * summary.value(RATING_SUM) / count) / 100.0 : 0.0;
+        Map<Long, Review> candidates = summary.candidates != null ? summary.candidates : Map.of();
+        List<Long> mostHelpful = topCandidates(candidates, MOST_HELPFUL, this::helpful).stream()
+                .filter(review -> helpful(review) > 0)
+                .map(Review::getId)
+                .collect(Collectors.toList());
+        return new ReviewSummaryDTO(appId, count, average, histogram, mostHelpful);
+    }
+
+    /**
+     * Первые limit отзывов по убыванию записанного числа «полезно» (порядок ReviewRepository.findPage)
+     * из набора кандидатов; null, если столько кандидатов не держим или набор не удалось загрузить.
+     */
+    public List<Review> mostHelpful(Integer appId, int limit) {
+        if (limit > CANDIDATES) {
+            return null;
+        }
+        Summary summary = summaries.computeIfAbsent(appId, id -> new Summary());
+        if (summary.candidates == null) {
+            load(appId, summary);
+        }
+        Map<Long, Review> candidates = summary.candidates;
+        return candidates != null ? topCandidates(candidates, limit, this::flushedHelpful) : null;
+    }
+
+    /**
+     * Голос «полезно»: кандидаты ранжируются по живым значениям сами, а отзыв вне набора входит в него,
+     * если теперь обходит самого слабого кандидата; тот вытесняется.
+     */
+    public void helpfulVoted(Review review) {
+        Summary summary = summaries.get(review.getAppId());
+        if (summary == null) {
+            return;
+        }
+        synchronized (summary) {
+            Map<Long, Review> candidates = summary.candidates;
+            if (candidates == null || candidates.containsKey(review.getId())) {
+                return;
+            }
+            if (candidates.size() < CANDIDATES) {
+                // Набор загружен с LIMIT CANDIDATES BY app_id: неполный набор — все отзывы приложения
+                candidates.put(review.getId(), review);
+                return;
+            }
+            Review weakest = candidates.values().stream().max(ranking(this::helpful)).orElseThrow();
+            if (ranking(this::helpful).compare(review, weakest) < 0) {
+                candidates.put(review.getId(), review);
+                candidates.remove(weakest.getId());
+            }
+        }
+    }
+
+    /**
+     * Вставляет пачку отзывов и переносит их из недоставленных в сохранённые.
+     */
+    public synchronized void persist(List<Review> reviews, Runnable insert) {
+        insert.run();
+        for (Review review : reviews) {
+            Summary summary = summaries.computeIfAbsent(review.getAppId(), id -> new Summary());
+            int star = starSlot(review.getRating());
+            summary.pending[COUNT].decrement();
+            summary.pending[RATING_SUM].add(-review.getRating());
+            if (star >= 0) {
+                summary.pending[star].decrement();
+            }
+            if (summary.loaded) {
+                summary.persisted.incrementAndGet(COUNT);
+                summary.persisted.addAndGet(RATING_SUM, review.getRating());
+                if (star >= 0) {
+                    summary.persisted.incrementAndGet(star);
+                }
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${review-summary.reload-interval-ms:300000}",
+            initialDelayString = "${review-summary.reload-interval-ms:300000}")
+    public synchronized void reload() {
+        try {
+            jdbcTemplate.query(SUMMARY_SQL + "GROUP BY app_id", rs -> {
+                apply(summaries.computeIfAbsent(rs.getInt("app_id"), id -> new Summary()), rs);
+            });
+            // Кандидатов обновляем только для приложений, чью сводку уже запрашивали
+            List<Integer> requested = summaries.entrySet().stream()
+                    .filter(entry -> entry.getValue().candidates != null)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            for (int from = 0; from < requested.size(); from += RELOAD_CHUNK) {
+                loadCandidates(requested.subList(from, Math.min(requested.size(), from + RELOAD_CHUNK)));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to reload review summaries, keeping previous values: {}", e.toString());
+            return;
+        }
+        log.debug("Review summaries reloaded for {} apps", summaries.size());
+    }
+
+    private synchronized void load(Integer appId, Summary summary) {
+        try {
+            if (!summary.loaded) {
+                jdbcTemplate.query(SUMMARY_SQL + "WHERE app_id = ? GROUP BY app_id", rs -> {
+                    apply(summary, rs);
+                }, appId);
+                summary.loaded = true;
+            }
+            if (summary.candidates == null) {
+                loadCandidates(List.of(appId));
+            }
+        } catch (RuntimeException e) {
+            // ClickHouse недоступен: отдаём хотя бы недоставленную часть, загрузим при следующем чтении
+            log.debug("Failed to load review summary for app {}: {}", appId, e.toString());
+        }
+    }
+
+    private void loadCandidates(List<Integer> appIds) {
+        Map<Integer, Map<Long, Review>> loaded = new LinkedHashMap<>();
+        appIds.forEach(appId -> loaded.put(appId, new ConcurrentHashMap<>()));
+        String placeholders = String.join(",", Collections.nCopies(appIds.size(), "?"));
+        List<Object> args = new ArrayList<>(2 * appIds.size() + 1);
+        args.add(DeltaCounters.Counter.REVIEW_HELPFUL.column());
+        args.addAll(appIds);
+        args.addAll(appIds);
+        jdbcTemplate.query(HELPFUL_SQL.formatted(placeholders, CANDIDATES), rs -> {
+            Review review = ReviewRowMapper.INSTANCE.mapRow(rs, 0);
+            loaded.get(review.getAppId()).put(review.getId(), review);
+        }, args.toArray());
+        loaded.forEach((appId, candidates) -> summaries.computeIfAbsent(appId, id -> new Summary()).candidates = candidates);
+    }
+
+    private static List<Review> topCandidates(Map<Long, Review> candidates, int limit, ToLongFunction<Review> helpful) {
+        return candidates.values().stream()
+                .sorted(ranking(helpful))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    // Порядок как у сортировки HELPFUL: число «полезно», затем id, оба по убыванию
+    private static Comparator<Review> ranking(ToLongFunction<Review> helpful) {
+        return Comparator.comparingLong(helpful).reversed()
+                .thenComparing(Review::getId, Comparator.reverseOrder());
+    }
+
+    private long helpful(Review review) {
+        long base = review.getHelpfulCount() != null ? review.getHelpfulCount() : 0;
+        return base + deltaCounters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, review.getId());
+    }
+
+    private long flushedHelpful(Review review) {
+        long base = review.getHelpfulCount() != null ? review.getHelpfulCount() : 0;
+        return base + deltaCounters.flushedDelta(DeltaCounters.Counter.REVIEW_HELPFUL, review.getId());
+    }
+
+    private static void apply(Summary summary, ResultSet rs) throws SQLException {
+        summary.persisted.set(COUNT, rs.getLong("reviews"));
+        summary.persisted.set(RATING_SUM, rs.getLong("rating_sum"));
+        for (int star = 1; star <= 5; star++) {
+            summary.persisted.set(STARS + star - 1, rs.getLong("stars_" + star));
+        }
+        summary.loaded = true;
+    }
+
+    private static int starSlot(int rating) {
+        return rating >= 1 && rating <= 5 ? STARS + rating - 1 : -1;
+    }
+
+    private static final class Summary {
+
+        private final AtomicLongArray persisted = new AtomicLongArray(SLOTS);
+        private final LongAdder[] pending = new LongAdder[SLOTS];
+        private volatile boolean loaded;
+        // Кандидаты в «самые полезные» по id; null — не загружены или устарели
+        private volatile Map<Long, Review> candidates;
+
+        Summary() {
+            for (int i = 0; i < SLOTS; i++) {
+                pending[i] = new LongAdder();
+            }
+        }
+
+        long value(int slot) {
+            return persisted.get(slot) + pending[slot].sum();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package stankin.backend.counter;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import stankin.backend.dto.VideoEngagementDTO;
+import stankin.backend.ingest.InteractionEvent;
+import stankin.backend.ingest.SpoolJournal;
+import stankin.backend.ingest.SpoolRecords;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики вовлечённости видео в реальном времени: просмотры, лайки, снятые лайки, добавления
+ * в избранное и запуски демо.
+ * <p>
+ * Значение = сохранённая часть + ещё не доставленная. Сохранённая часть — базовые views/likes из
+ * video_clips плюс свёртка rustore.video_engagement_mv (AggregatingMergeTree над video_interactions);
+ * она перечитывается раз в video-engagement.reload-interval-ms. Недоставленная часть — события,
+ * лежащие в SpoolJournal: record() увеличивает её сразу, а при вставке пачки в ClickHouse
+ * persist() переносит события в сохранённую часть под той же блокировкой, что и перечитывание,
+ * поэтому ни одно событие не считается дважды.
+ * <p>
+ * Запись создаётся только для видео из video_clips. События неизвестного видео копятся, пока не
+ * доставлены, и запись удаляется вместе с последним из них.
+ */
+@Slf4j
+@Component
+public class VideoEngagementCounters {
+
+    public enum Metric {
+        VIEWS("view"),
+        LIKES("like"),
+        UNLIKES("dislike"),
+        WISHLIST_ADDS("wishlist_add"),
+        DEMO_STARTS("demo_start");
+
+        private final String interactionType;
+
+        Metric(String interactionType) {
+            this.interactionType = interactionType;
+        }
+
+        public String interactionType() {
+            return interactionType;
+        }
+
+        static Metric of(String interactionType) {
+            for (Metric metric : values()) {
+                if (metric.interactionType.equals(interactionType)) {
+                    return metric;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final String ENGAGEMENT_SQL = """
+            SELECT v.id AS id,
+                   v.views + e.views AS views,
+                   v.likes + e.likes AS likes,
+                   e.unlikes AS unlikes,
+                   e.wishlist_adds AS wishlist_adds,
+                   e.demo_starts AS demo_starts
+            FROM rustore.video_clips v
+            LEFT JOIN (
+                SELECT video_id,
+                       countIfMerge(views) AS views,
+                       countIfMerge(likes) AS likes,
+                       countIfMerge(unlikes) AS unlikes,
+                       countIfMerge(wishlist_adds) AS wishlist_adds,
+                       countIfMerge(demo_starts) AS demo_starts
+                FROM rustore.video_engagement_mv
+                %s
+                GROUP BY video_id
+            ) e ON e.video_id = v.id
+            %s
+            """;
+
+    private static final String ALL_SQL = ENGAGEMENT_SQL.formatted("", "");
+    // Фильтр и внутри подзапроса: иначе ClickHouse свернёт всю витрину ради одного видео
+    private static final String ONE_SQL = ENGAGEMENT_SQL.formatted("WHERE video_id = ?", "WHERE v.id = ?");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SpoolJournal spoolJournal;
+
+    private final ConcurrentHashMap<UUID, Engagement> engagements = new ConcurrentHashMap<>();
+
+    public VideoEngagementCounters(JdbcTemplate jdbcTemplate, SpoolJournal spoolJournal) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.spoolJournal = spoolJournal;
+    }
+
+    /**
+     * События, оставшиеся в журнале с прошлого запуска, ещё не в свёртке: учитываем их как недоставленные.
+     * Бин создаётся раньше SpoolReplayer (тот зависит от него через VideoInteractionRepository),
+     * поэтому повтор журнала начнётся только после этого подсчёта.
+     */
+    @PostConstruct
+    public void countSpooled() {
+        int counted = spoolJournal.forEachPending(SpoolRecords.VIDEO_INTERACTION, payload -> {
+            InteractionEvent event = SpoolRecords.decodeInteraction(payload);
+            record(event.videoId(), event.interactionType());
+        });
+        if (counted > 0) {
+            log.info("Counted {} spooled video interactions as pending engagement", counted);
+        }
+    }
+
+    public void record(UUID videoId, String interactionType) {
+        Metric metric = Metric.of(interactionType);
+        if (metric == null) {
+            return;
+        }
+        Engagement engagement = engagements.get(videoId);
+        if (engagement != null && engagement.loaded) {
+            // Загруженные записи не удаляются, увеличиваем без блокировки
+            engagement.pending[metric.ordinal()].increment();
+            return;
+        }
+        // Незагруженную запись persist() может удалить, поэтому увеличиваем под блокировкой ячейки
+        engagements.compute(videoId, (id, current) -> {
+            Engagement target = current != null ? current : new Engagement();
+            target.pending[metric.ordinal()].increment();
+            return target;
+        });
+    }
+
+    /**
+     * Счётчики видео; 404, если видео нет в video_clips.
+     */
+    public VideoEngagementDTO get(UUID videoId) {
+        Engagement engagement = engagements.get(videoId);
+        if (engagement == null || !engagement.loaded) {
+            engagement = load(videoId);
+        }
+        long unlikes = engagement.value(Metric.UNLIKES);
+        return new VideoEngagementDTO(videoId,
+                engagement.value(Metric.VIEWS),
+                Math.max(0, engagement.value(Metric.LIKES) - unlikes),
+                unlikes,
+                engagement.value(Metric.WISHLIST_ADDS),
+                engagement.value(Metric.DEMO_STARTS));
+    }
+
+    public long likeCount(UUID videoId) {
+        return get(videoId).likes();
+    }
+
+    /**
+     * Вставляет пачку взаимодействий и переносит их из недоставленных в сохранённые.
+     */
+    public synchronized void persist(List<InteractionEvent> events, Runnable insert) {
+        insert.run();
+        for (InteractionEvent event : events) {
+            Metric metric = Metric.of(event.interactionType());
+            if (metric == null) {
+                continue;
+            }
+            engagements.computeIfPresent(event.videoId(), (id, engagement) -> {
+                engagement.pending[metric.ordinal()].decrement();
+                if (engagement.loaded) {
+                    engagement.persisted.incrementAndGet(metric.ordinal());
+                    return engagement;
+                }
+                return engagement.idle() ? null : engagement;
+            });
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${video-engagement.reload-interval-ms:60000}",
+            initialDelayString = "${video-engagement.reload-interval-ms:60000}")
+    public synchronized void reload() {
+        int[] loaded = {0};
+        try {
+            jdbcTemplate.query(ALL_SQL, rs -> {
+                UUID videoId = UUID.fromString(rs.getString("id"));
+                engagements.computeIfAbsent(videoId, id -> new Engagement()).set(read(rs));
+                loaded[0]++;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Failed to reload video engagement, keeping previous values: {}", e.toString());
+            return;
+        }
+        log.debug("Video engagement reloaded for {} videos", loaded[0]);
+    }
+
+    // Видео, которого не было при последнем перечитывании: загружаем одну строку
+    private synchronized Engagement load(UUID videoId) {
+        Engagement engagement = engagements.get(videoId);
+        if (engagement != null && engagement.loaded) {
+            return engagement;
+        }
+        List<long[]> rows;
+        try {
+            rows = jdbcTemplate.query(ONE_SQL, (rs, rowNum) -> read(rs), videoId, videoId);
+        } catch (RuntimeException e) {
+            // ClickHouse недоступен: отдаём хотя бы недоставленную часть, загрузим при следующем чтении
+            log.debug("Failed to load engagement for video {}: {}", videoId, e.toString());
+            return engagement != null ? engagement : new Engagement();
+        }
+        if (rows.isEmpty()) {
+            // Неизвестное видео не кэшируем
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Video not found");
+        }
+        engagement = engagements.computeIfAbsent(videoId, id -> new Engagement());
+        engagement.set(rows.get(0));
+        return engagement;
+    }
+
+    private static long[] read(ResultSet rs) throws SQLException {
+        long[] values = new long[Metric.values().length];
+        values[Metric.VIEWS.ordinal()] = rs.getLong("views");
+        values[Metric.LIKES.ordinal()] = rs.getLong("likes");
+        values[Metric.UNLIKES.ordinal()] = rs.getLong("unlikes");
+        values[Metric.WISHLIST_ADDS.ordinal()] = rs.getLong("wishlist_adds");
+        values[Metric.DEMO_STARTS.ordinal()] = rs.getLong("demo_starts");
+        return values;
+    }
+
+    private static final class Engagement {
+
+        private final AtomicLongArray persisted = new AtomicLongArray(Metric.values().length);
+        private final LongAdder[] pending = new LongAdder[Metric.values().length];
+        private volatile boolean loaded;
+
+        Engagement() {
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = new LongAdder();
+            }
+        }
+
+        long value(Metric metric) {
+            return persisted.get(metric.ordinal()) + pending[metric.ordinal()].sum();
+        }
+
+        void set(long[] values) {
+            for (int i = 0; i < values.length; i++) {
+                persisted.set(i, values[i]);
+            }
+            loaded = true;
+        }
+
+        boolean idle() {
+            for (LongAdder adder : pending) {
+                if (adder.sum() != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package stankin.backend.dto;
+
+import java.util.List;
+
+/**
+ * Ответ пакетного запроса: найденные приложения в порядке запроса и id, которых нет в каталоге.
+ */
+public record AppBatchDTO(
+    List<AppDTO> apps,
+    List<Integer> missingIds
+) {}
@@ -31,4 +31,6 @@ public class AppDetailDTO {
     private List<String> screenshots;
     private List<AppDTO> similarApps;
     private List<ReviewDTO> reviews;
+    // Секции, которые не успели загрузиться и отданы пустыми
+    private List<String> unavailableSections;
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package stankin.backend.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Страница отфильтрованного каталога с числом совпадений и счётчиками по каждому фасету.
+ */
+public record AppFilterResultDTO(
+    List<AppDTO> apps,
+    long total,
+    String nextCursor,
+    Map<String, Map<String, Long>> facets
+) {}
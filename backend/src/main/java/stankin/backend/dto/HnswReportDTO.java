@@ -0,0 +1,20 @@
+package stankin.backend.dto;
+
+/**
+ * Качество HNSW-индекса похожих приложений: recall@k относительно точного перебора на queries
+ * случайных узлах графа и задержки обоих поисков в миллисекундах.
+ */
+public record HnswReportDTO(
+    int nodes,
+    int deleted,
+    int dim,
+    int m,
+    int efSearch,
+    int queries,
+    int k,
+    double recall,
+    double exactP50Ms,
+    double exactP99Ms,
+    double hnswP50Ms,
+    double hnswP99Ms
+) {}
@@ -0,0 +1,26 @@
+package stankin.backend.dto;
+
+import java.util.List;
+
+/**
+ * Итог массовой загрузки. outcome: completed, too-many-rejects (чтение остановлено после
+ * bulk-import.max-rejects отклонённых строк) или failed (ошибка чтения или вставки).
+ * Пачки, отправленные до остановки, остаются в таблице: rowsImported — их строки.
+ * rejects — первые отклонённые строки с номером строки входа и причиной.
+ */
+public record ImportReportDTO(
+    String target,
+    String format,
+    String outcome,
+    String error,
+    long rowsRead,
+    long rowsImported,
+    long rowsRejected,
+    int batches,
+    long durationMs,
+    List<String> ignoredFields,
+    List<Reject> rejects
+) {
+
+    public record Reject(long line, String reason) {}
+}
@@ -0,0 +1,11 @@
+package stankin.backend.dto;
+
+import java.util.List;
+
+/**
+ * Страница выдачи; nextCursor == null, если это последняя страница.
+ */
+public record PageDTO<T>(
+    List<T> items,
+    String nextCursor
+) {}
@@ -1,5 +1,7 @@
 package stankin.backend.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -12,6 +14,8 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ReviewDTO {
+    // Snowflake-идентификатор не помещается в double, поэтому в JSON это строка
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long id;
     private Integer appId;
     private Integer userId;
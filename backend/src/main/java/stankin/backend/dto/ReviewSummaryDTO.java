@@ -0,0 +1,19 @@
+package stankin.backend.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сводка отзывов приложения: histogram — число оценок по звёздам 1–5.
+ */
+public record ReviewSummaryDTO(
+    Integer appId,
+    long count,
+    double averageRating,
+    Map<Integer, Long> histogram,
+    @JsonSerialize(contentUsing = ToStringSerializer.class)
+    List<Long> mostHelpfulReviewIds
+) {}
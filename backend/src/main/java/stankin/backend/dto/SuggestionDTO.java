@@ -0,0 +1,10 @@
+package stankin.backend.dto;
+
+public record SuggestionDTO(
+    Integer appId,
+    String name,
+    String developer,
+    String iconUrl,
+    String category,
+    String matchedBy
+) {}
@@ -0,0 +1,15 @@
+package stankin.backend.dto;
+
+import java.util.UUID;
+
+/**
+ * Живые счётчики видео; likes — лайки за вычетом снятых.
+ */
+public record VideoEngagementDTO(
+    UUID videoId,
+    long views,
+    long likes,
+    long unlikes,
+    long wishlistAdds,
+    long demoStarts
+) {}
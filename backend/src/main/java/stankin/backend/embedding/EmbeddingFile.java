@@ -0,0 +1,116 @@
+package stankin.backend.embedding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Файл эмбеддингов приложений, отображённый в память только для чтения.
+ * <p>
+ * Формат (little-endian): магия "RSEMB001", int32 dim, int32 count, int32 id[count] по возрастанию,
+ * затем float32 vector[count][dim], нормированные по L2 (пишет ml/app/services/embedding_export.py).
+ * Ни id, ни векторы не копируются в кучу: поиск строки — двоичный поиск по отображённым id.
+ */
+final class EmbeddingFile {
+
+    static final byte[] MAGIC = "RSEMB001".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 16;
+
+    private final Path path;
+    private final int dim;
+    private final int count;
+    private final IntBuffer ids;
+    private final FloatBuffer vectors;
+
+    private EmbeddingFile(Path path, int dim, int count, IntBuffer ids, FloatBuffer vectors) {
+        this.path = path;
+        this.dim = dim;
+        this.count = count;
+        this.ids = ids;
+        this.vectors = vectors;
+    }
+
+    static EmbeddingFile map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException(path + ": size " + size + " is out of range for a single mapping");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(i) != MAGIC[i]) {
+                    throw new IOException(path + " is not an embedding file");
+                }
+            }
+            int dim = buffer.getInt(8);
+            int count = buffer.getInt(12);
+            long expected = HEADER_BYTES + 4L * count + 4L * count * dim;
+            if (dim <= 0 || count < 0 || expected != size) {
+                throw new IOException(path + ": dim " + dim + ", count " + count + " do not match file size " + size);
+            }
+            IntBuffer ids = slice(buffer, HEADER_BYTES, 4 * count).asIntBuffer();
+            for (int i = 1; i < count; i++) {
+                if (ids.get(i) <= ids.get(i - 1)) {
+                    throw new IOException(path + ": app ids are not strictly ascending at index " + i);
+                }
+            }
+            FloatBuffer vectors = slice(buffer, HEADER_BYTES + 4 * count, 4 * count * dim).asFloatBuffer();
+            return new EmbeddingFile(path, dim, count, ids, vectors);
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int dim() {
+        return dim;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int appId(int row) {
+        return ids.get(row);
+    }
+
+    /**
+     * Строка приложения или -1, если его эмбеддинга нет.
+     */
+    int rowOf(int appId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = ids.get(mid);
+            if (id < appId) {
+                low = mid + 1;
+            } else if (id > appId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Копирует rows векторов начиная со строки from в dst подряд.
+     */
+    void copyRows(int from, int rows, float[] dst) {
+        vectors.get(from * dim, dst, 0, rows * dim);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        return buffer.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
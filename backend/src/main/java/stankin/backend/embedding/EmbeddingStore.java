@@ -0,0 +1,260 @@
+package stankin.backend.embedding;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import stankin.backend.dto.HnswReportDTO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+/**
+ * Эмбеддинги приложений из файла ML-сервиса и точный поиск похожих по косинусу.
+ * <p>
+ * Файл отображается в память (EmbeddingFile), поэтому старт не зависит от его размера, а данные
+ * лежат вне кучи. Поиск — полный перебор: векторы копируются блоками по block-rows строк
+ * в буфер потока, и ядро считает скалярные произведения блока с запросом (Vector API, если
+ * доступен, иначе скалярно). Векторы нормированы, так что скалярное произведение и есть косинус.
+ * Раз в reload-interval-ms проверяется время изменения файла; новый файл подменяет старый атомарно.
+ * <p>
+ * Для каталога от embeddings.hnsw.min-size векторов поиск идёт по HNSW-графу (HnswIndex), который
+ * догоняет каждый загруженный файл в фоне; пока графа нет, работает полный перебор.
+ */
+@Slf4j
+@Component
+public class EmbeddingStore {
+
+    private final Path path;
+    private final int blockRows;
+    private final SimilarityKernel kernel;
+    private final HnswIndex hnsw;
+    private final int hnswMinSize;
+    private final Timer exactTimer;
+    private final Timer hnswTimer;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+    // Отчёт перебирает весь файл на каждый запрос, поэтому одновременно идёт не больше одного
+    private final AtomicBoolean reportRunning = new AtomicBoolean();
+
+    private volatile EmbeddingFile file;
+    private FileTime loadedModified;
+
+    public EmbeddingStore(MeterRegistry meterRegistry,
+                          @Value("${embeddings.file:./data/embeddings/apps.f32}") String path,
+                          @Value("${embeddings.block-rows:256}") int blockRows,
+                          @Value("${embeddings.vector-api:true}") boolean vectorApi,
+                          @Value("${embeddings.hnsw.enabled:true}") boolean hnswEnabled,
+                          @Value("${embeddings.hnsw.file:./data/embeddings/apps.hnsw}") String hnswPath,
+                          @Value("${embeddings.hnsw.m:16}") int m,
+                          @Value("${embeddings.hnsw.ef-construction:200}") int efConstruction,
+                          @Value("${embeddings.hnsw.ef-search:64}") int efSearch,
+                          @Value("${embeddings.hnsw.min-size:20000}") int hnswMinSize,
+                          @Value("${embeddings.hnsw.report-queries:100}") int reportQueries) {
+        this.path = Paths.get(path);
+        this.blockRows = blockRows;
+        this.kernel = createKernel(vectorApi);
+        this.hnsw = hnswEnabled
+                ? new HnswIndex(Paths.get(hnswPath), m, efConstruction, efSearch, reportQueries, kernel, meterRegistry)
+                : null;
+        this.hnswMinSize = hnswMinSize;
+        this.exactTimer = meterRegistry.timer("embeddings.search", "kernel", kernel.name(), "method", "exact");
+        this.hnswTimer = meterRegistry.timer("embeddings.search", "kernel", kernel.name(), "method", "hnsw");
+        meterRegistry.gauge("embeddings.count", this, store -> store.file != null ? store.file.count() : 0);
+    }
+
+    @PostConstruct
+    public void load() {
+        if (hnsw != null) {
+            hnsw.start();
+        }
+        reloadIfChanged();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (hnsw != null) {
+            hnsw.stop();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${embeddings.reload-interval-ms:60000}")
+    public synchronized void reloadIfChanged() {
+        try {
+            if (!Files.exists(path)) {
+                if (loadedModified == null) {
+                    log.info("No embedding file at {}, similar apps fall back to the category", path.toAbsolutePath());
+                    loadedModified = FileTime.fromMillis(0);
+                }
+                return;
+            }
+            FileTime modified = Files.getLastModifiedTime(path);
+            if (modified.equals(loadedModified)) {
+                return;
+            }
+            // Старое отображение освободит сборщик мусора, когда закончатся начатые по нему поиски
+            EmbeddingFile loaded = EmbeddingFile.map(path);
+            file = loaded;
+            loadedModified = modified;
+            if (hnsw != null) {
+                hnsw.sync(loaded);
+            }
+            log.info("Mapped {} app embeddings of dimension {} from {} ({} kernel)",
+                    loaded.count(), loaded.dim(), path.toAbsolutePath(), kernel.name());
+        } catch (IOException e) {
+            log.warn("Failed to load embeddings from {}: {}", path.toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    public boolean contains(int appId) {
+        EmbeddingFile current = file;
+        return current != null && current.rowOf(appId) >= 0;
+    }
+
+    /**
+     * До limit приложений, ближайших к appId; пусто, если его эмбеддинга нет.
+     */
+    public int[] similar(int appId, int limit) {
+        return moreLikeThis(Set.of(appId), limit);
+    }
+
+    /**
+     * До limit приложений, ближайших к среднему направлению appIds (сами appIds не входят).
+     * Приложения без эмбеддинга пропускаются; если таких нет совсем — пустой результат.
+     */
+    public int[] moreLikeThis(Collection<Integer> appIds, int limit) {
+        EmbeddingFile current = file;
+        if (current == null || limit <= 0) {
+            return new int[0];
+        }
+        Scratch buffers = scratch(current.dim());
+        float[] query = new float[current.dim()];
+        int found = 0;
+        for (int appId : appIds) {
+            int row = current.rowOf(appId);
+            if (row >= 0) {
+                current.copyRows(row, 1, buffers.block);
+                for (int i = 0; i < query.length; i++) {
+                    query[i] += buffers.block[i];
+                }
+                found++;
+            }
+        }
+        if (found == 0) {
+            return new int[0];
+        }
+        Set<Integer> exclude = new HashSet<>(appIds);
+        normalize(query);
+        if (hnsw != null && current.count() >= hnswMinSize) {
+            long started = System.nanoTime();
+            int[] approximate = hnsw.search(query, limit, exclude::contains, exclude.size());
+            if (approximate != null) {
+                hnswTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                return approximate;
+            }
+        }
+        return search(current, query, limit, exclude::contains);
+    }
+
+    /**
+     * Полнота и задержки HNSW против точного перебора (см. HnswIndex.report).
+     * Каждый запрос — полный перебор файла, поэтому объём ограничен, а параллельный отчёт получает 429.
+     */
+    public HnswReportDTO hnswReport(int queries, int k, int ef) {
+        if (queries < 1 || queries > 1_000 || k < 1 || k > 100 || ef < 0 || ef > 1_000) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "queries must be in [1, 1000], k in [1, 100], ef in [0, 1000]");
+        }
+        if (!reportRunning.compareAndSet(false, true)) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "HNSW report is already running");
+        }
+        HnswReportDTO report;
+        try {
+            report = hnsw != null ? hnsw.report(queries, k, ef) : null;
+        } finally {
+            reportRunning.set(false);
+        }
+        if (report == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "HNSW index is not built");
+        }
+        return report;
+    }
+
+    private int[] search(EmbeddingFile current, float[] query, int limit, IntPredicate exclude) {
+        long started = System.nanoTime();
+        Scratch buffers = scratch(current.dim());
+        TopK top = new TopK(limit);
+        int count = current.count();
+        for (int from = 0; from < count; from += blockRows) {
+            int rows = Math.min(blockRows, count - from);
+            current.copyRows(from, rows, buffers.block);
+            kernel.dot(query, buffers.block, rows, buffers.scores);
+            for (int r = 0; r < rows; r++) {
+                float score = buffers.scores[r];
+                if (top.accepts(score)) {
+                    int appId = current.appId(from + r);
+                    if (!exclude.test(appId)) {
+                        top.offer(score, appId);
+                    }
+                }
+            }
+        }
+        exactTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return top.idsDescending();
+    }
+
+    private Scratch scratch(int dim) {
+        Scratch buffers = scratch.get();
+        if (buffers == null || buffers.dim != dim) {
+            buffers = new Scratch(dim, new float[blockRows * dim], new float[blockRows]);
+            scratch.set(buffers);
+        }
+        return buffers;
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += (double) v * v;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Ядро на Vector API загружается только через рефлексию: без --add-modules jdk.incubator.vector
+     * его класс не свяжется, и тогда используется скалярное.
+     */
+    private static SimilarityKernel createKernel(boolean vectorApi) {
+        if (vectorApi) {
+            try {
+                return (SimilarityKernel) Class.forName("stankin.backend.embedding.VectorSimilarityKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.info("Vector API is unavailable ({}), using scalar similarity kernel", e.toString());
+            }
+        }
+        return new ScalarSimilarityKernel();
+    }
+
+    private record Scratch(int dim, float[] block, float[] scores) {
+    }
+}
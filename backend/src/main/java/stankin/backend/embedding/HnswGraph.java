@@ -0,0 +1,685 @@
+package stankin.backend.embedding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * Граф HNSW (Malkov, Yashunin) в файле, отображённом в память на чтение и запись.
+ * <p>
+ * Формат (little-endian): заголовок 64 байта (магия "RSHNSW01", dim, m, capacity, upperCapacity,
+ * count, entryPoint, maxLevel, upperUsed, deleted), затем участки фиксированного размера:
+ * id[capacity], level[capacity] (уровень и флаг удаления), upperOffset[capacity],
+ * связи нулевого уровня [capacity][1 + 2m] (число соседей, затем соседи),
+ * блоки верхних уровней [upperCapacity][1 + m] (у узла уровня L их L подряд начиная с upperOffset),
+ * vector[capacity][dim]. У каждого узла постоянное место, поэтому вставка пишет прямо в отображение,
+ * а загрузка после рестарта — это map и проверка заголовка.
+ * <p>
+ * Писатель один (HnswIndex), читатели работают без блокировок. Узел становится видимым после записи
+ * count, а его вектор и связи записаны до неё. Узлы с номером не меньше прочитанного count при обходе
+ * пропускаются. Список соседей, перезаписанный во время обхода, может прочитаться наполовину старым;
+ * все номера в нём — существующие узлы, так что для приближённого поиска это безвредно.
+ * Удаление — флаг: узел остаётся в графе для маршрутизации, но в результаты не попадает.
+ */
+final class HnswGraph {
+
+    static final byte[] MAGIC = "RSHNSW01".getBytes(StandardCharsets.US_ASCII);
+    static final int MAX_LEVEL = 15;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int DIM_AT = 8;
+    private static final int M_AT = 12;
+    private static final int CAPACITY_AT = 16;
+    private static final int UPPER_CAPACITY_AT = 20;
+    private static final int COUNT_AT = 24;
+    private static final int ENTRY_AT = 28;
+    private static final int MAX_LEVEL_AT = 32;
+    private static final int UPPER_USED_AT = 36;
+    private static final int DELETED_AT = 40;
+    private static final int DELETED_FLAG = 1 << 8;
+    private static final int EXACT_BLOCK_ROWS = 256;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final SimilarityKernel kernel;
+    private final int dim;
+    private final int m;
+    private final int maxM0;
+    private final int capacity;
+    private final int upperCapacity;
+    private final double levelFactor;
+    private final IntBuffer ids;
+    private final IntBuffer levels;
+    private final IntBuffer upperOffsets;
+    private final IntBuffer level0;
+    private final IntBuffer upper;
+    private final FloatBuffer vectors;
+    // Буферы читателей берутся на время поиска: их столько, сколько было одновременных поисков
+    private final ConcurrentLinkedQueue<Scratch> readerScratch = new ConcurrentLinkedQueue<>();
+
+    // (maxLevel << 32) | entryPoint; писатель обновляет его после count, читатели читают до count
+    private volatile long entry;
+    private volatile int count;
+    private int upperUsed;
+    private int deleted;
+    private Scratch writerScratch;
+
+    private HnswGraph(Path path, MappedByteBuffer buffer, SimilarityKernel kernel) {
+        this.path = path;
+        this.buffer = buffer;
+        this.kernel = kernel;
+        this.dim = buffer.getInt(DIM_AT);
+        this.m = buffer.getInt(M_AT);
+        this.maxM0 = 2 * m;
+        this.capacity = buffer.getInt(CAPACITY_AT);
+        this.upperCapacity = buffer.getInt(UPPER_CAPACITY_AT);
+        this.levelFactor = 1 / Math.log(m);
+        int offset = HEADER_BYTES;
+        this.ids = slice(buffer, offset, 4 * capacity).asIntBuffer();
+        offset += 4 * capacity;
+        this.levels = slice(buffer, offset, 4 * capacity).asIntBuffer();
+        offset += 4 * capacity;
+        this.upperOffsets = slice(buffer, offset, 4 * capacity).asIntBuffer();
+        offset += 4 * capacity;
+        this.level0 = slice(buffer, offset, 4 * capacity * (1 + maxM0)).asIntBuffer();
+        offset += 4 * capacity * (1 + maxM0);
+        this.upper = slice(buffer, offset, 4 * upperCapacity * (1 + m)).asIntBuffer();
+        offset += 4 * upperCapacity * (1 + m);
+        this.vectors = slice(buffer, offset, 4 * capacity * dim).asFloatBuffer();
+        this.count = buffer.getInt(COUNT_AT);
+        this.entry = pack(buffer.getInt(MAX_LEVEL_AT), buffer.getInt(ENTRY_AT));
+        this.upperUsed = buffer.getInt(UPPER_USED_AT);
+        this.deleted = buffer.getInt(DELETED_AT);
+    }
+
+    /**
+     * Новый пустой граф на capacity узлов; существующий файл перезаписывается.
+     */
+    static HnswGraph create(Path path, int dim, int m, int capacity, SimilarityKernel kernel) throws IOException {
+        int upperCapacity = upperCapacityFor(capacity, m);
+        long size = sizeOf(dim, m, capacity, upperCapacity);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("HNSW index for " + capacity + " vectors of dimension " + dim
+                    + " does not fit in a single mapping");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(0, MAGIC);
+            buffer.putInt(DIM_AT, dim);
+            buffer.putInt(M_AT, m);
+            buffer.putInt(CAPACITY_AT, capacity);
+            buffer.putInt(UPPER_CAPACITY_AT, upperCapacity);
+            buffer.putInt(COUNT_AT, 0);
+            buffer.putInt(ENTRY_AT, -1);
+            buffer.putInt(MAX_LEVEL_AT, 0);
+            buffer.putInt(UPPER_USED_AT, 0);
+            buffer.putInt(DELETED_AT, 0);
+            return new HnswGraph(path, buffer, kernel);
+        }
+    }
+
+    static HnswGraph open(Path path, SimilarityKernel kernel) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException(path + ": size " + size + " is out of range for a single mapping");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(i) != MAGIC[i]) {
+                    throw new IOException(path + " is not an HNSW index");
+                }
+            }
+            int dim = buffer.getInt(DIM_AT);
+            int m = buffer.getInt(M_AT);
+            int capacity = buffer.getInt(CAPACITY_AT);
+            int upperCapacity = buffer.getInt(UPPER_CAPACITY_AT);
+            int count = buffer.getInt(COUNT_AT);
+            int entryPoint = buffer.getInt(ENTRY_AT);
+            int upperUsed = buffer.getInt(UPPER_USED_AT);
+            if (dim <= 0 || m < 2 || capacity < 0 || upperCapacity < 0
+                    || sizeOf(dim, m, capacity, upperCapacity) != size
+                    || count < 0 || count > capacity || entryPoint >= count || (count > 0 && entryPoint < 0)
+                    || upperUsed < 0 || upperUsed > upperCapacity) {
+                throw new IOException(path + ": header does not match file size " + size);
+            }
+            return new HnswGraph(path, buffer, kernel);
+        }
+    }
+
+    /**
+     * Копия графа с большей ёмкостью в файле target: участки копируются как есть, номера узлов не меняются.
+     */
+    HnswGraph grownCopy(Path target, int newCapacity) throws IOException {
+        HnswGraph copy = create(target, dim, m, newCapacity, kernel);
+        int nodes = count;
+        copy.ids.put(0, ids, 0, nodes);
+        copy.levels.put(0, levels, 0, nodes);
+        copy.upperOffsets.put(0, upperOffsets, 0, nodes);
+        copy.level0.put(0, level0, 0, nodes * (1 + maxM0));
+        copy.upper.put(0, upper, 0, upperUsed * (1 + m));
+        copy.vectors.put(0, vectors, 0, nodes * dim);
+        copy.upperUsed = upperUsed;
+        copy.deleted = deleted;
+        copy.count = nodes;
+        copy.entry = entry;
+        copy.writeHeader();
+        return copy;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int dim() {
+        return dim;
+    }
+
+    int m() {
+        return m;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int deleted() {
+        return deleted;
+    }
+
+    int live() {
+        return count - deleted;
+    }
+
+    /**
+     * Есть ли место ещё на один узел любого уровня.
+     */
+    boolean hasRoom() {
+        return count < capacity && upperUsed + MAX_LEVEL <= upperCapacity;
+    }
+
+    int id(int node) {
+        return ids.get(node);
+    }
+
+    boolean isDeleted(int node) {
+        return (levels.get(node) & DELETED_FLAG) != 0;
+    }
+
+    void copyVector(int node, float[] dst) {
+        vectors.get(node * dim, dst, 0, dim);
+    }
+
+    /**
+     * Живые узлы как (id << 32) | узел по возрастанию id — для сверки с файлом эмбеддингов.
+     */
+    long[] liveNodesById() {
+        int nodes = count;
+        long[] packed = new long[nodes];
+        int live = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (!isDeleted(node)) {
+                packed[live++] = ((long) ids.get(node) << 32) | node;
+            }
+        }
+        Arrays.sort(packed, 0, live);
+        return live == nodes ? packed : Arrays.copyOf(packed, live);
+    }
+
+    /**
+     * До k приближённо ближайших к нормированному query живых узлов: (сходство, id) в result.
+     * Узлы, чей id отвергает exclude, пропускаются; ef — ширина поиска на нулевом уровне.
+     */
+    void search(float[] query, int ef, IntPredicate exclude, TopK result) {
+        long currentEntry = entry;
+        int visible = count;
+        int entryPoint = (int) currentEntry;
+        if (entryPoint < 0 || entryPoint >= visible) {
+            return;
+        }
+        Scratch s = borrowScratch();
+        try {
+            float entryScore = similarity(query, entryPoint, s);
+            for (int level = (int) (currentEntry >>> 32); level > 0; level--) {
+                entryPoint = greedy(query, entryPoint, entryScore, level, visible, s);
+                entryScore = s.bestScore;
+            }
+            s.reset();
+            seed(entryPoint, entryScore, s, true);
+            searchLayer(query, ef, 0, visible, s, true);
+            while (!s.results.isEmpty()) {
+                float score = s.results.topScore();
+                int id = ids.get(s.results.pop());
+                if (result.accepts(score) && !exclude.test(id)) {
+                    result.offer(score, id);
+                }
+            }
+        } finally {
+            readerScratch.offer(s);
+        }
+    }
+
+    /**
+     * Точный поиск перебором по векторам графа — эталон для оценки полноты.
+     */
+    void exactSearch(float[] query, IntPredicate exclude, TopK result) {
+        int visible = count;
+        float[] block = new float[EXACT_BLOCK_ROWS * dim];
+        float[] scores = new float[EXACT_BLOCK_ROWS];
+        for (int from = 0; from < visible; from += EXACT_BLOCK_ROWS) {
+            int rows = Math.min(EXACT_BLOCK_ROWS, visible - from);
+            vectors.get(from * dim, block, 0, rows * dim);
+            kernel.dot(query, block, rows, scores);
+            for (int r = 0; r < rows; r++) {
+                float score = scores[r];
+                int node = from + r;
+                if (result.accepts(score) && !isDeleted(node) && !exclude.test(ids.get(node))) {
+                    result.offer(score, ids.get(node));
+                }
+            }
+        }
+    }
+
+    /**
+     * Добавляет нормированный вектор длины dim с данным id. Только для писателя и только при hasRoom().
+     */
+    void insert(int id, float[] vector, int efConstruction) {
+        int node = count;
+        int level = randomLevel(node);
+        Scratch s = writerScratch(efConstruction);
+        ids.put(node, id);
+        vectors.put(node * dim, vector, 0, dim);
+        levels.put(node, level);
+        level0.put(node * (1 + maxM0), 0);
+        if (level > 0) {
+            upperOffsets.put(node, upperUsed);
+            for (int l = 0; l < level; l++) {
+                upper.put((upperUsed + l) * (1 + m), 0);
+            }
+            upperUsed += level;
+        } else {
+            upperOffsets.put(node, -1);
+        }
+
+        long currentEntry = entry;
+        int entryPoint = (int) currentEntry;
+        int topLevel = (int) (currentEntry >>> 32);
+        if (entryPoint >= 0) {
+            float entryScore = similarity(vector, entryPoint, s);
+            for (int l = topLevel; l > level; l--) {
+                entryPoint = greedy(vector, entryPoint, entryScore, l, node, s);
+                entryScore = s.bestScore;
+            }
+            s.reset();
+            seed(entryPoint, entryScore, s, false);
+            for (int l = Math.min(level, topLevel); l >= 0; l--) {
+                searchLayer(vector, efConstruction, l, node, s, false);
+                int found = drainDescending(s);
+                int linked = selectNeighbours(s, found, l == 0 ? maxM0 : m);
+                System.arraycopy(s.selected, 0, s.newLinks, 0, linked);
+                writeLinks(node, l, s.newLinks, linked);
+                // Следующий уровень начинается со всех найденных на этом
+                if (l > 0) {
+                    s.reset();
+                    for (int i = 0; i < found; i++) {
+                        seed(s.candidateIds[i], s.candidateScores[i], s, false);
+                    }
+                }
+                for (int i = 0; i < linked; i++) {
+                    addLink(s.newLinks[i], node, l, s);
+                }
+            }
+        }
+
+        count = node + 1;
+        buffer.putInt(COUNT_AT, node + 1);
+        if (entryPoint < 0 || level > topLevel) {
+            entry = pack(level, node);
+        }
+        writeHeader();
+    }
+
+    /**
+     * Помечает узел удалённым. Только для писателя.
+     */
+    void markDeleted(int node) {
+        int level = levels.get(node);
+        if ((level & DELETED_FLAG) == 0) {
+            levels.put(node, level | DELETED_FLAG);
+            deleted++;
+            buffer.putInt(DELETED_AT, deleted);
+        }
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    private void writeHeader() {
+        long currentEntry = entry;
+        buffer.putInt(COUNT_AT, count);
+        buffer.putInt(ENTRY_AT, (int) currentEntry);
+        buffer.putInt(MAX_LEVEL_AT, (int) (currentEntry >>> 32));
+        buffer.putInt(UPPER_USED_AT, upperUsed);
+        buffer.putInt(DELETED_AT, deleted);
+    }
+
+    private float similarity(float[] query, int node, Scratch s) {
+        vectors.get(node * dim, s.single, 0, dim);
+        kernel.dot(query, s.single, 1, s.singleScore);
+        return s.singleScore[0];
+    }
+
+    /**
+     * Жадный спуск по уровню level: переходит к лучшему соседу, пока такой есть.
+     */
+    private int greedy(float[] query, int entryPoint, float entryScore, int level, int visible, Scratch s) {
+        int current = entryPoint;
+        float best = entryScore;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int rows = expand(query, current, level, visible, s, false);
+            for (int r = 0; r < rows; r++) {
+                if (s.scores[r] > best) {
+                    best = s.scores[r];
+                    current = s.gathered[r];
+                    changed = true;
+                }
+            }
+        }
+        s.bestScore = best;
+        return current;
+    }
+
+    private void seed(int node, float score, Scratch s, boolean skipDeleted) {
+        s.visited.add(node);
+        s.candidates.push(-score, node);
+        if (!skipDeleted || !isDeleted(node)) {
+            s.results.push(score, node);
+        }
+    }
+
+    /**
+     * Поиск с шириной ef по уровню level от узлов, уже положенных в s.candidates и s.results.
+     * candidates — максимальная куча (оценки со знаком минус), results — ef лучших.
+     */
+    private void searchLayer(float[] query, int ef, int level, int visible, Scratch s, boolean skipDeleted) {
+        NodeHeap candidates = s.candidates;
+        NodeHeap results = s.results;
+        while (results.size() > ef) {
+            results.pop();
+        }
+        while (!candidates.isEmpty()) {
+            float score = -candidates.topScore();
+            if (results.size() >= ef && score < results.topScore()) {
+                break;
+            }
+            int rows = expand(query, candidates.pop(), level, visible, s, true);
+            for (int r = 0; r < rows; r++) {
+                float neighbourScore = s.scores[r];
+                if (results.size() < ef || neighbourScore > results.topScore()) {
+                    int neighbour = s.gathered[r];
+                    candidates.push(-neighbourScore, neighbour);
+                    if (!skipDeleted || !isDeleted(neighbour)) {
+                        results.push(neighbourScore, neighbour);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Видимых соседей node на уровне level (при markVisited — ещё не посещённых) складывает
+     * в s.gathered, их векторы — подряд в s.block, и одним вызовом ядра считает сходство с query.
+     */
+    private int expand(float[] query, int node, int level, int visible, Scratch s, boolean markVisited) {
+        IntBuffer links = level == 0 ? level0 : upper;
+        int base = linkBase(node, level);
+        int size = Math.min(links.get(base), level == 0 ? maxM0 : m);
+        int rows = 0;
+        for (int i = 1; i <= size; i++) {
+            int neighbour = links.get(base + i);
+            if (neighbour < 0 || neighbour >= visible || (markVisited && !s.visited.add(neighbour))) {
+                continue;
+            }
+            vectors.get(neighbour * dim, s.block, rows * dim, dim);
+            s.gathered[rows++] = neighbour;
+        }
+        if (rows > 0) {
+            kernel.dot(query, s.block, rows, s.scores);
+        }
+        return rows;
+    }
+
+    /**
+     * Перекладывает s.results в s.candidateIds/candidateScores по убыванию сходства.
+     */
+    private static int drainDescending(Scratch s) {
+        int found = s.results.size();
+        for (int i = found - 1; i >= 0; i--) {
+            s.candidateScores[i] = s.results.topScore();
+            s.candidateIds[i] = s.results.pop();
+        }
+        return found;
+    }
+
+    /**
+     * Эвристика выбора соседей из статьи (алгоритм 4): кандидат берётся, только если он ближе
+     * к новому узлу, чем к любому уже выбранному, — так связи расходятся в разные стороны.
+     * Кандидаты — первые found в s.candidateIds по убыванию сходства, выбранные — в s.selected.
+     */
+    private int selectNeighbours(Scratch s, int found, int maxM) {
+        if (found <= maxM) {
+            System.arraycopy(s.candidateIds, 0, s.selected, 0, found);
+            return found;
+        }
+        int selected = 0;
+        for (int i = 0; i < found && selected < maxM; i++) {
+            int candidate = s.candidateIds[i];
+            vectors.get(candidate * dim, s.single, 0, dim);
+            boolean keep = true;
+            if (selected > 0) {
+                kernel.dot(s.single, s.selectedBlock, selected, s.selectedScores);
+                for (int j = 0; j < selected; j++) {
+                    if (s.selectedScores[j] > s.candidateScores[i]) {
+                        keep = false;
+                        break;
+                    }
+                }
+            }
+            if (keep) {
+                System.arraycopy(s.single, 0, s.selectedBlock, selected * dim, dim);
+                s.selected[selected++] = candidate;
+            }
+        }
+        return selected;
+    }
+
+    private void writeLinks(int node, int level, int[] neighbours, int size) {
+        IntBuffer links = level == 0 ? level0 : upper;
+        int base = linkBase(node, level);
+        for (int i = 0; i < size; i++) {
+            links.put(base + 1 + i, neighbours[i]);
+        }
+        links.put(base, size);
+    }
+
+    /**
+     * Обратная связь target → node. Если список target полон, он заново выбирается эвристикой
+     * из старых соседей и node.
+     */
+    private void addLink(int target, int node, int level, Scratch s) {
+        IntBuffer links = level == 0 ? level0 : upper;
+        int maxM = level == 0 ? maxM0 : m;
+        int base = linkBase(target, level);
+        int size = Math.min(links.get(base), maxM);
+        if (size < maxM) {
+            links.put(base + 1 + size, node);
+            links.put(base, size + 1);
+            return;
+        }
+        vectors.get(target * dim, s.query, 0, dim);
+        for (int i = 0; i < size; i++) {
+            s.candidateIds[i] = links.get(base + 1 + i);
+        }
+        s.candidateIds[size] = node;
+        int rows = size + 1;
+        for (int r = 0; r < rows; r++) {
+            vectors.get(s.candidateIds[r] * dim, s.block, r * dim, dim);
+        }
+        kernel.dot(s.query, s.block, rows, s.candidateScores);
+        // Вставками по убыванию: кандидатов не больше 2m + 1
+        for (int i = 1; i < rows; i++) {
+            float score = s.candidateScores[i];
+            int id = s.candidateIds[i];
+            int j = i - 1;
+            while (j >= 0 && s.candidateScores[j] < score) {
+                s.candidateScores[j + 1] = s.candidateScores[j];
+                s.candidateIds[j + 1] = s.candidateIds[j];
+                j--;
+            }
+            s.candidateScores[j + 1] = score;
+            s.candidateIds[j + 1] = id;
+        }
+        writeLinks(target, level, s.selected, selectNeighbours(s, rows, maxM));
+    }
+
+    private int linkBase(int node, int level) {
+        return level == 0 ? node * (1 + maxM0) : (upperOffsets.get(node) + level - 1) * (1 + m);
+    }
+
+    /**
+     * Уровень узла: -ln(U)·(1/ln m), где U выводится из номера узла, так что перестройка воспроизводима.
+     */
+    private int randomLevel(int node) {
+        long z = (node + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        double uniform = ((z >>> 11) + 1) * 0x1.0p-53;
+        return Math.min(MAX_LEVEL, (int) (-Math.log(uniform) * levelFactor));
+    }
+
+    private Scratch writerScratch(int efConstruction) {
+        if (writerScratch == null || writerScratch.candidateIds.length < Math.max(efConstruction, maxM0 + 1)) {
+            writerScratch = new Scratch(capacity, dim, maxM0, Math.max(efConstruction, maxM0 + 1));
+        }
+        return writerScratch;
+    }
+
+    private Scratch borrowScratch() {
+        Scratch s = readerScratch.poll();
+        return s != null ? s : new Scratch(capacity, dim, maxM0, 0);
+    }
+
+    private static long pack(int level, int node) {
+        return ((long) level << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    // Верхних блоков в среднем count/(m-1); берём вдвое больше и запас на один узел максимального уровня
+    private static int upperCapacityFor(int capacity, int m) {
+        return (int) Math.min(Integer.MAX_VALUE / 4 / (1 + m), 2L * capacity / (m - 1) + 4L * MAX_LEVEL);
+    }
+
+    private static long sizeOf(int dim, int m, int capacity, int upperCapacity) {
+        return HEADER_BYTES + 4L * capacity * (3 + 1 + 2L * m + dim) + 4L * upperCapacity * (1 + m);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        return buffer.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Буферы одного обхода. Поля для выбора соседей есть только у писателя.
+     */
+    private static final class Scratch {
+
+        final VisitedSet visited;
+        final NodeHeap candidates = new NodeHeap(64);
+        final NodeHeap results = new NodeHeap(64);
+        final int[] gathered;
+        final float[] block;
+        final float[] scores;
+        final float[] single;
+        final float[] singleScore = new float[1];
+        final float[] query;
+        final int[] candidateIds;
+        final float[] candidateScores;
+        final int[] selected;
+        final int[] newLinks;
+        final float[] selectedBlock;
+        final float[] selectedScores;
+        float bestScore;
+
+        Scratch(int capacity, int dim, int maxM0, int candidateRows) {
+            visited = new VisitedSet(capacity);
+            gathered = new int[maxM0 + 1];
+            block = new float[(maxM0 + 1) * dim];
+            scores = new float[maxM0 + 1];
+            single = new float[dim];
+            boolean writer = candidateRows > 0;
+            query = writer ? new float[dim] : null;
+            candidateIds = new int[candidateRows];
+            candidateScores = new float[candidateRows];
+            selected = writer ? new int[maxM0] : null;
+            newLinks = writer ? new int[maxM0] : null;
+            selectedBlock = writer ? new float[maxM0 * dim] : null;
+            selectedScores = writer ? new float[maxM0] : null;
+        }
+
+        void reset() {
+            visited.clear();
+            candidates.clear();
+            results.clear();
+        }
+    }
+
+    /**
+     * Посещённые узлы: отметка — номер текущего обхода, так что очистка между обходами бесплатна.
+     */
+    private static final class VisitedSet {
+
+        private final int[] marks;
+        private int generation = 1;
+
+        VisitedSet(int capacity) {
+            marks = new int[capacity];
+        }
+
+        boolean add(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+
+        void clear() {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+    }
+}
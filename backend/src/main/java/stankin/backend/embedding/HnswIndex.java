@@ -0,0 +1,300 @@
+package stankin.backend.embedding;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import stankin.backend.dto.HnswReportDTO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntPredicate;
+
+/**
+ * Приближённый поиск похожих по HNSW-графу (HnswGraph) в файле embeddings.hnsw.file.
+ * <p>
+ * Граф догоняет файл эмбеддингов: после каждой его загрузки EmbeddingStore передаёт файл сюда,
+ * и поток-построитель сверяет id и векторы с графом. Новые вставляются, исчезнувшие помечаются
+ * удалёнными, изменившиеся удаляются и вставляются заново. Если удалённых стало бы больше половины
+ * или у графа другие dim или m, граф строится заново во временном файле и подменяет прежний.
+ * После рестарта файл графа только отображается в память. После каждой сверки полнота
+ * сравнивается с точным перебором на report-queries случайных узлах.
+ */
+@Slf4j
+final class HnswIndex {
+
+    private final Path path;
+    private final Path tmpPath;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int reportQueries;
+    private final SimilarityKernel kernel;
+    private final Timer syncTimer;
+
+    private final AtomicReference<EmbeddingFile> pending = new AtomicReference<>();
+    private volatile HnswGraph graph;
+    private volatile double lastRecall = Double.NaN;
+    private volatile boolean running;
+    private Thread worker;
+
+    HnswIndex(Path path, int m, int efConstruction, int efSearch, int reportQueries,
+              SimilarityKernel kernel, MeterRegistry meterRegistry) {
+        if (m < 2 || m > 128) {
+            throw new IllegalArgumentException("embeddings.hnsw.m must be in [2, 128]: " + m);
+        }
+        this.path = path;
+        this.tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.reportQueries = reportQueries;
+        this.kernel = kernel;
+        this.syncTimer = meterRegistry.timer("embeddings.hnsw.sync");
+        meterRegistry.gauge("embeddings.hnsw.nodes", this, index -> index.graph != null ? index.graph.live() : 0);
+        meterRegistry.gauge("embeddings.hnsw.deleted", this, index -> index.graph != null ? index.graph.deleted() : 0);
+        meterRegistry.gauge("embeddings.hnsw.recall", this, index -> index.lastRecall);
+    }
+
+    void start() {
+        if (Files.exists(path)) {
+            try {
+                HnswGraph loaded = HnswGraph.open(path, kernel);
+                if (loaded.m() == m) {
+                    graph = loaded;
+                    log.info("Mapped HNSW index of {} nodes ({} deleted, dimension {}, m {}) from {}",
+                            loaded.size(), loaded.deleted(), loaded.dim(), loaded.m(), path.toAbsolutePath());
+                } else {
+                    log.info("HNSW index at {} has m {} instead of {}, it will be rebuilt",
+                            path.toAbsolutePath(), loaded.m(), m);
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring HNSW index at {}: {}", path.toAbsolutePath(), e.getMessage());
+            }
+        }
+        running = true;
+        worker = new Thread(this::run, "hnsw-builder");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Поставить сверку графа с файлом; если прежняя ещё не началась, она заменяется этой.
+     */
+    void sync(EmbeddingFile file) {
+        pending.set(file);
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * До limit приближённо ближайших id или null, если графа для векторов такой размерности ещё нет.
+     * extra — сколько из лучших может отсеять exclude: на столько расширяется поиск.
+     */
+    int[] search(float[] query, int limit, IntPredicate exclude, int extra) {
+        HnswGraph current = graph;
+        if (current == null || current.dim() != query.length || current.live() == 0) {
+            return null;
+        }
+        TopK top = new TopK(limit);
+        current.search(query, Math.max(efSearch, limit + extra), exclude, top);
+        return top.idsDescending();
+    }
+
+    /**
+     * Полнота recall@k и задержки HNSW против точного перебора на queries случайных живых узлах;
+     * null, если графа ещё нет. ef ≤ 0 — ef-search из настроек.
+     */
+    HnswReportDTO report(int queries, int k, int ef) {
+        HnswGraph current = graph;
+        if (current == null || current.live() == 0) {
+            return null;
+        }
+        int width = ef > 0 ? ef : efSearch;
+        SplittableRandom random = new SplittableRandom(queries * 31L + k);
+        float[] query = new float[current.dim()];
+        long[] exactNanos = new long[queries];
+        long[] approxNanos = new long[queries];
+        long hits = 0;
+        long expected = 0;
+        for (int q = 0; q < queries; q++) {
+            int node;
+            do {
+                node = random.nextInt(current.size());
+            } while (current.isDeleted(node));
+            current.copyVector(node, query);
+            int self = current.id(node);
+            IntPredicate exclude = id -> id == self;
+
+            TopK exact = new TopK(k);
+            long started = System.nanoTime();
+            current.exactSearch(query, exclude, exact);
+            exactNanos[q] = System.nanoTime() - started;
+
+            TopK approx = new TopK(k);
+            started = System.nanoTime();
+            current.search(query, Math.max(width, k), exclude, approx);
+            approxNanos[q] = System.nanoTime() - started;
+
+            int[] exactIds = exact.idsDescending();
+            int[] approxIds = approx.idsDescending();
+            expected += exactIds.length;
+            for (int id : approxIds) {
+                for (int exactId : exactIds) {
+                    if (id == exactId) {
+                        hits++;
+                        break;
+                    }
+                }
+            }
+        }
+        double recall = expected > 0 ? (double) hits / expected : 1.0;
+        return new HnswReportDTO(current.live(), current.deleted(), current.dim(), current.m(), width, queries, k,
+                recall, percentileMs(exactNanos, 0.5), percentileMs(exactNanos, 0.99),
+                percentileMs(approxNanos, 0.5), percentileMs(approxNanos, 0.99));
+    }
+
+    private void run() {
+        while (running) {
+            EmbeddingFile file = pending.getAndSet(null);
+            if (file == null) {
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                continue;
+            }
+            long started = System.nanoTime();
+            try {
+                if (apply(file)) {
+                    syncTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    logRecall();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to update HNSW index {} from {}", path.toAbsolutePath(), file.path(), e);
+            }
+        }
+    }
+
+    /**
+     * Сверяет граф с файлом; false, если менять было нечего.
+     */
+    private boolean apply(EmbeddingFile file) throws IOException {
+        HnswGraph current = graph;
+        if (current == null || current.dim() != file.dim() || current.m() != m) {
+            rebuild(file);
+            return true;
+        }
+        long started = System.nanoTime();
+        // Слияние двух списков по возрастанию id: строки файла и живые узлы графа
+        long[] live = current.liveNodesById();
+        int[] insertRows = new int[file.count()];
+        int[] removeNodes = new int[live.length];
+        int inserts = 0;
+        int removals = 0;
+        float[] fileVector = new float[file.dim()];
+        float[] graphVector = new float[file.dim()];
+        int row = 0;
+        int next = 0;
+        while (row < file.count() || next < live.length) {
+            if (next == live.length || (row < file.count() && file.appId(row) < (int) (live[next] >> 32))) {
+                insertRows[inserts++] = row++;
+            } else if (row == file.count() || (int) (live[next] >> 32) < file.appId(row)) {
+                removeNodes[removals++] = (int) live[next++];
+            } else {
+                int node = (int) live[next++];
+                file.copyRows(row, 1, fileVector);
+                current.copyVector(node, graphVector);
+                if (!Arrays.equals(fileVector, graphVector)) {
+                    removeNodes[removals++] = node;
+                    insertRows[inserts++] = row;
+                }
+                row++;
+            }
+        }
+        if (inserts == 0 && removals == 0) {
+            return false;
+        }
+        if (2L * (current.deleted() + removals) > current.size() + inserts) {
+            rebuild(file);
+            return true;
+        }
+        for (int i = 0; i < removals; i++) {
+            current.markDeleted(removeNodes[i]);
+        }
+        for (int i = 0; i < inserts; i++) {
+            if (!current.hasRoom()) {
+                current = grow(current, current.size() + inserts - i);
+            }
+            file.copyRows(insertRows[i], 1, fileVector);
+            current.insert(file.appId(insertRows[i]), fileVector, efConstruction);
+        }
+        current.force();
+        log.info("HNSW index updated: {} inserted, {} deleted, {} live nodes in {} ms", inserts, removals,
+                current.live(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return true;
+    }
+
+    private void rebuild(EmbeddingFile file) throws IOException {
+        long started = System.nanoTime();
+        int count = file.count();
+        HnswGraph built = HnswGraph.create(tmpPath, file.dim(), m, Math.max(1024, count + count / 4), kernel);
+        float[] vector = new float[file.dim()];
+        long nextProgress = started + TimeUnit.SECONDS.toNanos(10);
+        for (int row = 0; row < count; row++) {
+            if (!running) {
+                return;
+            }
+            file.copyRows(row, 1, vector);
+            built.insert(file.appId(row), vector, efConstruction);
+            if ((row & 1023) == 0 && System.nanoTime() >= nextProgress) {
+                nextProgress = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                log.info("Building HNSW index: {} of {} vectors", row, count);
+            }
+        }
+        built.force();
+        // Старое отображение остаётся у начатых поисков, пока их не соберёт сборщик мусора
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        graph = built;
+        log.info("Built HNSW index of {} vectors (dimension {}, m {}, ef-construction {}) in {} ms", count,
+                file.dim(), m, efConstruction, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private HnswGraph grow(HnswGraph current, int needed) throws IOException {
+        int capacity = Math.max(needed + needed / 4, current.capacity() * 2);
+        HnswGraph grown = current.grownCopy(tmpPath, capacity);
+        grown.force();
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        graph = grown;
+        log.info("HNSW index grown to capacity {}", capacity);
+        return grown;
+    }
+
+    private void logRecall() {
+        if (reportQueries <= 0) {
+            return;
+        }
+        HnswReportDTO report = report(reportQueries, 10, 0);
+        if (report != null) {
+            lastRecall = report.recall();
+            log.info("HNSW recall@10 {} on {} queries (ef {}): p50 {} ms vs exact {} ms",
+                    String.format("%.3f", report.recall()), report.queries(), report.efSearch(),
+                    String.format("%.3f", report.hnswP50Ms()), String.format("%.3f", report.exactP50Ms()));
+        }
+    }
+
+    private static double percentileMs(long[] nanos, double percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
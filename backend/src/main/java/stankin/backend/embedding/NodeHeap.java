@@ -0,0 +1,81 @@
+package stankin.backend.embedding;
+
+import java.util.Arrays;
+
+/**
+ * Растущая минимальная куча пар (оценка, узел) для обхода графа HNSW.
+ * Максимальная куча получается из неё же, если класть оценку со знаком минус.
+ */
+final class NodeHeap {
+
+    private float[] scores;
+    private int[] nodes;
+    private int size;
+
+    NodeHeap(int initialCapacity) {
+        scores = new float[Math.max(4, initialCapacity)];
+        nodes = new int[scores.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    float topScore() {
+        return scores[0];
+    }
+
+    int topNode() {
+        return nodes[0];
+    }
+
+    void push(float score, int node) {
+        if (size == scores.length) {
+            scores = Arrays.copyOf(scores, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= score) break;
+            scores[i] = scores[parent];
+            nodes[i] = nodes[parent];
+            i = parent;
+        }
+        scores[i] = score;
+        nodes[i] = node;
+    }
+
+    /**
+     * Снимает вершину кучи и возвращает её узел.
+     */
+    int pop() {
+        int top = nodes[0];
+        size--;
+        if (size > 0) {
+            float score = scores[size];
+            int node = nodes[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+                if (scores[child] >= score) break;
+                scores[i] = scores[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            scores[i] = score;
+            nodes[i] = node;
+        }
+        return top;
+    }
+}
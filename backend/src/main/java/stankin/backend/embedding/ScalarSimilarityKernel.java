@@ -0,0 +1,36 @@
+package stankin.backend.embedding;
+
+/**
+ * Запасной вариант без Vector API: четыре независимых суммы, чтобы JIT мог развернуть цикл.
+ */
+final class ScalarSimilarityKernel implements SimilarityKernel {
+
+    @Override
+    public void dot(float[] query, float[] block, int rows, float[] out) {
+        int dim = query.length;
+        int upper = dim & ~3;
+        for (int r = 0; r < rows; r++) {
+            int base = r * dim;
+            float s0 = 0f;
+            float s1 = 0f;
+            float s2 = 0f;
+            float s3 = 0f;
+            int i = 0;
+            for (; i < upper; i += 4) {
+                s0 += query[i] * block[base + i];
+                s1 += query[i + 1] * block[base + i + 1];
+                s2 += query[i + 2] * block[base + i + 2];
+                s3 += query[i + 3] * block[base + i + 3];
+            }
+            for (; i < dim; i++) {
+                s0 += query[i] * block[base + i];
+            }
+            out[r] = (s0 + s1) + (s2 + s3);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
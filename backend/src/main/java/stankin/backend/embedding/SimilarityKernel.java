@@ -0,0 +1,14 @@
+package stankin.backend.embedding;
+
+/**
+ * Скалярные произведения запроса с блоком векторов, уложенных подряд по dim чисел.
+ */
+interface SimilarityKernel {
+
+    /**
+     * out[r] = (query, block[r·dim .. r·dim + dim)) для r < rows.
+     */
+    void dot(float[] query, float[] block, int rows, float[] out);
+
+    String name();
+}
@@ -0,0 +1,66 @@
+package stankin.backend.embedding;
+
+/**
+ * Минимальная куча на k лучших (оценка, id) на примитивных массивах.
+ */
+final class TopK {
+
+    private final float[] scores;
+    private final int[] ids;
+    private int size;
+
+    TopK(int k) {
+        scores = new float[k];
+        ids = new int[k];
+    }
+
+    boolean accepts(float score) {
+        return size < scores.length || score > scores[0];
+    }
+
+    void offer(float score, int id) {
+        if (size < scores.length) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) break;
+                scores[i] = scores[parent];
+                ids[i] = ids[parent];
+                i = parent;
+            }
+            scores[i] = score;
+            ids[i] = id;
+            return;
+        }
+        siftDown(score, id);
+    }
+
+    private void siftDown(float score, int id) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+            if (scores[child] >= score) break;
+            scores[i] = scores[child];
+            ids[i] = ids[child];
+            i = child;
+        }
+        scores[i] = score;
+        ids[i] = id;
+    }
+
+    int[] idsDescending() {
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = ids[0];
+            float lastScore = scores[size - 1];
+            int lastId = ids[size - 1];
+            size--;
+            if (size > 0) {
+                siftDown(lastScore, lastId);
+            }
+        }
+        return result;
+    }
+}
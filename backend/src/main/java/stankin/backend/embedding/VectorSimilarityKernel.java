@@ -0,0 +1,39 @@
+package stankin.backend.embedding;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Скалярные произведения на JDK Vector API (FMA по предпочтительной ширине регистра).
+ * Компилируется и работает только с --add-modules jdk.incubator.vector; загружается через рефлексию.
+ */
+final class VectorSimilarityKernel implements SimilarityKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void dot(float[] query, float[] block, int rows, float[] out) {
+        int dim = query.length;
+        int upper = SPECIES.loopBound(dim);
+        for (int r = 0; r < rows; r++) {
+            int base = r * dim;
+            FloatVector sum = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upper; i += SPECIES.length()) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+                sum = q.fma(FloatVector.fromArray(SPECIES, block, base + i), sum);
+            }
+            float result = sum.reduceLanes(VectorOperators.ADD);
+            for (; i < dim; i++) {
+                result += query[i] * block[base + i];
+            }
+            out[r] = result;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.vectorBitSize();
+    }
+}
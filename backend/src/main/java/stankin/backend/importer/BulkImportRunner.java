@@ -0,0 +1,71 @@
+package stankin.backend.importer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import stankin.backend.dto.ImportReportDTO;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Загрузка из командной строки: приложение стартует, загружает файл и завершается
+ * с кодом 0 (completed) или 1. Отчёт печатается в stdout одной строкой JSON.
+ * <pre>
+ * java -jar backend.jar --spring.main.web-application-type=none \
+ *     --bulk-import.file=apps.csv.gz --bulk-import.target=apps
+ * </pre>
+ * Формат определяется по расширению (.csv, .jsonl, .ndjson, в том числе .gz) или задаётся
+ * через --bulk-import.format.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "bulk-import.file")
+public class BulkImportRunner implements ApplicationRunner {
+
+    private final BulkImporter bulkImporter;
+    private final ObjectMapper objectMapper;
+    private final ConfigurableApplicationContext context;
+
+    @Value("${bulk-import.file}")
+    private String file;
+
+    @Value("${bulk-import.target}")
+    private String target;
+
+    @Value("${bulk-import.format:}")
+    private String format;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Path path = Path.of(file);
+        String inputFormat = format;
+        if (inputFormat.isBlank()) {
+            RowReader.Format detected = RowReader.Format.ofFileName(path.getFileName().toString());
+            if (detected == null) {
+                throw new IllegalArgumentException("Cannot detect format of " + path + ", set --bulk-import.format");
+            }
+            inputFormat = detected.name();
+        }
+        ImportReportDTO report;
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+             InputStream input = path.toString().endsWith(".gz") ? new GZIPInputStream(raw, 1 << 16) : raw) {
+            log.info("Importing {} into {}", path.toAbsolutePath(), target);
+            report = bulkImporter.run(target, inputFormat, input);
+        }
+        System.out.println(objectMapper.writeValueAsString(report));
+        int exitCode = "completed".equals(report.outcome()) ? 0 : 1;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
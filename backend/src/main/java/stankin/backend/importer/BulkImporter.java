@@ -0,0 +1,238 @@
+package stankin.backend.importer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import stankin.backend.dto.ImportReportDTO;
+import stankin.backend.service.SnowflakeIdGenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Массовая загрузка каталога (apps, screenshots, video_clips) из CSV или JSON Lines.
+ * <p>
+ * Вход читается потоком и проверяется построчно: строка кодируется в RowBinary в отдельный буфер
+ * и попадает в пачку, только если все её значения прошли проверку, иначе уходит в отчёт как
+ * отклонённая. Пачка (bulk-import.batch-rows строк или bulk-import.batch-bytes байт) отправляется
+ * одной HTTP-вставкой, и пока она летит, заполняется вторая. Поэтому память ограничена двумя
+ * пачками независимо от размера входа, а разбор и вставка идут параллельно.
+ * <p>
+ * Загрузка не транзакционна: при ошибке уже принятые пачки остаются в таблице. Каталог подхватит
+ * новые приложения обычным опросом по updated_at.
+ */
+@Slf4j
+@Service
+public class BulkImporter {
+
+    private static final int ROW_BUFFER_BYTES = 4096;
+
+    private final ClickHouseHttpInserter inserter;
+    private final SnowflakeIdGenerator idGenerator;
+    private final MeterRegistry meterRegistry;
+    private final int batchRows;
+    private final int batchBytes;
+    private final long maxRejects;
+    private final int reportedRejects;
+    private final long progressIntervalNanos;
+    private final Semaphore slots;
+
+    public BulkImporter(ClickHouseHttpInserter inserter, SnowflakeIdGenerator idGenerator, MeterRegistry meterRegistry,
+                        @Value("${bulk-import.batch-rows:500000}") int batchRows,
+                        @Value("${bulk-import.batch-bytes:33554432}") int batchBytes,
+                        @Value("${bulk-import.max-rejects:10000}") long maxRejects,
+                        @Value("${bulk-import.reported-rejects:100}") int reportedRejects,
+                        @Value("${bulk-import.progress-interval-ms:5000}") long progressIntervalMs,
+                        @Value("${bulk-import.max-concurrent:2}") int maxConcurrent) {
+        this.inserter = inserter;
+        this.idGenerator = idGenerator;
+        this.meterRegistry = meterRegistry;
+        this.batchRows = batchRows;
+        this.batchBytes = batchBytes;
+        this.maxRejects = maxRejects;
+        this.reportedRejects = reportedRejects;
+        this.progressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(progressIntervalMs);
+        this.slots = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Загружает input (UTF-8) в таблицу target в формате format (csv, jsonl).
+     * Неизвестные target/format и CSV без обязательных колонок — IllegalArgumentException до записи.
+     */
+    public ImportReportDTO run(String target, String format, InputStream input) throws IOException {
+        ImportTarget importTarget = ImportTarget.parse(target);
+        RowReader.Format inputFormat = RowReader.Format.parse(format);
+        if (!slots.tryAcquire()) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent imports");
+        }
+        try {
+            RowReader rows = inputFormat.open(new InputStreamReader(input, StandardCharsets.UTF_8), importTarget);
+            return new Run(importTarget, inputFormat, rows).execute();
+        } finally {
+            slots.release();
+        }
+    }
+
+    private final class Run {
+
+        private final ImportTarget target;
+        private final RowReader.Format format;
+        private final RowReader rows;
+        private final String query;
+        private final String[] values;
+        private final RowBinaryBuffer row = new RowBinaryBuffer(ROW_BUFFER_BYTES);
+        private RowBinaryBuffer batch;
+        private RowBinaryBuffer spare;
+        private final List<ImportReportDTO.Reject> rejects = new ArrayList<>();
+
+        private final Counter importedCounter;
+        private final Counter rejectedCounter;
+        private final Timer batchTimer;
+
+        private final long startedNanos = System.nanoTime();
+        private long nextProgressNanos = startedNanos + progressIntervalNanos;
+        private long rowsRead;
+        private long rowsImported;
+        private long rowsRejected;
+        private int rowsInBatch;
+        private int batches;
+        private CompletableFuture<Void> inFlight;
+        private int inFlightRows;
+
+        Run(ImportTarget target, RowReader.Format format, RowReader rows) {
+            this.target = target;
+            this.format = format;
+            this.rows = rows;
+            this.query = target.insertQuery();
+            this.values = new String[target.columns().size()];
+            int initialBytes = Math.min(batchBytes, 1 << 20);
+            this.batch = new RowBinaryBuffer(initialBytes);
+            this.spare = new RowBinaryBuffer(initialBytes);
+            String table = target.name().toLowerCase(Locale.ROOT);
+            this.importedCounter = meterRegistry.counter("bulk-import.rows", "target", table, "outcome", "imported");
+            this.rejectedCounter = meterRegistry.counter("bulk-import.rows", "target", table, "outcome", "rejected");
+            this.batchTimer = meterRegistry.timer("bulk-import.batch", "target", table);
+        }
+
+        ImportReportDTO execute() {
+            String outcome = "completed";
+            String error = null;
+            try {
+                while (true) {
+                    String reason = null;
+                    row.reset();
+                    try {
+                        if (!rows.next(values)) {
+                            break;
+                        }
+                        target.encode(values, row, idGenerator::nextUuid);
+                    } catch (IllegalArgumentException e) {
+                        reason = e.getMessage();
+                    }
+                    rowsRead++;
+                    if (reason != null) {
+                        reject(reason);
+                        if (rowsRejected > maxRejects) {
+                            outcome = "too-many-rejects";
+                            error = "Stopped after " + rowsRejected + " rejected rows";
+                            break;
+                        }
+                    } else {
+                        batch.append(row);
+                        if (++rowsInBatch >= batchRows || batch.size() >= batchBytes) {
+                            send();
+                        }
+                    }
+                    if ((rowsRead & 1023) == 0 && System.nanoTime() >= nextProgressNanos) {
+                        logProgress();
+                    }
+                }
+                // Принятые строки дописываем и при остановке по отклонённым: отчёт перечисляет, что не вошло
+                send();
+                awaitInFlight();
+            } catch (IOException | RuntimeException e) {
+                outcome = "failed";
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                settleInFlight();
+                log.error("Import into {} failed after {} rows: {}", target.table(), rowsRead, error);
+            }
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+            log.info("Import into {} {}: {} rows read, {} imported, {} rejected, {} batches in {} ms",
+                    target.table(), outcome, rowsRead, rowsImported, rowsRejected, batches, durationMs);
+            return new ImportReportDTO(target.name().toLowerCase(Locale.ROOT), format.name().toLowerCase(Locale.ROOT),
+                    outcome, error, rowsRead, rowsImported, rowsRejected, batches, durationMs,
+                    rows.ignoredFields(), rejects);
+        }
+
+        private void reject(String reason) {
+            rowsRejected++;
+            rejectedCounter.increment();
+            if (rejects.size() < reportedRejects) {
+                rejects.add(new ImportReportDTO.Reject(rows.line(), reason));
+            }
+        }
+
+        /**
+         * Дожидается предыдущей пачки и отправляет текущую, меняя буферы местами.
+         */
+        private void send() {
+            if (rowsInBatch == 0) {
+                return;
+            }
+            awaitInFlight();
+            long sentNanos = System.nanoTime();
+            inFlight = inserter.insertAsync(query, batch.array(), batch.size())
+                    .whenComplete((ignored, e) -> batchTimer.record(System.nanoTime() - sentNanos, TimeUnit.NANOSECONDS));
+            inFlightRows = rowsInBatch;
+            batches++;
+            RowBinaryBuffer sent = batch;
+            batch = spare;
+            spare = sent;
+            batch.reset();
+            rowsInBatch = 0;
+        }
+
+        private void awaitInFlight() {
+            if (inFlight == null) {
+                return;
+            }
+            CompletableFuture<Void> pending = inFlight;
+            inFlight = null;
+            pending.join();
+            rowsImported += inFlightRows;
+            importedCounter.increment(inFlightRows);
+        }
+
+        // После ошибки чтения пачка в полёте ещё может успешно записаться: учитываем её в отчёте
+        private void settleInFlight() {
+            try {
+                awaitInFlight();
+            } catch (RuntimeException e) {
+                log.debug("In-flight batch into {} failed as well: {}", target.table(), e.toString());
+            }
+        }
+
+        private void logProgress() {
+            long now = System.nanoTime();
+            nextProgressNanos = now + progressIntervalNanos;
+            double seconds = Math.max(1e-3, (now - startedNanos) / 1e9);
+            log.info("Import into {}: {} rows read, {} imported, {} rejected ({} rows/s)",
+                    target.table(), rowsRead, rowsImported, rowsRejected, Math.round(rowsRead / seconds));
+        }
+    }
+}
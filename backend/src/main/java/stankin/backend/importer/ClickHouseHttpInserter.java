@@ -0,0 +1,86 @@
+package stankin.backend.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Вставка готового тела RowBinary одним HTTP-запросом к ClickHouse, минуя JDBC и разбор SQL на каждую строку.
+ * Адрес берётся из bulk-import.clickhouse-url, а если он пуст — из spring.datasource.url.
+ */
+@Slf4j
+@Component
+public class ClickHouseHttpInserter {
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String username;
+    private final String password;
+    private final Duration requestTimeout;
+
+    public ClickHouseHttpInserter(@Value("${bulk-import.clickhouse-url:}") String clickhouseUrl,
+                                  @Value("${spring.datasource.url}") String jdbcUrl,
+                                  @Value("${spring.datasource.username}") String username,
+                                  @Value("${spring.datasource.password}") String password,
+                                  @Value("${clickhouse.connection-timeout:10000}") long connectionTimeoutMs,
+                                  @Value("${bulk-import.request-timeout-ms:300000}") long requestTimeoutMs) {
+        this.baseUrl = clickhouseUrl.isBlank() ? httpUrlOf(jdbcUrl) : stripSlash(clickhouseUrl.trim());
+        this.username = username;
+        this.password = password;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectionTimeoutMs))
+                .build();
+        log.info("Bulk import writes to ClickHouse at {}", baseUrl);
+    }
+
+    /**
+     * Отправляет length байт data; future завершается ошибкой, если ClickHouse не принял пачку.
+     * Массив не копируется, поэтому до завершения future его нельзя менять.
+     */
+    public CompletableFuture<Void> insertAsync(String query, byte[] data, int length) {
+        // Пачка целиком одной вставкой: асинхронная вставка сервера здесь только мешает,
+        // а экспорт магазина легко затрагивает больше 100 месячных партиций apps
+        String url = baseUrl + "/?async_insert=0&max_partitions_per_insert_block=1000&query="
+                + URLEncoder.encode(query, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("X-ClickHouse-User", username)
+                .header("X-ClickHouse-Key", password)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(data, 0, length))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenAccept(response -> {
+                    if (response.statusCode() != 200) {
+                        String body = response.body();
+                        throw new IllegalStateException("ClickHouse rejected batch with HTTP " + response.statusCode()
+                                + ": " + (body.length() > 500 ? body.substring(0, 500) : body).trim());
+                    }
+                });
+    }
+
+    /**
+     * jdbc:clickhouse://host:8123/db?... (или jdbc:ch:, jdbc:clickhouse:https:) → http://host:8123.
+     */
+    static String httpUrlOf(String jdbcUrl) {
+        String rest = jdbcUrl.replaceFirst("^jdbc:(clickhouse|ch):", "");
+        String scheme = rest.startsWith("https:") || rest.contains("ssl=true") ? "https" : "http";
+        URI uri = URI.create("http:" + rest.substring(rest.indexOf("//")));
+        int port = uri.getPort() > 0 ? uri.getPort() : ("https".equals(scheme) ? 8443 : 8123);
+        return scheme + "://" + uri.getHost() + ":" + port;
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
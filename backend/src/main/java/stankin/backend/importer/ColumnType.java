@@ -0,0 +1,156 @@
+package stankin.backend.importer;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.UUID;
+
+/**
+ * Типы колонок, которые понимает импорт: разбор текстового значения с проверкой диапазона
+ * и запись в RowBinary. Ошибка значения — IllegalArgumentException с текстом для отчёта.
+ */
+enum ColumnType {
+    UINT8 {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            // Флаги is_* приходят и как true/false
+            if ("true".equalsIgnoreCase(value)) {
+                out.writeUInt8(1);
+            } else if ("false".equalsIgnoreCase(value)) {
+                out.writeUInt8(0);
+            } else {
+                out.writeUInt8((int) parseUnsigned(value, 0xFFL));
+            }
+        }
+    },
+    UINT16 {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            out.writeUInt16((int) parseUnsigned(value, 0xFFFFL));
+        }
+    },
+    UINT32 {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            out.writeUInt32(parseUnsigned(value, 0xFFFFFFFFL));
+        }
+    },
+    UINT64 {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            out.writeUInt64(parseUnsigned(value, Long.MAX_VALUE));
+        }
+    },
+    FLOAT32 {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            float parsed;
+            try {
+                parsed = Float.parseFloat(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: '" + value + "'");
+            }
+            if (!Float.isFinite(parsed) || parsed < 0) {
+                throw new IllegalArgumentException("must be a non-negative number: '" + value + "'");
+            }
+            out.writeFloat32(parsed);
+        }
+    },
+    STRING {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            out.writeString(value);
+        }
+    },
+    DATETIME {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            out.writeUInt32(parseEpochSeconds(value));
+        }
+    },
+    UUID_TYPE {
+        @Override
+        void write(String value, RowBinaryBuffer out) {
+            try {
+                out.writeUuid(UUID.fromString(value));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("not a UUID: '" + value + "'");
+            }
+        }
+    };
+
+    private static final ZoneRules ZONE = ZoneId.systemDefault().getRules();
+
+    abstract void write(String value, RowBinaryBuffer out);
+
+    private static long parseUnsigned(String value, long max) {
+        long parsed;
+        try {
+            parsed = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not an integer: '" + value + "'");
+        }
+        if (parsed < 0 || parsed > max) {
+            throw new IllegalArgumentException("out of range [0, " + max + "]: " + parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Секунды эпохи, 'yyyy-MM-dd HH:mm:ss' или ISO-8601; время без зоны — в зоне сервера, как у JDBC.
+     */
+    static long parseEpochSeconds(String value) {
+        long seconds;
+        try {
+            if (isClickHouseDateTime(value)) {
+                // Основной формат выгрузок разбираем вручную: DateTimeFormatter здесь в разы медленнее
+                LocalDateTime dateTime = LocalDateTime.of(digits(value, 0, 4), digits(value, 5, 2), digits(value, 8, 2),
+                        digits(value, 11, 2), digits(value, 14, 2), digits(value, 17, 2));
+                seconds = dateTime.toEpochSecond(ZONE.getOffset(dateTime));
+            } else if (digits(value, 0, value.length()) >= 0) {
+                seconds = Long.parseLong(value);
+            } else if (value.endsWith("Z") || value.lastIndexOf('+') > 10 || value.lastIndexOf('-') > 10) {
+                seconds = OffsetDateTime.parse(value).toEpochSecond();
+            } else {
+                LocalDateTime dateTime = LocalDateTime.parse(value);
+                seconds = dateTime.toEpochSecond(ZONE.getOffset(dateTime));
+            }
+        } catch (DateTimeException | NumberFormatException e) {
+            throw new IllegalArgumentException("not a date-time: '" + value + "'");
+        }
+        if (seconds < 0 || seconds > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("date-time out of range: '" + value + "'");
+        }
+        return seconds;
+    }
+
+    private static boolean isClickHouseDateTime(String value) {
+        return value.length() == 19 && value.charAt(4) == '-' && value.charAt(7) == '-' && value.charAt(10) == ' '
+                && value.charAt(13) == ':' && value.charAt(16) == ':';
+    }
+
+    /**
+     * Число из length цифр начиная с from; -1, если там не только цифры (или length вне 1..18).
+     */
+    private static int digits(String value, int from, int length) {
+        if (length < 1 || length > 18) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = from; i < from + length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return (int) Math.min(result, Integer.MAX_VALUE);
+    }
+
+    static long nowEpochSeconds() {
+        return Instant.now().getEpochSecond();
+    }
+}
@@ -0,0 +1,184 @@
+package stankin.backend.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CSV по RFC 4180 с обязательной строкой заголовка: разделитель — запятая, поля в кавычках могут
+ * содержать запятые, переводы строк и удвоенные кавычки. Пустые строки пропускаются.
+ * Читает через собственный буфер символов, без построчного копирования.
+ */
+final class CsvRowReader implements RowReader {
+
+    private final Reader in;
+    private final char[] buffer = new char[1 << 16];
+    private int position;
+    private int limit;
+
+    private final StringBuilder field = new StringBuilder();
+    private String[] fields = new String[32];
+    private int fieldCount;
+    private final int[] columnOfField;
+    private final List<String> ignoredFields = new ArrayList<>();
+    private long line = 1;
+    private long recordLine;
+
+    CsvRowReader(Reader in, ImportTarget target) throws IOException {
+        this.in = in;
+        if (!readRecord()) {
+            throw new IllegalArgumentException("CSV input is empty, expected a header row");
+        }
+        if (!fields[0].isEmpty() && fields[0].charAt(0) == '\uFEFF') {
+            fields[0] = fields[0].substring(1);
+        }
+        columnOfField = new int[fieldCount];
+        boolean[] present = new boolean[target.columns().size()];
+        for (int i = 0; i < fieldCount; i++) {
+            int column = target.indexOf(fields[i]);
+            if (column >= 0 && present[column]) {
+                throw new IllegalArgumentException("Duplicate CSV column '" + fields[i] + "'");
+            }
+            columnOfField[i] = column;
+            if (column >= 0) {
+                present[column] = true;
+            } else {
+                ignoredFields.add(fields[i]);
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < present.length; i++) {
+            ImportTarget.Column column = target.columns().get(i);
+            if (!present[i] && column.defaultValue() == null) {
+                missing.add(column.name());
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("CSV header lacks required column(s) " + missing);
+        }
+    }
+
+    @Override
+    public boolean next(String[] values) throws IOException {
+        do {
+            if (!readRecord()) {
+                return false;
+            }
+        } while (fieldCount == 1 && fields[0].isEmpty());
+        if (fieldCount != columnOfField.length) {
+            throw new IllegalArgumentException("expected " + columnOfField.length + " fields, got " + fieldCount);
+        }
+        Arrays.fill(values, null);
+        for (int i = 0; i < columnOfField.length; i++) {
+            if (columnOfField[i] >= 0) {
+                values[columnOfField[i]] = fields[i];
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long line() {
+        return recordLine;
+    }
+
+    @Override
+    public List<String> ignoredFields() {
+        return ignoredFields;
+    }
+
+    private boolean readRecord() throws IOException {
+        fieldCount = 0;
+        field.setLength(0);
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+        recordLine = line;
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("unterminated quoted field");
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                    appendRun(true);
+                }
+            } else if (c == ',') {
+                addField();
+            } else if (c == '\n' || c == -1) {
+                if (c == '\n') {
+                    line++;
+                }
+                addField();
+                return true;
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c != '\r') {
+                field.append((char) c);
+                appendRun(false);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Копирует в поле подряд идущие обычные символы из буфера одним вызовом, а не по одному.
+     */
+    private void appendRun(boolean quoted) {
+        int start = position;
+        while (position < limit) {
+            char c = buffer[position];
+            if (c == '"' || c == '\n' || (!quoted && (c == ',' || c == '\r'))) {
+                break;
+            }
+            position++;
+        }
+        field.append(buffer, start, position - start);
+    }
+
+    private void addField() {
+        if (fieldCount == fields.length) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
+        }
+        fields[fieldCount++] = field.toString();
+        field.setLength(0);
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+}
@@ -0,0 +1,184 @@
+package stankin.backend.importer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Таблицы, доступные для массовой загрузки, и правила их колонок.
+ * <p>
+ * Значения по умолчанию повторяют DEFAULT из shema.sql и подставляются на стороне клиента:
+ * RowBinary передаёт все перечисленные колонки. Пустое или отсутствующее значение заменяется
+ * значением по умолчанию; колонка без него обязательна.
+ */
+public enum ImportTarget {
+    APPS("rustore.apps",
+            Column.required("id", ColumnType.UINT32),
+            Column.required("name", ColumnType.STRING),
+            Column.required("package_name", ColumnType.STRING),
+            Column.required("developer", ColumnType.STRING),
+            Column.required("category_id", ColumnType.UINT16),
+            Column.optional("description", ColumnType.STRING, ""),
+            Column.optional("short_description", ColumnType.STRING, ""),
+            Column.optional("version", ColumnType.STRING, ""),
+            Column.optional("size_mb", ColumnType.FLOAT32, "0"),
+            Column.optional("rating", ColumnType.FLOAT32, "0").max(5),
+            Column.optional("downloads", ColumnType.UINT64, "0"),
+            Column.optional("price", ColumnType.FLOAT32, "0"),
+            Column.optional("is_free", ColumnType.UINT8, "1"),
+            Column.optional("age_rating", ColumnType.STRING, "0+"),
+            Column.optional("icon_url", ColumnType.STRING, ""),
+            Column.optional("apk_url", ColumnType.STRING, ""),
+            Column.optional("created_at", ColumnType.DATETIME, Column.NOW),
+            Column.optional("updated_at", ColumnType.DATETIME, Column.NOW),
+            Column.optional("is_editor_choice", ColumnType.UINT8, "0"),
+            Column.optional("is_new", ColumnType.UINT8, "0"),
+            Column.optional("is_popular", ColumnType.UINT8, "0")),
+    SCREENSHOTS("rustore.screenshots",
+            Column.required("id", ColumnType.UINT32),
+            Column.required("app_id", ColumnType.UINT32),
+            Column.required("url", ColumnType.STRING),
+            Column.optional("order_index", ColumnType.UINT8, "0"),
+            Column.optional("created_at", ColumnType.DATETIME, Column.NOW)),
+    VIDEO_CLIPS("rustore.video_clips",
+            Column.optional("id", ColumnType.UUID_TYPE, Column.GENERATED),
+            Column.required("app_id", ColumnType.UINT32),
+            Column.required("title", ColumnType.STRING),
+            Column.optional("description", ColumnType.STRING, ""),
+            Column.required("video_url", ColumnType.STRING),
+            Column.optional("thumbnail_url", ColumnType.STRING, ""),
+            Column.optional("duration_sec", ColumnType.UINT16, "0"),
+            Column.optional("is_playable", ColumnType.UINT8, "1"),
+            Column.optional("demo_url", ColumnType.STRING, ""),
+            Column.optional("demo_time_limit_sec", ColumnType.UINT16, "90"),
+            Column.optional("orientation", ColumnType.STRING, "vertical"),
+            Column.optional("views", ColumnType.UINT64, "0"),
+            Column.optional("likes", ColumnType.UINT64, "0"),
+            Column.optional("created_at", ColumnType.DATETIME, Column.NOW),
+            Column.optional("updated_at", ColumnType.DATETIME, Column.NOW));
+
+    private final String table;
+    private final List<Column> columns;
+    private final Map<String, Integer> indexByName = new HashMap<>();
+
+    ImportTarget(String table, Column... columns) {
+        this.table = table;
+        this.columns = List.of(columns);
+        for (int i = 0; i < columns.length; i++) {
+            indexByName.put(columns[i].name(), i);
+        }
+    }
+
+    /**
+     * apps, screenshots, video_clips или video-clips.
+     */
+    public static ImportTarget parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown import target '" + value + "', expected one of "
+                    + Arrays.stream(values()).map(t -> t.name().toLowerCase(Locale.ROOT)).toList());
+        }
+    }
+
+    public String table() {
+        return table;
+    }
+
+    List<Column> columns() {
+        return columns;
+    }
+
+    /**
+     * Индекс колонки по имени поля входных данных; -1 — поле не относится к таблице.
+     */
+    int indexOf(String name) {
+        Integer index = indexByName.get(name);
+        if (index == null) {
+            index = indexByName.get(name.trim().toLowerCase(Locale.ROOT));
+        }
+        return index != null ? index : -1;
+    }
+
+    String insertQuery() {
+        return "INSERT INTO " + table + " ("
+                + columns.stream().map(Column::name).collect(Collectors.joining(", "))
+                + ") FORMAT RowBinary";
+    }
+
+    /**
+     * Пишет строку в out; values[i] == null — значение для колонки i не передано.
+     * При ошибке бросает IllegalArgumentException, out при этом может быть заполнен частично.
+     */
+    void encode(String[] values, RowBinaryBuffer out, Supplier<UUID> ids) {
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            String value = values[i];
+            try {
+                if (value == null || value.isEmpty()) {
+                    if (column.defaultValue() == null) {
+                        throw new IllegalArgumentException(value == null ? "missing" : "empty");
+                    }
+                    writeDefault(column, out, ids);
+                } else {
+                    column.write(value, out);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(column.name() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Выражения now() и generateUUIDv4() вычисляем здесь, остальные значения по умолчанию — литералы
+    private static void writeDefault(Column column, RowBinaryBuffer out, Supplier<UUID> ids) {
+        switch (column.type()) {
+            case DATETIME -> out.writeUInt32(ColumnType.nowEpochSeconds());
+            case UUID_TYPE -> out.writeUuid(ids.get());
+            default -> column.type().write(column.defaultValue(), out);
+        }
+    }
+
+    /**
+     * defaultValue == null — колонка обязательна; max — верхняя граница для Float32.
+     */
+    record Column(String name, ColumnType type, String defaultValue, double max) {
+
+        static final String NOW = "now()";
+        static final String GENERATED = "generateUUIDv4()";
+
+        static Column required(String name, ColumnType type) {
+            return new Column(name, type, null, Double.MAX_VALUE);
+        }
+
+        static Column optional(String name, ColumnType type, String defaultValue) {
+            return new Column(name, type, defaultValue, Double.MAX_VALUE);
+        }
+
+        Column max(double max) {
+            return new Column(name, type, defaultValue, max);
+        }
+
+        void write(String value, RowBinaryBuffer out) {
+            if (type == ColumnType.FLOAT32 && max < Double.MAX_VALUE) {
+                float parsed = parseFloat(value);
+                if (parsed > max) {
+                    throw new IllegalArgumentException("must be at most " + max + ": " + value);
+                }
+            }
+            type.write(value, out);
+        }
+
+        private static float parseFloat(String value) {
+            try {
+                return Float.parseFloat(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: '" + value + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package stankin.backend.importer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JSON Lines: один плоский объект на строку. Строка разбирается потоковым JsonParser без построения
+ * дерева; числа и логические значения передаются дальше текстом, null — как отсутствующее поле.
+ */
+final class JsonLinesRowReader implements RowReader {
+
+    private static final int MAX_IGNORED_FIELDS = 100;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final BufferedReader in;
+    private final ImportTarget target;
+    private final Set<String> ignoredFields = new LinkedHashSet<>();
+    private long line;
+
+    JsonLinesRowReader(Reader in, ImportTarget target) {
+        this.in = in instanceof BufferedReader buffered ? buffered : new BufferedReader(in, 1 << 16);
+        this.target = target;
+    }
+
+    @Override
+    public boolean next(String[] values) throws IOException {
+        String text;
+        do {
+            text = in.readLine();
+            if (text == null) {
+                return false;
+            }
+            line++;
+        } while (text.isBlank());
+        Arrays.fill(values, null);
+        try (JsonParser parser = JSON.createParser(text)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("expected a JSON object");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                int column = target.indexOf(name);
+                if (column < 0) {
+                    if (ignoredFields.size() < MAX_IGNORED_FIELDS) {
+                        ignoredFields.add(name);
+                    }
+                    parser.skipChildren();
+                    continue;
+                }
+                values[column] = switch (value) {
+                    case VALUE_NULL -> null;
+                    case VALUE_STRING, VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT, VALUE_TRUE, VALUE_FALSE -> parser.getText();
+                    default -> throw new IllegalArgumentException(name + ": nested values are not supported");
+                };
+            }
+            if (token != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                throw new IllegalArgumentException("malformed JSON object");
+            }
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("malformed JSON: " + e.getOriginalMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public long line() {
+        return line;
+    }
+
+    @Override
+    public List<String> ignoredFields() {
+        return new ArrayList<>(ignoredFields);
+    }
+}
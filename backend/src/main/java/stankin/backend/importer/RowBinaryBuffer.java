@@ -0,0 +1,90 @@
+package stankin.backend.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Растущий буфер строк в формате ClickHouse RowBinary: числа little-endian, строки — длина LEB128
+ * и байты UTF-8, DateTime — UInt32 секунд, UUID — две половины UInt64 (старшая первой).
+ */
+final class RowBinaryBuffer {
+
+    private byte[] bytes;
+    private int size;
+
+    RowBinaryBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    void append(RowBinaryBuffer other) {
+        ensure(other.size);
+        System.arraycopy(other.bytes, 0, bytes, size, other.size);
+        size += other.size;
+    }
+
+    void writeUInt8(int value) {
+        ensure(1);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeUInt16(int value) {
+        ensure(2);
+        bytes[size++] = (byte) value;
+        bytes[size++] = (byte) (value >>> 8);
+    }
+
+    void writeUInt32(long value) {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            bytes[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    void writeUInt64(long value) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    void writeFloat32(float value) {
+        writeUInt32(Float.floatToIntBits(value) & 0xFFFFFFFFL);
+    }
+
+    void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        long length = utf8.length;
+        ensure(utf8.length + 5);
+        while (length >= 0x80) {
+            bytes[size++] = (byte) (length | 0x80);
+            length >>>= 7;
+        }
+        bytes[size++] = (byte) length;
+        System.arraycopy(utf8, 0, bytes, size, utf8.length);
+        size += utf8.length;
+    }
+
+    void writeUuid(UUID value) {
+        writeUInt64(value.getMostSignificantBits());
+        writeUInt64(value.getLeastSignificantBits());
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
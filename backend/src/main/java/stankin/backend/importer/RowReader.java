@@ -0,0 +1,63 @@
+package stankin.backend.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Потоковое чтение входных записей в массив значений по индексам колонок ImportTarget.
+ */
+interface RowReader {
+
+    enum Format {
+        CSV, JSONL;
+
+        /**
+         * csv, jsonl или ndjson.
+         */
+        static Format parse(String value) {
+            String normalized = value.trim().toLowerCase(Locale.ROOT);
+            return switch (normalized) {
+                case "csv" -> CSV;
+                case "jsonl", "ndjson" -> JSONL;
+                default -> throw new IllegalArgumentException("Unknown import format '" + value + "', expected csv or jsonl");
+            };
+        }
+
+        /**
+         * По расширению файла (в том числе .csv.gz); null — не распознано.
+         */
+        static Format ofFileName(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            if (name.endsWith(".gz")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") ? JSONL : null;
+        }
+
+        RowReader open(Reader reader, ImportTarget target) throws IOException {
+            return this == CSV ? new CsvRowReader(reader, target) : new JsonLinesRowReader(reader, target);
+        }
+    }
+
+    /**
+     * Читает следующую запись в values (null — поле не передано); false — вход закончился.
+     * Запись с неверной структурой уже прочитана к моменту IllegalArgumentException,
+     * поэтому после неё можно продолжать.
+     */
+    boolean next(String[] values) throws IOException;
+
+    /**
+     * Номер строки входа, с которой началась последняя прочитанная запись.
+     */
+    long line();
+
+    /**
+     * Поля входа, которых нет в таблице; они пропускаются.
+     */
+    List<String> ignoredFields();
+}
@@ -0,0 +1,9 @@
+package stankin.backend.ingest;
+
+/**
+ * Событие активности пользователя, ожидающее записи в rustore.user_activities.
+ * sessionId — Snowflake-идентификатор, назначенный при приёме события.
+ * ActivityIngestor публикует каждое принятое событие через ApplicationEventPublisher.
+ */
+public record ActivityEvent(int userId, int appId, String activityType, long timestampMillis, long sessionId) {
+}
@@ -0,0 +1,232 @@
+package stankin.backend.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import stankin.backend.service.SnowflakeIdGenerator;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронная запись событий активности пачками.
+ * <p>
+ * submit() только кладёт событие в ограниченную неблокирующую очередь; отдельный поток-писатель
+ * забирает события и пишет их одним многострочным INSERT, когда набралось batch-size событий
+ * или самое старое ждёт дольше max-batch-age-ms. При переполнении очереди срабатывает политика
+ * drop-policy: drop-newest отбрасывает входящее событие, drop-oldest — самое старое в очереди.
+ * Пачка, которую не удалось записать, уходит в SpoolJournal и дописывается после восстановления.
+ * Принятое событие также публикуется как событие приложения для тех, кто строит по ним состояние в памяти.
+ */
+@Slf4j
+@Component
+public class ActivityIngestor {
+
+    public enum DropPolicy {
+        DROP_NEWEST, DROP_OLDEST
+    }
+
+    private static final String INSERT_SQL = """
+            INSERT INTO rustore.user_activities
+            (user_id, app_id, activity_type, timestamp, session_id)
+            VALUES (?, ?, ?, ?, ?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SpoolJournal spoolJournal;
+    private final SnowflakeIdGenerator idGenerator;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxBatchAgeNanos;
+    private final DropPolicy dropPolicy;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Counter accepted;
+    private final Counter droppedOverflow;
+    private final Counter droppedFlushFailed;
+    private final Counter spooledOnFailure;
+    private final DistributionSummary batchSizes;
+    private final MeterRegistry meterRegistry;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public ActivityIngestor(JdbcTemplate jdbcTemplate, SpoolJournal spoolJournal, SnowflakeIdGenerator idGenerator,
+                            ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry,
+                            @Value("${activity.ingest.capacity:65536}") int capacity,
+                            @Value("${activity.ingest.batch-size:1000}") int batchSize,
+                            @Value("${activity.ingest.max-batch-age-ms:1000}") long maxBatchAgeMs,
+                            @Value("${activity.ingest.drop-policy:drop-newest}") String dropPolicy) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.spoolJournal = spoolJournal;
+        this.idGenerator = idGenerator;
+        this.eventPublisher = eventPublisher;
+        this.meterRegistry = meterRegistry;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchAgeMs);
+        this.dropPolicy = DropPolicy.valueOf(dropPolicy.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+
+        meterRegistry.gauge("activity.ingest.queue.depth", size);
+        this.accepted = meterRegistry.counter("activity.ingest.events", "outcome", "accepted");
+        this.droppedOverflow = meterRegistry.counter("activity.ingest.events", "outcome", "dropped-overflow");
+        this.droppedFlushFailed = meterRegistry.counter("activity.ingest.events", "outcome", "dropped-flush-failed");
+        this.spooledOnFailure = meterRegistry.counter("activity.ingest.events", "outcome", "spooled");
+        this.batchSizes = DistributionSummary.builder("activity.ingest.batch.size").register(meterRegistry);
+    }
+
+    /**
+     * Ставит событие в очередь; false — событие отброшено из-за переполнения.
+     */
+    public boolean submit(int userId, int appId, String activityType) {
+        Entry entry = new Entry(new ActivityEvent(userId, appId, activityType, System.currentTimeMillis(),
+                idGenerator.nextId()),
+                System.nanoTime());
+        if (size.incrementAndGet() > capacity) {
+            if (dropPolicy == DropPolicy.DROP_NEWEST) {
+                size.decrementAndGet();
+                droppedOverflow.increment();
+                return false;
+            }
+            // drop-oldest: освобождаем место за счёт головы очереди
+            if (queue.poll() != null) {
+                size.decrementAndGet();
+                droppedOverflow.increment();
+            }
+        }
+        queue.offer(entry);
+        accepted.increment();
+        eventPublisher.publishEvent(entry.event);
+        if (size.get() >= batchSize) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    public int queueDepth() {
+        return size.get();
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::runWriter, "activity-ingest-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void runWriter() {
+        List<ActivityEvent> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            Entry head = queue.peek();
+            if (head == null) {
+                LockSupport.parkNanos(maxBatchAgeNanos);
+                continue;
+            }
+            long waited = System.nanoTime() - head.enqueuedNanos;
+            if (running && size.get() < batchSize && waited < maxBatchAgeNanos) {
+                LockSupport.parkNanos(maxBatchAgeNanos - waited);
+                continue;
+            }
+            Entry entry;
+            while (batch.size() < batchSize && (entry = queue.poll()) != null) {
+                size.decrementAndGet();
+                batch.add(entry.event);
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Одна многострочная вставка; используется и писателем очереди, и повтором из журнала.
+     */
+    public void insert(List<ActivityEvent> events) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ActivityEvent event = events.get(i);
+                ps.setInt(1, event.userId());
+                ps.setInt(2, event.appId());
+                ps.setString(3, event.activityType());
+                ps.setTimestamp(4, new Timestamp(event.timestampMillis()));
+                long sessionId = event.sessionId() != 0 ? event.sessionId() : idGenerator.nextId();
+                ps.setString(5, Long.toString(sessionId));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return events.size();
+            }
+        });
+    }
+
+    private void flush(List<ActivityEvent> batch) {
+        long started = System.nanoTime();
+        String outcome = "ok";
+        try {
+            if (spoolJournal.hasPending()) {
+                // ClickHouse ещё не догнал журнал: пишем туда же, чтобы не ждать таймаута и сохранить порядок
+                outcome = "spooled";
+                spool(batch, null);
+                return;
+            }
+            insert(batch);
+            batchSizes.record(batch.size());
+            log.debug("Flushed {} activity events", batch.size());
+        } catch (RuntimeException e) {
+            outcome = "error";
+            spool(batch, e);
+        } finally {
+            meterRegistry.timer("activity.ingest.flush", "outcome", outcome)
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Пачку, которую нельзя записать сейчас, сохраняем в журнал: её допишет SpoolReplayer
+    private void spool(List<ActivityEvent> batch, RuntimeException cause) {
+        int spooled = 0;
+        try {
+            for (ActivityEvent event : batch) {
+                spoolJournal.append(SpoolRecords.ACTIVITY, SpoolRecords.encode(event));
+                spooled++;
+            }
+            if (cause != null) {
+                log.warn("Failed to flush {} activity events, spooled to journal: {}", batch.size(), cause.toString());
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to spool activity events, {} dropped: {}", batch.size() - spooled, e.toString());
+        }
+        spooledOnFailure.increment(spooled);
+        droppedFlushFailed.increment(batch.size() - spooled);
+    }
+
+    private record Entry(ActivityEvent event, long enqueuedNanos) {
+    }
+}
@@ -0,0 +1,9 @@
+package stankin.backend.ingest;
+
+import java.util.UUID;
+
+/**
+ * Завершение демо-сессии; пишется отдельной строкой вместо обновления demo_sessions.
+ */
+public record DemoSessionEnd(UUID sessionId, long endedAtMillis, int durationSec, boolean completed) {
+}
@@ -0,0 +1,10 @@
+package stankin.backend.ingest;
+
+import java.util.UUID;
+
+/**
+ * Взаимодействие с видео, ожидающее записи в rustore.video_interactions.
+ */
+public record InteractionEvent(int userId, UUID videoId, String interactionType, int watchDurationSec,
+                               int demoPlayedSec, long timestampMillis, String sessionId) {
+}
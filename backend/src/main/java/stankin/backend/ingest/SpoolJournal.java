@@ -0,0 +1,349 @@
+package stankin.backend.ingest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Локальный журнал упреждающей записи (write-ahead spool) для событий, которые должны пережить
+ * недоступность ClickHouse.
+ * <p>
+ * Журнал — последовательность сегментов фиксированного размера, отображённых в память.
+ * Запись: [длина][CRC32C][тип][данные]; длина пишется последней, поэтому недописанная запись
+ * читается как конец журнала. Смещение записи — (номер сегмента << 32) | позиция в сегменте.
+ * Сброс на диск — раз в spool.fsync-interval-ms или на каждую запись (spool.fsync-every-write).
+ * Подтверждённое смещение (всё до него уже в ClickHouse) хранится в файле committed.offset;
+ * полностью подтверждённые сегменты удаляются.
+ */
+@Slf4j
+@Component
+public class SpoolJournal {
+
+    /**
+     * Прочитанная запись; nextOffset — смещение следующей за ней.
+     */
+    public record Entry(long offset, long nextOffset, byte type, byte[] payload) {
+    }
+
+    private static final int HEADER_BYTES = 9;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean fsyncEveryWrite;
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object appendLock = new Object();
+    private final Object commitLock = new Object();
+
+    private volatile Segment active;
+    private boolean dirty;
+    private FileChannel committedChannel;
+    private volatile long committedOffset;
+
+    public SpoolJournal(MeterRegistry meterRegistry,
+                        @Value("${spool.dir:./data/spool}") String dir,
+                        @Value("${spool.segment-bytes:67108864}") int segmentBytes,
+                        @Value("${spool.fsync-every-write:false}") boolean fsyncEveryWrite) {
+        this.meterRegistry = meterRegistry;
+        this.dir = Paths.get(dir);
+        this.segmentBytes = segmentBytes;
+        this.fsyncEveryWrite = fsyncEveryWrite;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(SpoolJournal::isSegment).sorted().toList()) {
+                Segment segment = Segment.open(file, segmentId(file), segmentBytes);
+                segments.put(segment.id, segment);
+            }
+        }
+        committedChannel = FileChannel.open(dir.resolve("committed.offset"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer stored = ByteBuffer.allocate(Long.BYTES);
+        committedChannel.read(stored, 0);
+        committedOffset = stored.position() == Long.BYTES ? stored.flip().getLong() : 0L;
+
+        if (segments.isEmpty()) {
+            active = createSegment(Math.max(1, (int) (committedOffset >>> 32)));
+        } else {
+            active = segments.lastEntry().getValue();
+            active.recover();
+        }
+        meterRegistry.gauge("spool.segments", segments, Map::size);
+        log.info("Spool journal opened in {}: {} segment(s), committed offset {}",
+                dir.toAbsolutePath(), segments.size(), format(committedOffset));
+    }
+
+    /**
+     * Дописывает запись и возвращает её смещение.
+     */
+    public long append(byte type, byte[] payload) {
+        int length = payload.length + 1;
+        if (HEADER_BYTES + payload.length > segmentBytes) {
+            throw new IllegalArgumentException("Spool record too large: " + payload.length + " bytes");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        long offset;
+        synchronized (appendLock) {
+            if (active.writePosition + HEADER_BYTES + payload.length > segmentBytes) {
+                roll();
+            }
+            Segment segment = active;
+            int position = segment.writePosition;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.put(position + 8, type);
+            buffer.put(position + HEADER_BYTES, payload);
+            buffer.putInt(position, length);
+            segment.writePosition = position + HEADER_BYTES + payload.length;
+            offset = offset(segment.id, position);
+            if (fsyncEveryWrite) {
+                buffer.force();
+            } else {
+                dirty = true;
+            }
+        }
+        meterRegistry.counter("spool.records", "type", String.valueOf(type), "outcome", "appended").increment();
+        return offset;
+    }
+
+    /**
+     * До max записей начиная со смещения from, по порядку записи.
+     */
+    public List<Entry> read(long from, int max) {
+        List<Entry> entries = new ArrayList<>();
+        int segmentId = (int) (from >>> 32);
+        int position = (int) from;
+        while (entries.size() < max) {
+            Segment segment = segments.get(segmentId);
+            if (segment == null) {
+                // Сегмент уже удалён или смещение указывает на ещё не созданный: переходим к следующему
+                Integer next = segments.higherKey(segmentId);
+                if (next == null) break;
+                segmentId = next;
+                position = 0;
+                continue;
+            }
+            int limit = segment.writePosition;
+            if (position + HEADER_BYTES > limit) {
+                if (segment == active || !segments.containsKey(segmentId + 1)) break;
+                segmentId++;
+                position = 0;
+                continue;
+            }
+            int length = segment.buffer.getInt(position);
+            byte type = segment.buffer.get(position + 8);
+            byte[] payload = new byte[length - 1];
+            segment.buffer.get(position + HEADER_BYTES, payload);
+            int next = position + HEADER_BYTES + payload.length;
+            entries.add(new Entry(offset(segmentId, position), offset(segmentId, next), type, payload));
+            position = next;
+        }
+        return entries;
+    }
+
+    /**
+     * Есть ли в журнале записи, ещё не доставленные в ClickHouse.
+     */
+    public boolean hasPending() {
+        return !read(committedOffset, 1).isEmpty();
+    }
+
+    /**
+     * Обходит ещё не доставленные записи заданного типа; возвращает их число.
+     */
+    public int forEachPending(byte type, Consumer<byte[]> consumer) {
+        long offset = committedOffset;
+        int count = 0;
+        List<Entry> entries;
+        while (!(entries = read(offset, 10_000)).isEmpty()) {
+            for (Entry entry : entries) {
+                if (entry.type() == type) {
+                    consumer.accept(entry.payload());
+                    count++;
+                }
+            }
+            offset = entries.get(entries.size() - 1).nextOffset();
+        }
+        return count;
+    }
+
+    public long committedOffset() {
+        return committedOffset;
+    }
+
+    /**
+     * Помечает всё до offset записанным в ClickHouse и удаляет сегменты, которые больше не нужны.
+     */
+    public void commit(long offset) {
+        synchronized (commitLock) {
+            try {
+                committedChannel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, offset), 0);
+                committedChannel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            committedOffset = offset;
+        }
+        int committedSegment = (int) (offset >>> 32);
+        for (Segment segment : List.copyOf(segments.values())) {
+            if (segment.id >= committedSegment || segment == active) break;
+            segments.remove(segment.id);
+            segment.delete();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${spool.fsync-interval-ms:200}")
+    public void sync() {
+        MappedByteBuffer buffer;
+        synchronized (appendLock) {
+            if (!dirty || active == null) {
+                return;
+            }
+            dirty = false;
+            buffer = active.buffer;
+        }
+        // msync вне блокировки, чтобы не задерживать запись
+        buffer.force();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        }
+        committedChannel.close();
+    }
+
+    private void roll() {
+        active.buffer.force();
+        active = createSegment(active.id + 1);
+        log.debug("Spool journal rolled to segment {}", active.id);
+    }
+
+    private Segment createSegment(int id) {
+        Path file = dir.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try {
+            Segment segment = Segment.open(file, id, segmentBytes);
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long offset(int segmentId, int position) {
+        return ((long) segmentId << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static String format(long offset) {
+        return (offset >>> 32) + ":" + (int) offset;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // Граница записанных данных; читатели видят запись только после её публикации здесь
+        private volatile int writePosition;
+
+        private Segment(int id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path file, int id, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            Segment segment = new Segment(id, file, channel, buffer);
+            segment.writePosition = segment.scanEnd(segmentBytes);
+            return segment;
+        }
+
+        /**
+         * Конец последней целой записи: дальше идут нули, оборванная запись или неверная контрольная сумма.
+         */
+        private int scanEnd(int segmentBytes) {
+            int position = 0;
+            while (position + HEADER_BYTES <= segmentBytes) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + 8 + length > segmentBytes) break;
+                byte[] payload = new byte[length - 1];
+                buffer.get(position + HEADER_BYTES, payload);
+                CRC32C crc = new CRC32C();
+                crc.update(buffer.get(position + 8));
+                crc.update(payload);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) break;
+                position += HEADER_BYTES + payload.length;
+            }
+            return position;
+        }
+
+        /**
+         * Затирает хвост после последней целой записи, чтобы новые записи не смешались с мусором.
+         */
+        void recover() {
+            int from = writePosition;
+            byte[] zeros = new byte[8192];
+            for (int position = from; position < buffer.capacity(); position += zeros.length) {
+                buffer.put(position, zeros, 0, Math.min(zeros.length, buffer.capacity() - position));
+            }
+            buffer.force();
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete spool segment {}: {}", file, e.toString());
+            }
+        }
+    }
+}
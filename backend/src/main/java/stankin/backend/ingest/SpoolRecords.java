@@ -0,0 +1,136 @@
+package stankin.backend.ingest;
+
+import stankin.backend.model.Review;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Типы записей журнала и их двоичное представление.
+ * Строки — длина и UTF-8, null кодируется длиной -1; время — миллисекунды UTC.
+ */
+public final class SpoolRecords {
+
+    public static final byte ACTIVITY = 1;
+    public static final byte VIDEO_INTERACTION = 2;
+    public static final byte REVIEW = 3;
+    public static final byte DEMO_SESSION_END = 4;
+
+    private SpoolRecords() {
+    }
+
+    public static byte[] encode(ActivityEvent event) {
+        byte[] type = utf8(event.activityType());
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + stringBytes(type) + 8 + 8);
+        buffer.putInt(event.userId()).putInt(event.appId());
+        putString(buffer, type);
+        buffer.putLong(event.timestampMillis()).putLong(event.sessionId());
+        return buffer.array();
+    }
+
+    public static ActivityEvent decodeActivity(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int userId = buffer.getInt();
+        int appId = buffer.getInt();
+        String type = getString(buffer);
+        long timestampMillis = buffer.getLong();
+        // Записи до появления sessionId: 0, идентификатор назначится при вставке
+        long sessionId = buffer.remaining() >= Long.BYTES ? buffer.getLong() : 0L;
+        return new ActivityEvent(userId, appId, type, timestampMillis, sessionId);
+    }
+
+    public static byte[] encode(InteractionEvent event) {
+        byte[] type = utf8(event.interactionType());
+        byte[] session = utf8(event.sessionId());
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 16 + stringBytes(type) + 4 + 4 + 8 + stringBytes(session));
+        buffer.putInt(event.userId())
+                .putLong(event.videoId().getMostSignificantBits())
+                .putLong(event.videoId().getLeastSignificantBits());
+        putString(buffer, type);
+        buffer.putInt(event.watchDurationSec()).putInt(event.demoPlayedSec()).putLong(event.timestampMillis());
+        putString(buffer, session);
+        return buffer.array();
+    }
+
+    public static InteractionEvent decodeInteraction(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        return new InteractionEvent(buffer.getInt(), new UUID(buffer.getLong(), buffer.getLong()),
+                getString(buffer), buffer.getInt(), buffer.getInt(), buffer.getLong(), getString(buffer));
+    }
+
+    public static byte[] encode(Review review) {
+        byte[] comment = utf8(review.getComment());
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 4 + 4 + 4 + 8 + stringBytes(comment));
+        buffer.putLong(review.getId())
+                .putInt(review.getAppId())
+                .putInt(review.getUserId())
+                .putInt(review.getRating())
+                .putInt(review.getHelpfulCount() != null ? review.getHelpfulCount() : 0)
+                .putLong(review.getCreatedAt().toInstant(ZoneOffset.UTC).toEpochMilli());
+        putString(buffer, comment);
+        return buffer.array();
+    }
+
+    public static Review decodeReview(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        return Review.builder()
+                .id(buffer.getLong())
+                .appId(buffer.getInt())
+                .userId(buffer.getInt())
+                .rating(buffer.getInt())
+                .helpfulCount(buffer.getInt())
+                .createdAt(toLocalDateTime(buffer.getLong()))
+                .comment(getString(buffer))
+                .build();
+    }
+
+    public static byte[] encode(DemoSessionEnd end) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 8 + 4 + 1);
+        buffer.putLong(end.sessionId().getMostSignificantBits())
+                .putLong(end.sessionId().getLeastSignificantBits())
+                .putLong(end.endedAtMillis())
+                .putInt(end.durationSec())
+                .put((byte) (end.completed() ? 1 : 0));
+        return buffer.array();
+    }
+
+    public static DemoSessionEnd decodeDemoSessionEnd(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        return new DemoSessionEnd(new UUID(buffer.getLong(), buffer.getLong()), buffer.getLong(), buffer.getInt(),
+                buffer.get() != 0);
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMilli, 1000L),
+                (int) Math.floorMod(epochMilli, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringBytes(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,137 @@
+package stankin.backend.ingest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import stankin.backend.repository.DemoSessionRepository;
+import stankin.backend.repository.ReviewRepository;
+import stankin.backend.repository.VideoInteractionRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Доставляет записи SpoolJournal в ClickHouse строго в порядке записи.
+ * <p>
+ * Подряд идущие записи одного типа пишутся одной пачкой, после успешной вставки смещение
+ * фиксируется в журнале. При сбое пачка повторяется с экспоненциальной паузой, поэтому после
+ * падения процесса повторно может уйти только последняя незафиксированная пачка.
+ */
+@Slf4j
+@Component
+public class SpoolReplayer {
+
+    private final SpoolJournal spoolJournal;
+    private final ActivityIngestor activityIngestor;
+    private final VideoInteractionRepository videoInteractionRepository;
+    private final ReviewRepository reviewRepository;
+    private final DemoSessionRepository demoSessionRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final long intervalNanos;
+    private final long maxBackoffNanos;
+    private final int batchSize;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public SpoolReplayer(SpoolJournal spoolJournal, ActivityIngestor activityIngestor,
+                         VideoInteractionRepository videoInteractionRepository, ReviewRepository reviewRepository,
+                         DemoSessionRepository demoSessionRepository, MeterRegistry meterRegistry,
+                         @Value("${spool.replay-interval-ms:200}") long intervalMs,
+                         @Value("${spool.replay-max-backoff-ms:30000}") long maxBackoffMs,
+                         @Value("${spool.replay-batch-size:1000}") int batchSize) {
+        this.spoolJournal = spoolJournal;
+        this.activityIngestor = activityIngestor;
+        this.videoInteractionRepository = videoInteractionRepository;
+        this.reviewRepository = reviewRepository;
+        this.demoSessionRepository = demoSessionRepository;
+        this.meterRegistry = meterRegistry;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMs);
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "spool-replayer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void run() {
+        long backoff = intervalNanos;
+        while (running) {
+            try {
+                if (replayOnce() == 0) {
+                    LockSupport.parkNanos(intervalNanos);
+                }
+                backoff = intervalNanos;
+            } catch (RuntimeException e) {
+                log.warn("Spool replay failed, retrying in {} ms: {}", TimeUnit.NANOSECONDS.toMillis(backoff), e.toString());
+                LockSupport.parkNanos(backoff);
+                backoff = Math.min(backoff * 2, maxBackoffNanos);
+            }
+        }
+    }
+
+    /**
+     * Одна итерация: до batchSize записей от подтверждённого смещения. Возвращает число доставленных.
+     */
+    int replayOnce() {
+        List<SpoolJournal.Entry> entries = spoolJournal.read(spoolJournal.committedOffset(), batchSize);
+        int delivered = 0;
+        int from = 0;
+        while (from < entries.size()) {
+            byte type = entries.get(from).type();
+            int to = from;
+            while (to < entries.size() && entries.get(to).type() == type) to++;
+            List<SpoolJournal.Entry> run = entries.subList(from, to);
+            deliver(type, run);
+            spoolJournal.commit(run.get(run.size() - 1).nextOffset());
+            meterRegistry.counter("spool.records", "type", String.valueOf(type), "outcome", "replayed")
+                    .increment(run.size());
+            delivered += run.size();
+            from = to;
+        }
+        if (delivered > 0) {
+            log.debug("Replayed {} spooled records", delivered);
+        }
+        return delivered;
+    }
+
+    private void deliver(byte type, List<SpoolJournal.Entry> run) {
+        switch (type) {
+            case SpoolRecords.ACTIVITY -> activityIngestor.insert(decode(run, SpoolRecords::decodeActivity));
+            case SpoolRecords.VIDEO_INTERACTION ->
+                    videoInteractionRepository.insertAll(decode(run, SpoolRecords::decodeInteraction));
+            case SpoolRecords.REVIEW -> reviewRepository.insertAll(decode(run, SpoolRecords::decodeReview));
+            case SpoolRecords.DEMO_SESSION_END ->
+                    demoSessionRepository.insertEnds(decode(run, SpoolRecords::decodeDemoSessionEnd));
+            // Неизвестный тип (запись более новой версии приложения) пропускаем, чтобы не застрять
+            default -> log.error("Skipping {} spool records of unknown type {}", run.size(), type);
+        }
+    }
+
+    private static <T> List<T> decode(List<SpoolJournal.Entry> run, Function<byte[], T> decoder) {
+        List<T> items = new ArrayList<>(run.size());
+        for (SpoolJournal.Entry entry : run) {
+            items.add(decoder.apply(entry.payload()));
+        }
+        return items;
+    }
+}
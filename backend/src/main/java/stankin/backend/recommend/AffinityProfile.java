@@ -0,0 +1,297 @@
+package stankin.backend.recommend;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Изменяемый профиль интересов одного пользователя. Не потокобезопасен: доступ под монитором профиля.
+ * <p>
+ * Затухание ленивое: веса хранятся в масштабе момента anchorMillis, и событие в момент t добавляет
+ * weight·e^(λ(t − anchor)). Настоящий вес в момент now — хранимый, умноженный на e^(−λ(now − anchor)),
+ * множитель общий для всех весов профиля, поэтому на доли и порядок не влияет. Когда показатель
+ * растёт выше RESCALE_EXPONENT, все веса один раз пересчитываются к новому anchor. Записей в каждом
+ * измерении не больше лимита: новая вытесняет самую слабую, так что обновление стоит O(1).
+ */
+final class AffinityProfile {
+
+    private static final byte FORMAT = 1;
+    private static final double RESCALE_EXPONENT = 20;
+
+    private long anchorMillis;
+    private int events;
+    private int[] categories = new int[4];
+    private float[] categoryWeights = new float[4];
+    private int categoryCount;
+    private float categoryTotal;
+    private String[] developers = new String[4];
+    private float[] developerWeights = new float[4];
+    private int developerCount;
+    private float developerTotal;
+    private final float[] tierWeights = new float[PriceTier.VALUES.length];
+    private float tierTotal;
+    // Кольцо последних приложений, recentNext — место следующей записи
+    private int[] recent = new int[4];
+    private int recentCount;
+    private int recentNext;
+    boolean dirty;
+
+    int events() {
+        return events;
+    }
+
+    void add(int appId, int categoryId, String developer, PriceTier tier, float weight, long timeMillis,
+             double decayPerMilli, Limits limits) {
+        if (events == 0) {
+            anchorMillis = timeMillis;
+        }
+        double exponent = decayPerMilli * (timeMillis - anchorMillis);
+        if (exponent > RESCALE_EXPONENT) {
+            rescale((float) Math.exp(-exponent));
+            anchorMillis = timeMillis;
+            exponent = 0;
+        }
+        float increment = weight * (float) Math.exp(exponent);
+        addCategory(categoryId, increment, limits.maxCategories());
+        if (developer != null) {
+            addDeveloper(developer, increment, limits.maxDevelopers());
+        }
+        tierWeights[tier.ordinal()] += increment;
+        tierTotal += increment;
+        addRecent(appId, limits.recentApps());
+        events++;
+        dirty = true;
+    }
+
+    UserAffinity view(long nowMillis, double decayPerMilli) {
+        if (categoryCount == 0) {
+            return UserAffinity.EMPTY;
+        }
+        long[] order = new long[Math.max(categoryCount, developerCount)];
+        for (int i = 0; i < categoryCount; i++) {
+            order[i] = pack(categoryWeights[i], i);
+        }
+        Arrays.sort(order, 0, categoryCount);
+        int[] categoryIds = new int[categoryCount];
+        float[] categoryShares = new float[categoryCount];
+        for (int i = 0; i < categoryCount; i++) {
+            int at = (int) order[categoryCount - 1 - i];
+            categoryIds[i] = categories[at];
+            categoryShares[i] = categoryWeights[at] / categoryTotal;
+        }
+        for (int i = 0; i < developerCount; i++) {
+            order[i] = pack(developerWeights[i], i);
+        }
+        Arrays.sort(order, 0, developerCount);
+        String[] developerNames = new String[developerCount];
+        float[] developerShares = new float[developerCount];
+        for (int i = 0; i < developerCount; i++) {
+            int at = (int) order[developerCount - 1 - i];
+            developerNames[i] = developers[at];
+            developerShares[i] = developerWeights[at] / developerTotal;
+        }
+        float[] tierShares = new float[tierWeights.length];
+        for (int i = 0; i < tierWeights.length; i++) {
+            tierShares[i] = tierTotal > 0f ? tierWeights[i] / tierTotal : 0f;
+        }
+        float activity = (float) (categoryTotal * Math.exp(-decayPerMilli * (nowMillis - anchorMillis)));
+        return new UserAffinity(categoryIds, categoryShares, developerNames, developerShares, tierShares,
+                recentNewestLast(), activity);
+    }
+
+    /**
+     * Компактный снимок (little-endian): версия формата, anchor, число событий, веса сегментов,
+     * пары категория–вес, разработчик (UTF-8 с длиной)–вес, последние приложения от старых к новым.
+     */
+    byte[] encode() {
+        byte[][] names = new byte[developerCount][];
+        int size = 1 + 8 + 4 + 4 * tierWeights.length + 2 + 8 * categoryCount + 2 + 2 + 4 * recentCount;
+        for (int i = 0; i < developerCount; i++) {
+            names[i] = developers[i].getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > Short.MAX_VALUE) {
+                names[i] = Arrays.copyOf(names[i], Short.MAX_VALUE);
+            }
+            size += 2 + names[i].length + 4;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(FORMAT).putLong(anchorMillis).putInt(events);
+        for (float weight : tierWeights) {
+            buffer.putFloat(weight);
+        }
+        buffer.putShort((short) categoryCount);
+        for (int i = 0; i < categoryCount; i++) {
+            buffer.putInt(categories[i]).putFloat(categoryWeights[i]);
+        }
+        buffer.putShort((short) developerCount);
+        for (int i = 0; i < developerCount; i++) {
+            buffer.putShort((short) names[i].length).put(names[i]).putFloat(developerWeights[i]);
+        }
+        int[] apps = recentNewestLast();
+        buffer.putShort((short) apps.length);
+        for (int appId : apps) {
+            buffer.putInt(appId);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Профиль из снимка encode(); если лимиты уменьшились, остаются самые весомые записи.
+     */
+    static AffinityProfile decode(byte[] bytes, Limits limits) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte format = buffer.get();
+            if (format != FORMAT) {
+                throw new IllegalArgumentException("Unknown profile format " + format);
+            }
+            AffinityProfile profile = new AffinityProfile();
+            profile.anchorMillis = buffer.getLong();
+            profile.events = buffer.getInt();
+            for (int i = 0; i < profile.tierWeights.length; i++) {
+                profile.tierWeights[i] = buffer.getFloat();
+                profile.tierTotal += profile.tierWeights[i];
+            }
+            int categoryCount = buffer.getShort();
+            for (int i = 0; i < categoryCount; i++) {
+                int categoryId = buffer.getInt();
+                float weight = buffer.getFloat();
+                if (profile.categoryCount < limits.maxCategories()
+                        || weight > profile.categoryWeights[weakest(profile.categoryWeights, profile.categoryCount)]) {
+                    profile.addCategory(categoryId, weight, limits.maxCategories());
+                }
+            }
+            int developerCount = buffer.getShort();
+            for (int i = 0; i < developerCount; i++) {
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                float weight = buffer.getFloat();
+                if (profile.developerCount < limits.maxDevelopers()
+                        || weight > profile.developerWeights[weakest(profile.developerWeights, profile.developerCount)]) {
+                    profile.addDeveloper(new String(name, StandardCharsets.UTF_8).intern(), weight,
+                            limits.maxDevelopers());
+                }
+            }
+            int recentCount = buffer.getShort();
+            for (int i = 0; i < recentCount; i++) {
+                profile.addRecent(buffer.getInt(), limits.recentApps());
+            }
+            return profile;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated profile snapshot of " + bytes.length + " bytes", e);
+        }
+    }
+
+    private void addCategory(int categoryId, float increment, int limit) {
+        int at = 0;
+        while (at < categoryCount && categories[at] != categoryId) {
+            at++;
+        }
+        if (at == categoryCount) {
+            if (categoryCount == limit) {
+                at = weakest(categoryWeights, categoryCount);
+                categoryTotal -= categoryWeights[at];
+                categoryWeights[at] = 0f;
+            } else {
+                if (categoryCount == categories.length) {
+                    int capacity = Math.min(limit, categoryCount * 2);
+                    categories = Arrays.copyOf(categories, capacity);
+                    categoryWeights = Arrays.copyOf(categoryWeights, capacity);
+                }
+                categoryCount++;
+            }
+            categories[at] = categoryId;
+        }
+        categoryWeights[at] += increment;
+        categoryTotal += increment;
+    }
+
+    private void addDeveloper(String developer, float increment, int limit) {
+        int at = 0;
+        // Имена из каталога интернированы, equals — только для снимков
+        while (at < developerCount && developers[at] != developer && !developers[at].equals(developer)) {
+            at++;
+        }
+        if (at == developerCount) {
+            if (developerCount == limit) {
+                at = weakest(developerWeights, developerCount);
+                developerTotal -= developerWeights[at];
+                developerWeights[at] = 0f;
+            } else {
+                if (developerCount == developers.length) {
+                    int capacity = Math.min(limit, developerCount * 2);
+                    developers = Arrays.copyOf(developers, capacity);
+                    developerWeights = Arrays.copyOf(developerWeights, capacity);
+                }
+                developerCount++;
+            }
+            developers[at] = developer;
+        }
+        developerWeights[at] += increment;
+        developerTotal += increment;
+    }
+
+    private void addRecent(int appId, int limit) {
+        for (int i = 0; i < recentCount; i++) {
+            if (recent[i] == appId) {
+                return;
+            }
+        }
+        if (recentCount < limit) {
+            if (recentCount == recent.length) {
+                recent = Arrays.copyOf(recent, Math.min(limit, recentCount * 2));
+            }
+            recent[recentCount++] = appId;
+            recentNext = recentCount % limit;
+        } else {
+            recent[recentNext] = appId;
+            recentNext = (recentNext + 1) % limit;
+        }
+    }
+
+    private int[] recentNewestLast() {
+        int[] result = new int[recentCount];
+        // Пока кольцо не заполнено, recentNext == recentCount и обход начинается с нуля
+        for (int i = 0; i < recentCount; i++) {
+            result[i] = recent[(recentNext + i) % recentCount];
+        }
+        return result;
+    }
+
+    private void rescale(float factor) {
+        for (int i = 0; i < categoryCount; i++) {
+            categoryWeights[i] *= factor;
+        }
+        for (int i = 0; i < developerCount; i++) {
+            developerWeights[i] *= factor;
+        }
+        for (int i = 0; i < tierWeights.length; i++) {
+            tierWeights[i] *= factor;
+        }
+        categoryTotal *= factor;
+        developerTotal *= factor;
+        tierTotal *= factor;
+    }
+
+    private static int weakest(float[] weights, int count) {
+        int weakest = 0;
+        for (int i = 1; i < count; i++) {
+            if (weights[i] < weights[weakest]) {
+                weakest = i;
+            }
+        }
+        return weakest;
+    }
+
+    // Веса положительны, поэтому пары (вес, индекс) сортируются как long
+    private static long pack(float weight, int index) {
+        return ((long) Float.floatToIntBits(weight) << 32) | index;
+    }
+
+    /**
+     * Сколько записей держит профиль в каждом измерении.
+     */
+    record Limits(int maxCategories, int maxDevelopers, int recentApps) {
+    }
+}
@@ -0,0 +1,347 @@
+package stankin.backend.recommend;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import stankin.backend.catalog.AppCatalog;
+import stankin.backend.catalog.CatalogSnapshot;
+import stankin.backend.ingest.ActivityEvent;
+import stankin.backend.repository.UserProfileRepository;
+import stankin.backend.service.SnowflakeIdGenerator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Профили интересов пользователей: затухающие веса категорий, разработчиков и ценовых сегментов
+ * приложений, которые пользователь смотрел и устанавливал (просмотр 1, установка 2).
+ * <p>
+ * Профиль меняется на месте за O(1) на событие (см. AffinityProfile), поэтому чтение профиля не зависит
+ * от длины истории. События из ActivityIngestor кладутся в очередь и применяются одним потоком.
+ * Профиль, которого нет в памяти, поднимается из последнего снимка в rustore.user_profiles, а без снимка —
+ * из последних bootstrap-events событий пользователя. Раз в snapshot-interval-ms изменившиеся профили
+ * пишутся снимками; вытесненный из кэша профиль с несохранёнными изменениями ждёт ближайшей записи.
+ */
+@Slf4j
+@Component
+public class AffinityProfiles {
+
+    private final UserProfileRepository repository;
+    private final AppCatalog appCatalog;
+    private final SnowflakeIdGenerator idGenerator;
+    private final double decayPerMilli;
+    private final AffinityProfile.Limits limits;
+    private final int bootstrapEvents;
+    private final int queueCapacity;
+    private final int snapshotBatchSize;
+    private final Cache<Integer, AffinityProfile> profiles;
+
+    private final ConcurrentLinkedQueue<ActivityEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Профили с изменениями после последнего снимка
+    private final Set<Integer> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, AffinityProfile> evictedDirty = new ConcurrentHashMap<>();
+    private final Counter dropped;
+    private final Counter loadFailures;
+    private final Counter snapshotsWritten;
+    private final Timer snapshotTimer;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    // Вызывается на рабочем потоке после применения события (см. onApplied)
+    private volatile Consumer<ActivityEvent> appliedListener = event -> {
+    };
+
+    public AffinityProfiles(UserProfileRepository repository, AppCatalog appCatalog,
+                            SnowflakeIdGenerator idGenerator, MeterRegistry meterRegistry,
+                            @Value("${user-profiles.half-life-hours:168}") double halfLifeHours,
+                            @Value("${user-profiles.max-users:200000}") long maxUsers,
+                            @Value("${user-profiles.expire-after-access-ms:86400000}") long expireAfterAccessMs,
+                            @Value("${user-profiles.max-categories:32}") int maxCategories,
+                            @Value("${user-profiles.max-developers:32}") int maxDevelopers,
+                            @Value("${user-profiles.recent-apps:64}") int recentApps,
+                            @Value("${user-profiles.bootstrap-events:500}") int bootstrapEvents,
+                            @Value("${user-profiles.queue-capacity:65536}") int queueCapacity,
+                            @Value("${user-profiles.snapshot-batch-size:1000}") int snapshotBatchSize) {
+        if (maxCategories < 1 || maxDevelopers < 1 || recentApps < 1
+                || Math.max(maxCategories, Math.max(maxDevelopers, recentApps)) > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("user-profiles limits must be in [1, " + Short.MAX_VALUE + "]");
+        }
+        this.repository = repository;
+        this.appCatalog = appCatalog;
+        this.idGenerator = idGenerator;
+        this.decayPerMilli = Math.log(2) / (halfLifeHours * TimeUnit.HOURS.toMillis(1));
+        this.limits = new AffinityProfile.Limits(maxCategories, maxDevelopers, recentApps);
+        this.bootstrapEvents = bootstrapEvents;
+        this.queueCapacity = queueCapacity;
+        this.snapshotBatchSize = snapshotBatchSize;
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(Duration.ofMillis(expireAfterAccessMs))
+                .evictionListener((Integer userId, AffinityProfile profile, RemovalCause cause) -> keepIfDirty(userId, profile))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles, "user-profiles");
+        this.dropped = meterRegistry.counter("user-profiles.events.dropped");
+        this.loadFailures = meterRegistry.counter("user-profiles.load.failures");
+        this.snapshotsWritten = meterRegistry.counter("user-profiles.snapshots.written");
+        this.snapshotTimer = meterRegistry.timer("user-profiles.snapshot");
+        meterRegistry.gauge("user-profiles.queue.depth", queued);
+        meterRegistry.gauge("user-profiles.dirty", this, store -> store.dirtyUsers.size() + store.evictedDirty.size());
+    }
+
+    /**
+     * Снимок интересов пользователя; пустой для анонимного пользователя, без истории или если
+     * профиль не удалось поднять из ClickHouse.
+     */
+    public UserAffinity affinity(Integer userId) {
+        AffinityProfile profile = userId != null ? profile(userId) : null;
+        if (profile == null) {
+            return UserAffinity.EMPTY;
+        }
+        synchronized (profile) {
+            return profile.view(System.currentTimeMillis(), decayPerMilli);
+        }
+    }
+
+    /**
+     * listener вызывается на рабочем потоке после того, как событие обработано, —
+     * с этого момента чтения видят его.
+     */
+    public synchronized void onApplied(Consumer<ActivityEvent> listener) {
+        appliedListener = appliedListener.andThen(listener);
+    }
+
+    private void notifyApplied(ActivityEvent event) {
+        try {
+            appliedListener.accept(event);
+        } catch (RuntimeException e) {
+            log.warn("Applied-event listener failed for user {}: {}", event.userId(), e.toString());
+        }
+    }
+
+    /**
+     * Событие из ActivityIngestor; обрабатывается асинхронно.
+     */
+    @EventListener
+    public void onActivity(ActivityEvent event) {
+        if (weightOf(event.activityType()) == 0f) {
+            return;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(event);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "affinity-profiles-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        snapshot();
+    }
+
+    /**
+     * Пишет снимки изменившихся профилей пачками по snapshot-batch-size. Если запись не удалась,
+     * профили остаются помеченными и уйдут в следующий раз.
+     */
+    @Scheduled(fixedDelayString = "${user-profiles.snapshot-interval-ms:60000}")
+    public synchronized void snapshot() {
+        List<Integer> userIds = new ArrayList<>();
+        List<AffinityProfile> pending = new ArrayList<>();
+        Iterator<Integer> dirty = dirtyUsers.iterator();
+        while (dirty.hasNext()) {
+            Integer userId = dirty.next();
+            dirty.remove();
+            AffinityProfile profile = profiles.policy().getIfPresentQuietly(userId);
+            if (profile != null) {
+                userIds.add(userId);
+                pending.add(profile);
+            }
+        }
+        Iterator<Map.Entry<Integer, AffinityProfile>> evicted = evictedDirty.entrySet().iterator();
+        while (evicted.hasNext()) {
+            Map.Entry<Integer, AffinityProfile> entry = evicted.next();
+            evicted.remove();
+            userIds.add(entry.getKey());
+            pending.add(entry.getValue());
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        int written = 0;
+        List<UserProfileRepository.Snapshot> batch = new ArrayList<>(Math.min(snapshotBatchSize, pending.size()));
+        for (int from = 0; from < pending.size(); from += snapshotBatchSize) {
+            int to = Math.min(pending.size(), from + snapshotBatchSize);
+            batch.clear();
+            long now = System.currentTimeMillis();
+            for (int i = from; i < to; i++) {
+                AffinityProfile profile = pending.get(i);
+                synchronized (profile) {
+                    if (profile.dirty) {
+                        batch.add(new UserProfileRepository.Snapshot(userIds.get(i), profile.encode(),
+                                profile.events(), now, idGenerator.nextId()));
+                        profile.dirty = false;
+                    }
+                }
+            }
+            try {
+                if (!batch.isEmpty()) {
+                    repository.insert(batch);
+                    written += batch.size();
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to write {} user profile snapshots, will retry: {}", pending.size() - from,
+                        e.toString());
+                for (int i = from; i < pending.size(); i++) {
+                    requeue(userIds.get(i), pending.get(i));
+                }
+                break;
+            }
+        }
+        snapshotsWritten.increment(written);
+        snapshotTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        log.debug("Wrote {} user profile snapshots", written);
+    }
+
+    private void run() {
+        while (running) {
+            ActivityEvent event;
+            while ((event = queue.poll()) != null) {
+                queued.decrementAndGet();
+                try {
+                    apply(event);
+                } catch (RuntimeException e) {
+                    log.error("Failed to update profile of user {}", event.userId(), e);
+                }
+                notifyApplied(event);
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+    }
+
+    private void apply(ActivityEvent event) {
+        AffinityProfile profile = profile(event.userId());
+        if (profile == null) {
+            dropped.increment();
+            return;
+        }
+        boolean changed;
+        synchronized (profile) {
+            changed = apply(profile, appCatalog.snapshot(), event.appId(), weightOf(event.activityType()),
+                    event.timestampMillis());
+        }
+        if (changed) {
+            dirtyUsers.add(event.userId());
+        }
+    }
+
+    private boolean apply(AffinityProfile profile, CatalogSnapshot snapshot, int appId, float weight, long timeMillis) {
+        int row = snapshot.rowOf(appId);
+        if (row < 0 || weight == 0f) {
+            return false;
+        }
+        profile.add(appId, snapshot.categoryId(row), snapshot.developer(row),
+                PriceTier.of(snapshot.price(row), snapshot.isFree(row)), weight, timeMillis, decayPerMilli, limits);
+        return true;
+    }
+
+    // null — ClickHouse недоступен; такой результат Caffeine не кэширует, следующий вызов попробует снова
+    private AffinityProfile profile(int userId) {
+        return profiles.get(userId, this::load);
+    }
+
+    private AffinityProfile load(int userId) {
+        AffinityProfile kept = evictedDirty.remove(userId);
+        if (kept != null) {
+            dirtyUsers.add(userId);
+            return kept;
+        }
+        try {
+            byte[] stored = repository.findLatest(userId);
+            if (stored != null) {
+                try {
+                    return AffinityProfile.decode(stored, limits);
+                } catch (RuntimeException e) {
+                    log.warn("Ignoring unreadable profile snapshot of user {}: {}", userId, e.getMessage());
+                }
+            }
+            AffinityProfile profile = new AffinityProfile();
+            CatalogSnapshot snapshot = appCatalog.snapshot();
+            repository.forEachRecentActivity(userId, bootstrapEvents, (appId, activityType, timestampMillis) ->
+                    apply(profile, snapshot, appId, weightOf(activityType), timestampMillis));
+            if (profile.dirty) {
+                dirtyUsers.add(userId);
+            }
+            return profile;
+        } catch (RuntimeException e) {
+            loadFailures.increment();
+            log.warn("Failed to load profile of user {}: {}", userId, e.toString());
+            return null;
+        }
+    }
+
+    private void keepIfDirty(Integer userId, AffinityProfile profile) {
+        if (userId == null || profile == null) {
+            return;
+        }
+        synchronized (profile) {
+            if (profile.dirty) {
+                evictedDirty.put(userId, profile);
+            }
+        }
+    }
+
+    private void requeue(Integer userId, AffinityProfile profile) {
+        synchronized (profile) {
+            profile.dirty = true;
+        }
+        if (profiles.policy().getIfPresentQuietly(userId) == profile) {
+            dirtyUsers.add(userId);
+        } else {
+            evictedDirty.putIfAbsent(userId, profile);
+        }
+    }
+
+    private static float weightOf(String activityType) {
+        return switch (activityType) {
+            case "view" -> 1f;
+            case "install" -> 2f;
+            default -> 0f;
+        };
+    }
+}
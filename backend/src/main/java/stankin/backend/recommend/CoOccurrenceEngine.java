@@ -0,0 +1,456 @@
+package stankin.backend.recommend;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import stankin.backend.ingest.ActivityEvent;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Коллаборативная фильтрация «item-to-item» по просмотрам и установкам.
+ * <p>
+ * Для каждого пользователя хранится история последних recommendations.cf.history-size приложений.
+ * Новое событие увеличивает счётчик совместной встречаемости новой пары (приложение из события,
+ * приложение из истории) на min их весов (просмотр 1, установка 2). Повторный просмотр
+ * того же приложения пары не умножает. Строки разреженной матрицы — IntFloatMap по id приложения,
+ * без упаковки. Они обрезаются до max-row-size самых частых соседей, поэтому память ограничена.
+ * <p>
+ * Матрицу меняет один поток-обработчик. Запросы только кладут событие в очередь. Раз в
+ * refresh-interval-ms обработчик пересчитывает top-K соседей изменившихся приложений
+ * (косинус: c(a,b) / sqrt(n(a)·n(b))) и публикует неизменяемый индекс. Рекомендация —
+ * слияние готовых списков соседей недавних приложений пользователя, без обращения к ClickHouse.
+ * При старте матрица строится по rustore.user_activities за последние bootstrap-days дней.
+ */
+@Slf4j
+@Component
+public class CoOccurrenceEngine {
+
+    /**
+     * Соседи приложения по убыванию сходства.
+     */
+    public record Neighbours(int[] appIds, float[] scores) {
+    }
+
+    private static final Neighbours NO_NEIGHBOURS = new Neighbours(new int[0], new float[0]);
+
+    private static final String BOOTSTRAP_SQL = """
+            SELECT user_id, app_id, activity_type
+            FROM rustore.user_activities
+            WHERE activity_type IN ('view', 'install') AND timestamp >= now() - INTERVAL ? DAY
+            ORDER BY user_id, timestamp
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int historySize;
+    private final int neighbourCount;
+    private final int maxRowSize;
+    private final int bootstrapDays;
+    private final float recencyDecay;
+    private final long refreshIntervalNanos;
+    private final int queueCapacity;
+    private final Cache<Integer, UserHistory> histories;
+
+    private final ConcurrentLinkedQueue<ActivityEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Counter dropped;
+
+    // Состояние матрицы: меняется только потоком-обработчиком
+    private final IntIntMap itemIndex = new IntIntMap(1024);
+    private int[] appIds = new int[1024];
+    private IntFloatMap[] rows = new IntFloatMap[1024];
+    private float[] occurrences = new float[1024];
+    private int items;
+    private final BitSet dirty = new BitSet();
+    private boolean indexGrown;
+    private long[] scratch = new long[64];
+
+    private volatile Index published = new Index(new IntIntMap(4), new Neighbours[0]);
+    private volatile boolean running;
+    private Thread worker;
+
+    // Вызывается на рабочем потоке после применения события (см. onApplied)
+    private volatile Consumer<ActivityEvent> appliedListener = event -> {
+    };
+
+    public CoOccurrenceEngine(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+                              @Value("${recommendations.cf.history-size:50}") int historySize,
+                              @Value("${recommendations.cf.neighbours:50}") int neighbourCount,
+                              @Value("${recommendations.cf.max-row-size:1000}") int maxRowSize,
+                              @Value("${recommendations.cf.max-users:500000}") long maxUsers,
+                              @Value("${recommendations.cf.bootstrap-days:90}") int bootstrapDays,
+                              @Value("${recommendations.cf.recency-decay:0.9}") float recencyDecay,
+                              @Value("${recommendations.cf.refresh-interval-ms:5000}") long refreshIntervalMs,
+                              @Value("${recommendations.cf.queue-capacity:65536}") int queueCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.historySize = historySize;
+        this.neighbourCount = neighbourCount;
+        this.maxRowSize = maxRowSize;
+        this.bootstrapDays = bootstrapDays;
+        this.recencyDecay = recencyDecay;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+        this.queueCapacity = queueCapacity;
+        this.histories = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(Duration.ofDays(bootstrapDays))
+                .build();
+        this.dropped = meterRegistry.counter("recommendations.cf.events.dropped");
+        meterRegistry.gauge("recommendations.cf.queue.depth", queued);
+        meterRegistry.gauge("recommendations.cf.items", this, engine -> engine.published.lists.length);
+    }
+
+    /**
+     * Событие из ActivityIngestor; обрабатывается асинхронно.
+     */
+    @EventListener
+    public void onActivity(ActivityEvent event) {
+        if (weightOf(event.activityType()) == 0f) {
+            return;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(event);
+    }
+
+    /**
+     * listener вызывается на рабочем потоке после того, как событие обработано, —
+     * с этого момента чтения видят его.
+     */
+    public synchronized void onApplied(Consumer<ActivityEvent> listener) {
+        appliedListener = appliedListener.andThen(listener);
+    }
+
+    private void notifyApplied(ActivityEvent event) {
+        try {
+            appliedListener.accept(event);
+        } catch (RuntimeException e) {
+            log.warn("Applied-event listener failed for user {}: {}", event.userId(), e.toString());
+        }
+    }
+
+    /**
+     * Готовые соседи приложения; пустой список, если данных о нём нет.
+     */
+    public Neighbours neighbours(int appId) {
+        return published.of(appId);
+    }
+
+    /**
+     * До limit приложений для пользователя: сумма сходств с его недавними приложениями,
+     * более свежие весят больше. Уже знакомые приложения и те, для которых exclude == true, пропускаются.
+     * Пустой массив — у пользователя нет истории.
+     */
+    public int[] recommend(int userId, int limit, IntPredicate exclude) {
+        UserHistory history = histories.getIfPresent(userId);
+        if (history == null || limit <= 0) {
+            return new int[0];
+        }
+        int[] recent;
+        float[] weights;
+        synchronized (history) {
+            recent = history.newestFirst();
+            weights = history.weightsNewestFirst();
+        }
+        Index index = published;
+        IntFloatMap scores = new IntFloatMap(Math.min(recent.length * neighbourCount, 1 << 16));
+        float decay = 1f;
+        for (int i = 0; i < recent.length; i++) {
+            Neighbours neighbours = index.of(recent[i]);
+            float weight = weights[i] * decay;
+            for (int j = 0; j < neighbours.appIds.length; j++) {
+                scores.add(neighbours.appIds[j], weight * neighbours.scores[j]);
+            }
+            decay *= recencyDecay;
+        }
+        long[] ranked = new long[scores.size()];
+        int n = 0;
+        for (int slot = 0; slot < scores.capacity(); slot++) {
+            int appId = scores.keyAt(slot);
+            if (appId >= 0 && !contains(recent, appId) && !exclude.test(appId)) {
+                ranked[n++] = pack(scores.valueAt(slot), appId);
+            }
+        }
+        Arrays.sort(ranked, 0, n);
+        int[] result = new int[Math.min(limit, n)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) ranked[n - 1 - i];
+        }
+        return result;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "co-occurrence-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void run() {
+        bootstrap();
+        long nextRefresh = System.nanoTime() + refreshIntervalNanos;
+        while (running) {
+            ActivityEvent event;
+            while ((event = queue.poll()) != null) {
+                queued.decrementAndGet();
+                apply(event.userId(), event.appId(), weightOf(event.activityType()));
+                // История пользователя обновлена сразу; соседи нового приложения — с ближайшей публикацией
+                notifyApplied(event);
+            }
+            if (System.nanoTime() >= nextRefresh) {
+                try {
+                    publish();
+                } catch (RuntimeException e) {
+                    log.error("Failed to refresh item neighbours", e);
+                }
+                nextRefresh = System.nanoTime() + refreshIntervalNanos;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+    }
+
+    private void bootstrap() {
+        long started = System.nanoTime();
+        int[] events = new int[1];
+        try {
+            jdbcTemplate.query(BOOTSTRAP_SQL, rs -> {
+                apply(rs.getInt("user_id"), rs.getInt("app_id"), weightOf(rs.getString("activity_type")));
+                events[0]++;
+            }, bootstrapDays);
+        } catch (RuntimeException e) {
+            // Без истории матрица наполнится из потока событий
+            log.warn("Co-occurrence bootstrap failed after {} events: {}", events[0], e.toString());
+        }
+        publish();
+        log.info("Co-occurrence matrix built from {} events: {} apps, {} users in {} ms", events[0], items,
+                histories.estimatedSize(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    // Только из потока-обработчика (и из тестов, где он не запущен)
+    void apply(int userId, int appId, float weight) {
+        if (weight == 0f || appId < 0) {
+            return;
+        }
+        UserHistory history = histories.get(userId, id -> new UserHistory(historySize));
+        synchronized (history) {
+            float previous = history.weightOf(appId);
+            if (previous < weight) {
+                // Новое приложение или просмотр, ставший установкой: добавляем только прирост
+                int item = indexOf(appId);
+                occurrences[item] += weight - previous;
+                for (int i = 0; i < history.size; i++) {
+                    int other = history.apps[i];
+                    if (other != appId) {
+                        float otherWeight = history.weights[i];
+                        float increment = Math.min(weight, otherWeight) - Math.min(previous, otherWeight);
+                        if (increment > 0f) {
+                            addPair(item, appId, itemIndex.get(other), other, increment);
+                        }
+                    }
+                }
+            }
+            history.push(appId, Math.max(previous, weight));
+        }
+    }
+
+    private void addPair(int item, int appId, int otherItem, int otherAppId, float increment) {
+        addToRow(item, otherAppId, increment);
+        addToRow(otherItem, appId, increment);
+    }
+
+    private void addToRow(int item, int neighbour, float increment) {
+        IntFloatMap row = rows[item];
+        row.add(neighbour, increment);
+        if (row.size() > 2 * maxRowSize) {
+            row.retainLargest(maxRowSize);
+        }
+        dirty.set(item);
+    }
+
+    private int indexOf(int appId) {
+        int item = itemIndex.get(appId);
+        if (item >= 0) {
+            return item;
+        }
+        if (items == appIds.length) {
+            int capacity = items * 2;
+            appIds = Arrays.copyOf(appIds, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+            occurrences = Arrays.copyOf(occurrences, capacity);
+        }
+        item = items++;
+        appIds[item] = appId;
+        rows[item] = new IntFloatMap(16);
+        itemIndex.put(appId, item);
+        indexGrown = true;
+        return item;
+    }
+
+    /**
+     * Пересчитывает соседей изменившихся приложений и публикует новый индекс.
+     */
+    void publish() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Index previous = published;
+        Neighbours[] lists = Arrays.copyOf(previous.lists, items);
+        int recomputed = 0;
+        for (int item = dirty.nextSetBit(0); item >= 0; item = dirty.nextSetBit(item + 1)) {
+            lists[item] = topNeighbours(item);
+            recomputed++;
+        }
+        dirty.clear();
+        IntIntMap index = indexGrown ? itemIndex.copy() : previous.index;
+        indexGrown = false;
+        published = new Index(index, lists);
+        log.debug("Recomputed neighbours of {} apps", recomputed);
+    }
+
+    private Neighbours topNeighbours(int item) {
+        IntFloatMap row = rows[item];
+        if (scratch.length < row.size()) {
+            scratch = new long[row.size() * 2];
+        }
+        int n = 0;
+        for (int slot = 0; slot < row.capacity(); slot++) {
+            int neighbour = row.keyAt(slot);
+            if (neighbour >= 0) {
+                float norm = occurrences[item] * occurrences[itemIndex.get(neighbour)];
+                scratch[n++] = pack(row.valueAt(slot) / (float) Math.sqrt(norm), neighbour);
+            }
+        }
+        if (n == 0) {
+            return NO_NEIGHBOURS;
+        }
+        Arrays.sort(scratch, 0, n);
+        int k = Math.min(neighbourCount, n);
+        int[] ids = new int[k];
+        float[] scores = new float[k];
+        for (int i = 0; i < k; i++) {
+            long packed = scratch[n - 1 - i];
+            ids[i] = (int) packed;
+            scores[i] = Float.intBitsToFloat((int) (packed >>> 32));
+        }
+        return new Neighbours(ids, scores);
+    }
+
+    // Для положительных float порядок битов совпадает с порядком чисел, поэтому пары сортируются как long
+    private static long pack(float score, int appId) {
+        return ((long) Float.floatToIntBits(score) << 32) | (appId & 0xFFFFFFFFL);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float weightOf(String activityType) {
+        return switch (activityType) {
+            case "view" -> 1f;
+            case "install" -> 2f;
+            default -> 0f;
+        };
+    }
+
+    /**
+     * Опубликованные списки соседей: index — копия нумерации на момент публикации.
+     */
+    private record Index(IntIntMap index, Neighbours[] lists) {
+
+        Neighbours of(int appId) {
+            int item = index.get(appId);
+            Neighbours neighbours = item >= 0 && item < lists.length ? lists[item] : null;
+            return neighbours != null ? neighbours : NO_NEIGHBOURS;
+        }
+    }
+
+    /**
+     * Последние приложения пользователя от старых к новым с весом самого сильного события.
+     */
+    private static final class UserHistory {
+
+        private final int[] apps;
+        private final float[] weights;
+        private int size;
+
+        UserHistory(int capacity) {
+            apps = new int[capacity];
+            weights = new float[capacity];
+        }
+
+        float weightOf(int appId) {
+            for (int i = 0; i < size; i++) {
+                if (apps[i] == appId) {
+                    return weights[i];
+                }
+            }
+            return 0f;
+        }
+
+        /**
+         * Ставит приложение последним; при переполнении вытесняет самое старое.
+         */
+        void push(int appId, float weight) {
+            int at = 0;
+            while (at < size && apps[at] != appId) {
+                at++;
+            }
+            if (at == size && size == apps.length) {
+                at = 0;
+            } else if (at == size) {
+                size++;
+            }
+            System.arraycopy(apps, at + 1, apps, at, size - 1 - at);
+            System.arraycopy(weights, at + 1, weights, at, size - 1 - at);
+            apps[size - 1] = appId;
+            weights[size - 1] = weight;
+        }
+
+        int[] newestFirst() {
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = apps[size - 1 - i];
+            }
+            return result;
+        }
+
+        float[] weightsNewestFirst() {
+            float[] result = new float[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = weights[size - 1 - i];
+            }
+            return result;
+        }
+    }
+}
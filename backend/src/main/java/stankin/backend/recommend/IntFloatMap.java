@@ -0,0 +1,129 @@
+package stankin.backend.recommend;
+
+import java.util.Arrays;
+
+/**
+ * Открытая адресация int → float без упаковки ключей и значений. Ключи — неотрицательные id,
+ * свободная ячейка помечена -1. Не потокобезопасна.
+ */
+final class IntFloatMap {
+
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private float[] values;
+    private int size;
+
+    IntFloatMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new float[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    float get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+            if (current == key) {
+                return values[slot];
+            }
+            if (current == FREE) {
+                return 0f;
+            }
+        }
+    }
+
+    void add(int key, float delta) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == key) {
+            values[slot] += delta;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size * 4 > keys.length * 3) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Ёмкость внутренних массивов; для обхода вместе с keyAt/valueAt.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Ключ в ячейке slot или -1, если ячейка свободна.
+     */
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    float valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Оставляет keep записей с наибольшими значениями.
+     */
+    void retainLargest(int keep) {
+        if (size <= keep) {
+            return;
+        }
+        float[] sorted = new float[size];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != FREE) {
+                sorted[n++] = values[slot];
+            }
+        }
+        Arrays.sort(sorted);
+        float threshold = sorted[size - keep];
+        int[] oldKeys = keys;
+        float[] oldValues = values;
+        IntFloatMap retained = new IntFloatMap(keep);
+        for (int slot = 0; slot < oldKeys.length && retained.size < keep; slot++) {
+            if (oldKeys[slot] != FREE && oldValues[slot] >= threshold) {
+                retained.add(oldKeys[slot], oldValues[slot]);
+            }
+        }
+        keys = retained.keys;
+        values = retained.values;
+        size = retained.size;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        float[] oldValues = values;
+        keys = new int[capacity];
+        values = new float[capacity];
+        Arrays.fill(keys, FREE);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE) {
+                int slot = mix(key) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,88 @@
+package stankin.backend.recommend;
+
+import java.util.Arrays;
+
+/**
+ * Открытая адресация int → int для плотной нумерации id. Ключи неотрицательные, удаления нет.
+ * Не потокобезопасна; copy() даёт независимый снимок для чтения без блокировок.
+ */
+final class IntIntMap {
+
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    private IntIntMap(int[] keys, int[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Значение ключа или -1.
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = IntFloatMap.mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+            if (current == key) {
+                return values[slot];
+            }
+            if (current == FREE) {
+                return -1;
+            }
+        }
+    }
+
+    void put(int key, int value) {
+        int mask = keys.length - 1;
+        int slot = IntFloatMap.mix(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 4 > keys.length * 3) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    IntIntMap copy() {
+        return new IntIntMap(keys.clone(), values.clone(), size);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = IntFloatMap.mix(oldKeys[i]) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package stankin.backend.recommend;
+
+/**
+ * Ценовой сегмент приложения для профиля интересов; цены в рублях.
+ */
+public enum PriceTier {
+
+    FREE,
+    // до 199 ₽
+    LOW,
+    // до 999 ₽
+    MEDIUM,
+    HIGH;
+
+    static final PriceTier[] VALUES = values();
+
+    public static PriceTier of(float price, boolean free) {
+        if (free || price <= 0f) {
+            return FREE;
+        }
+        if (price < 200f) {
+            return LOW;
+        }
+        return price < 1000f ? MEDIUM : HIGH;
+    }
+}
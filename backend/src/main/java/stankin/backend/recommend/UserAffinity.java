@@ -0,0 +1,128 @@
+package stankin.backend.recommend;
+
+import stankin.backend.catalog.CatalogSnapshot;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Неизменяемый снимок профиля интересов пользователя (см. AffinityProfiles).
+ * <p>
+ * Доли по категориям, разработчикам и ценовым сегментам — затухающий вес измерения, делённый на сумму
+ * весов этого измерения, поэтому каждое измерение в сумме даёт 1. Списки отсортированы по убыванию доли.
+ * Размер снимка ограничен лимитами профиля и не зависит от длины истории.
+ */
+public final class UserAffinity {
+
+    public static final UserAffinity EMPTY = new UserAffinity(new int[0], new float[0], new String[0], new float[0],
+            new float[PriceTier.VALUES.length], new int[0], 0f);
+
+    // Вклад измерений в score: категория важнее разработчика, цена — слабая поправка
+    private static final float CATEGORY_WEIGHT = 0.6f;
+    private static final float DEVELOPER_WEIGHT = 0.3f;
+    private static final float PRICE_WEIGHT = 0.1f;
+
+    private final int[] categoryIds;
+    private final float[] categoryShares;
+    private final String[] developers;
+    private final float[] developerShares;
+    private final float[] tierShares;
+    private final int[] recentApps;
+    private final float activity;
+
+    UserAffinity(int[] categoryIds, float[] categoryShares, String[] developers, float[] developerShares,
+                 float[] tierShares, int[] recentApps, float activity) {
+        this.categoryIds = categoryIds;
+        this.categoryShares = categoryShares;
+        this.developers = developers;
+        this.developerShares = developerShares;
+        this.tierShares = tierShares;
+        this.recentApps = recentApps;
+        this.activity = activity;
+    }
+
+    public boolean isEmpty() {
+        return categoryIds.length == 0;
+    }
+
+    /**
+     * Затухающая масса событий на текущий момент: один просмотр только что — 1, неделю назад при
+     * полураспаде в неделю — 0.5.
+     */
+    public float activity() {
+        return activity;
+    }
+
+    public float category(int categoryId) {
+        for (int i = 0; i < categoryIds.length; i++) {
+            if (categoryIds[i] == categoryId) {
+                return categoryShares[i];
+            }
+        }
+        return 0f;
+    }
+
+    public float developer(String developer) {
+        if (developer == null) {
+            return 0f;
+        }
+        for (int i = 0; i < developers.length; i++) {
+            if (developer.equals(developers[i])) {
+                return developerShares[i];
+            }
+        }
+        return 0f;
+    }
+
+    public float priceTier(PriceTier tier) {
+        return tierShares[tier.ordinal()];
+    }
+
+    /**
+     * Сегмент с наибольшей долей или null, если профиль пуст.
+     */
+    public PriceTier preferredPriceTier() {
+        if (isEmpty()) {
+            return null;
+        }
+        int best = 0;
+        for (int i = 1; i < tierShares.length; i++) {
+            if (tierShares[i] > tierShares[best]) {
+                best = i;
+            }
+        }
+        return PriceTier.VALUES[best];
+    }
+
+    public int[] topCategories(int limit) {
+        return Arrays.copyOf(categoryIds, Math.min(limit, categoryIds.length));
+    }
+
+    public List<String> topDevelopers(int limit) {
+        return List.of(developers).subList(0, Math.min(limit, developers.length));
+    }
+
+    /**
+     * Приложение среди последних recent-apps приложений пользователя.
+     */
+    public boolean recentlyUsed(int appId) {
+        for (int recent : recentApps) {
+            if (recent == appId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Совпадение приложения строки каталога с интересами, от 0 до 1.
+     */
+    public float score(CatalogSnapshot snapshot, int row) {
+        if (isEmpty()) {
+            return 0f;
+        }
+        return CATEGORY_WEIGHT * category(snapshot.categoryId(row))
+                + DEVELOPER_WEIGHT * developer(snapshot.developer(row))
+                + PRICE_WEIGHT * priceTier(PriceTier.of(snapshot.price(row), snapshot.isFree(row)));
+    }
+}
@@ -4,113 +4,151 @@ package stankin.backend.repository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import stankin.backend.catalog.AppCatalog;
+import stankin.backend.catalog.CatalogSnapshot;
+import stankin.backend.catalog.CatalogSnapshot.SortKey;
+import stankin.backend.counter.DeltaCounters;
 import stankin.backend.model.App;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.time.LocalDateTime;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+/**
+ * Чтение каталога обслуживается из снапшота AppCatalog без обращения к ClickHouse.
+ */
 @Slf4j
 @Repository
 @RequiredArgsConstructor
 public class AppRepository {
 
-    private final JdbcTemplate jdbcTemplate;
+    private static final int STREAM_FETCH_SIZE = 1000;
 
-    private final RowMapper<App> appRowMapper = (rs, rowNum) -> {
-        try {
-            return App.builder()
-                    .id(rs.getInt("id"))
-                    .name(rs.getString("name"))
-                    .packageName(rs.getString("package_name"))
-                    .developer(rs.getString("developer"))
-                    .categoryId(rs.getInt("category_id"))
-                    .description(rs.getString("description"))
-                    .shortDescription(rs.getString("short_description"))
-                    .version(rs.getString("version"))
-                    .sizeMb(rs.getFloat("size_mb"))
-                    .rating(rs.getFloat("rating"))
-                    .downloads(rs.getLong("downloads"))
-                    .price(rs.getFloat("price"))
-                    .isFree(rs.getInt("is_free") == 1)  // Исправлено для ClickHouse
-                    .ageRating(rs.getString("age_rating"))
-                    .iconUrl(rs.getString("icon_url"))
-                    .apkUrl(rs.getString("apk_url"))
-                    .createdAt(getTimestamp(rs, "created_at"))  // Исправлено
-                    .updatedAt(getTimestamp(rs, "updated_at"))  // Исправлено
-                    .isEditorChoice(rs.getInt("is_editor_choice") == 1)  // Исправлено
-                    .isNew(rs.getInt("is_new") == 1)  // Исправлено
-                    .isPopular(rs.getInt("is_popular") == 1)  // Исправлено
-                    .build();
-        } catch (Exception e) {
-            log.error("Error mapping row for app: {}", rs.getInt("id"), e);
-            throw e;
-        }
-    };
-
-    // Вспомогательный метод для безопасного получения timestamp
-    private LocalDateTime getTimestamp(ResultSet rs, String columnName) throws SQLException {
-        try {
-            java.sql.Timestamp timestamp = rs.getTimestamp(columnName);
-            return timestamp != null ? timestamp.toLocalDateTime() : LocalDateTime.now();
-        } catch (SQLException e) {
-            log.warn("Could not get timestamp for column {}, using current time", columnName);
-            return LocalDateTime.now();
-        }
+    private final JdbcTemplate jdbcTemplate;
+    private final AppCatalog appCatalog;
+    private final DeltaCounters deltaCounters;
+
+    /**
+     * Страница каталога в порядке витрины, начиная строго после after (null — с начала).
+     */
+    public List<App> findAll(SortKey after, int limit) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        return page(snapshot, snapshot.allRows(), after, limit);
     }
 
-    public List<App> findAll() {
-        String sql = "SELECT * FROM rustore.apps ORDER BY rating DESC, downloads DESC";
-        return jdbcTemplate.query(sql, appRowMapper);
+    public Optional<App> findById(Integer id) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        int row = id != null ? snapshot.rowOf(id) : -1;
+        return row < 0 ? Optional.empty() : Optional.of(snapshot.toApp(row));
     }
 
-    public Optional<App> findById(Integer id) {
-        String sql = "SELECT * FROM rustore.apps WHERE id = ?";
-        List<App> apps = jdbcTemplate.query(sql, appRowMapper, id);
-        return apps.isEmpty() ? Optional.empty() : Optional.of(apps.get(0));
+    /**
+     * Приложения по списку id: сначала из снапшота, промахи — одним запросом WHERE id IN (...).
+     * Id, которых нет нигде, в результат не попадают.
+     */
+    public Map<Integer, App> findAllByIds(Collection<Integer> ids) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        Map<Integer, App> found = new HashMap<>(ids.size());
+        List<Integer> misses = new ArrayList<>();
+        for (Integer id : ids) {
+            int row = snapshot.rowOf(id);
+            if (row >= 0) {
+                found.put(id, snapshot.toApp(row));
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            // Строка могла появиться в ClickHouse после последнего обновления снапшота
+            String placeholders = String.join(",", Collections.nCopies(misses.size(), "?"));
+            List<App> rows = jdbcTemplate.query(
+                    "SELECT * FROM rustore.apps WHERE id IN (" + placeholders + ")",
+                    AppRowMapper.INSTANCE, misses.toArray());
+            for (App app : AppCatalog.latestPerId(rows)) {
+                found.put(app.getId(), app);
+            }
+        }
+        return found;
     }
 
-    public List<App> findByCategory(Integer categoryId) {
-        String sql = "SELECT * FROM rustore.apps WHERE category_id = ? ORDER BY rating DESC";
-        return jdbcTemplate.query(sql, appRowMapper, categoryId);
+    public List<App> findByCategory(Integer categoryId, SortKey after, int limit) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        return page(snapshot, snapshot.rowsInCategory(categoryId), after, limit);
     }
 
-    public List<App> findByFreeStatus(boolean isFree) {
-        String sql = "SELECT * FROM rustore.apps WHERE is_free = ? ORDER BY rating DESC, downloads DESC";
-        return jdbcTemplate.query(sql, appRowMapper, isFree ? 1 : 0);
+    public List<App> findByFreeStatus(boolean isFree, SortKey after, int limit) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        return page(snapshot, isFree ? snapshot.freeRows() : snapshot.paidRows(), after, limit);
     }
 
     public List<App> findEditorChoice() {
-        String sql = "SELECT * FROM rustore.apps WHERE is_editor_choice = 1 ORDER BY rating DESC LIMIT 10";
-        return jdbcTemplate.query(sql, appRowMapper);
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        return snapshot.toApps(snapshot.editorChoiceRows(), 0, 10);
     }
 
     public List<App> findNew() {
-        String sql = "SELECT * FROM rustore.apps WHERE is_new = 1 ORDER BY created_at DESC LIMIT 20";
-        return jdbcTemplate.query(sql, appRowMapper);
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        return snapshot.toApps(snapshot.newRows(), 0, 20);
     }
 
     public List<App> findPopular() {
-        String sql = "SELECT * FROM rustore.apps WHERE is_popular = 1 ORDER BY downloads DESC LIMIT 20";
-        return jdbcTemplate.query(sql, appRowMapper);
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        return snapshot.toApps(snapshot.popularRows(), 0, 20);
     }
 
-    public List<App> searchByName(String query) {
-        String sql = "SELECT * FROM rustore.apps WHERE lower(name) LIKE lower(?) ORDER BY rating DESC";
-        return jdbcTemplate.query(sql, appRowMapper, "%" + query + "%");
+    public List<App> findSimilarApps(Integer categoryId, Integer excludeAppId, int limit) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        List<App> apps = new ArrayList<>(limit);
+        for (int row : snapshot.rowsInCategory(categoryId)) {
+            if (apps.size() >= limit) break;
+            if (excludeAppId == null || snapshot.id(row) != excludeAppId) {
+                apps.add(snapshot.toApp(row));
+            }
+        }
+        return apps;
     }
 
-    public List<App> findSimilarApps(Integer categoryId, Integer excludeAppId, int limit) {
-        String sql = "SELECT * FROM rustore.apps WHERE category_id = ? AND id != ? ORDER BY rating DESC LIMIT ?";
-        return jdbcTemplate.query(sql, appRowMapper, categoryId, excludeAppId, limit);
+    /**
+     * Построчный обход всего rustore.apps прямо из ResultSet, без снапшота и без буферизации.
+     * Исключение из consumer отменяет запрос на стороне ClickHouse и пробрасывается дальше.
+     */
+    public void streamAll(Consumer<App> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT * FROM rustore.apps");
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            try {
+                consumer.accept(AppRowMapper.INSTANCE.mapRow(rs, 0));
+            } catch (RuntimeException e) {
+                rs.getStatement().cancel();
+                throw e;
+            }
+        });
     }
 
+    /**
+     * Приращение копится в DeltaCounters; downloads в таблице и снапшоте остаётся базовым значением.
+     */
     public void incrementDownloads(Integer appId) {
-        String sql = "ALTER TABLE rustore.apps UPDATE downloads = downloads + 1 WHERE id = ?";
-        jdbcTemplate.update(sql, appId);
+        deltaCounters.increment(DeltaCounters.Counter.APP_DOWNLOADS, appId);
+    }
+
+    public long downloads(App app) {
+        long base = app.getDownloads() != null ? app.getDownloads() : 0L;
+        return base + deltaCounters.delta(DeltaCounters.Counter.APP_DOWNLOADS, app.getId());
+    }
+
+    // Строки уже лежат в порядке ключа, поэтому продолжение страницы — бинарный поиск, а не OFFSET
+    private List<App> page(CatalogSnapshot snapshot, int[] rows, SortKey after, int limit) {
+        return snapshot.toApps(rows, snapshot.seek(rows, after), limit);
     }
 }
@@ -0,0 +1,62 @@
+package stankin.backend.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.RowMapper;
+import stankin.backend.model.App;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+/**
+ * Маппинг строки rustore.apps в App.
+ * Общий для AppRepository и загрузчика снапшота каталога.
+ */
+@Slf4j
+public class AppRowMapper implements RowMapper<App> {
+
+    public static final AppRowMapper INSTANCE = new AppRowMapper();
+
+    @Override
+    public App mapRow(ResultSet rs, int rowNum) throws SQLException {
+        try {
+            return App.builder()
+                    .id(rs.getInt("id"))
+                    .name(rs.getString("name"))
+                    .packageName(rs.getString("package_name"))
+                    .developer(rs.getString("developer"))
+                    .categoryId(rs.getInt("category_id"))
+                    .description(rs.getString("description"))
+                    .shortDescription(rs.getString("short_description"))
+                    .version(rs.getString("version"))
+                    .sizeMb(rs.getFloat("size_mb"))
+                    .rating(rs.getFloat("rating"))
+                    .downloads(rs.getLong("downloads"))
+                    .price(rs.getFloat("price"))
+                    .isFree(rs.getInt("is_free") == 1)  // Исправлено для ClickHouse
+                    .ageRating(rs.getString("age_rating"))
+                    .iconUrl(rs.getString("icon_url"))
+                    .apkUrl(rs.getString("apk_url"))
+                    .createdAt(getTimestamp(rs, "created_at"))  // Исправлено
+                    .updatedAt(getTimestamp(rs, "updated_at"))  // Исправлено
+                    .isEditorChoice(rs.getInt("is_editor_choice") == 1)  // Исправлено
+                    .isNew(rs.getInt("is_new") == 1)  // Исправлено
+                    .isPopular(rs.getInt("is_popular") == 1)  // Исправлено
+                    .build();
+        } catch (Exception e) {
+            log.error("Error mapping row for app: {}", rs.getInt("id"), e);
+            throw e;
+        }
+    }
+
+    // Вспомогательный метод для безопасного получения timestamp
+    private LocalDateTime getTimestamp(ResultSet rs, String columnName) throws SQLException {
+        try {
+            java.sql.Timestamp timestamp = rs.getTimestamp(columnName);
+            return timestamp != null ? timestamp.toLocalDateTime() : LocalDateTime.now();
+        } catch (SQLException e) {
+            log.warn("Could not get timestamp for column {}, using current time", columnName);
+            return LocalDateTime.now();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package stankin.backend.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import stankin.backend.ingest.DemoSessionEnd;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class DemoSessionRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insertEnds(List<DemoSessionEnd> ends) {
+        String sql = """
+            INSERT INTO rustore.demo_session_ends (session_id, ended_at, duration_sec, completed)
+            VALUES (?, ?, ?, ?)
+        """;
+
+        jdbcTemplate.batchUpdate(sql, ends, ends.size(), (ps, end) -> {
+            ps.setObject(1, end.sessionId());
+            ps.setTimestamp(2, new Timestamp(end.endedAtMillis()));
+            ps.setInt(3, end.durationSec());
+            ps.setInt(4, end.completed() ? 1 : 0);
+        });
+    }
+}
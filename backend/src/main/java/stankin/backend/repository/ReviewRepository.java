@@ -1,11 +1,21 @@
 package stankin.backend.repository;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import stankin.backend.counter.DeltaCounters;
+import stankin.backend.counter.ReviewSummaryStore;
+import stankin.backend.ingest.SpoolJournal;
+import stankin.backend.ingest.SpoolRecords;
 import stankin.backend.model.Review;
+import stankin.backend.service.SnowflakeIdGenerator;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Repository
@@ -13,39 +23,172 @@ import java.util.List;
 public class ReviewRepository {
 
     private final JdbcTemplate jdbcTemplate;
+    private final SpoolJournal spoolJournal;
+    private final DeltaCounters deltaCounters;
+    private final SnowflakeIdGenerator idGenerator;
+    private final ReviewSummaryStore reviewSummaryStore;
 
-    private final RowMapper<Review> reviewRowMapper = (rs, rowNum) -> Review.builder()
-            .id(rs.getLong("id"))
-            .appId(rs.getInt("app_id"))
-            .userId(rs.getInt("user_id"))
-            .rating(rs.getInt("rating"))
-            .comment(rs.getString("comment"))
-            .helpfulCount(rs.getInt("helpful_count"))
-            .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
-            .build();
+    // Отзыв не меняет приложение, а helpful_count в таблице — базовое значение, поэтому строку можно кэшировать
+    private final Cache<Long, Review> reviewsById = Caffeine.newBuilder().maximumSize(100_000).build();
+
+    /**
+     * Строка страницы и её ключ сортировки в том виде, в каком его сравнивает ClickHouse.
+     */
+    public record PageRow(Review review, long[] key) {
+    }
+
+    /**
+     * Порядки выдачи отзывов. Каждый задан кортежем выражений, сортируемым по убыванию,
+     * поэтому продолжение страницы — одно сравнение кортежей: (выражения) < (ключ последней строки).
+     */
+    public enum Sort {
+        NEWEST("toInt64(toUnixTimestamp(r.created_at))", "toInt64(r.id)"),
+        HELPFUL("toInt64(r.helpful_count) + d.delta", "toInt64(r.id)"),
+        RATING_DESC("toInt64(r.rating)", "toInt64(toUnixTimestamp(r.created_at))", "toInt64(r.id)"),
+        RATING_ASC("-toInt64(r.rating)", "toInt64(toUnixTimestamp(r.created_at))", "toInt64(r.id)");
+
+        private final String[] expressions;
+
+        Sort(String... expressions) {
+            this.expressions = expressions;
+        }
+
+        public int arity() {
+            return expressions.length;
+        }
+
+        /**
+         * Ключ строки в порядке выражений; helpful — число «полезно», видимое в counter_deltas.
+         */
+        public long[] key(Review review, long helpful) {
+            // Через Timestamp, как при записи и чтении через JDBC, чтобы совпасть с toUnixTimestamp
+            long createdAt = Timestamp.valueOf(review.getCreatedAt()).getTime() / 1000;
+            return switch (this) {
+                case NEWEST -> new long[]{createdAt, review.getId()};
+                case HELPFUL -> new long[]{helpful, review.getId()};
+                case RATING_DESC -> new long[]{review.getRating(), createdAt, review.getId()};
+                case RATING_ASC -> new long[]{-review.getRating(), createdAt, review.getId()};
+            };
+        }
+    }
+
+    // Приращения «полезно» только по отзывам этого приложения
+    private static final String HELPFUL_JOIN = """
+            LEFT JOIN (
+                SELECT key, sum(delta) AS delta
+                FROM rustore.counter_deltas
+                WHERE counter = ? AND key IN (SELECT id FROM rustore.reviews WHERE app_id = ?)
+                GROUP BY key
+            ) d ON d.key = r.id
+            """;
 
     public List<Review> findByAppId(Integer appId, int limit) {
         String sql = "SELECT * FROM rustore.reviews WHERE app_id = ? ORDER BY created_at DESC LIMIT ?";
-        return jdbcTemplate.query(sql, reviewRowMapper, appId, limit);
+        return jdbcTemplate.query(sql, ReviewRowMapper.INSTANCE, appId, limit);
+    }
+
+    /**
+     * Отзыв по id или null. Ключ таблицы начинается с app_id, а не с id, поэтому найденное кэшируется.
+     */
+    public Review findById(Long reviewId) {
+        Review cached = reviewsById.getIfPresent(reviewId);
+        if (cached != null) {
+            return cached;
+        }
+        List<Review> rows = jdbcTemplate.query("SELECT * FROM rustore.reviews WHERE id = ? LIMIT 1",
+                ReviewRowMapper.INSTANCE, reviewId);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        reviewsById.put(reviewId, rows.get(0));
+        return rows.get(0);
     }
 
+    /**
+     * Keyset-страница отзывов приложения строго после after (null — с начала).
+     * Ключ сортировки таблицы начинается с app_id, поэтому любая страница — чтение одного диапазона.
+     * Ключ каждой строки читается из того же запроса, чтобы курсор совпадал с порядком ClickHouse.
+     */
+    public List<PageRow> findPage(Integer appId, Sort sort, long[] after, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT r.*");
+        for (int i = 0; i < sort.arity(); i++) {
+            sql.append(", ").append(sort.expressions[i]).append(" AS sort_key_").append(i);
+        }
+        sql.append("\nFROM rustore.reviews r\n");
+        List<Object> args = new ArrayList<>();
+        if (sort == Sort.HELPFUL) {
+            sql.append(HELPFUL_JOIN);
+            args.add(DeltaCounters.Counter.REVIEW_HELPFUL.column());
+            args.add(appId);
+        }
+        sql.append("WHERE r.app_id = ?\n");
+        args.add(appId);
+        if (after != null) {
+            sql.append("AND (").append(String.join(", ", sort.expressions)).append(") < (")
+                    .append(String.join(", ", Collections.nCopies(after.length, "?"))).append(")\n");
+            for (long value : after) {
+                args.add(value);
+            }
+        }
+        sql.append("ORDER BY ").append(String.join(" DESC, ", sort.expressions)).append(" DESC\nLIMIT ?");
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            long[] key = new long[sort.arity()];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = rs.getLong("sort_key_" + i);
+            }
+            return new PageRow(ReviewRowMapper.INSTANCE.mapRow(rs, rowNum), key);
+        }, args.toArray());
+    }
+
+    /**
+     * Отзыв сначала пишется в локальный журнал и сразу возвращается; в ClickHouse его доносит SpoolReplayer.
+     */
     public Review save(Review review) {
+        review.setId(idGenerator.nextId());
+        review.setHelpfulCount(0);
+        review.setCreatedAt(LocalDateTime.now());
+        spoolJournal.append(SpoolRecords.REVIEW, SpoolRecords.encode(review));
+        // До доставки в ClickHouse findById находит отзыв только здесь
+        reviewsById.put(review.getId(), review);
+        return review;
+    }
+
+    public void insertAll(List<Review> reviews) {
         String sql = """
             INSERT INTO rustore.reviews (id, app_id, user_id, rating, comment, helpful_count, created_at)
-            VALUES (?, ?, ?, ?, ?, ?, now())
+            VALUES (?, ?, ?, ?, ?, ?, ?)
         """;
 
-        long id = System.currentTimeMillis();
-        jdbcTemplate.update(sql, id, review.getAppId(), review.getUserId(),
-                review.getRating(), review.getComment(), 0);
-
-        review.setId(id);
-        return review;
+        reviewSummaryStore.persist(reviews, () -> jdbcTemplate.batchUpdate(sql, reviews, reviews.size(), (ps, review) -> {
+            ps.setLong(1, review.getId());
+            ps.setInt(2, review.getAppId());
+            ps.setInt(3, review.getUserId());
+            ps.setInt(4, review.getRating());
+            ps.setString(5, review.getComment());
+            ps.setInt(6, review.getHelpfulCount());
+            ps.setTimestamp(7, Timestamp.valueOf(review.getCreatedAt()));
+        }));
     }
 
+    /**
+     * Приращение копится в DeltaCounters; helpful_count в таблице остаётся базовым значением.
+     */
     public void incrementHelpfulCount(Long reviewId) {
-        String sql = "ALTER TABLE rustore.reviews UPDATE helpful_count = helpful_count + 1 WHERE id = ?";
-        jdbcTemplate.update(sql, reviewId);
+        deltaCounters.increment(DeltaCounters.Counter.REVIEW_HELPFUL, reviewId);
+    }
+
+    public int helpfulCount(Review review) {
+        int base = review.getHelpfulCount() != null ? review.getHelpfulCount() : 0;
+        return (int) (base + deltaCounters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, review.getId()));
+    }
+
+    /**
+     * Число «полезно» без ещё не записанных приращений — значение, по которому сортирует findPage.
+     */
+    public long flushedHelpfulCount(Review review) {
+        int base = review.getHelpfulCount() != null ? review.getHelpfulCount() : 0;
+        return base + deltaCounters.flushedDelta(DeltaCounters.Counter.REVIEW_HELPFUL, review.getId());
     }
 }
 
@@ -0,0 +1,29 @@
+package stankin.backend.repository;
+
+import org.springframework.jdbc.core.RowMapper;
+import stankin.backend.model.Review;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Маппинг строки rustore.reviews в Review.
+ * Общий для ReviewRepository и кандидатов в «самые полезные» ReviewSummaryStore.
+ */
+public class ReviewRowMapper implements RowMapper<Review> {
+
+    public static final ReviewRowMapper INSTANCE = new ReviewRowMapper();
+
+    @Override
+    public Review mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return Review.builder()
+                .id(rs.getLong("id"))
+                .appId(rs.getInt("app_id"))
+                .userId(rs.getInt("user_id"))
+                .rating(rs.getInt("rating"))
+                .comment(rs.getString("comment"))
+                .helpfulCount(rs.getInt("helpful_count"))
+                .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                .build();
+    }
+}
@@ -0,0 +1,49 @@
+package stankin.backend.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Версионированные строки состояния «пользователь — объект» (лайк видео, избранное) в
+ * rustore.user_item_state. Строки только дописываются; актуальна строка с наибольшей версией.
+ * Отметки «не интересует» по-прежнему лежат в rustore.not_interested.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UserItemStateRepository {
+
+    public record StateRow(String kind, String item, boolean active, long version) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insert(int userId, String kind, String item, boolean active, long version) {
+        String sql = "INSERT INTO rustore.user_item_state (user_id, kind, item, active, version) VALUES (?, ?, ?, ?, ?)";
+        jdbcTemplate.update(sql, userId, kind, item, active ? 1 : 0, version);
+    }
+
+    /**
+     * Последнее состояние каждого объекта пользователя; не дожидается слияния кусков ReplacingMergeTree.
+     */
+    public List<StateRow> findLatest(int userId) {
+        String sql = """
+            SELECT kind, item, argMax(active, version) AS active, max(version) AS version
+            FROM rustore.user_item_state
+            WHERE user_id = ?
+            GROUP BY kind, item
+        """;
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new StateRow(
+                rs.getString("kind"),
+                rs.getString("item"),
+                rs.getInt("active") != 0,
+                rs.getLong("version")), userId);
+    }
+
+    public int[] findNotInterestedApps(int userId) {
+        String sql = "SELECT DISTINCT app_id FROM rustore.not_interested WHERE user_id = ?";
+        return jdbcTemplate.queryForList(sql, Integer.class, userId).stream().mapToInt(Integer::intValue).toArray();
+    }
+}
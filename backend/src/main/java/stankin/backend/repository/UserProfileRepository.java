@@ -0,0 +1,68 @@
+package stankin.backend.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Снимки профилей интересов в rustore.user_profiles. Снимок — двоичный блок в Base64 (формат
+ * AffinityProfile.encode), строки только дописываются; актуальна строка с наибольшей версией.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UserProfileRepository {
+
+    public record Snapshot(int userId, byte[] profile, int events, long updatedAtMillis, long version) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insert(List<Snapshot> snapshots) {
+        String sql = "INSERT INTO rustore.user_profiles (user_id, profile, events, updated_at, version) VALUES (?, ?, ?, ?, ?)";
+        jdbcTemplate.batchUpdate(sql, snapshots, snapshots.size(), (ps, snapshot) -> {
+            ps.setInt(1, snapshot.userId());
+            ps.setString(2, Base64.getEncoder().encodeToString(snapshot.profile()));
+            ps.setInt(3, snapshot.events());
+            ps.setTimestamp(4, new Timestamp(snapshot.updatedAtMillis()));
+            ps.setLong(5, snapshot.version());
+        });
+    }
+
+    /**
+     * Последний снимок пользователя или null; не дожидается слияния кусков ReplacingMergeTree.
+     */
+    public byte[] findLatest(int userId) {
+        String sql = "SELECT profile FROM rustore.user_profiles WHERE user_id = ? ORDER BY version DESC LIMIT 1";
+        List<String> rows = jdbcTemplate.queryForList(sql, String.class, userId);
+        return rows.isEmpty() ? null : Base64.getDecoder().decode(rows.get(0));
+    }
+
+    /**
+     * До limit последних просмотров и установок пользователя от старых к новым — для профиля без снимка.
+     */
+    public void forEachRecentActivity(int userId, int limit, ActivityConsumer consumer) {
+        String sql = """
+            SELECT app_id, activity_type, timestamp
+            FROM (
+                SELECT app_id, activity_type, timestamp
+                FROM rustore.user_activities
+                WHERE user_id = ? AND activity_type IN ('view', 'install')
+                ORDER BY timestamp DESC
+                LIMIT ?
+            )
+            ORDER BY timestamp
+        """;
+        jdbcTemplate.query(sql, rs -> {
+            consumer.accept(rs.getInt("app_id"), rs.getString("activity_type"), rs.getTimestamp("timestamp").getTime());
+        }, userId, limit);
+    }
+
+    @FunctionalInterface
+    public interface ActivityConsumer {
+        void accept(int appId, String activityType, long timestampMillis);
+    }
+}
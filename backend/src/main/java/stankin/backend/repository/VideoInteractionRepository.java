@@ -0,0 +1,36 @@
+package stankin.backend.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import stankin.backend.counter.VideoEngagementCounters;
+import stankin.backend.ingest.InteractionEvent;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class VideoInteractionRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VideoEngagementCounters videoEngagementCounters;
+
+    public void insertAll(List<InteractionEvent> events) {
+        String sql = """
+            INSERT INTO rustore.video_interactions
+            (user_id, video_id, interaction_type, watch_duration_sec, demo_played_sec, timestamp, session_id)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+        """;
+
+        videoEngagementCounters.persist(events, () -> jdbcTemplate.batchUpdate(sql, events, events.size(), (ps, event) -> {
+            ps.setInt(1, event.userId());
+            ps.setObject(2, event.videoId());
+            ps.setString(3, event.interactionType());
+            ps.setInt(4, event.watchDurationSec());
+            ps.setInt(5, event.demoPlayedSec());
+            ps.setTimestamp(6, new Timestamp(event.timestampMillis()));
+            ps.setString(7, event.sessionId());
+        }));
+    }
+}
@@ -1,20 +1,47 @@
 package stankin.backend.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import stankin.backend.catalog.CatalogSearchIndex;
+import stankin.backend.catalog.CatalogSearchIndex.Hit;
+import stankin.backend.catalog.CatalogSnapshot;
+import stankin.backend.catalog.CatalogSnapshot.SortKey;
+import stankin.backend.catalog.CategoryDictionary;
+import stankin.backend.catalog.FacetFilter;
+import stankin.backend.catalog.FacetIndex;
+import stankin.backend.catalog.SuggestIndex;
+import stankin.backend.dto.AppBatchDTO;
 import stankin.backend.dto.AppDTO;
 import stankin.backend.dto.AppDetailDTO;
+import stankin.backend.dto.AppFilterResultDTO;
+import stankin.backend.dto.PageDTO;
 import stankin.backend.dto.ReviewDTO;
+import stankin.backend.dto.SuggestionDTO;
+import stankin.backend.embedding.EmbeddingStore;
 import stankin.backend.model.App;
-import stankin.backend.model.Category;
 import stankin.backend.repository.AppRepository;
-import stankin.backend.repository.CategoryRepository;
 import stankin.backend.repository.ReviewRepository;
+import stankin.backend.service.FanOutExecutor.Branch;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -22,44 +49,94 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class AppService {
 
+    // Верхняя граница выдачи поиска, по которой листаются страницы
+    private static final int SEARCH_LIMIT = 1000;
+
+    private static final int EXPORT_FLUSH_EVERY = 100;
+
     private final AppRepository appRepository;
-    private final CategoryRepository categoryRepository;
+    private final CatalogSearchIndex catalogSearchIndex;
+    private final SuggestIndex suggestIndex;
+    private final FacetIndex facetIndex;
+    private final CategoryDictionary categoryDictionary;
     private final ReviewRepository reviewRepository;
     private final JdbcTemplate jdbcTemplate;
+    private final FanOutExecutor fanOutExecutor;
+    private final CursorCodec cursorCodec;
+    private final ObjectMapper objectMapper;
+    private final EmbeddingStore embeddingStore;
 
-    @Cacheable(value = "apps", key = "'all'")
-    public List<AppDTO> getAllApps() {
-        return appRepository.findAll().stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    @Value("${batch.max-ids:500}")
+    private int batchMaxIds;
+
+    @Value("${app-detail.timeout.screenshots-ms:300}")
+    private long screenshotsTimeoutMs;
+
+    @Value("${app-detail.timeout.similar-ms:300}")
+    private long similarTimeoutMs;
+
+    @Value("${app-detail.timeout.reviews-ms:500}")
+    private long reviewsTimeoutMs;
+
+    public PageDTO<AppDTO> getAllApps(String cursor, Integer limit) {
+        return catalogPage("all", cursor, limit, (after, size) -> appRepository.findAll(after, size));
+    }
+
+    /**
+     * Весь каталог в формате NDJSON: строки идут из ResultSet прямо в поток ответа,
+     * память не зависит от размера каталога. Обрыв соединения отменяет запрос.
+     */
+    public void exportAll(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .setRootValueSeparator(null);
+        int[] written = {0};
+        try {
+            appRepository.streamAll(app -> {
+                try {
+                    generator.writeObject(convertToDTO(app));
+                    generator.writeRaw('\n');
+                    if (++written[0] % EXPORT_FLUSH_EVERY == 0) {
+                        generator.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            log.debug("Catalog export aborted after {} rows: {}", written[0], e.getCause().getMessage());
+            throw e.getCause();
+        }
+        generator.flush();
+        log.debug("Catalog export finished: {} rows", written[0]);
+    }
+
+    public void registerDownload(Integer appId) {
+        appRepository.incrementDownloads(appId);
     }
 
     public AppDetailDTO getAppById(Integer id) {
         App app = appRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("App not found"));
 
-        List<String> screenshots = getScreenshots(id);
-        List<AppDTO> similarApps = appRepository.findSimilarApps(app.getCategoryId(), id, 5)
-                .stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        // Ветки независимы: собираем параллельно, у каждой свой таймаут и пустой результат по умолчанию
+        CompletableFuture<Branch<List<String>>> screenshotsBranch = fanOutExecutor.submit(
+                "app-detail", "screenshots", screenshotsTimeoutMs, () -> getScreenshots(id), List.of());
+        CompletableFuture<Branch<List<AppDTO>>> similarBranch = fanOutExecutor.submit(
+                "app-detail", "similar", similarTimeoutMs, () -> getSimilarApps(app), List.of());
+        CompletableFuture<Branch<List<ReviewDTO>>> reviewsBranch = fanOutExecutor.submit(
+                "app-detail", "reviews", reviewsTimeoutMs, () -> getLatestReviews(id), List.of());
 
-        List<ReviewDTO> reviews = reviewRepository.findByAppId(id, 10)
-                .stream()
-                .map(review -> ReviewDTO.builder()
-                        .id(review.getId())
-                        .appId(review.getAppId())
-                        .userId(review.getUserId())
-                        .rating(review.getRating())
-                        .comment(review.getComment())
-                        .helpfulCount(review.getHelpfulCount())
-                        .createdAt(review.getCreatedAt())
-                        .build())
-                .collect(Collectors.toList());
+        Branch<List<String>> screenshots = screenshotsBranch.join();
+        Branch<List<AppDTO>> similarApps = similarBranch.join();
+        Branch<List<ReviewDTO>> reviews = reviewsBranch.join();
 
-        String categoryName = categoryRepository.findById(app.getCategoryId())
-                .map(Category::getName)
-                .orElse("Неизвестно");
+        List<String> unavailableSections = new ArrayList<>();
+        if (!screenshots.complete()) unavailableSections.add("screenshots");
+        if (!similarApps.complete()) unavailableSections.add("similarApps");
+        if (!reviews.complete()) unavailableSections.add("reviews");
+
+        String categoryName = categoryDictionary.name(app.getCategoryId(), "Неизвестно");
 
         return AppDetailDTO.builder()
                 .id(app.getId())
@@ -72,67 +149,182 @@ public class AppService {
                 .version(app.getVersion())
                 .sizeMb(app.getSizeMb())
                 .rating(app.getRating())
-                .downloads(app.getDownloads())
+                .downloads(appRepository.downloads(app))
                 .price(app.getPrice())
                 .isFree(app.getIsFree())
                 .ageRating(app.getAgeRating())
                 .iconUrl(app.getIconUrl())
                 .apkUrl(app.getApkUrl())
-                .screenshots(screenshots)
-                .similarApps(similarApps)
-                .reviews(reviews)
+                .screenshots(screenshots.value())
+                .similarApps(similarApps.value())
+                .reviews(reviews.value())
+                .unavailableSections(unavailableSections)
                 .build();
     }
 
-    public List<AppDTO> getAppsByCategory(Integer categoryId) {
-        return appRepository.findByCategory(categoryId).stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    /**
+     * Пакетное чтение по id: порядок запроса сохраняется, повторы схлопываются,
+     * отсутствующие id перечисляются в missingIds.
+     */
+    public AppBatchDTO getAppsByIds(List<Integer> ids) {
+        Set<Integer> requested = new LinkedHashSet<>();
+        for (Integer id : ids) {
+            if (id != null) requested.add(id);
+        }
+        if (requested.size() > batchMaxIds) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Too many ids: " + requested.size() + " > " + batchMaxIds);
+        }
+
+        Map<Integer, App> found = appRepository.findAllByIds(requested);
+        List<AppDTO> apps = new ArrayList<>(found.size());
+        List<Integer> missingIds = new ArrayList<>();
+        for (Integer id : requested) {
+            App app = found.get(id);
+            if (app != null) {
+                apps.add(convertToDTO(app));
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new AppBatchDTO(apps, missingIds);
     }
 
-    public List<AppDTO> getFreeApps() {
-        return appRepository.findByFreeStatus(true).stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    public PageDTO<AppDTO> getAppsByCategory(Integer categoryId, String cursor, Integer limit) {
+        return catalogPage("category:" + categoryId, cursor, limit,
+                (after, size) -> appRepository.findByCategory(categoryId, after, size));
     }
 
-    public List<AppDTO> getPaidApps() {
-        return appRepository.findByFreeStatus(false).stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    public PageDTO<AppDTO> getFreeApps(String cursor, Integer limit) {
+        return catalogPage("free", cursor, limit, (after, size) -> appRepository.findByFreeStatus(true, after, size));
+    }
+
+    public PageDTO<AppDTO> getPaidApps(String cursor, Integer limit) {
+        return catalogPage("paid", cursor, limit, (after, size) -> appRepository.findByFreeStatus(false, after, size));
     }
 
-    @Cacheable(value = "apps", key = "'editor-choice'")
     public List<AppDTO> getEditorChoice() {
         return appRepository.findEditorChoice().stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
 
-    @Cacheable(value = "apps", key = "'new'")
     public List<AppDTO> getNewApps() {
         return appRepository.findNew().stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
 
-    @Cacheable(value = "apps", key = "'popular'")
     public List<AppDTO> getPopularApps() {
         return appRepository.findPopular().stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
 
-    public List<AppDTO> searchApps(String query) {
-        return appRepository.searchByName(query).stream()
+    public PageDTO<AppDTO> searchApps(String query, String cursor, Integer limit) {
+        int pageSize = cursorCodec.pageSize(limit);
+        String scope = "search:" + query;
+        long[] key = cursorCodec.decode(scope, cursor, 2);
+        List<Hit> hits = catalogSearchIndex.search(query, SEARCH_LIMIT);
+
+        // Выдача пересчитывается на каждый запрос: продолжаем после последнего отданного id,
+        // а если его больше нет в выдаче — с первой оценки ниже курсорной
+        int from = 0;
+        if (key != null) {
+            double afterScore = Double.longBitsToDouble(key[0]);
+            int afterId = (int) key[1];
+            from = hits.size();
+            for (int i = 0; i < hits.size(); i++) {
+                Hit hit = hits.get(i);
+                if (hit.appId() == afterId) {
+                    from = i + 1;
+                    break;
+                }
+                if (hit.score() < afterScore) {
+                    from = i;
+                    break;
+                }
+            }
+        }
+
+        int to = Math.min(hits.size(), from + pageSize);
+        List<AppDTO> items = hits.subList(from, to).stream()
+                .map(hit -> appRepository.findById(hit.appId()))
+                .flatMap(Optional::stream)
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
+        String nextCursor = null;
+        if (to < hits.size()) {
+            Hit last = hits.get(to - 1);
+            nextCursor = cursorCodec.encode(scope, Double.doubleToLongBits(last.score()), last.appId());
+        }
+        return new PageDTO<>(items, nextCursor);
+    }
+
+    public AppFilterResultDTO filterApps(FacetFilter filter, String sort, String cursor, Integer limit) {
+        FacetIndex.Sort order;
+        try {
+            order = FacetIndex.Sort.valueOf(sort.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown sort: " + sort);
+        }
+        int pageSize = cursorCodec.pageSize(limit);
+        String scope = "filter:" + order + ":" + filter.canonical();
+
+        FacetIndex.Result result = facetIndex.filter(filter, order, cursorCodec.decode(scope, cursor, 3), pageSize);
+        CatalogSnapshot snapshot = result.snapshot();
+        List<AppDTO> apps = new ArrayList<>(result.rows().length);
+        for (int row : result.rows()) {
+            apps.add(convertToDTO(snapshot.toApp(row)));
+        }
+        String nextCursor = result.nextKey() == null ? null : cursorCodec.encode(scope, result.nextKey());
+        return new AppFilterResultDTO(apps, result.total(), nextCursor, result.facets());
+    }
+
+    public List<SuggestionDTO> suggest(String prefix, int limit) {
+        if (prefix == null || prefix.isBlank()) {
+            return List.of();
+        }
+        return suggestIndex.suggest(prefix, Math.max(1, Math.min(limit, SuggestIndex.TOP_K))).stream()
+                .map(suggestion -> {
+                    CatalogSnapshot snapshot = suggestion.snapshot();
+                    int row = suggestion.row();
+                    return new SuggestionDTO(
+                            snapshot.id(row),
+                            snapshot.name(row),
+                            snapshot.developer(row),
+                            snapshot.iconUrl(row),
+                            categoryDictionary.name(snapshot.categoryId(row), "Неизвестно"),
+                            suggestion.matchedBy());
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Keyset-страница витрины: запрашиваем на одну строку больше, чтобы понять, есть ли продолжение.
+     */
+    private PageDTO<AppDTO> catalogPage(String scope, String cursor, Integer limit,
+                                        BiFunction<SortKey, Integer, List<App>> finder) {
+        int pageSize = cursorCodec.pageSize(limit);
+        long[] key = cursorCodec.decode(scope, cursor, 3);
+        SortKey after = key == null ? null
+                : new SortKey(Float.intBitsToFloat((int) key[0]), key[1], (int) key[2]);
+
+        List<App> apps = finder.apply(after, pageSize + 1);
+        String nextCursor = null;
+        if (apps.size() > pageSize) {
+            apps = apps.subList(0, pageSize);
+            App last = apps.get(pageSize - 1);
+            nextCursor = cursorCodec.encode(scope,
+                    Float.floatToIntBits(last.getRating() != null ? last.getRating() : 0f),
+                    last.getDownloads() != null ? last.getDownloads() : 0L,
+                    last.getId());
+        }
+        return new PageDTO<>(apps.stream().map(this::convertToDTO).collect(Collectors.toList()), nextCursor);
     }
 
     private AppDTO convertToDTO(App app) {
-        String categoryName = categoryRepository.findById(app.getCategoryId())
-                .map(Category::getName)
-                .orElse("Неизвестно");
+        String categoryName = categoryDictionary.name(app.getCategoryId(), "Неизвестно");
 
         return AppDTO.builder()
                 .id(app.getId())
@@ -142,7 +334,7 @@ public class AppService {
                 .category(categoryName)
                 .shortDescription(app.getShortDescription())
                 .rating(app.getRating())
-                .downloads(app.getDownloads())
+                .downloads(appRepository.downloads(app))
                 .price(app.getPrice())
                 .isFree(app.getIsFree())
                 .iconUrl(app.getIconUrl())
@@ -153,6 +345,65 @@ public class AppService {
                 .build();
     }
 
+    /**
+     * Ближайшие по эмбеддингу приложения; без эмбеддинга — лучшие в той же категории.
+     */
+    public List<AppDTO> getSimilarApps(Integer id, int limit) {
+        App app = appRepository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "App not found"));
+        return similarApps(app, Math.max(1, Math.min(limit, batchMaxIds)));
+    }
+
+    /**
+     * «Ещё похожие»: ближайшие к среднему эмбеддингу нескольких приложений, сами они не входят.
+     */
+    public List<AppDTO> getMoreLikeThis(List<Integer> ids, int limit) {
+        Set<Integer> requested = new LinkedHashSet<>(ids);
+        if (requested.size() > batchMaxIds) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Too many ids: " + requested.size() + " > " + batchMaxIds);
+        }
+        return toDTOs(embeddingStore.moreLikeThis(requested, Math.max(1, Math.min(limit, batchMaxIds))));
+    }
+
+    private List<AppDTO> getSimilarApps(App app) {
+        return similarApps(app, 5);
+    }
+
+    private List<AppDTO> similarApps(App app, int limit) {
+        if (embeddingStore.contains(app.getId())) {
+            return toDTOs(embeddingStore.similar(app.getId(), limit));
+        }
+        return appRepository.findSimilarApps(app.getCategoryId(), app.getId(), limit)
+                .stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+    }
+
+    // Id из файла эмбеддингов, которых уже нет в каталоге, пропускаются
+    private List<AppDTO> toDTOs(int[] ids) {
+        List<AppDTO> apps = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            appRepository.findById(id).ifPresent(app -> apps.add(convertToDTO(app)));
+        }
+        return apps;
+    }
+
+    private List<ReviewDTO> getLatestReviews(Integer appId) {
+        return reviewRepository.findByAppId(appId, 10)
+                .stream()
+                .map(review -> ReviewDTO.builder()
+                        .id(review.getId())
+                        .appId(review.getAppId())
+                        .userId(review.getUserId())
+                        .rating(review.getRating())
+                        .comment(review.getComment())
+                        .helpfulCount(reviewRepository.helpfulCount(review))
+                        .createdAt(review.getCreatedAt())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
     private List<String> getScreenshots(Integer appId) {
         String sql = "SELECT url FROM rustore.screenshots WHERE app_id = ? ORDER BY order_index";
         return jdbcTemplate.queryForList(sql, String.class, appId);
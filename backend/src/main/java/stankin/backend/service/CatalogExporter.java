@@ -0,0 +1,117 @@
+package stankin.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Потоковая выгрузка каталога (AppService.exportAll) в ответ через ResponseBodyEmitter.
+ * <p>
+ * У эмиттера свой таймаут catalog-export.timeout-ms, поэтому общий таймаут асинхронных запросов
+ * MVC остаётся стандартным. Выгрузки идут в отдельном пуле не больше max-concurrent одновременно,
+ * лишние получают 503.
+ */
+@Slf4j
+@Component
+public class CatalogExporter {
+
+    private final AppService appService;
+    private final long timeoutMs;
+    private final ThreadPoolExecutor executor;
+
+    public CatalogExporter(AppService appService,
+                           @Value("${catalog-export.timeout-ms:600000}") long timeoutMs,
+                           @Value("${catalog-export.max-concurrent:4}") int maxConcurrent) {
+        this.appService = appService;
+        this.timeoutMs = timeoutMs;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, maxConcurrent, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "catalog-export-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public ResponseBodyEmitter export(MediaType mediaType) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMs);
+        try {
+            executor.execute(() -> {
+                try (OutputStream out = new EmitterOutputStream(emitter, mediaType)) {
+                    appService.exportAll(out);
+                    out.flush();
+                    emitter.complete();
+                } catch (IOException | RuntimeException e) {
+                    emitter.completeWithError(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent catalog exports");
+        }
+        return emitter;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Копит записанное и отдаёт эмиттеру куском на каждый flush (exportAll сбрасывает каждые 100 строк).
+     */
+    private static final class EmitterOutputStream extends OutputStream {
+
+        private final ResponseBodyEmitter emitter;
+        private final MediaType mediaType;
+        private byte[] buffer = new byte[8192];
+        private int size;
+
+        EmitterOutputStream(ResponseBodyEmitter emitter, MediaType mediaType) {
+            this.emitter = emitter;
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                byte[] chunk = Arrays.copyOf(buffer, size);
+                size = 0;
+                emitter.send(chunk, mediaType);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
@@ -3,10 +3,9 @@ package stankin.backend.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import stankin.backend.dto.AppDTO;
+import stankin.backend.catalog.CategoryDictionary;
 import stankin.backend.dto.CategoryDTO;
 import stankin.backend.model.Category;
-import stankin.backend.repository.CategoryRepository;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -16,22 +15,22 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class CategoryService {
 
-    private final CategoryRepository categoryRepository;
+    private final CategoryDictionary categoryDictionary;
 
     public List<CategoryDTO> getAllCategories() {
-        return categoryRepository.findAll().stream()
+        return categoryDictionary.all().stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
 
     public CategoryDTO getCategoryById(Integer id) {
-        Category category = categoryRepository.findById(id)
+        Category category = categoryDictionary.find(id)
                 .orElseThrow(() -> new RuntimeException("Category not found with id: " + id));
         return convertToDTO(category);
     }
 
     public List<CategoryDTO> getCategoriesByType(String type) {
-        return categoryRepository.findByType(type).stream()
+        return categoryDictionary.findByType(type).stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
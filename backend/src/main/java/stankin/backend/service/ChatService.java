@@ -2,7 +2,11 @@ package stankin.backend.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import stankin.backend.catalog.CategoryDictionary;
 import stankin.backend.dto.*;
+import stankin.backend.recommend.AffinityProfiles;
+import stankin.backend.recommend.PriceTier;
+import stankin.backend.recommend.UserAffinity;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,6 +26,8 @@ import java.util.regex.Pattern;
 public class ChatService {
 
     private final ObjectMapper objectMapper;
+    private final AffinityProfiles affinityProfiles;
+    private final CategoryDictionary categoryDictionary;
 
     @Value("${openrouter.api-key}")
     private String openRouterApiKey;
@@ -105,6 +111,7 @@ public class ChatService {
             if (installedApps != null && !installedApps.isEmpty()) {
                 prompt.append("Установлено приложений: ").append(installedApps.size()).append("\n");
             }
+            appendInterests(prompt, affinityProfiles.affinity(userId));
         }
         
         prompt.append("\nКатегории: Финансы, Социальные сети, Транспорт, Игры, Государственные\n");
@@ -113,6 +120,27 @@ public class ChatService {
         return prompt.toString();
     }
 
+    // Интересы из профиля (AffinityProfiles): самые весомые категории, разработчики и ценовой сегмент
+    private void appendInterests(StringBuilder prompt, UserAffinity affinity) {
+        if (affinity.isEmpty()) {
+            return;
+        }
+        prompt.append("ИНТЕРЕСЫ ПОЛЬЗОВАТЕЛЯ (по просмотрам и установкам, свежие важнее):\n");
+        StringJoiner categories = new StringJoiner(", ");
+        for (int categoryId : affinity.topCategories(3)) {
+            categories.add(categoryDictionary.name(categoryId, "Другое"));
+        }
+        prompt.append("- Любимые категории: ").append(categories).append("\n");
+        List<String> developers = affinity.topDevelopers(3);
+        if (!developers.isEmpty()) {
+            prompt.append("- Любимые разработчики: ").append(String.join(", ", developers)).append("\n");
+        }
+        prompt.append(affinity.preferredPriceTier() == PriceTier.FREE
+                ? "- Чаще выбирает бесплатные приложения\n"
+                : "- Не против платных приложений\n");
+        prompt.append("- Рекомендуй в первую очередь из этих категорий\n");
+    }
+
     private List<AppSuggestionDTO> extractAppSuggestions(String message) {
         List<AppSuggestionDTO> suggestions = new ArrayList<>();
         Pattern pattern = Pattern.compile("\\[APP:([^\\]]+)\\]");
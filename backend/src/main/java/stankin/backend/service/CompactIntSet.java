@@ -0,0 +1,121 @@
+package stankin.backend.service;
+
+import java.util.Arrays;
+
+/**
+ * Множество int на отсортированном массиве: 4 байта на элемент (12 — с версиями), поиск двоичный.
+ * Вставка и удаление сдвигают хвост, что дёшево на размерах пользовательских наборов.
+ * Версии (если включены) задают порядок «последние изменённые первыми». Не потокобезопасно.
+ */
+final class CompactIntSet {
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final long[] NO_VERSIONS = new long[0];
+
+    private int[] keys = NO_KEYS;
+    private long[] versions;
+    private int size;
+
+    CompactIntSet(boolean trackVersions) {
+        this.versions = trackVersions ? NO_VERSIONS : null;
+    }
+
+    /**
+     * Заполняет пустое множество разом: сортировка вместо поэлементных вставок.
+     */
+    void load(int[] newKeys, long[] newVersions, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(newKeys[a], newKeys[b]));
+        keys = new int[count];
+        if (versions != null) {
+            versions = new long[count];
+        }
+        size = 0;
+        for (int index : order) {
+            if (size > 0 && keys[size - 1] == newKeys[index]) {
+                continue;
+            }
+            keys[size] = newKeys[index];
+            if (versions != null) {
+                versions[size] = newVersions != null ? newVersions[index] : 0L;
+            }
+            size++;
+        }
+    }
+
+    boolean contains(int key) {
+        return Arrays.binarySearch(keys, 0, size, key) >= 0;
+    }
+
+    boolean add(int key, long version) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            if (versions != null) {
+                versions[index] = version;
+            }
+            return false;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            int capacity = Math.max(4, size + (size >> 1));
+            keys = Arrays.copyOf(keys, capacity);
+            if (versions != null) {
+                versions = Arrays.copyOf(versions, capacity);
+            }
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        keys[index] = key;
+        if (versions != null) {
+            System.arraycopy(versions, index, versions, index + 1, size - index);
+            versions[index] = version;
+        }
+        size++;
+        return true;
+    }
+
+    boolean remove(int key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        if (versions != null) {
+            System.arraycopy(versions, index + 1, versions, index, size - index - 1);
+        }
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Элементы по убыванию версии; без версий — по возрастанию.
+     */
+    int[] newestFirst() {
+        if (versions == null) {
+            return Arrays.copyOf(keys, size);
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(versions[b], versions[a]));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = keys[order[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Примерный размер в куче: заголовки объекта и массивов плюс ёмкость массивов.
+     */
+    long estimatedBytes() {
+        return 24 + 16 + 4L * keys.length + (versions != null ? 16 + 8L * versions.length : 0);
+    }
+}
@@ -0,0 +1,121 @@
+package stankin.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import stankin.backend.catalog.AppCatalog;
+import stankin.backend.catalog.CategoryDictionary;
+import stankin.backend.counter.DeltaCounters;
+import stankin.backend.dto.AppDTO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Готовые к отправке тела подборок главной страницы: JSON и его gzip-версия со строгими ETag.
+ * <p>
+ * Тело пересобирается, только когда сменилась версия каталога, справочника категорий или записанной
+ * части счётчика скачиваний (в AppDTO приходят живые downloads); если при этом JSON не изменился,
+ * остаются прежние байты и прежний ETag.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CuratedPayloadCache {
+
+    public enum CuratedList {
+        EDITOR_CHOICE(AppService::getEditorChoice),
+        NEW(AppService::getNewApps),
+        POPULAR(AppService::getPopularApps);
+
+        private final Function<AppService, List<AppDTO>> loader;
+
+        CuratedList(Function<AppService, List<AppDTO>> loader) {
+            this.loader = loader;
+        }
+    }
+
+    public record Payload(long catalogVersion, long categoriesVersion, long downloadsVersion,
+                          byte[] identity, String identityEtag, byte[] gzip, String gzipEtag) {
+    }
+
+    private final AppService appService;
+    private final AppCatalog appCatalog;
+    private final CategoryDictionary categoryDictionary;
+    private final DeltaCounters deltaCounters;
+    private final ObjectMapper objectMapper;
+
+    private final Map<CuratedList, Payload> payloads = new EnumMap<>(CuratedList.class);
+
+    public Payload get(CuratedList list) {
+        long catalogVersion = appCatalog.snapshot().version();
+        long categoriesVersion = categoryDictionary.version();
+        long downloadsVersion = deltaCounters.version(DeltaCounters.Counter.APP_DOWNLOADS);
+        Payload current;
+        synchronized (payloads) {
+            current = payloads.get(list);
+        }
+        if (current != null && current.catalogVersion() == catalogVersion
+                && current.categoriesVersion() == categoriesVersion
+                && current.downloadsVersion() == downloadsVersion) {
+            return current;
+        }
+        return rebuild(list, catalogVersion, categoriesVersion, downloadsVersion);
+    }
+
+    private Payload rebuild(CuratedList list, long catalogVersion, long categoriesVersion, long downloadsVersion) {
+        byte[] identity;
+        try {
+            identity = objectMapper.writeValueAsBytes(list.loader.apply(appService));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize " + list, e);
+        }
+
+        Payload next;
+        synchronized (payloads) {
+            Payload previous = payloads.get(list);
+            if (previous != null && Arrays.equals(previous.identity(), identity)) {
+                next = new Payload(catalogVersion, categoriesVersion, downloadsVersion, previous.identity(),
+                        previous.identityEtag(), previous.gzip(), previous.gzipEtag());
+            } else {
+                String hash = contentHash(identity);
+                next = new Payload(catalogVersion, categoriesVersion, downloadsVersion, identity,
+                        "\"" + hash + "\"", gzip(identity), "\"" + hash + "-gz\"");
+                log.debug("Curated list {} rebuilt: {} bytes, {} gzipped", list, identity.length, next.gzip().length);
+            }
+            payloads.put(list, next);
+        }
+        return next;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String contentHash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
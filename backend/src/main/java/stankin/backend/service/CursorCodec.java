@@ -0,0 +1,124 @@
+package stankin.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Непрозрачные курсоры для keyset-пагинации.
+ * <p>
+ * Курсор — значения ключа сортировки последней отданной строки плюс усечённая HMAC-SHA256
+ * подпись, в которую входит и область (scope) выдачи. Курсор, подделанный или выданный
+ * для другого списка, отклоняется с 400.
+ */
+@Slf4j
+@Component
+public class CursorCodec {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 12;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    public CursorCodec(@Value("${pagination.cursor-secret:}") String secret,
+                       @Value("${pagination.default-page-size:50}") int defaultPageSize,
+                       @Value("${pagination.max-page-size:100}") int maxPageSize) {
+        byte[] keyBytes;
+        if (secret.isBlank()) {
+            // Без общего секрета курсоры действительны только в пределах одного инстанса и запуска
+            log.warn("pagination.cursor-secret is not set, using a random per-process key");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.maxPageSize = Math.max(1, maxPageSize);
+        this.defaultPageSize = Math.min(Math.max(1, defaultPageSize), this.maxPageSize);
+    }
+
+    /**
+     * Размер страницы с учётом серверного ограничения.
+     */
+    public int pageSize(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return defaultPageSize;
+        }
+        return Math.min(requested, maxPageSize);
+    }
+
+    public String encode(String scope, long... values) {
+        ByteBuffer payload = ByteBuffer.allocate(values.length * Long.BYTES);
+        for (long value : values) {
+            payload.putLong(value);
+        }
+        byte[] body = payload.array();
+        byte[] mac = mac(scope, body);
+        byte[] token = Arrays.copyOf(body, body.length + MAC_LENGTH);
+        System.arraycopy(mac, 0, token, body.length, MAC_LENGTH);
+        return ENCODER.encodeToString(token);
+    }
+
+    /**
+     * Значения ключа из курсора; null, если курсор не передан.
+     */
+    public long[] decode(String scope, String cursor, int arity) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        byte[] token;
+        try {
+            token = DECODER.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw invalidCursor();
+        }
+        int bodyLength = arity * Long.BYTES;
+        if (token.length != bodyLength + MAC_LENGTH) {
+            throw invalidCursor();
+        }
+        byte[] body = Arrays.copyOf(token, bodyLength);
+        byte[] expected = Arrays.copyOf(mac(scope, body), MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(token, bodyLength, token.length))) {
+            throw invalidCursor();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        long[] values = new long[arity];
+        for (int i = 0; i < arity; i++) {
+            values[i] = buffer.getLong();
+        }
+        return values;
+    }
+
+    private byte[] mac(String scope, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(scope.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(body);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC is not available", e);
+        }
+    }
+
+    private static ResponseStatusException invalidCursor() {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+    }
+}
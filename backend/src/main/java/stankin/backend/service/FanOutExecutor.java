@@ -0,0 +1,119 @@
+package stankin.backend.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import stankin.backend.config.QueryDeadline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Исполнитель параллельных веток сборки ответа (карточка приложения и т.п.).
+ * <p>
+ * На JDK с виртуальными потоками использует их, иначе ограниченный пул.
+ * Каждая ветка получает свой таймаут и запасное значение; время веток пишется
+ * в таймер fanout.branch с тегами operation/branch/outcome. По таймауту задача ветки отменяется
+ * с прерыванием потока, а запросы JdbcTemplate внутри ветки получают query timeout по её сроку
+ * (см. QueryDeadline), чтобы медленная ветка не держала поток и соединение.
+ * Намеренно не регистрируется как бин Executor, чтобы не отключать автоконфигурацию @Async.
+ */
+@Slf4j
+@Component
+public class FanOutExecutor {
+
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+
+    public FanOutExecutor(MeterRegistry meterRegistry,
+                          @Value("${fanout.threads:16}") int threads,
+                          @Value("${fanout.queue-capacity:256}") int queueCapacity) {
+        this.meterRegistry = meterRegistry;
+        this.executor = createExecutor(threads, queueCapacity);
+    }
+
+    /**
+     * Результат ветки: значение и признак того, что оно настоящее, а не запасное.
+     */
+    public record Branch<T>(T value, boolean complete) {
+    }
+
+    public <T> CompletableFuture<Branch<T>> submit(String operation, String branch, long timeoutMs,
+                                                   Supplier<T> task, T fallback) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                QueryDeadline.set(deadline);
+                try {
+                    future.complete(task.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    QueryDeadline.clear();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running = null;
+            future.completeExceptionally(e);
+        }
+        Future<?> submitted = running;
+        return future
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .handle((value, error) -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof TimeoutException && submitted != null) {
+                        submitted.cancel(true);
+                    }
+                    String outcome = cause == null ? "ok"
+                            : cause instanceof TimeoutException ? "timeout"
+                            : cause instanceof RejectedExecutionException ? "rejected" : "error";
+                    meterRegistry.timer("fanout.branch", "operation", operation, "branch", branch, "outcome", outcome)
+                            .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    if (cause != null) {
+                        log.warn("{} branch '{}' degraded ({}): {}", operation, branch, outcome, cause.toString());
+                        return new Branch<>(fallback, false);
+                    }
+                    return new Branch<>(value, true);
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService createExecutor(int threads, int queueCapacity) {
+        try {
+            // JDK 21+: поток на задачу, параллелизм к БД всё равно ограничен пулом соединений
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "fanout-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+}
@@ -1,123 +1,314 @@
 package stankin.backend.service;
 
 
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import stankin.backend.catalog.AppCatalog;
+import stankin.backend.catalog.CatalogSnapshot;
+import stankin.backend.catalog.CategoryDictionary;
 import stankin.backend.dto.AppDTO;
+import stankin.backend.ingest.ActivityEvent;
+import stankin.backend.ingest.ActivityIngestor;
 import stankin.backend.model.App;
+import stankin.backend.recommend.AffinityProfiles;
+import stankin.backend.recommend.CoOccurrenceEngine;
+import stankin.backend.recommend.UserAffinity;
 import stankin.backend.repository.AppRepository;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Персональные рекомендации с кэшем готовых списков по пользователю.
+ * <p>
+ * В кэше лежат id приложений (до recommendations.cache.list-size), карточки собираются из каталога
+ * при каждом ответе, поэтому запись занимает десятки байт. Своё действие пользователя (просмотр,
+ * установка) не выбрасывает запись, а заменяет её копией с пометкой stale: следующий запрос получает
+ * прежний список, а пересчёт идёт в фоне (stale-while-revalidate). Помечает запись не сам
+ * ActivityEvent, а CoOccurrenceEngine и AffinityProfiles, когда их рабочие потоки применили событие:
+ * иначе пересчёт успевал бы пройти по данным без него. Пересчёт, начатый до пометки, Caffeine
+ * отбрасывает, потому что запись за это время поменялась, поэтому после второго движка список
+ * пересчитывается ещё раз.
+ * Кроме того, запись пересчитывается в фоне через refresh-after-ms после записи. Раз в
+ * precompute-interval-ms планировщик заранее пересчитывает до precompute-budget недавно активных
+ * пользователей, у которых записи нет или она устарела.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class RecommendationService {
 
+    // Вклад рейтинга в оценку добора рядом с совпадением с профилем (от 0 до 1)
+    private static final float RATING_WEIGHT = 0.2f;
+
+    /**
+     * Готовый список; stale — после него пользователь что-то сделал.
+     */
+    private record Cached(int[] appIds, boolean stale) {
+
+        Cached markStale() {
+            return new Cached(appIds, true);
+        }
+    }
+
     private final AppRepository appRepository;
-    private final JdbcTemplate jdbcTemplate;
+    private final CategoryDictionary categoryDictionary;
+    private final AppCatalog appCatalog;
+    private final AffinityProfiles affinityProfiles;
+    private final ActivityIngestor activityIngestor;
+    private final CoOccurrenceEngine coOccurrenceEngine;
+    private final UserItemStateService userItemStateService;
+    private final int listSize;
+    private final int fillCategories;
+    private final int precomputeBudget;
+    private final int precomputeBacklog;
+    private final ThreadPoolExecutor refreshExecutor;
+    private final LoadingCache<Integer, Cached> recommendations;
+    // Пользователи с действиями после прошлого прохода планировщика
+    private final Set<Integer> recentlyActive = ConcurrentHashMap.newKeySet();
+    private final Counter staleServed;
+    private final Counter refreshRejected;
+    private final Counter precomputed;
+
+    public RecommendationService(AppRepository appRepository, CategoryDictionary categoryDictionary,
+                                 AppCatalog appCatalog, AffinityProfiles affinityProfiles,
+                                 ActivityIngestor activityIngestor,
+                                 CoOccurrenceEngine coOccurrenceEngine, UserItemStateService userItemStateService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${recommendations.cache.list-size:30}") int listSize,
+                                 @Value("${recommendations.fill-categories:5}") int fillCategories,
+                                 @Value("${recommendations.cache.max-users:200000}") long maxUsers,
+                                 @Value("${recommendations.cache.expire-after-access-ms:3600000}") long expireAfterAccessMs,
+                                 @Value("${recommendations.cache.refresh-after-ms:600000}") long refreshAfterMs,
+                                 @Value("${recommendations.cache.refresh-threads:4}") int refreshThreads,
+                                 @Value("${recommendations.cache.refresh-queue:1000}") int refreshQueue,
+                                 @Value("${recommendations.cache.precompute-budget:500}") int precomputeBudget,
+                                 @Value("${recommendations.cache.precompute-backlog:50000}") int precomputeBacklog) {
+        this.appRepository = appRepository;
+        this.categoryDictionary = categoryDictionary;
+        this.appCatalog = appCatalog;
+        this.affinityProfiles = affinityProfiles;
+        this.activityIngestor = activityIngestor;
+        this.coOccurrenceEngine = coOccurrenceEngine;
+        this.userItemStateService = userItemStateService;
+        this.listSize = listSize;
+        this.fillCategories = fillCategories;
+        this.precomputeBudget = precomputeBudget;
+        this.precomputeBacklog = precomputeBacklog;
+        this.refreshExecutor = createRefreshExecutor(refreshThreads, refreshQueue);
+        this.recommendations = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(Duration.ofMillis(expireAfterAccessMs))
+                .refreshAfterWrite(Duration.ofMillis(refreshAfterMs))
+                .executor(refreshExecutor)
+                .recordStats()
+                .build(userId -> new Cached(computeRecommendations(userId, listSize), false));
+        CaffeineCacheMetrics.monitor(meterRegistry, recommendations, "recommendations");
+        meterRegistry.gauge("recommendations.cache.hit-ratio", recommendations, cache -> cache.stats().hitRate());
+        this.staleServed = meterRegistry.counter("recommendations.cache.stale-served");
+        this.refreshRejected = meterRegistry.counter("recommendations.cache.refresh-rejected");
+        this.precomputed = meterRegistry.counter("recommendations.cache.precomputed");
+        coOccurrenceEngine.onApplied(this::onApplied);
+        affinityProfiles.onApplied(this::onApplied);
+    }
 
     /**
-     * Get personalized recommendations based on user activity
+     * Get personalized recommendations based on user activity.
+     * Сначала приложения, похожие по совместным просмотрам и установкам на недавние приложения
+     * пользователя (CoOccurrenceEngine, без запросов к ClickHouse). Если их не хватает, остаток
+     * добирается из любимых категорий по профилю интересов (AffinityProfiles). При limit не больше
+     * list-size ответ берётся из кэша.
      */
     public List<AppDTO> getRecommendations(Integer userId, int limit) {
-        // Get user's favorite categories based on viewing history
-        String categorySql = """
-            SELECT category_id, count() as views
-            FROM rustore.user_activities ua
-            JOIN rustore.apps a ON ua.app_id = a.id
-            WHERE ua.user_id = ? AND ua.activity_type = 'view'
-            GROUP BY category_id
-            ORDER BY views DESC
-            LIMIT 3
-        """;
-
-        List<Integer> favoriteCategories = jdbcTemplate.queryForList(
-                categorySql, Integer.class, userId);
-
-        if (favoriteCategories.isEmpty()) {
+        UserItemStateService.View state = userItemStateService.view(userId);
+        if (limit > listSize) {
+            return toDTOs(computeRecommendations(userId, limit), limit, state);
+        }
+        Cached cached = recommendations.get(userId);
+        if (cached.stale()) {
+            staleServed.increment();
+            refresh(userId);
+        }
+        // «Не интересует» могли отметить уже после расчёта списка
+        return toDTOs(cached.appIds(), limit, state);
+    }
+
+    /**
+     * Событие применено одним из движков — вызывается на его рабочем потоке.
+     */
+    private void onApplied(ActivityEvent event) {
+        recommendations.asMap().computeIfPresent(event.userId(), (userId, cached) -> cached.markStale());
+        if (recentlyActive.size() < precomputeBacklog) {
+            recentlyActive.add(event.userId());
+        }
+    }
+
+    /**
+     * Фоновый пересчёт для недавно активных пользователей: не больше precompute-budget за проход,
+     * остальные ждут следующего.
+     */
+    @Scheduled(fixedDelayString = "${recommendations.cache.precompute-interval-ms:30000}")
+    public void precomputeForActiveUsers() {
+        int scheduled = 0;
+        Iterator<Integer> users = recentlyActive.iterator();
+        while (users.hasNext() && scheduled < precomputeBudget) {
+            Integer userId = users.next();
+            users.remove();
+            Cached cached = recommendations.policy().getIfPresentQuietly(userId);
+            if ((cached == null || cached.stale()) && refresh(userId)) {
+                scheduled++;
+            }
+        }
+        if (scheduled > 0) {
+            precomputed.increment(scheduled);
+            log.debug("Scheduled recommendation precompute for {} users, {} still pending", scheduled,
+                    recentlyActive.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    // Повторный refresh ключа, пока идёт прежний, Caffeine не запускает
+    private boolean refresh(Integer userId) {
+        if (refreshExecutor.getQueue().remainingCapacity() == 0) {
+            refreshRejected.increment();
+            return false;
+        }
+        try {
+            recommendations.refresh(userId);
+            return true;
+        } catch (RejectedExecutionException e) {
+            refreshRejected.increment();
+            return false;
+        }
+    }
+
+    private int[] computeRecommendations(Integer userId, int limit) {
+        UserItemStateService.View state = userItemStateService.view(userId);
+        int[] similar = coOccurrenceEngine.recommend(userId, limit, state::notInterested);
+        int[] appIds = new int[limit];
+        int count = 0;
+        Set<Integer> seen = new HashSet<>();
+        for (int appId : similar) {
+            if (count < limit && appRepository.findById(appId).isPresent() && seen.add(appId)) {
+                appIds[count++] = appId;
+            }
+        }
+        if (count < limit) {
+            for (int appId : getAffinityRecommendations(userId, limit, state)) {
+                if (count >= limit) break;
+                if (seen.add(appId)) {
+                    appIds[count++] = appId;
+                }
+            }
+        }
+        return Arrays.copyOf(appIds, count);
+    }
+
+    private List<AppDTO> toDTOs(int[] appIds, int limit, UserItemStateService.View state) {
+        List<AppDTO> result = new ArrayList<>(Math.min(limit, appIds.length));
+        for (int appId : appIds) {
+            if (result.size() >= limit) break;
+            if (!state.notInterested(appId)) {
+                appRepository.findById(appId).ifPresent(app -> result.add(convertToDTO(app)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Добор из любимых категорий по профилю интересов: в каждой из fill-categories самых весомых
+     * категорий берутся первые по рейтингу приложения, которых пользователь недавно не открывал,
+     * и ранжируются по совпадению с профилем плюс рейтингу. Стоимость не зависит от длины истории.
+     */
+    private List<Integer> getAffinityRecommendations(Integer userId, int limit, UserItemStateService.View state) {
+        UserAffinity affinity = affinityProfiles.affinity(userId);
+        if (affinity.isEmpty()) {
             // Return popular apps if no history
             return appRepository.findPopular().stream()
                     .limit(limit)
-                    .map(this::convertToDTO)
-                    .collect(Collectors.toList());
+                    .map(App::getId)
+                    .toList();
         }
-
-        // Get apps from favorite categories that user hasn't viewed
-        String appSql = """
-            SELECT DISTINCT a.*
-            FROM rustore.apps a
-            WHERE a.category_id IN (?, ?, ?)
-            AND a.id NOT IN (
-                SELECT app_id FROM rustore.user_activities 
-                WHERE user_id = ?
-            )
-            ORDER BY a.rating DESC, a.downloads DESC
-            LIMIT ?
-        """;
-
-        List<App> recommendedApps = jdbcTemplate.query(
-                appSql,
-                (rs, rowNum) -> App.builder()
-                        .id(rs.getInt("id"))
-                        .name(rs.getString("name"))
-                        .categoryId(rs.getInt("category_id"))
-                        .rating(rs.getFloat("rating"))
-                        .downloads(rs.getLong("downloads"))
-                        .build(),
-                favoriteCategories.get(0),
-                favoriteCategories.size() > 1 ? favoriteCategories.get(1) : 0,
-                favoriteCategories.size() > 2 ? favoriteCategories.get(2) : 0,
-                userId,
-                limit
-        );
-
-        return recommendedApps.stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        int[] categories = affinity.topCategories(fillCategories);
+        long[] ranked = new long[categories.length * limit];
+        int n = 0;
+        for (int categoryId : categories) {
+            int taken = 0;
+            for (int row : snapshot.rowsInCategory(categoryId)) {
+                if (taken == limit) break;
+                int appId = snapshot.id(row);
+                if (!affinity.recentlyUsed(appId) && !state.notInterested(appId)) {
+                    float score = affinity.score(snapshot, row) + RATING_WEIGHT * snapshot.rating(row) / 5f;
+                    ranked[n++] = ((long) Float.floatToIntBits(score) << 32) | (appId & 0xFFFFFFFFL);
+                    taken++;
+                }
+            }
+        }
+        // Оценки положительны, поэтому пары (оценка, id) сортируются как long
+        Arrays.sort(ranked, 0, n);
+        List<Integer> result = new ArrayList<>(Math.min(limit, n));
+        for (int i = n - 1; i >= 0 && result.size() < limit; i--) {
+            result.add((int) ranked[i]);
+        }
+        return result;
     }
 
     /**
      * Track user activity for recommendations
      */
     public void trackActivity(Integer userId, Integer appId, String activityType) {
-        String sql = """
-            INSERT INTO rustore.user_activities 
-            (user_id, app_id, activity_type, timestamp, session_id)
-            VALUES (?, ?, ?, now(), ?)
-        """;
-
-        String sessionId = UUID.randomUUID().toString();
-        jdbcTemplate.update(sql, userId, appId, activityType, sessionId);
-
-        log.info("Tracked activity: user={}, app={}, type={}", userId, appId, activityType);
+        // Запись в ClickHouse идёт пачками из очереди, на пути запроса только постановка в неё
+        if (activityIngestor.submit(userId, appId, activityType)) {
+            log.debug("Tracked activity: user={}, app={}, type={}", userId, appId, activityType);
+        }
     }
 
     private AppDTO convertToDTO(App app) {
-        // TODO: позже заменить на реальное имя категории по categoryId
-        String categoryName = getCategoryNameById(app.getCategoryId()); //  реализовать позже
+        String categoryName = getCategoryNameById(app.getCategoryId());
 
         return AppDTO.builder()
                 .id(app.getId())
                 .name(app.getName())
                 .category(categoryName)
                 .rating(app.getRating())
-                .downloads(app.getDownloads())
+                .downloads(appRepository.downloads(app))
                 .build();
     }
 
     private String getCategoryNameById(Integer categoryId) {
         if (categoryId == null) return "Uncategorized";
-        // Пример через jdbcTemplate (можно вынести в CategoryRepository)
-        String sql = "SELECT name FROM rustore.categories WHERE id = ?";
-        try {
-            return jdbcTemplate.queryForObject(sql, String.class, categoryId);
-        } catch (EmptyResultDataAccessException e) {
-            return "Unknown";
-        }
+        return categoryDictionary.name(categoryId, "Unknown");
+    }
+
+    private static ThreadPoolExecutor createRefreshExecutor(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "recommendation-refresh-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 }
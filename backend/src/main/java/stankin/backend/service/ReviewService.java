@@ -2,12 +2,19 @@ package stankin.backend.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import stankin.backend.counter.ReviewSummaryStore;
+import stankin.backend.dto.PageDTO;
 import stankin.backend.dto.ReviewDTO;
+import stankin.backend.dto.ReviewSummaryDTO;
 import stankin.backend.model.Review;
+import stankin.backend.repository.AppRepository;
 import stankin.backend.repository.ReviewRepository;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -16,14 +23,52 @@ import java.util.stream.Collectors;
 public class ReviewService {
 
     private final ReviewRepository reviewRepository;
+    private final AppRepository appRepository;
+    private final ReviewSummaryStore reviewSummaryStore;
+    private final CursorCodec cursorCodec;
 
-    public List<ReviewDTO> getReviewsByAppId(Integer appId, int limit) {
-        return reviewRepository.findByAppId(appId, limit).stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    /**
+     * Keyset-страница отзывов. Первая страница HELPFUL отдаётся из набора кандидатов ReviewSummaryStore
+     * без запроса к ClickHouse; продолжение и остальные сортировки читаются диапазоном по app_id.
+     * Курсор строится из значения, по которому сортирует ClickHouse: для страниц из findPage — из самой
+     * строки, для кандидатов — из записанного числа «полезно».
+     */
+    public PageDTO<ReviewDTO> getReviews(Integer appId, String sort, String cursor, Integer limit) {
+        ReviewRepository.Sort order;
+        try {
+            order = ReviewRepository.Sort.valueOf(sort.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown sort: " + sort);
+        }
+        requireApp(appId);
+        int pageSize = cursorCodec.pageSize(limit);
+        String scope = "reviews:" + appId + ":" + order;
+        long[] after = cursorCodec.decode(scope, cursor, order.arity());
+
+        List<ReviewRepository.PageRow> rows = null;
+        if (order == ReviewRepository.Sort.HELPFUL && after == null) {
+            List<Review> candidates = reviewSummaryStore.mostHelpful(appId, pageSize + 1);
+            if (candidates != null) {
+                rows = candidates.stream()
+                        .map(review -> new ReviewRepository.PageRow(review,
+                                order.key(review, reviewRepository.flushedHelpfulCount(review))))
+                        .collect(Collectors.toList());
+            }
+        }
+        if (rows == null) {
+            rows = reviewRepository.findPage(appId, order, after, pageSize + 1);
+        }
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            rows = rows.subList(0, pageSize);
+            nextCursor = cursorCodec.encode(scope, rows.get(pageSize - 1).key());
+        }
+        return new PageDTO<>(rows.stream().map(row -> convertToDTO(row.review())).collect(Collectors.toList()),
+                nextCursor);
     }
 
     public ReviewDTO createReview(ReviewDTO reviewDTO) {
+        requireApp(reviewDTO.getAppId());
         Review review = Review.builder()
                 .appId(reviewDTO.getAppId())
                 .userId(reviewDTO.getUserId())
@@ -32,16 +77,39 @@ public class ReviewService {
                 .build();
 
         Review saved = reviewRepository.save(review);
+        reviewSummaryStore.record(saved);
         log.info("Created review: id={}, appId={}, userId={}", saved.getId(), saved.getAppId(), saved.getUserId());
 
         return convertToDTO(saved);
     }
 
+    public ReviewSummaryDTO getSummary(Integer appId) {
+        requireApp(appId);
+        return reviewSummaryStore.summary(appId);
+    }
+
+    /**
+     * Приложение отзыва определяется на сервере, чтобы набор «самых полезных» обновлялся при любом голосе.
+     */
     public void markHelpful(Long reviewId) {
+        Review review = reviewRepository.findById(reviewId);
+        if (review == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Review not found");
+        }
         reviewRepository.incrementHelpfulCount(reviewId);
+        reviewSummaryStore.helpfulVoted(review);
         log.info("Marked review {} as helpful", reviewId);
     }
 
+    /**
+     * Сводки ReviewSummaryStore не вытесняются, поэтому заводятся только для приложений из каталога.
+     */
+    private void requireApp(Integer appId) {
+        if (appRepository.findById(appId).isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "App not found");
+        }
+    }
+
     private ReviewDTO convertToDTO(Review review) {
         return ReviewDTO.builder()
                 .id(review.getId())
@@ -49,7 +117,7 @@ public class ReviewService {
                 .userId(review.getUserId())
                 .rating(review.getRating())
                 .comment(review.getComment())
-                .helpfulCount(review.getHelpfulCount())
+                .helpfulCount(reviewRepository.helpfulCount(review))
                 .createdAt(review.getCreatedAt())
                 .build();
     }
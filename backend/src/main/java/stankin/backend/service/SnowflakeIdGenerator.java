@@ -0,0 +1,93 @@
+package stankin.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 64-битные идентификаторы в стиле Snowflake: 41 бит миллисекунд от EPOCH_MILLIS, 10 бит номера узла
+ * (ids.node-id), 12 бит счётчика внутри миллисекунды.
+ * <p>
+ * Последние выданные (время, счётчик) хранятся одним AtomicLong и обновляются CAS без блокировок.
+ * Если часы ушли назад или счётчик миллисекунды исчерпан, генератор продолжает от последнего
+ * выданного времени, поэтому идентификаторы узла строго возрастают и не повторяются.
+ */
+@Slf4j
+@Component
+public class SnowflakeIdGenerator {
+
+    /** 2024-01-01T00:00:00Z. */
+    public static final long EPOCH_MILLIS = 1_704_067_200_000L;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+    private final long node;
+    private final LongSupplier clock;
+    private final AtomicLong last = new AtomicLong();
+    private final Counter clockRollbacks;
+
+    public SnowflakeIdGenerator(@Value("${ids.node-id:0}") long nodeId, MeterRegistry meterRegistry) {
+        this(nodeId, meterRegistry, System::currentTimeMillis);
+    }
+
+    // Часы подменяются в тестах
+    SnowflakeIdGenerator(long nodeId, MeterRegistry meterRegistry, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("ids.node-id must be in [0, " + MAX_NODE_ID + "], got " + nodeId);
+        }
+        this.node = nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+        this.clockRollbacks = meterRegistry.counter("ids.clock.rollback");
+        log.info("Snowflake id generator started for node {}", nodeId);
+    }
+
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long previousTime = previous >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - EPOCH_MILLIS;
+            long time;
+            long sequence;
+            if (now > previousTime) {
+                time = now;
+                sequence = 0;
+            } else {
+                if (now < previousTime) {
+                    clockRollbacks.increment();
+                }
+                // Тот же миллисекундный слот или часы отстали: продолжаем логическое время
+                time = previousTime;
+                sequence = (previous & SEQUENCE_MASK) + 1;
+                if (sequence > SEQUENCE_MASK) {
+                    time++;
+                    sequence = 0;
+                }
+            }
+            if (last.compareAndSet(previous, (time << SEQUENCE_BITS) | sequence)) {
+                return (time << (NODE_BITS + SEQUENCE_BITS)) | node | sequence;
+            }
+        }
+    }
+
+    /**
+     * Идентификатор для столбцов типа UUID. Обе половины одинаковы: Java сравнивает UUID со старшей
+     * половины, ClickHouse — с младшей, и порядок по времени сохраняется в обоих случаях.
+     */
+    public UUID nextUuid() {
+        long id = nextId();
+        return new UUID(id, id);
+    }
+
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+}
@@ -0,0 +1,249 @@
+package stankin.backend.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import stankin.backend.repository.UserItemStateRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Переключатели пользователя (лайк видео, избранное) поверх rustore.user_item_state и кэш
+ * его состояния для обогащения выдачи.
+ * <p>
+ * Состояние пользователя — три компактных набора int (лайкнутые видео через VideoIdRegistry,
+ * приложения в избранном, «не интересует»). Оно загружается лениво при первом обращении и
+ * вытесняется по суммарному весу (user-state.cache.max-bytes) и простою. Дальше переключатель —
+ * одна вставка строки с версией из SnowflakeIdGenerator, без чтения из ClickHouse. Изменения одного
+ * пользователя сериализуются на его состоянии, поэтому двойное нажатие даёт два последовательных
+ * переключения, а при слиянии в ClickHouse побеждает строка с большей версией — та же, что
+ * последней попала в кэш. Явно заданное состояние идемпотентно: повтор ничего не пишет.
+ */
+@Slf4j
+@Service
+public class UserItemStateService {
+
+    public enum Kind {
+        VIDEO_LIKE("video_like"),
+        WISHLIST("wishlist");
+
+        private final String column;
+
+        Kind(String column) {
+            this.column = column;
+        }
+
+        static Kind of(String column) {
+            for (Kind kind : values()) {
+                if (kind.column.equals(column)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Результат переключения: новое состояние и было ли оно записано.
+     */
+    public record Toggle(boolean active, boolean changed) {
+    }
+
+    /**
+     * Состояние пользователя для проверки членства при сборке выдачи.
+     */
+    public interface View {
+
+        boolean liked(UUID videoId);
+
+        boolean inWishlist(int appId);
+
+        boolean notInterested(int appId);
+    }
+
+    private static final View NO_STATE = new View() {
+        @Override
+        public boolean liked(UUID videoId) {
+            return false;
+        }
+
+        @Override
+        public boolean inWishlist(int appId) {
+            return false;
+        }
+
+        @Override
+        public boolean notInterested(int appId) {
+            return false;
+        }
+    };
+
+    private final UserItemStateRepository repository;
+    private final SnowflakeIdGenerator idGenerator;
+    private final VideoIdRegistry videoIdRegistry;
+    private final LoadingCache<Integer, UserState> states;
+
+    public UserItemStateService(UserItemStateRepository repository, SnowflakeIdGenerator idGenerator,
+                                VideoIdRegistry videoIdRegistry, MeterRegistry meterRegistry,
+                                @Value("${user-state.cache.max-bytes:268435456}") long maxBytes,
+                                @Value("${user-state.cache.expire-after-access-ms:1800000}") long expireAfterAccessMs) {
+        this.repository = repository;
+        this.idGenerator = idGenerator;
+        this.videoIdRegistry = videoIdRegistry;
+        this.states = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Integer userId, UserState state) -> state.weight)
+                .expireAfterAccess(Duration.ofMillis(expireAfterAccessMs))
+                .recordStats()
+                .build(this::load);
+        CaffeineCacheMetrics.monitor(meterRegistry, states, "user-state");
+    }
+
+    /**
+     * Состояние пользователя; для анонимного (userId == null) — пустое.
+     */
+    public View view(Integer userId) {
+        return userId != null ? states.get(userId) : NO_STATE;
+    }
+
+    /**
+     * liked == null — переключить, иначе установить.
+     */
+    public Toggle setLike(int userId, UUID videoId, Boolean liked) {
+        return set(userId, Kind.VIDEO_LIKE, videoIdRegistry.register(videoId), videoId.toString(), liked);
+    }
+
+    /**
+     * inWishlist == null — переключить, иначе установить.
+     */
+    public Toggle setWishlist(int userId, int appId, Boolean inWishlist) {
+        return set(userId, Kind.WISHLIST, appId, Integer.toString(appId), inWishlist);
+    }
+
+    /**
+     * Строку в rustore.not_interested пишет вызывающий; здесь только кэш.
+     */
+    public void markNotInterested(int userId, int appId) {
+        UserState state = states.get(userId);
+        synchronized (state) {
+            if (state.notInterestedApps.add(appId, 0L)) {
+                reweigh(userId, state);
+            }
+        }
+    }
+
+    /**
+     * Приложения из избранного, недавно добавленные первыми.
+     */
+    public int[] wishlistApps(int userId) {
+        UserState state = states.get(userId);
+        synchronized (state) {
+            return state.wishlistApps.newestFirst();
+        }
+    }
+
+    private Toggle set(int userId, Kind kind, int key, String item, Boolean desired) {
+        UserState state = states.get(userId);
+        synchronized (state) {
+            CompactIntSet set = state.set(kind);
+            boolean current = set.contains(key);
+            boolean next = desired != null ? desired : !current;
+            if (next == current) {
+                return new Toggle(current, false);
+            }
+            long version = idGenerator.nextId();
+            // Сначала запись, потом кэш: при ошибке вставки кэш не расходится с таблицей
+            repository.insert(userId, kind.column, item, next, version);
+            if (next) {
+                set.add(key, version);
+            } else {
+                set.remove(key);
+            }
+            reweigh(userId, state);
+            return new Toggle(next, true);
+        }
+    }
+
+    // Caffeine взвешивает запись при вставке, поэтому после изменения кладём состояние заново
+    private void reweigh(Integer userId, UserState state) {
+        int weight = state.estimateWeight();
+        if (weight != state.weight) {
+            state.weight = weight;
+            states.asMap().replace(userId, state, state);
+        }
+    }
+
+    private UserState load(Integer userId) {
+        UserState state = new UserState();
+        List<UserItemStateRepository.StateRow> rows = repository.findLatest(userId);
+        int[] likeKeys = new int[rows.size()];
+        int[] wishlistKeys = new int[rows.size()];
+        long[] wishlistVersions = new long[rows.size()];
+        int likes = 0;
+        int wishlist = 0;
+        for (UserItemStateRepository.StateRow row : rows) {
+            Kind kind = Kind.of(row.kind());
+            if (kind == null || !row.active()) {
+                continue;
+            }
+            try {
+                if (kind == Kind.VIDEO_LIKE) {
+                    likeKeys[likes++] = videoIdRegistry.register(UUID.fromString(row.item()));
+                } else {
+                    wishlistKeys[wishlist] = Integer.parseInt(row.item());
+                    wishlistVersions[wishlist++] = row.version();
+                }
+            } catch (IllegalArgumentException e) {
+                log.debug("Skipping malformed {} item '{}' of user {}", row.kind(), row.item(), userId);
+            }
+        }
+        state.likedVideos.load(likeKeys, null, likes);
+        state.wishlistApps.load(wishlistKeys, wishlistVersions, wishlist);
+        int[] notInterested = repository.findNotInterestedApps(userId);
+        state.notInterestedApps.load(notInterested, null, notInterested.length);
+        state.weight = state.estimateWeight();
+        log.debug("Loaded item state for user {}: {} likes, {} wishlist, {} not interested, ~{} bytes",
+                userId, likes, wishlist, notInterested.length, state.weight);
+        return state;
+    }
+
+    private final class UserState implements View {
+
+        private final CompactIntSet likedVideos = new CompactIntSet(false);
+        private final CompactIntSet wishlistApps = new CompactIntSet(true);
+        private final CompactIntSet notInterestedApps = new CompactIntSet(false);
+        private volatile int weight;
+
+        CompactIntSet set(Kind kind) {
+            return kind == Kind.VIDEO_LIKE ? likedVideos : wishlistApps;
+        }
+
+        int estimateWeight() {
+            long bytes = 32 + likedVideos.estimatedBytes() + wishlistApps.estimatedBytes()
+                    + notInterestedApps.estimatedBytes();
+            return (int) Math.min(Integer.MAX_VALUE, bytes);
+        }
+
+        @Override
+        public synchronized boolean liked(UUID videoId) {
+            int key = videoIdRegistry.find(videoId);
+            return key >= 0 && likedVideos.contains(key);
+        }
+
+        @Override
+        public synchronized boolean inWishlist(int appId) {
+            return wishlistApps.contains(appId);
+        }
+
+        @Override
+        public synchronized boolean notInterested(int appId) {
+            return notInterestedApps.contains(appId);
+        }
+    }
+}
@@ -3,13 +3,27 @@ package stankin.backend.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import stankin.backend.catalog.AppCatalog;
+import stankin.backend.catalog.CatalogSnapshot;
+import stankin.backend.counter.VideoEngagementCounters;
 import stankin.backend.dto.VideoClipDTO;
+import stankin.backend.dto.VideoEngagementDTO;
+import stankin.backend.ingest.DemoSessionEnd;
+import stankin.backend.ingest.InteractionEvent;
+import stankin.backend.ingest.SpoolJournal;
+import stankin.backend.ingest.SpoolRecords;
+import stankin.backend.recommend.AffinityProfiles;
+import stankin.backend.recommend.UserAffinity;
 
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
@@ -17,7 +31,29 @@ import java.util.*;
 public class VideoFeedService {
 
     private final JdbcTemplate jdbcTemplate;
+    private final SpoolJournal spoolJournal;
+    private final VideoEngagementCounters videoEngagementCounters;
+    private final SnowflakeIdGenerator idGenerator;
+    private final UserItemStateService userItemStateService;
 
+    private final AffinityProfiles affinityProfiles;
+    private final AppCatalog appCatalog;
+
+    private final Map<UUID, Integer> videoApps = new ConcurrentHashMap<>();
+
+    // Во сколько раз больше свежих клипов берётся для переранжирования по интересам
+    @Value("${user-profiles.feed.window:3}")
+    private int feedWindow;
+
+    // Вес совпадения с профилем против свежести клипа
+    @Value("${user-profiles.feed.boost:1.0}")
+    private float feedBoost;
+
+    /**
+     * Свежие клипы; если у пользователя есть профиль интересов, из limit·feed.window самых свежих
+     * выбираются limit с лучшей суммой свежести (1 у первого, 0 у последнего) и feed.boost·совпадения
+     * приложения клипа с профилем.
+     */
     @Transactional(readOnly = true)
     public List<VideoClipDTO> getFeed(Integer userId, String cursor, int limit) {
         String sql = """
@@ -36,7 +72,11 @@ public class VideoFeedService {
             LIMIT ?
         """;
 
-        List<VideoClipDTO> videos = jdbcTemplate.query(sql,
+        // Признаки лайка и избранного — из кэша состояния, без запросов на каждую страницу
+        UserItemStateService.View state = userItemStateService.view(userId);
+        UserAffinity affinity = affinityProfiles.affinity(userId);
+        int candidates = affinity.isEmpty() ? limit : limit * Math.max(1, feedWindow);
+        List<VideoClipDTO> clips = jdbcTemplate.query(sql,
                 (rs, rowNum) -> VideoClipDTO.builder()
                         .id(UUID.fromString(rs.getString("id")))
                         .appId(rs.getInt("app_id"))
@@ -54,113 +94,128 @@ public class VideoFeedService {
                         .demoUrl(rs.getString("demo_url"))
                         .demoTimeLimitSec(rs.getInt("demo_time_limit_sec"))
                         .orientation(rs.getString("orientation"))
-                        .views(rs.getLong("views"))
-                        .likes(rs.getLong("likes"))
-                        .isLiked(false)
-                        .isInWishlist(false)
+                        .views(liveEngagement(rs).views())
+                        .likes(liveEngagement(rs).likes())
+                        .isLiked(state.liked(UUID.fromString(rs.getString("id"))))
+                        .isInWishlist(state.inWishlist(rs.getInt("app_id")))
                         .build(),
-                userId != null ? userId : 0, limit
+                userId != null ? userId : 0, candidates
         );
+        return affinity.isEmpty() ? clips : rankByAffinity(clips, affinity, limit);
+    }
 
-        // Check likes and wishlist status
-        if (userId != null && !videos.isEmpty()) {
-            enrichWithUserData(videos, userId);
+    private List<VideoClipDTO> rankByAffinity(List<VideoClipDTO> clips, UserAffinity affinity, int limit) {
+        CatalogSnapshot snapshot = appCatalog.snapshot();
+        float[] scores = new float[clips.size()];
+        Integer[] order = new Integer[clips.size()];
+        for (int i = 0; i < clips.size(); i++) {
+            int row = snapshot.rowOf(clips.get(i).appId());
+            float freshness = 1f - (float) i / clips.size();
+            scores[i] = freshness + (row >= 0 ? feedBoost * affinity.score(snapshot, row) : 0f);
+            order[i] = i;
         }
-
-        return videos;
+        // Сортировка устойчива: при равных оценках остаётся порядок по свежести
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+        List<VideoClipDTO> result = new ArrayList<>(Math.min(limit, clips.size()));
+        for (int i = 0; i < order.length && result.size() < limit; i++) {
+            result.add(clips.get(order[i]));
+        }
+        return result;
     }
 
-    private void enrichWithUserData(List<VideoClipDTO> videos, Integer userId) {
-        // Get liked videos
-        String likedSql = "SELECT video_id FROM rustore.video_interactions WHERE user_id = ? AND interaction_type = 'like'";
-        Set<UUID> likedIds = new HashSet<>(jdbcTemplate.queryForList(likedSql, UUID.class, userId));
-
-        // Get wishlist
-        String wishlistSql = "SELECT app_id FROM rustore.wishlist WHERE user_id = ?";
-        Set<Integer> wishlistIds = new HashSet<>(jdbcTemplate.queryForList(wishlistSql, Integer.class, userId));
+    /**
+     * Взаимодействие пишется в локальный журнал; запрос не ждёт ClickHouse даже при его недоступности.
+     */
+    public void recordInteraction(Integer userId, UUID videoId, String type, int watchDuration, int demoDuration) {
+        InteractionEvent event = new InteractionEvent(userId, videoId, type, watchDuration, demoDuration,
+                System.currentTimeMillis(), Long.toString(idGenerator.nextId()));
+        spoolJournal.append(SpoolRecords.VIDEO_INTERACTION, SpoolRecords.encode(event));
+        videoEngagementCounters.record(videoId, type);
+    }
 
-        // Update DTOs - would need mutable version or rebuild
-        // For now, client will make separate requests
+    /**
+     * liked == null — переключить лайк, иначе установить; событие пишется, только если состояние изменилось.
+     */
+    public boolean toggleLike(Integer userId, UUID videoId, Boolean liked) {
+        // 404 для неизвестного видео до записи: иначе лайк сохранится, а id осядет в VideoIdRegistry
+        videoEngagementCounters.get(videoId);
+        UserItemStateService.Toggle toggle = userItemStateService.setLike(userId, videoId, liked);
+        if (toggle.changed()) {
+            VideoEngagementCounters.Metric metric = toggle.active()
+                    ? VideoEngagementCounters.Metric.LIKES : VideoEngagementCounters.Metric.UNLIKES;
+            recordInteraction(userId, videoId, metric.interactionType(), 0, 0);
+        }
+        return toggle.active();
     }
 
-    public void recordInteraction(Integer userId, UUID videoId, String type, int watchDuration, int demoDuration) {
-        String sql = """
-            INSERT INTO rustore.video_interactions 
-            (user_id, video_id, interaction_type, watch_duration_sec, demo_played_sec, timestamp, session_id)
-            VALUES (?, ?, ?, ?, ?, now(), ?)
-        """;
+    public long getLikeCount(UUID videoId) {
+        return videoEngagementCounters.likeCount(videoId);
+    }
 
-        jdbcTemplate.update(sql, userId, videoId, type, watchDuration, demoDuration, UUID.randomUUID().toString());
+    public VideoEngagementDTO getEngagement(UUID videoId) {
+        return videoEngagementCounters.get(videoId);
     }
 
-    public boolean toggleLike(Integer userId, UUID videoId) {
-        // Check if already liked
-        String checkSql = "SELECT COUNT(*) FROM rustore.video_interactions WHERE user_id = ? AND video_id = ? AND interaction_type = 'like'";
-        int count = jdbcTemplate.queryForObject(checkSql, Integer.class, userId, videoId);
-
-        if (count > 0) {
-            // Unlike
-            recordInteraction(userId, videoId, "dislike", 0, 0);
-            return false;
-        } else {
-            // Like
-            recordInteraction(userId, videoId, "like", 0, 0);
-            return true;
-        }
+    // Столбцы views/likes в video_clips статичны, отдаём живые счётчики
+    private VideoEngagementDTO liveEngagement(ResultSet rs) throws SQLException {
+        return videoEngagementCounters.get(UUID.fromString(rs.getString("id")));
     }
 
-    public long getLikeCount(UUID videoId) {
-        String sql = "SELECT likes FROM rustore.video_clips WHERE id = ?";
-        return jdbcTemplate.queryForObject(sql, Long.class, videoId);
+    // Видео не меняет приложение, поэтому связь кэшируется навсегда
+    private Integer appIdOf(UUID videoId) {
+        return videoApps.computeIfAbsent(videoId, id -> jdbcTemplate.queryForObject(
+                "SELECT app_id FROM rustore.video_clips WHERE id = ?", Integer.class, id));
     }
 
     public void markNotInterested(Integer userId, UUID videoId, String reason) {
-        String appIdSql = "SELECT app_id FROM rustore.video_clips WHERE id = ?";
-        Integer appId = jdbcTemplate.queryForObject(appIdSql, Integer.class, videoId);
+        Integer appId = appIdOf(videoId);
 
         String sql = "INSERT INTO rustore.not_interested (user_id, app_id, reason, marked_at) VALUES (?, ?, ?, now())";
         jdbcTemplate.update(sql, userId, appId, reason);
+        userItemStateService.markNotInterested(userId, appId);
 
         recordInteraction(userId, videoId, "skip", 0, 0);
     }
 
-    public boolean toggleWishlist(Integer userId, UUID videoId) {
-        String appIdSql = "SELECT app_id FROM rustore.video_clips WHERE id = ?";
-        Integer appId = jdbcTemplate.queryForObject(appIdSql, Integer.class, videoId);
-
-        String checkSql = "SELECT COUNT(*) FROM rustore.wishlist WHERE user_id = ? AND app_id = ?";
-        int count = jdbcTemplate.queryForObject(checkSql, Integer.class, userId, appId);
-
-        if (count > 0) {
-            // Remove from wishlist
-            String deleteSql = "DELETE FROM rustore.wishlist WHERE user_id = ? AND app_id = ?";
-            jdbcTemplate.update(deleteSql, userId, appId);
-            return false;
-        } else {
-            // Add to wishlist
-            String insertSql = "INSERT INTO rustore.wishlist (user_id, app_id, added_at) VALUES (?, ?, now())";
-            jdbcTemplate.update(insertSql, userId, appId);
-            return true;
+    /**
+     * Избранное хранится по приложению видео; inWishlist == null — переключить, иначе установить.
+     */
+    public boolean toggleWishlist(Integer userId, UUID videoId, Boolean inWishlist) {
+        Integer appId = appIdOf(videoId);
+        UserItemStateService.Toggle toggle = userItemStateService.setWishlist(userId, appId, inWishlist);
+        if (toggle.changed() && toggle.active()) {
+            recordInteraction(userId, videoId, VideoEngagementCounters.Metric.WISHLIST_ADDS.interactionType(), 0, 0);
         }
+        return toggle.active();
     }
 
     public UUID startDemoSession(Integer userId, UUID videoId) {
-        String appIdSql = "SELECT app_id FROM rustore.video_clips WHERE id = ?";
-        Integer appId = jdbcTemplate.queryForObject(appIdSql, Integer.class, videoId);
+        Integer appId = appIdOf(videoId);
 
-        UUID sessionId = UUID.randomUUID();
+        UUID sessionId = idGenerator.nextUuid();
         String sql = "INSERT INTO rustore.demo_sessions (id, user_id, video_id, app_id, started_at) VALUES (?, ?, ?, ?, now())";
         jdbcTemplate.update(sql, sessionId, userId, videoId, appId);
+        recordInteraction(userId, videoId, VideoEngagementCounters.Metric.DEMO_STARTS.interactionType(), 0, 0);
 
         return sessionId;
     }
 
+    /**
+     * Завершение сессии дописывается строкой в demo_session_ends через журнал, без мутации demo_sessions.
+     */
     public void endDemoSession(UUID sessionId, int playedSec, boolean completed) {
-        String sql = "ALTER TABLE rustore.demo_sessions UPDATE ended_at = now(), duration_sec = ?, completed = ? WHERE id = ?";
-        jdbcTemplate.update(sql, playedSec, completed ? 1 : 0, sessionId);
+        DemoSessionEnd end = new DemoSessionEnd(sessionId, System.currentTimeMillis(), playedSec, completed);
+        spoolJournal.append(SpoolRecords.DEMO_SESSION_END, SpoolRecords.encode(end));
     }
 
+    /**
+     * Последнее видео каждого приложения из избранного, недавно добавленные первыми.
+     */
     public List<VideoClipDTO> getWishlist(Integer userId) {
+        int[] appIds = userItemStateService.wishlistApps(userId);
+        if (appIds.length == 0) {
+            return List.of();
+        }
         String sql = """
             SELECT 
                 v.id, v.app_id, a.name as app_name, a.icon_url as app_icon_url,
@@ -168,14 +223,16 @@ public class VideoFeedService {
                 v.title, v.description, v.video_url, v.thumbnail_url,
                 v.duration_sec, v.is_playable, v.demo_url, v.demo_time_limit_sec,
                 v.orientation, v.views, v.likes
-            FROM rustore.wishlist w
-            JOIN rustore.video_clips v ON w.added_from_video = v.id
+            FROM rustore.video_clips v
             JOIN rustore.apps a ON v.app_id = a.id
-            WHERE w.user_id = ?
-            ORDER BY w.added_at DESC
-        """;
+            WHERE v.app_id IN (%s)
+            ORDER BY v.created_at DESC
+            LIMIT 1 BY v.app_id
+        """.formatted(String.join(",", Collections.nCopies(appIds.length, "?")));
+
+        UserItemStateService.View state = userItemStateService.view(userId);
 
-        return jdbcTemplate.query(sql,
+        List<VideoClipDTO> videos = jdbcTemplate.query(sql,
                 (rs, rowNum) -> VideoClipDTO.builder()
                         .id(UUID.fromString(rs.getString("id")))
                         .appId(rs.getInt("app_id"))
@@ -193,13 +250,19 @@ public class VideoFeedService {
                         .demoUrl(rs.getString("demo_url"))
                         .demoTimeLimitSec(rs.getInt("demo_time_limit_sec"))
                         .orientation(rs.getString("orientation"))
-                        .views(rs.getLong("views"))
-                        .likes(rs.getLong("likes"))
-                        .isLiked(false)
+                        .views(liveEngagement(rs).views())
+                        .likes(liveEngagement(rs).likes())
+                        .isLiked(state.liked(UUID.fromString(rs.getString("id"))))
                         .isInWishlist(true)
                         .build(),
-                userId
+                Arrays.stream(appIds).boxed().toArray()
         );
+        Map<Integer, Integer> position = new HashMap<>();
+        for (int i = 0; i < appIds.length; i++) {
+            position.put(appIds[i], i);
+        }
+        videos.sort(Comparator.comparing(video -> position.get(video.appId())));
+        return videos;
     }
 }
 
@@ -0,0 +1,35 @@
+package stankin.backend.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Плотные int-номера для UUID видео, чтобы наборы пользователей хранили 4 байта вместо 16 + объекта.
+ * Номера живут только в памяти процесса и наружу не отдаются; видео конечное число, поэтому
+ * реестр не вытесняется.
+ */
+@Component
+public class VideoIdRegistry {
+
+    private final ConcurrentHashMap<UUID, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    public int register(UUID videoId) {
+        return ids.computeIfAbsent(videoId, id -> next.getAndIncrement());
+    }
+
+    /**
+     * Номер уже встречавшегося видео или -1: проверка членства не раздувает реестр.
+     */
+    public int find(UUID videoId) {
+        Integer id = ids.get(videoId);
+        return id != null ? id : -1;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
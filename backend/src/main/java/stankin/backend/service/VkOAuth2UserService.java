@@ -3,6 +3,8 @@ package stankin.backend.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
@@ -18,6 +20,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
@@ -84,8 +87,13 @@ public class VkOAuth2UserService implements OAuth2UserService<OAuth2UserRequest,
         attributes.put("email", user.getEmail());
         attributes.put("is_admin", user.getIsAdmin());
 
+        // Роль ADMIN открывает /api/admin/** (см. SecurityConfig)
+        List<GrantedAuthority> authorities = Boolean.TRUE.equals(user.getIsAdmin())
+                ? List.of(new SimpleGrantedAuthority("ROLE_ADMIN"))
+                : Collections.emptyList();
+
         return new DefaultOAuth2User(
-                Collections.emptyList(),
+                authorities,
                 attributes,
                 "vk_id"  // principal name → можно использовать в @PreAuthorize("#oauth2.principal.attributes['vk_id'] == ...")
         );
@@ -10,4 +10,48 @@ AS SELECT
               maxState(timestamp) as last_viewed
    FROM rustore.user_activities
    WHERE activity_type = 'view'
-   GROUP BY app_id;
\ No newline at end of file
+   GROUP BY app_id;
+
+-- Rollup of video engagement counters, read by VideoEngagementCounters
+CREATE MATERIALIZED VIEW IF NOT EXISTS rustore.video_engagement_mv
+ENGINE = AggregatingMergeTree()
+ORDER BY video_id
+POPULATE
+AS SELECT
+              video_id,
+              countIfState(interaction_type = 'view') as views,
+              countIfState(interaction_type = 'like') as likes,
+              countIfState(interaction_type = 'dislike') as unlikes,
+              countIfState(interaction_type = 'wishlist_add') as wishlist_adds,
+              countIfState(interaction_type = 'demo_start') as demo_starts
+   FROM rustore.video_interactions
+   GROUP BY video_id;
+
+-- Per-app review summary, read by ReviewSummaryStore
+CREATE MATERIALIZED VIEW IF NOT EXISTS rustore.review_summary_mv
+ENGINE = SummingMergeTree()
+ORDER BY app_id
+POPULATE
+AS SELECT
+              app_id,
+              count() as reviews,
+              sum(rating) as rating_sum,
+              countIf(rating = 1) as stars_1,
+              countIf(rating = 2) as stars_2,
+              countIf(rating = 3) as stars_3,
+              countIf(rating = 4) as stars_4,
+              countIf(rating = 5) as stars_5
+   FROM rustore.reviews
+   GROUP BY app_id;
+
+-- One-off backfill of toggle state from the legacy wishlist table and like/dislike events.
+-- Version 0 loses to any toggle made afterwards, and re-running it is harmless.
+INSERT INTO rustore.user_item_state (user_id, kind, item, active, version)
+SELECT user_id, 'wishlist', toString(app_id), 1, 0
+FROM rustore.wishlist;
+
+INSERT INTO rustore.user_item_state (user_id, kind, item, active, version)
+SELECT user_id, 'video_like', toString(video_id), argMax(interaction_type = 'like', timestamp), 0
+FROM rustore.video_interactions
+WHERE interaction_type IN ('like', 'dislike')
+GROUP BY user_id, video_id;
@@ -53,6 +53,19 @@ CREATE TABLE IF NOT EXISTS rustore.screenshots (
     ORDER BY (app_id, order_index)
     SETTINGS index_granularity = 8192;
 
+-- Отзывы; ключ начинается с app_id, чтобы страницы отзывов приложения читались диапазоном
+CREATE TABLE IF NOT EXISTS rustore.reviews (
+    id UInt64,
+    app_id UInt32,
+    user_id UInt32,
+    rating UInt8,
+    comment String,
+    helpful_count UInt32 DEFAULT 0,
+    created_at DateTime DEFAULT now()
+) ENGINE = MergeTree()
+ORDER BY (app_id, created_at, id)
+SETTINGS index_granularity = 8192;
+
 -- Видео клипы
 CREATE TABLE IF NOT EXISTS rustore.video_clips (
     id UUID DEFAULT generateUUIDv4(),
@@ -106,4 +119,46 @@ CREATE TABLE IF NOT EXISTS rustore.wishlist (
     added_at DateTime DEFAULT now()
 ) ENGINE = MergeTree()
 ORDER BY (user_id, app_id)
-SETTINGS index_granularity = 8192;
\ No newline at end of file
+SETTINGS index_granularity = 8192;
+
+-- Состояние «пользователь — объект» (лайк видео, избранное): строки только дописываются,
+-- актуальна строка с наибольшей версией (Snowflake-идентификатор)
+CREATE TABLE IF NOT EXISTS rustore.user_item_state (
+    user_id UInt32,
+    kind LowCardinality(String),
+    item String,
+    active UInt8,
+    version UInt64
+) ENGINE = ReplacingMergeTree(version)
+ORDER BY (user_id, kind, item)
+SETTINGS index_granularity = 8192;
+
+-- Приращения счётчиков (скачивания, «полезно»); строки с одинаковым ключом суммируются при слиянии
+CREATE TABLE IF NOT EXISTS rustore.counter_deltas (
+    counter LowCardinality(String),
+    key UInt64,
+    delta Int64
+) ENGINE = SummingMergeTree(delta)
+ORDER BY (counter, key)
+SETTINGS index_granularity = 8192;
+
+-- Завершения демо-сессий; дополняют demo_sessions по session_id
+CREATE TABLE IF NOT EXISTS rustore.demo_session_ends (
+    session_id UUID,
+    ended_at DateTime,
+    duration_sec UInt32,
+    completed UInt8
+) ENGINE = MergeTree()
+ORDER BY session_id
+SETTINGS index_granularity = 8192;
+
+-- Снимки профилей интересов пользователей (AffinityProfiles); актуален снимок с наибольшей версией
+CREATE TABLE IF NOT EXISTS rustore.user_profiles (
+    user_id UInt32,
+    profile String CODEC(ZSTD(3)),
+    events UInt32,
+    updated_at DateTime,
+    version UInt64
+) ENGINE = ReplacingMergeTree(version)
+ORDER BY user_id
+SETTINGS index_granularity = 8192;
@@ -0,0 +1,218 @@
+package stankin.backend.counter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaCountersTest {
+
+    private final FakeClickHouse clickHouse = new FakeClickHouse();
+    private final DeltaCounters counters = new DeltaCounters(clickHouse, 1000);
+
+    @Test
+    void flushMovesPendingToStored() {
+        counters.loadOnStartup();
+        counters.increment(DeltaCounters.Counter.APP_DOWNLOADS, 7);
+        counters.add(DeltaCounters.Counter.APP_DOWNLOADS, 7, 4);
+        assertEquals(5, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 7));
+        assertEquals(0, counters.flushedDelta(DeltaCounters.Counter.APP_DOWNLOADS, 7));
+
+        counters.flush();
+        assertEquals(5, clickHouse.sum("app_downloads", 7));
+        assertEquals(5, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 7));
+        assertEquals(5, counters.flushedDelta(DeltaCounters.Counter.APP_DOWNLOADS, 7));
+        assertEquals(0, counters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, 7));
+    }
+
+    @Test
+    void failedFlushKeepsDeltasForNextFlush() {
+        counters.loadOnStartup();
+        counters.add(DeltaCounters.Counter.REVIEW_HELPFUL, 1, 3);
+        clickHouse.failInserts = true;
+        counters.flush();
+        assertEquals(3, counters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, 1));
+        assertEquals(0, clickHouse.sum("review_helpful", 1));
+
+        clickHouse.failInserts = false;
+        counters.flush();
+        assertEquals(3, clickHouse.sum("review_helpful", 1));
+        assertEquals(3, counters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, 1));
+    }
+
+    @Test
+    void idleKeysAreRetiredAndReused() {
+        counters.loadOnStartup();
+        counters.increment(DeltaCounters.Counter.APP_DOWNLOADS, 1);
+        counters.flush();
+        // Ячейка без приращений убирается, следующий инкремент создаёт новую
+        counters.flush();
+        counters.flush();
+        counters.flush();
+        counters.increment(DeltaCounters.Counter.APP_DOWNLOADS, 1);
+        assertEquals(2, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 1));
+        counters.flush();
+        assertEquals(2, clickHouse.sum("app_downloads", 1));
+    }
+
+    @Test
+    void concurrentIncrementsDuringFlushesAreNeitherLostNorShrunk() throws Exception {
+        counters.loadOnStartup();
+        int threads = 4;
+        int perThread = 200_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?> flusher = executor.submit(() -> {
+                while (!done.get()) {
+                    counters.flush();
+                    Thread.sleep(20);
+                }
+                return null;
+            });
+            Future<?>[] writers = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                writers[t] = executor.submit(() -> {
+                    start.await();
+                    long seen = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        // Редкий ключ на поток, чтобы сброс успевал убирать и пересоздавать ячейки
+                        counters.increment(DeltaCounters.Counter.APP_DOWNLOADS, i % 1000 == 0 ? 100 + thread : 1);
+                        long total = counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 1);
+                        assertTrue(total >= seen, "delta must not dip during flush: " + total + " < " + seen);
+                        seen = total;
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            try {
+                for (Future<?> writer : writers) {
+                    writer.get();
+                }
+            } finally {
+                done.set(true);
+            }
+            flusher.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        counters.flush();
+        counters.flush();
+        long rare = 0;
+        for (int t = 0; t < threads; t++) {
+            rare += clickHouse.sum("app_downloads", 100 + t);
+        }
+        assertEquals(threads * perThread, clickHouse.sum("app_downloads", 1) + rare);
+        assertEquals(threads * perThread - rare, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 1));
+    }
+
+    @Test
+    void missesAreLoadedInBackgroundBatches() {
+        // Перечитывания при старте не было: про отсутствующие ключи ничего не известно
+        clickHouse.sums.put("app_downloads:1", 10L);
+        clickHouse.sums.put("app_downloads:2", 20L);
+        counters.increment(DeltaCounters.Counter.APP_DOWNLOADS, 1);
+        assertEquals(1, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 1));
+        assertEquals(0, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 2));
+        assertEquals(0, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 3));
+        assertEquals(0, clickHouse.pointQueries);
+
+        counters.loadMisses();
+        assertEquals(1, clickHouse.pointQueries);
+        assertEquals(11, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 1));
+        assertEquals(20, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 2));
+        assertEquals(0, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 3));
+
+        counters.loadMisses();
+        assertEquals(1, clickHouse.pointQueries);
+        counters.flush();
+        assertEquals(11, counters.delta(DeltaCounters.Counter.APP_DOWNLOADS, 1));
+    }
+
+    @Test
+    void failedMissLoadIsRetriedByNextMiss() {
+        clickHouse.sums.put("review_helpful:5", 4L);
+        clickHouse.failReads = true;
+        assertEquals(0, counters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, 5));
+        counters.loadMisses();
+        assertEquals(0, counters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, 5));
+
+        clickHouse.failReads = false;
+        counters.loadMisses();
+        assertEquals(4, counters.delta(DeltaCounters.Counter.REVIEW_HELPFUL, 5));
+    }
+
+    /**
+     * counter_deltas в памяти: INSERT добавляет строки, чтение суммирует их по ключу.
+     */
+    private static final class FakeClickHouse extends JdbcTemplate {
+
+        private final Map<String, Long> sums = new ConcurrentHashMap<>();
+        volatile boolean failInserts;
+        volatile boolean failReads;
+        int pointQueries;
+
+        long sum(String counter, long key) {
+            return sums.getOrDefault(counter + ":" + key, 0L);
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            if (failInserts) {
+                throw new IllegalStateException("ClickHouse is down");
+            }
+            for (Object[] row : batchArgs) {
+                sums.merge(row[0] + ":" + row[1], (Long) row[2], Long::sum);
+            }
+            return new int[batchArgs.size()];
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch) {
+            // Пустая таблица при старте
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch, Object... args) {
+            if (failReads) {
+                throw new IllegalStateException("ClickHouse is down");
+            }
+            pointQueries++;
+            for (int i = 1; i < args.length; i++) {
+                Long sum = sums.get(args[0] + ":" + args[i]);
+                if (sum != null) {
+                    try {
+                        rch.processRow(row((Long) args[i], sum));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+
+        private static ResultSet row(long key, long delta) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, methodArgs) -> switch (method.getName()) {
+                        case "getLong" -> "key".equals(methodArgs[0]) ? key : delta;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package stankin.backend.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EmbeddingFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mapsWhatWasWritten() throws IOException {
+        int[] ids = {3, 8, 15, 42};
+        float[][] vectors = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {0.6f, 0.8f, 0}};
+        EmbeddingFile file = EmbeddingFile.map(write("apps.emb", 3, ids, vectors));
+
+        assertEquals(3, file.dim());
+        assertEquals(4, file.count());
+        for (int row = 0; row < ids.length; row++) {
+            assertEquals(ids[row], file.appId(row));
+            assertEquals(row, file.rowOf(ids[row]));
+        }
+        assertEquals(-1, file.rowOf(1));
+        assertEquals(-1, file.rowOf(10));
+        assertEquals(-1, file.rowOf(100));
+
+        float[] rows = new float[6];
+        file.copyRows(2, 2, rows);
+        assertArrayEquals(new float[]{0, 0, 1, 0.6f, 0.8f, 0}, rows, 0f);
+    }
+
+    @Test
+    void mapsEmptyFile() throws IOException {
+        EmbeddingFile file = EmbeddingFile.map(write("empty.emb", 8, new int[0], new float[0][]));
+        assertEquals(0, file.count());
+        assertEquals(-1, file.rowOf(1));
+    }
+
+    @Test
+    void rejectsWrongMagic() throws IOException {
+        Path path = write("apps.emb", 2, new int[]{1}, new float[][]{{1, 0}});
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[0] = 'X';
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> EmbeddingFile.map(path));
+    }
+
+    @Test
+    void rejectsSizeMismatch() throws IOException {
+        Path path = write("apps.emb", 2, new int[]{1, 2}, new float[][]{{1, 0}, {0, 1}});
+        byte[] bytes = Files.readAllBytes(path);
+        // Обрезанный хвост: последний вектор неполный
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 4));
+        assertThrows(IOException.class, () -> EmbeddingFile.map(path));
+    }
+
+    @Test
+    void rejectsUnsortedIds() throws IOException {
+        Path path = write("apps.emb", 2, new int[]{5, 5}, new float[][]{{1, 0}, {0, 1}});
+        assertThrows(IOException.class, () -> EmbeddingFile.map(path));
+    }
+
+    private Path write(String name, int dim, int[] ids, float[][] vectors) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 4 * ids.length + 4 * ids.length * dim).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(EmbeddingFile.MAGIC).putInt(dim).putInt(ids.length);
+        for (int id : ids) {
+            buffer.putInt(id);
+        }
+        for (float[] vector : vectors) {
+            for (float value : vector) {
+                buffer.putFloat(value);
+            }
+        }
+        return Files.write(dir.resolve(name), buffer.array());
+    }
+}
@@ -0,0 +1,197 @@
+package stankin.backend.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswGraphTest {
+
+    private static final int DIM = 16;
+    private static final int M = 12;
+    private static final int EF_CONSTRUCTION = 100;
+
+    private final SimilarityKernel kernel = new ScalarSimilarityKernel();
+    private final Random random = new Random(7);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recallStaysAboveFloor() throws IOException {
+        HnswGraph graph = HnswGraph.create(dir.resolve("apps.hnsw"), DIM, M, 3000, kernel);
+        for (int id = 0; id < 3000; id++) {
+            graph.insert(id, randomUnit(), EF_CONSTRUCTION);
+        }
+        int k = 10;
+        int hits = 0;
+        int queries = 100;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnit();
+            hits += overlap(approximate(graph, query, k, 64), exact(graph, query, k));
+        }
+        double recall = (double) hits / (queries * k);
+        assertTrue(recall >= 0.9, "recall@10 " + recall);
+    }
+
+    @Test
+    void deletedNodeIsSkippedAndReinsertedIdUsesNewVector() throws IOException {
+        HnswGraph graph = HnswGraph.create(dir.resolve("apps.hnsw"), DIM, M, 600, kernel);
+        float[][] vectors = new float[500][];
+        for (int id = 0; id < vectors.length; id++) {
+            vectors[id] = randomUnit();
+            graph.insert(id, vectors[id], EF_CONSTRUCTION);
+        }
+        int target = 123;
+        assertEquals(target, approximate(graph, vectors[target], 1, 32)[0]);
+
+        graph.markDeleted(target);
+        graph.markDeleted(target);
+        assertEquals(1, graph.deleted());
+        assertEquals(499, graph.live());
+        assertFalse(contains(approximate(graph, vectors[target], 10, 64), target));
+        assertFalse(contains(exact(graph, vectors[target], 10), target));
+
+        // Тот же id с другим вектором — новый узел, старый остаётся только для маршрутизации
+        float[] replacement = randomUnit();
+        graph.insert(target, replacement, EF_CONSTRUCTION);
+        assertEquals(501, graph.size());
+        assertEquals(500, graph.live());
+        assertEquals(target, approximate(graph, replacement, 1, 32)[0]);
+        int[] around = approximate(graph, replacement, 10, 64);
+        assertEquals(1, occurrences(around, target));
+
+        long[] live = graph.liveNodesById();
+        assertEquals(500, live.length);
+        assertEquals(500, (int) live[target]);
+    }
+
+    @Test
+    void reopenedGraphAnswersLikeTheOriginal() throws IOException {
+        Path path = dir.resolve("apps.hnsw");
+        HnswGraph graph = HnswGraph.create(path, DIM, M, 400, kernel);
+        for (int id = 0; id < 300; id++) {
+            graph.insert(id * 3, randomUnit(), EF_CONSTRUCTION);
+        }
+        graph.markDeleted(10);
+        graph.force();
+        float[][] queries = new float[20][];
+        int[][] before = new int[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            queries[q] = randomUnit();
+            before[q] = approximate(graph, queries[q], 10, 64);
+        }
+
+        HnswGraph reopened = HnswGraph.open(path, kernel);
+        assertEquals(DIM, reopened.dim());
+        assertEquals(M, reopened.m());
+        assertEquals(400, reopened.capacity());
+        assertEquals(300, reopened.size());
+        assertEquals(1, reopened.deleted());
+        assertTrue(reopened.isDeleted(10));
+        assertEquals(30, reopened.id(10));
+        for (int q = 0; q < queries.length; q++) {
+            assertArrayEquals(before[q], approximate(reopened, queries[q], 10, 64));
+        }
+
+        // Вставка после открытия продолжает нумерацию
+        reopened.insert(10_000, queries[0], EF_CONSTRUCTION);
+        assertEquals(10_000, approximate(reopened, queries[0], 1, 32)[0]);
+    }
+
+    @Test
+    void grownCopyKeepsNodesAndAcceptsMore() throws IOException {
+        HnswGraph graph = HnswGraph.create(dir.resolve("small.hnsw"), DIM, M, 50, kernel);
+        float[][] vectors = new float[50][];
+        for (int id = 0; id < 50; id++) {
+            vectors[id] = randomUnit();
+            graph.insert(id, vectors[id], EF_CONSTRUCTION);
+        }
+        assertFalse(graph.hasRoom());
+
+        HnswGraph grown = graph.grownCopy(dir.resolve("large.hnsw"), 200);
+        assertEquals(200, grown.capacity());
+        assertEquals(50, grown.size());
+        assertTrue(grown.hasRoom());
+        for (int id = 0; id < 50; id++) {
+            assertEquals(id, approximate(grown, vectors[id], 1, 32)[0]);
+        }
+        float[] extra = randomUnit();
+        grown.insert(50, extra, EF_CONSTRUCTION);
+        assertEquals(50, approximate(grown, extra, 1, 32)[0]);
+    }
+
+    @Test
+    void rejectsForeignAndTruncatedFiles() throws IOException {
+        Path path = dir.resolve("apps.hnsw");
+        HnswGraph.create(path, DIM, M, 10, kernel).force();
+        byte[] bytes = Files.readAllBytes(path);
+
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 4));
+        assertThrows(IOException.class, () -> HnswGraph.open(path, kernel));
+
+        bytes[0] = 'X';
+        Files.write(path, bytes);
+        assertThrows(IOException.class, () -> HnswGraph.open(path, kernel));
+    }
+
+    private float[] randomUnit() {
+        float[] vector = new float[DIM];
+        double norm = 0;
+        for (int i = 0; i < DIM; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIM; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static int[] approximate(HnswGraph graph, float[] query, int k, int ef) {
+        TopK result = new TopK(k);
+        graph.search(query, ef, id -> false, result);
+        return result.idsDescending();
+    }
+
+    private static int[] exact(HnswGraph graph, float[] query, int k) {
+        TopK result = new TopK(k);
+        graph.exactSearch(query, id -> false, result);
+        return result.idsDescending();
+    }
+
+    private static int overlap(int[] found, int[] expected) {
+        int hits = 0;
+        for (int id : found) {
+            if (contains(expected, id)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        return occurrences(ids, id) > 0;
+    }
+
+    private static int occurrences(int[] ids, int id) {
+        int n = 0;
+        for (int value : ids) {
+            if (value == id) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,63 @@
+package stankin.backend.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ColumnTypeTest {
+
+    @Test
+    void checksUnsignedRanges() {
+        assertArrayEquals(new byte[]{(byte) 255}, write(ColumnType.UINT8, "255"));
+        assertArrayEquals(new byte[]{1}, write(ColumnType.UINT8, "true"));
+        assertArrayEquals(new byte[]{0}, write(ColumnType.UINT8, "FALSE"));
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.UINT8, "256"));
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.UINT16, "65536"));
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.UINT32, "-1"));
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.UINT64, "12a"));
+        assertEquals(4, write(ColumnType.UINT32, "4294967295").length);
+    }
+
+    @Test
+    void rejectsNegativeAndNonFiniteFloats() {
+        assertEquals(4, write(ColumnType.FLOAT32, "4.5").length);
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.FLOAT32, "-0.5"));
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.FLOAT32, "NaN"));
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.FLOAT32, "abc"));
+    }
+
+    @Test
+    void parsesDateTimeFormats() {
+        assertEquals(1_700_000_000L, ColumnType.parseEpochSeconds("1700000000"));
+        assertEquals(1_700_000_000L, ColumnType.parseEpochSeconds("2023-11-14T22:13:20Z"));
+        assertEquals(1_700_000_000L, ColumnType.parseEpochSeconds("2023-11-15T01:13:20+03:00"));
+
+        // Без зоны — в зоне сервера, ручной разбор совпадает с LocalDateTime
+        LocalDateTime local = LocalDateTime.of(2024, 2, 29, 13, 45, 7);
+        long expected = local.atZone(ZoneId.systemDefault()).toEpochSecond();
+        assertEquals(expected, ColumnType.parseEpochSeconds("2024-02-29 13:45:07"));
+        assertEquals(expected, ColumnType.parseEpochSeconds("2024-02-29T13:45:07"));
+
+        assertThrows(IllegalArgumentException.class, () -> ColumnType.parseEpochSeconds("2024-02-30 00:00:00"));
+        assertThrows(IllegalArgumentException.class, () -> ColumnType.parseEpochSeconds("yesterday"));
+        assertThrows(IllegalArgumentException.class, () -> ColumnType.parseEpochSeconds("99999999999"));
+    }
+
+    @Test
+    void rejectsMalformedUuid() {
+        assertEquals(16, write(ColumnType.UUID_TYPE, "01020304-0506-0708-090a-0b0c0d0e0f10").length);
+        assertThrows(IllegalArgumentException.class, () -> write(ColumnType.UUID_TYPE, "not-a-uuid"));
+    }
+
+    private static byte[] write(ColumnType type, String value) {
+        RowBinaryBuffer out = new RowBinaryBuffer(16);
+        type.write(value, out);
+        return Arrays.copyOf(out.array(), out.size());
+    }
+}
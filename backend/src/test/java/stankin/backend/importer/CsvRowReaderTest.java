@@ -0,0 +1,100 @@
+package stankin.backend.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvRowReaderTest {
+
+    // Колонки SCREENSHOTS: id, app_id, url, order_index, created_at
+    private static final int COLUMNS = ImportTarget.SCREENSHOTS.columns().size();
+
+    @Test
+    void mapsHeaderToColumnsAndSkipsUnknownFields() throws IOException {
+        RowReader reader = open("\uFEFFurl,extra,app_id,id\r\nhttp://a,x,7,1\r\n\r\nhttp://b,y,8,2\r\n");
+        assertEquals(List.of("extra"), reader.ignoredFields());
+        String[] values = new String[COLUMNS];
+        assertTrue(reader.next(values));
+        assertArrayEquals(new String[]{"1", "7", "http://a", null, null}, values);
+        assertEquals(2, reader.line());
+        assertTrue(reader.next(values));
+        assertArrayEquals(new String[]{"2", "8", "http://b", null, null}, values);
+        assertEquals(4, reader.line());
+        assertFalse(reader.next(values));
+    }
+
+    @Test
+    void quotedFieldsKeepCommasQuotesAndNewlines() throws IOException {
+        String csv = "id,app_id,url\n"
+                + "1,7,\"http://a/?q=1,2\"\n"
+                + "2,7,\"line one\nline \"\"two\"\"\r\nline three\"\n"
+                + "3,7,last";
+        assertQuotedRows(open(csv));
+        // То же при чтении по одному символу: поля переходят через границы буфера
+        assertQuotedRows(new CsvRowReader(new TrickleReader(csv), ImportTarget.SCREENSHOTS));
+    }
+
+    @Test
+    void reportsBadRowsAndContinues() throws IOException {
+        RowReader reader = open("id,app_id,url\n1,7\n2,7,ok\n");
+        String[] values = new String[COLUMNS];
+        assertThrows(IllegalArgumentException.class, () -> reader.next(values));
+        assertTrue(reader.next(values));
+        assertEquals("2", values[0]);
+    }
+
+    @Test
+    void rejectsBadHeadersAndUnterminatedQuotes() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> open(""));
+        assertThrows(IllegalArgumentException.class, () -> open("id,url\n"));
+        assertThrows(IllegalArgumentException.class, () -> open("id,id,app_id,url\n"));
+        RowReader reader = open("id,app_id,url\n1,7,\"open");
+        assertThrows(IllegalArgumentException.class, () -> reader.next(new String[COLUMNS]));
+    }
+
+    private static void assertQuotedRows(RowReader reader) throws IOException {
+        String[] values = new String[COLUMNS];
+        assertTrue(reader.next(values));
+        assertEquals("http://a/?q=1,2", values[2]);
+        assertTrue(reader.next(values));
+        assertEquals("line one\nline \"two\"\r\nline three", values[2]);
+        assertEquals(3, reader.line());
+        assertTrue(reader.next(values));
+        assertEquals("last", values[2]);
+        // Запись после поля с двумя переводами строки начинается на строке 6
+        assertEquals(6, reader.line());
+        assertFalse(reader.next(values));
+    }
+
+    private static RowReader open(String csv) throws IOException {
+        return new CsvRowReader(new StringReader(csv), ImportTarget.SCREENSHOTS);
+    }
+
+    private static final class TrickleReader extends Reader {
+
+        private final StringReader in;
+
+        TrickleReader(String text) {
+            this.in = new StringReader(text);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return in.read(buffer, offset, Math.min(1, length));
+        }
+
+        @Override
+        public void close() {
+            in.close();
+        }
+    }
+}
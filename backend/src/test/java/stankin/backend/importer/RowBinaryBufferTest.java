@@ -0,0 +1,87 @@
+package stankin.backend.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RowBinaryBufferTest {
+
+    @Test
+    void writesIntegersLittleEndian() {
+        RowBinaryBuffer out = new RowBinaryBuffer(1);
+        out.writeUInt8(0xAB);
+        out.writeUInt16(0x1234);
+        out.writeUInt32(0xDEADBEEFL);
+        out.writeUInt64(0x0102030405060708L);
+        assertArrayEquals(bytes(0xAB,
+                0x34, 0x12,
+                0xEF, 0xBE, 0xAD, 0xDE,
+                0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01), written(out));
+    }
+
+    @Test
+    void writesFloatAsIeeeBitsLittleEndian() {
+        RowBinaryBuffer out = new RowBinaryBuffer(4);
+        out.writeFloat32(1.5f);
+        // 1.5f = 0x3FC00000
+        assertArrayEquals(bytes(0x00, 0x00, 0xC0, 0x3F), written(out));
+    }
+
+    @Test
+    void prefixesStringsWithLeb128Length() {
+        assertArrayEquals(bytes(0x00), string(""));
+        assertArrayEquals(bytes(0x7F), Arrays.copyOf(string("x".repeat(127)), 1));
+        assertArrayEquals(bytes(0x80, 0x01), Arrays.copyOf(string("x".repeat(128)), 2));
+        assertArrayEquals(bytes(0xAC, 0x02), Arrays.copyOf(string("x".repeat(300)), 2));
+        assertArrayEquals(bytes(0x80, 0x80, 0x01), Arrays.copyOf(string("x".repeat(16_384)), 3));
+
+        // Длина в байтах UTF-8, а не в символах
+        byte[] cyrillic = string("ёж");
+        assertEquals(4, cyrillic[0]);
+        assertArrayEquals("ёж".getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(cyrillic, 1, cyrillic.length));
+    }
+
+    @Test
+    void writesUuidAsHighThenLowHalfEachLittleEndian() {
+        UUID uuid = UUID.fromString("01020304-0506-0708-090a-0b0c0d0e0f10");
+        RowBinaryBuffer out = new RowBinaryBuffer(16);
+        out.writeUuid(uuid);
+        assertArrayEquals(bytes(0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01,
+                0x10, 0x0F, 0x0E, 0x0D, 0x0C, 0x0B, 0x0A, 0x09), written(out));
+    }
+
+    @Test
+    void appendsAndResets() {
+        RowBinaryBuffer row = new RowBinaryBuffer(2);
+        row.writeUInt16(7);
+        RowBinaryBuffer batch = new RowBinaryBuffer(1);
+        batch.append(row);
+        batch.append(row);
+        assertArrayEquals(bytes(7, 0, 7, 0), written(batch));
+        batch.reset();
+        assertEquals(0, batch.size());
+    }
+
+    private static byte[] string(String value) {
+        RowBinaryBuffer out = new RowBinaryBuffer(1);
+        out.writeString(value);
+        return written(out);
+    }
+
+    private static byte[] written(RowBinaryBuffer out) {
+        return Arrays.copyOf(out.array(), out.size());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package stankin.backend.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpoolJournalTest {
+
+    private static final int SEGMENT_BYTES = 256;
+    private static final int HEADER_BYTES = 9;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsRecordsBackInOrderAcrossSegments() throws IOException {
+        SpoolJournal journal = open();
+        for (int i = 0; i < 40; i++) {
+            journal.append(SpoolRecords.ACTIVITY, payload(i));
+        }
+        List<SpoolJournal.Entry> entries = journal.read(0, 100);
+        assertEquals(40, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertArrayEquals(payload(i), entries.get(i).payload());
+            assertEquals(SpoolRecords.ACTIVITY, entries.get(i).type());
+        }
+        assertTrue(segmentFiles().size() > 1, "records should span several segments");
+        journal.close();
+    }
+
+    @Test
+    void writesLengthCrcTypeAndPayload() throws IOException {
+        SpoolJournal journal = open();
+        journal.append(SpoolRecords.REVIEW, payload(7));
+        journal.close();
+
+        ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(segmentFiles().get(0)));
+        byte[] expected = payload(7);
+        assertEquals(expected.length + 1, record.getInt(0));
+        assertEquals((int) crc(SpoolRecords.REVIEW, expected), record.getInt(4));
+        assertEquals(SpoolRecords.REVIEW, record.get(8));
+        byte[] stored = new byte[expected.length];
+        record.get(HEADER_BYTES, stored);
+        assertArrayEquals(expected, stored);
+    }
+
+    @Test
+    void recordWithoutLengthIsEndOfJournal() throws IOException {
+        SpoolJournal journal = open();
+        journal.append(SpoolRecords.ACTIVITY, payload(1));
+        journal.close();
+
+        // Запись оборвалась до длины: CRC, тип и данные на месте, длина ещё нулевая
+        byte[] torn = payload(2);
+        int position = HEADER_BYTES + payload(1).length;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + torn.length)
+                .putInt(0).putInt((int) crc(SpoolRecords.ACTIVITY, torn)).put(SpoolRecords.ACTIVITY).put(torn);
+        write(segmentFiles().get(0), position, header.array());
+
+        SpoolJournal reopened = open();
+        List<SpoolJournal.Entry> entries = reopened.read(0, 10);
+        assertEquals(1, entries.size());
+        assertArrayEquals(payload(1), entries.get(0).payload());
+        reopened.close();
+    }
+
+    @Test
+    void corruptedTailIsCutAndOverwritten() throws IOException {
+        SpoolJournal journal = open();
+        journal.append(SpoolRecords.ACTIVITY, payload(1));
+        journal.append(SpoolRecords.ACTIVITY, payload(2));
+        journal.close();
+
+        // Байт данных второй записи испорчен: CRC не сходится
+        int second = HEADER_BYTES + payload(1).length;
+        write(segmentFiles().get(0), second + HEADER_BYTES, new byte[]{(byte) 0xFF});
+
+        SpoolJournal reopened = open();
+        assertEquals(1, reopened.read(0, 10).size());
+        reopened.append(SpoolRecords.ACTIVITY, payload(3));
+        List<SpoolJournal.Entry> entries = reopened.read(0, 10);
+        assertEquals(2, entries.size());
+        assertArrayEquals(payload(3), entries.get(1).payload());
+        reopened.close();
+
+        SpoolJournal again = open();
+        assertEquals(2, again.read(0, 10).size());
+        again.close();
+    }
+
+    @Test
+    void lengthPastSegmentEndIsTornTail() throws IOException {
+        SpoolJournal journal = open();
+        journal.append(SpoolRecords.ACTIVITY, payload(1));
+        journal.close();
+
+        int position = HEADER_BYTES + payload(1).length;
+        write(segmentFiles().get(0), position, ByteBuffer.allocate(4).putInt(SEGMENT_BYTES).array());
+
+        SpoolJournal reopened = open();
+        assertEquals(1, reopened.read(0, 10).size());
+        reopened.close();
+    }
+
+    @Test
+    void commitSurvivesReopenAndDropsDeliveredSegments() throws IOException {
+        SpoolJournal journal = open();
+        for (int i = 0; i < 40; i++) {
+            journal.append(SpoolRecords.ACTIVITY, payload(i));
+        }
+        List<SpoolJournal.Entry> entries = journal.read(0, 100);
+        int segmentsBefore = segmentFiles().size();
+        journal.commit(entries.get(29).nextOffset());
+        assertTrue(segmentFiles().size() < segmentsBefore);
+        journal.close();
+
+        SpoolJournal reopened = open();
+        assertTrue(reopened.hasPending());
+        int[] pending = {0};
+        assertEquals(10, reopened.forEachPending(SpoolRecords.ACTIVITY, payload -> pending[0]++));
+        assertEquals(10, pending[0]);
+        reopened.commit(entries.get(39).nextOffset());
+        assertFalse(reopened.hasPending());
+        reopened.close();
+    }
+
+    private SpoolJournal open() throws IOException {
+        SpoolJournal journal = new SpoolJournal(new SimpleMeterRegistry(), dir.toString(), SEGMENT_BYTES, false);
+        journal.open();
+        return journal;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private static byte[] payload(int i) {
+        return ("event-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long crc(byte type, byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    private static void write(Path file, int position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+}
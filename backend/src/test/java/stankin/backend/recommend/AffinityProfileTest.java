@@ -0,0 +1,161 @@
+package stankin.backend.recommend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AffinityProfileTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    // Полураспад в неделю
+    private static final double DECAY = Math.log(2) / (7 * DAY);
+    private static final AffinityProfile.Limits LIMITS = new AffinityProfile.Limits(3, 2, 4);
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void sharesSumToOnePerDimension() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, "Yandex", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        profile.add(2, 10, "Yandex", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        profile.add(3, 20, "VK", PriceTier.LOW, 2f, NOW, DECAY, LIMITS);
+
+        UserAffinity affinity = profile.view(NOW, DECAY);
+        assertEquals(0.5f, affinity.category(10), 1e-6f);
+        assertEquals(0.5f, affinity.category(20), 1e-6f);
+        assertEquals(0.5f, affinity.developer("VK"), 1e-6f);
+        assertEquals(0.5f, affinity.priceTier(PriceTier.LOW), 1e-6f);
+        assertEquals(4f, affinity.activity(), 1e-5f);
+        assertEquals(3, profile.events());
+    }
+
+    @Test
+    void olderEventsDecay() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, "Yandex", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        profile.add(2, 20, "VK", PriceTier.FREE, 1f, NOW + 7 * DAY, DECAY, LIMITS);
+
+        UserAffinity affinity = profile.view(NOW + 7 * DAY, DECAY);
+        // Событие недельной давности весит вдвое меньше свежего
+        assertEquals(2f / 3f, affinity.category(20), 1e-5f);
+        assertEquals(1.5f, affinity.activity(), 1e-4f);
+        assertArrayEquals(new int[]{20, 10}, affinity.topCategories(2));
+        assertEquals(0.75f, profile.view(NOW + 14 * DAY, DECAY).activity(), 1e-4f);
+    }
+
+    @Test
+    void rescaleKeepsShares() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, null, PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        // Через год показатель далеко за порогом пересчёта
+        long later = NOW + 365 * DAY;
+        profile.add(2, 20, null, PriceTier.FREE, 1f, later, DECAY, LIMITS);
+
+        UserAffinity affinity = profile.view(later, DECAY);
+        assertEquals(1f, affinity.category(20), 1e-4f);
+        assertEquals(1f, affinity.activity(), 1e-4f);
+        assertTrue(Float.isFinite(affinity.category(10)));
+    }
+
+    @Test
+    void weakestEntryIsEvictedAtLimit() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, "A", PriceTier.FREE, 3f, NOW, DECAY, LIMITS);
+        profile.add(2, 20, "B", PriceTier.FREE, 2f, NOW, DECAY, LIMITS);
+        profile.add(3, 30, "C", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        profile.add(4, 40, "D", PriceTier.FREE, 1.5f, NOW, DECAY, LIMITS);
+
+        UserAffinity affinity = profile.view(NOW, DECAY);
+        assertArrayEquals(new int[]{10, 20, 40}, affinity.topCategories(10));
+        assertEquals(0f, affinity.category(30));
+        assertEquals(List.of("A", "D"), affinity.topDevelopers(10));
+    }
+
+    @Test
+    void recentAppsKeepNewestWithinLimit() {
+        AffinityProfile profile = new AffinityProfile();
+        for (int appId = 1; appId <= 6; appId++) {
+            profile.add(appId, 10, null, PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        }
+        profile.add(5, 10, null, PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+
+        UserAffinity affinity = profile.view(NOW, DECAY);
+        assertFalse(affinity.recentlyUsed(2));
+        for (int appId = 3; appId <= 6; appId++) {
+            assertTrue(affinity.recentlyUsed(appId));
+        }
+    }
+
+    @Test
+    void snapshotRoundTrips() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, "Яндекс", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        profile.add(2, 20, "VK", PriceTier.MEDIUM, 2f, NOW + DAY, DECAY, LIMITS);
+        for (int appId = 3; appId <= 6; appId++) {
+            profile.add(appId, 30, "VK", PriceTier.HIGH, 0.5f, NOW + 2 * DAY, DECAY, LIMITS);
+        }
+
+        AffinityProfile decoded = AffinityProfile.decode(profile.encode(), LIMITS);
+        assertEquals(profile.events(), decoded.events());
+        assertFalse(decoded.dirty);
+        assertSameView(profile.view(NOW + 3 * DAY, DECAY), decoded.view(NOW + 3 * DAY, DECAY));
+        assertArrayEquals(profile.encode(), decoded.encode());
+    }
+
+    @Test
+    void decodeAppliesCurrentLimits() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, "A", PriceTier.FREE, 3f, NOW, DECAY, LIMITS);
+        profile.add(2, 20, "B", PriceTier.FREE, 2f, NOW, DECAY, LIMITS);
+        profile.add(3, 30, "A", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+
+        AffinityProfile.Limits smaller = new AffinityProfile.Limits(1, 1, 1);
+        UserAffinity affinity = AffinityProfile.decode(profile.encode(), smaller).view(NOW, DECAY);
+        assertArrayEquals(new int[]{10}, affinity.topCategories(10));
+        assertEquals(List.of("A"), affinity.topDevelopers(10));
+        assertTrue(affinity.recentlyUsed(3));
+        assertFalse(affinity.recentlyUsed(2));
+    }
+
+    @Test
+    void rejectsUnknownFormatAndTruncatedSnapshot() {
+        AffinityProfile profile = new AffinityProfile();
+        profile.add(1, 10, "A", PriceTier.FREE, 1f, NOW, DECAY, LIMITS);
+        byte[] bytes = profile.encode();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> AffinityProfile.decode(Arrays.copyOf(bytes, bytes.length - 2), LIMITS));
+        bytes[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> AffinityProfile.decode(bytes, LIMITS));
+    }
+
+    @Test
+    void emptyProfileHasEmptyView() {
+        assertSame(UserAffinity.EMPTY, new AffinityProfile().view(NOW, DECAY));
+    }
+
+    private static void assertSameView(UserAffinity expected, UserAffinity actual) {
+        assertArrayEquals(expected.topCategories(10), actual.topCategories(10));
+        assertEquals(expected.topDevelopers(10), actual.topDevelopers(10));
+        for (int categoryId : expected.topCategories(10)) {
+            assertEquals(expected.category(categoryId), actual.category(categoryId), 1e-6f);
+        }
+        for (String developer : expected.topDevelopers(10)) {
+            assertEquals(expected.developer(developer), actual.developer(developer), 1e-6f);
+        }
+        for (PriceTier tier : PriceTier.VALUES) {
+            assertEquals(expected.priceTier(tier), actual.priceTier(tier), 1e-6f);
+        }
+        assertEquals(expected.activity(), actual.activity(), 1e-5f);
+        for (int appId = 1; appId <= 6; appId++) {
+            assertEquals(expected.recentlyUsed(appId), actual.recentlyUsed(appId));
+        }
+    }
+}
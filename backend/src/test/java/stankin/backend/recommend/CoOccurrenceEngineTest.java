@@ -0,0 +1,100 @@
+package stankin.backend.recommend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CoOccurrenceEngineTest {
+
+    private static final float VIEW = 1f;
+    private static final float INSTALL = 2f;
+    private static final int A = 10;
+    private static final int B = 20;
+    private static final int C = 30;
+
+    // Обработчик не запускается: apply и publish вызываются напрямую
+    private final CoOccurrenceEngine engine = new CoOccurrenceEngine(null, new SimpleMeterRegistry(),
+            50, 50, 1000, 1000, 90, 0.9f, 5000, 1000);
+
+    @Test
+    void viewsOfTwoAppsMakeThemNeighbours() {
+        engine.apply(1, A, VIEW);
+        engine.apply(1, B, VIEW);
+        engine.publish();
+        // c(A,B) = 1, n(A) = n(B) = 1
+        assertEquals(1f, score(A, B), 1e-6f);
+        assertEquals(1f, score(B, A), 1e-6f);
+    }
+
+    @Test
+    void repeatedViewDoesNotCountTwice() {
+        engine.apply(1, A, VIEW);
+        engine.apply(1, B, VIEW);
+        engine.apply(1, B, VIEW);
+        engine.apply(1, A, VIEW);
+        engine.publish();
+        assertEquals(1f, score(A, B), 1e-6f);
+    }
+
+    @Test
+    void installAfterViewAddsOnlyTheIncrement() {
+        engine.apply(1, A, VIEW);
+        engine.apply(1, B, VIEW);
+        engine.apply(1, B, INSTALL);
+        engine.publish();
+        // Пара ограничена весом просмотра A: c(A,B) = 1; n(B) выросло до 2
+        assertEquals(1f / (float) Math.sqrt(2), score(A, B), 1e-6f);
+
+        engine.apply(1, A, INSTALL);
+        engine.publish();
+        // Обе установки: c(A,B) = min(2, 2) = 2, n(A) = n(B) = 2
+        assertEquals(1f, score(A, B), 1e-6f);
+    }
+
+    @Test
+    void usersAccumulateAndRankNeighbours() {
+        engine.apply(1, A, VIEW);
+        engine.apply(1, B, VIEW);
+        engine.apply(2, A, INSTALL);
+        engine.apply(2, B, INSTALL);
+        engine.apply(3, A, VIEW);
+        engine.apply(3, C, VIEW);
+        engine.publish();
+        // c(A,B) = 1 + 2 = 3, c(A,C) = 1; n(A) = 4, n(B) = 3, n(C) = 1
+        assertEquals(3f / (float) Math.sqrt(12), score(A, B), 1e-6f);
+        assertEquals(1f / 2f, score(A, C), 1e-6f);
+        assertArrayEquals(new int[]{B, C}, engine.neighbours(A).appIds());
+    }
+
+    @Test
+    void recommendsNeighboursOfRecentAppsExceptKnownAndExcluded() {
+        engine.apply(1, A, VIEW);
+        engine.apply(1, B, VIEW);
+        engine.apply(1, C, VIEW);
+        engine.apply(2, A, VIEW);
+        engine.publish();
+        assertArrayEquals(new int[]{B, C}, sorted(engine.recommend(2, 10, appId -> false)));
+        assertArrayEquals(new int[]{C}, engine.recommend(2, 10, appId -> appId == B));
+        assertEquals(0, engine.recommend(99, 10, appId -> false).length);
+    }
+
+    private float score(int appId, int neighbour) {
+        CoOccurrenceEngine.Neighbours neighbours = engine.neighbours(appId);
+        for (int i = 0; i < neighbours.appIds().length; i++) {
+            if (neighbours.appIds()[i] == neighbour) {
+                return neighbours.scores()[i];
+            }
+        }
+        return 0f;
+    }
+
+    private static int[] sorted(int[] values) {
+        int[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
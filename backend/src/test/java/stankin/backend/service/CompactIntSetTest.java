@@ -0,0 +1,92 @@
+package stankin.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactIntSetTest {
+
+    @Test
+    void addsAndRemovesKeepingOrder() {
+        CompactIntSet set = new CompactIntSet(false);
+        assertTrue(set.add(30, 0));
+        assertTrue(set.add(10, 0));
+        assertTrue(set.add(20, 0));
+        assertFalse(set.add(10, 0));
+        assertEquals(3, set.size());
+        assertArrayEquals(new int[]{10, 20, 30}, set.newestFirst());
+
+        assertTrue(set.remove(20));
+        assertFalse(set.remove(20));
+        assertFalse(set.contains(20));
+        assertTrue(set.contains(10));
+        assertTrue(set.contains(30));
+        assertArrayEquals(new int[]{10, 30}, set.newestFirst());
+    }
+
+    @Test
+    void matchesTreeSetOnRandomOperations() {
+        CompactIntSet set = new CompactIntSet(false);
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(500) - 250;
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(key), set.add(key, i));
+            } else {
+                assertEquals(expected.remove(key), set.remove(key));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.newestFirst());
+    }
+
+    @Test
+    void ordersByVersionNewestFirst() {
+        CompactIntSet set = new CompactIntSet(true);
+        set.add(5, 100);
+        set.add(1, 300);
+        set.add(9, 200);
+        assertArrayEquals(new int[]{1, 9, 5}, set.newestFirst());
+
+        // Повторное добавление освежает версию
+        assertFalse(set.add(5, 400));
+        assertArrayEquals(new int[]{5, 1, 9}, set.newestFirst());
+
+        set.remove(1);
+        assertArrayEquals(new int[]{5, 9}, set.newestFirst());
+    }
+
+    @Test
+    void loadSortsAndDropsDuplicates() {
+        CompactIntSet set = new CompactIntSet(true);
+        set.load(new int[]{7, 3, 7, 1}, new long[]{10, 30, 11, 20}, 4);
+        assertEquals(3, set.size());
+        assertTrue(set.contains(1));
+        assertTrue(set.contains(3));
+        assertTrue(set.contains(7));
+        assertEquals(3, set.newestFirst()[0]);
+
+        set.add(2, 50);
+        assertArrayEquals(new int[]{2, 3, 1, 7}, set.newestFirst());
+    }
+
+    @Test
+    void estimatedBytesGrowsWithCapacity() {
+        CompactIntSet plain = new CompactIntSet(false);
+        CompactIntSet versioned = new CompactIntSet(true);
+        long emptyPlain = plain.estimatedBytes();
+        for (int i = 0; i < 100; i++) {
+            plain.add(i, i);
+            versioned.add(i, i);
+        }
+        assertTrue(plain.estimatedBytes() >= emptyPlain + 4L * 100);
+        assertTrue(versioned.estimatedBytes() >= plain.estimatedBytes() + 8L * 100);
+    }
+}
@@ -0,0 +1,78 @@
+package stankin.backend.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CursorCodecTest {
+
+    private final CursorCodec codec = new CursorCodec("test-secret", 50, 100);
+
+    @Test
+    void roundTripsKeyValues() {
+        long[] key = {1_700_000_000L, -5L, Long.MAX_VALUE};
+        String cursor = codec.encode("apps:NEWEST", key);
+        assertArrayEquals(key, codec.decode("apps:NEWEST", cursor, 3));
+    }
+
+    @Test
+    void missingCursorMeansFirstPage() {
+        assertNull(codec.decode("apps:NEWEST", null, 2));
+        assertNull(codec.decode("apps:NEWEST", " ", 2));
+    }
+
+    @Test
+    void rejectsTamperedBody() {
+        byte[] token = Base64.getUrlDecoder().decode(codec.encode("apps:NEWEST", 100L, 7L));
+        // Последний байт второго значения: 7 → 6
+        token[15] ^= 1;
+        assertBadRequest(() -> codec.decode("apps:NEWEST", Base64.getUrlEncoder().withoutPadding().encodeToString(token), 2));
+    }
+
+    @Test
+    void rejectsTamperedMac() {
+        byte[] token = Base64.getUrlDecoder().decode(codec.encode("apps:NEWEST", 100L, 7L));
+        token[token.length - 1] ^= 0x40;
+        assertBadRequest(() -> codec.decode("apps:NEWEST", Base64.getUrlEncoder().withoutPadding().encodeToString(token), 2));
+    }
+
+    @Test
+    void rejectsCursorFromAnotherScope() {
+        String cursor = codec.encode("reviews:1:NEWEST", 100L, 7L);
+        assertBadRequest(() -> codec.decode("reviews:2:NEWEST", cursor, 2));
+    }
+
+    @Test
+    void rejectsCursorSignedWithAnotherSecret() {
+        String cursor = new CursorCodec("other-secret", 50, 100).encode("apps:NEWEST", 100L, 7L);
+        assertBadRequest(() -> codec.decode("apps:NEWEST", cursor, 2));
+    }
+
+    @Test
+    void rejectsWrongArityAndGarbage() {
+        String cursor = codec.encode("apps:NEWEST", 100L, 7L);
+        assertBadRequest(() -> codec.decode("apps:NEWEST", cursor, 3));
+        assertBadRequest(() -> codec.decode("apps:NEWEST", "not*base64", 2));
+    }
+
+    @Test
+    void clampsPageSize() {
+        assertEquals(50, codec.pageSize(null));
+        assertEquals(50, codec.pageSize(0));
+        assertEquals(20, codec.pageSize(20));
+        assertEquals(100, codec.pageSize(10_000));
+    }
+
+    private static void assertBadRequest(Executable decode) {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, decode);
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+}
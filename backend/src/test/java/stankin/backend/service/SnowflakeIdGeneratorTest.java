@@ -0,0 +1,107 @@
+package stankin.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long START = SnowflakeIdGenerator.EPOCH_MILLIS + 1_000_000L;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong(START);
+
+    @Test
+    void staysMonotonicWhenClockGoesBack() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, meterRegistry, clock::get);
+        long previous = generator.nextId();
+        clock.set(START - 5_000);
+        for (int i = 0; i < 100; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous, "id must grow after clock rollback");
+            previous = id;
+        }
+        // Логическое время не откатывается вслед за часами
+        assertEquals(START, SnowflakeIdGenerator.timestampMillis(previous));
+        assertTrue(meterRegistry.counter("ids.clock.rollback").count() > 0);
+
+        clock.set(START + 10);
+        long resumed = generator.nextId();
+        assertTrue(resumed > previous);
+        assertEquals(START + 10, SnowflakeIdGenerator.timestampMillis(resumed));
+    }
+
+    @Test
+    void sequenceOverflowBorrowsNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0, meterRegistry, clock::get);
+        long previous = -1;
+        for (int i = 0; i < 3 * 4096; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        // 4096 значений счётчика на миллисекунду: три полных слота при неподвижных часах
+        assertEquals(START + 2, SnowflakeIdGenerator.timestampMillis(previous));
+        assertEquals(4095, previous & 0xFFF);
+    }
+
+    @Test
+    void encodesNodeId() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1023, meterRegistry, clock::get);
+        long id = generator.nextId();
+        assertEquals(1023, (id >>> 12) & 0x3FF);
+        assertEquals(START, SnowflakeIdGenerator.timestampMillis(id));
+        UUID uuid = generator.nextUuid();
+        assertEquals(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    @Test
+    void rejectsNodeIdOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(1024, meterRegistry));
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(-1, meterRegistry));
+    }
+
+    @Test
+    void concurrentCallersGetDistinctIds() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5, meterRegistry);
+        int threads = 8;
+        int perThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> seen = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertTrue(seen.add(ids[i]), "duplicate id " + ids[i]);
+                    assertTrue(i == 0 || ids[i] > ids[i - 1], "ids of one thread must grow");
+                }
+            }
+            assertEquals(threads * perThread, seen.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -9,7 +9,7 @@ const SearchBar = ({ onClose }) => {
   const [query, setQuery] = useState('');
   const [results, setResults] = useState([]);
   const [loading, setLoading] = useState(false);
-  const debouncedQuery = useDebounce(query, 300);
+  const debouncedQuery = useDebounce(query, 150);
   const navigate = useNavigate();
 
   useEffect(() => {
@@ -23,18 +23,8 @@ const SearchBar = ({ onClose }) => {
   const searchApps = async (searchQuery) => {
     setLoading(true);
     try {
-      const response = await fetch('http://127.0.0.1:8000/search', {
-        method: 'POST',
-        headers: {
-          'Content-Type': 'application/json',
-        },
-        body: JSON.stringify({
-          query: searchQuery,
-          top_k: 10,
-        }),
-      });
-      const data = await response.json();
-      setResults(data.results || []);
+      const response = await appsAPI.suggest(searchQuery);
+      setResults(response.data || []);
     } catch (error) {
       console.error('Search error:', error);
       setResults([]);
@@ -83,11 +73,11 @@ const SearchBar = ({ onClose }) => {
         <div className="search-results">
           {results.map((app) => (
             <div
-              key={app.app_id}
+              key={app.appId}
               className="search-result-item"
-              onClick={() => handleAppClick(app.app_id)}
+              onClick={() => handleAppClick(app.appId)}
             >
-              <img src={app.icon_url} alt={app.name} className="result-icon" />
+              <img src={app.iconUrl} alt={app.name} className="result-icon" />
               <div className="result-info">
                 <h4>{app.name}</h4>
                 <p>{app.developer}</p>
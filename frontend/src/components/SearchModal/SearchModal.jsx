@@ -2,6 +2,7 @@ import React, { useState, useEffect, useRef } from 'react';
 import { useNavigate } from 'react-router-dom';
 import { motion, AnimatePresence } from 'framer-motion';
 import { FiSearch, FiX, FiTrendingUp } from 'react-icons/fi';
+import { appsAPI } from '../../services/api';
 import './SearchModal.css';
 
 const SearchModal = ({ onClose }) => {
@@ -42,13 +43,12 @@ const SearchModal = ({ onClose }) => {
   const performSearch = async (searchQuery) => {
     setLoading(true);
     try {
-      const response = await fetch(
-        `http://localhost:8080/api/apps/search?query=${encodeURIComponent(searchQuery)}&limit=5`
-      );
-      const data = await response.json();
-      setResults(data);
+      // Подсказки по префиксу из in-memory индекса, полный поиск — на странице /search
+      const response = await appsAPI.suggest(searchQuery, 5);
+      setResults(response.data || []);
     } catch (error) {
       console.error('Search error:', error);
+      setResults([]);
     } finally {
       setLoading(false);
     }
@@ -68,7 +68,7 @@ const SearchModal = ({ onClose }) => {
   };
 
   const handleResultClick = (app) => {
-    navigate(`/app/${app.id}`);
+    navigate(`/app/${app.appId}`);
     onClose();
   };
 
@@ -119,17 +119,17 @@ const SearchModal = ({ onClose }) => {
             <div className="search-results">
               {results.map((app) => (
                 <div
-                  key={app.id}
+                  key={app.appId}
                   className="search-result-item"
                   onClick={() => handleResultClick(app)}
                 >
                   <img src={app.iconUrl} alt={app.name} className="result-icon" />
                   <div className="result-info">
                     <h4>{app.name}</h4>
-                    <p>{app.category}</p>
+                    <p>{app.developer}</p>
                   </div>
                   <div className="result-rating">
-                    ⭐ {app.rating.toFixed(1)}
+                    {app.category}
                   </div>
                 </div>
               ))}
@@ -5,13 +5,15 @@ import { FiGrid } from 'react-icons/fi';
 import CategoryCard from '../../components/CategoryCard/CategoryCard';
 import AppCard from '../../components/AppCard/AppCard';
 import SkeletonLoader from '../../components/SkeletonLoader/SkeletonLoader';
-import { categoriesAPI, appsAPI } from '../../services/api';
+import { categoriesAPI, appsAPI, nextCursor } from '../../services/api';
 import './Categories.css';
 
 const Categories = () => {
   const [categories, setCategories] = useState([]);
   const [selectedCategory, setSelectedCategory] = useState(null);
   const [apps, setApps] = useState([]);
+  const [appsCursor, setAppsCursor] = useState(null);
+  const [loadingMore, setLoadingMore] = useState(false);
   const [loading, setLoading] = useState(true);
   const [filterType, setFilterType] = useState('all'); // all, app, game
   const navigate = useNavigate();
@@ -61,14 +63,32 @@ const Categories = () => {
       const data = Array.isArray(response.data) ? response.data : [];
       console.log('Apps loaded for category', categoryId, ':', data);
       setApps(data);
+      setAppsCursor(nextCursor(response));
     } catch (error) {
       console.error('Error loading apps for category', categoryId, ':', error);
       setApps([]);
+      setAppsCursor(null);
     } finally {
       setLoading(false);
     }
   };
 
+  // Следующая страница категории по курсору из X-Next-Cursor
+  const loadMoreApps = async () => {
+    if (!selectedCategory || !appsCursor || loadingMore) return;
+    setLoadingMore(true);
+    try {
+      const response = await appsAPI.getByCategory(selectedCategory.id, appsCursor);
+      const data = Array.isArray(response.data) ? response.data : [];
+      setApps((prev) => [...prev, ...data]);
+      setAppsCursor(nextCursor(response));
+    } catch (error) {
+      console.error('Error loading more apps for category', selectedCategory.id, ':', error);
+    } finally {
+      setLoadingMore(false);
+    }
+  };
+
   const handleCategoryClick = (category) => {
     setSelectedCategory(category);
     window.scrollTo({ top: 0, behavior: 'smooth' });
@@ -77,6 +97,7 @@ const Categories = () => {
   const handleBackToCategories = () => {
     setSelectedCategory(null);
     setApps([]);
+    setAppsCursor(null);
   };
 
   const filteredCategories = categories.filter((cat) => {
@@ -193,6 +214,14 @@ const Categories = () => {
               </div>
             )}
           </motion.div>
+
+          {!loading && appsCursor && (
+            <div className="load-more">
+              <button className="load-more-button" onClick={loadMoreApps} disabled={loadingMore}>
+                {loadingMore ? 'Загрузка...' : 'Показать ещё'}
+              </button>
+            </div>
+          )}
         </div>
       )}
     </div>
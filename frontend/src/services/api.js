@@ -24,17 +24,24 @@ api.interceptors.response.use(
   }
 );
 
+// Списки приложений отдаются страницами; курсор следующей страницы — в заголовке X-Next-Cursor
+export const nextCursor = (response) => response.headers?.['x-next-cursor'] || null;
+
 // Apps API
 export const appsAPI = {
-  getAll: () => api.get('/apps'),
+  getAll: (params) => api.get('/apps', { params }),
   getById: (id, userId) => api.get(`/apps/${id}`, { params: { userId } }),
-  getByCategory: (categoryId) => api.get(`/apps/category/${categoryId}`),
-  getFree: () => api.get('/apps/free'),
-  getPaid: () => api.get('/apps/paid'),
+  getBatch: (ids) => api.post('/apps/batch', ids),
+  getByCategory: (categoryId, cursor, params) =>
+    api.get(`/apps/category/${categoryId}`, { params: { ...params, cursor: cursor || undefined } }),
+  getFree: (params) => api.get('/apps/free', { params }),
+  getPaid: (params) => api.get('/apps/paid', { params }),
   getEditorChoice: () => api.get('/apps/editor-choice'),
   getNew: () => api.get('/apps/new'),
   getPopular: () => api.get('/apps/popular'),
-  search: (query) => api.get('/apps/search', { params: { q: query } }),
+  search: (query, params) => api.get('/apps/search', { params: { q: query, ...params } }),
+  filter: (params) => api.get('/apps/filter', { params, paramsSerializer: { indexes: null } }),
+  suggest: (prefix, limit = 8) => api.get('/apps/suggest', { params: { prefix, limit } }),
   getRecommendations: (userId, limit = 10) => 
     api.get('/apps/recommendations', { params: { userId, limit } }),
   trackInstall: (appId, userId) => api.post(`/apps/${appId}/install`, null, { params: { userId } }),
@@ -49,7 +56,8 @@ export const categoriesAPI = {
 
 // Reviews API
 export const reviewsAPI = {
-  getByAppId: (appId, limit = 10) => api.get(`/reviews/app/${appId}`, { params: { limit } }),
+  getByAppId: (appId, limit = 10, params = {}) => api.get(`/reviews/app/${appId}`, { params: { limit, ...params } }),
+  getSummary: (appId) => api.get(`/reviews/app/${appId}/summary`),
   create: (review) => api.post('/reviews', review),
   like: (reviewId) => api.post(`/reviews/${reviewId}/helpful`),
 };
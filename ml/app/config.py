@@ -9,6 +9,8 @@ class Settings(BaseSettings):
     EMBEDDING_MODEL: str = "sentence-transformers/paraphrase-multilingual-MiniLM-L12-v2"
     EMBEDDING_DIM: int = 384
     MAX_SEQ_LENGTH: int = 256
+    # Файл эмбеддингов для backend (embeddings.file); пусто — не выгружать
+    EMBEDDINGS_EXPORT_PATH: str = ""
     
     # Search Configuration
     SEMANTIC_WEIGHT: float = 0.6
@@ -17,6 +17,7 @@ from app.models.schemas import (
 from app.services.hybrid_search import hybrid_search_service
 from app.services.recommendation_graph import recommendation_graph_service
 from app.services.recommendation_service import recommendation_service
+from app.services.embedding_export import export_embeddings
 
 # Setup logging
 logging.basicConfig(
@@ -33,6 +34,31 @@ class RecommendationWebRequest(BaseModel):
     max_depth: int = 2
     max_recommendations: int = 30
 
+# Backend caps pages at pagination.max-page-size
+CATALOG_PAGE_SIZE = 100
+
+def export_for_backend(documents, embeddings):
+    """Write embeddings for the backend's in-process similarity search, if configured"""
+    if not settings.EMBEDDINGS_EXPORT_PATH:
+        return
+    try:
+        export_embeddings(settings.EMBEDDINGS_EXPORT_PATH, documents, embeddings)
+    except Exception as e:
+        logger.error(f"Embedding export failed: {str(e)}")
+
+async def fetch_all_apps(client: httpx.AsyncClient) -> list:
+    """Fetch the whole catalog from the backend, following X-Next-Cursor page by page"""
+    apps = []
+    params = {"limit": CATALOG_PAGE_SIZE}
+    while True:
+        response = await client.get(f"{settings.BACKEND_API_URL}/apps", params=params)
+        response.raise_for_status()
+        apps.extend(response.json())
+        cursor = response.headers.get("X-Next-Cursor")
+        if not cursor:
+            return apps
+        params = {"limit": CATALOG_PAGE_SIZE, "cursor": cursor}
+
 # DEFINE LIFESPAN FIRST (BEFORE APP CREATION)
 @asynccontextmanager
 async def lifespan(app: FastAPI):
@@ -41,8 +67,7 @@ async def lifespan(app: FastAPI):
     
     try:
         async with httpx.AsyncClient(timeout=30.0) as client:
-            response = await client.get(f"{settings.BACKEND_API_URL}/apps")
-            apps = response.json()
+            apps = await fetch_all_apps(client)
         
         logger.info(f"Fetched {len(apps)} apps from backend")
         
@@ -56,6 +81,8 @@ async def lifespan(app: FastAPI):
             hybrid_search_service.documents
         )
         
+        export_for_backend(hybrid_search_service.documents, embeddings)
+
         # Initialize recommendation graph
         recommendation_graph_service.initialize(
             hybrid_search_service.documents,
@@ -227,13 +254,13 @@ async def reindex(background_tasks: BackgroundTasks):
         try:
             logger.info("Starting reindexing...")
             async with httpx.AsyncClient(timeout=30.0) as client:
-                response = await client.get(f"{settings.BACKEND_API_URL}/apps")
-                apps = response.json()
+                apps = await fetch_all_apps(client)
             
             hybrid_search_service.initialize(apps)
             
             from app.services.embedding_service import embedding_service
             embeddings = embedding_service.encode_documents(hybrid_search_service.documents)
+            export_for_backend(hybrid_search_service.documents, embeddings)
             recommendation_graph_service.initialize(hybrid_search_service.documents, embeddings)
             recommendation_service.initialize(hybrid_search_service.documents, embeddings)
             
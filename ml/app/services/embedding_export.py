@@ -0,0 +1,44 @@
+import logging
+import os
+import struct
+from typing import Dict, List
+
+import numpy as np
+
+logger = logging.getLogger(__name__)
+
+# Формат читает backend (stankin.backend.embedding.EmbeddingFile), little-endian:
+# магия, int32 dim, int32 count, int32 id[count] по возрастанию, float32 vector[count][dim] с L2-нормой 1
+MAGIC = b"RSEMB001"
+
+
+def export_embeddings(path: str, documents: List[Dict], embeddings: np.ndarray) -> int:
+    """
+    Write app embeddings to a compact float32 file for the backend to memory-map.
+    The file is replaced atomically, so the backend never sees a partial write.
+    Returns the number of exported vectors.
+    """
+    ids = np.array([int(doc['id']) for doc in documents], dtype='<i4')
+    vectors = np.asarray(embeddings, dtype='<f4')
+    norms = np.linalg.norm(vectors, axis=1, keepdims=True)
+    norms[norms == 0] = 1.0
+    vectors = vectors / norms
+
+    # Id по возрастанию без повторов (при дублях остаётся последний)
+    order = np.argsort(ids, kind='stable')
+    ids, vectors = ids[order], vectors[order]
+    keep = np.append(ids[1:] != ids[:-1], True) if len(ids) else np.array([], dtype=bool)
+    ids, vectors = ids[keep], np.ascontiguousarray(vectors[keep], dtype='<f4')
+
+    directory = os.path.dirname(os.path.abspath(path))
+    os.makedirs(directory, exist_ok=True)
+    tmp_path = f"{path}.tmp"
+    with open(tmp_path, 'wb') as f:
+        f.write(MAGIC)
+        f.write(struct.pack('<ii', vectors.shape[1] if vectors.ndim == 2 else 0, len(ids)))
+        f.write(ids.tobytes())
+        f.write(vectors.tobytes())
+    os.replace(tmp_path, path)
+
+    logger.info(f"Exported {len(ids)} embeddings to {path}")
+    return len(ids)